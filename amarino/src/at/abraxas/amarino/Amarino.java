@@ -18,10 +18,10 @@
 */
 package at.abraxas.amarino;
 
-import java.util.regex.Pattern;
-
 import android.content.Context;
 import android.content.Intent;
+import android.os.Bundle;
+import at.abraxas.amarino.core.MacAddress;
 
 /**
  * This class is part of the Amarino Library and bundles some very useful methods to communicate
@@ -644,19 +644,41 @@ public class Amarino {
 		context.sendBroadcast(intent);
 	}
 	
+	/**
+	 * Used by plug-in developers to send data of several plug-ins at once, e.g.
+	 * samples of different sensors taken at about the same time. Messages for
+	 * the same device are written to it in one go instead of one after the other.
+	 * 
+	 * <p>This method can only be used within a plugin!</p>
+	 * 
+	 * @param context the context
+	 * @param messages one bundle per message, each with
+	 * {@link AmarinoIntent#EXTRA_PLUGIN_ID}, {@link AmarinoIntent#EXTRA_DATA_TYPE}
+	 * and {@link AmarinoIntent#EXTRA_DATA} set
+	 */
+	public static void sendDataFromPlugins(Context context, Bundle[] messages){
+		if (messages.length == 0) return;
+		Intent intent = new Intent(AmarinoIntent.ACTION_SEND);
+		if (messages.length == 1)
+			// nothing to combine, a plain plug-in message
+			intent.putExtras(messages[0]);
+		else
+			intent.putExtra(AmarinoIntent.EXTRA_FRAME, messages);
+		context.sendBroadcast(intent);
+	}
+	
 	
 	/**
 	 * Convenient method to check if a given Bluetooth address is in proper format.
 	 * 
-	 * <p>A correct Bluetooth address has 17 charaters and the following format: xx:xx:xx:xx:xx:xx</p>
+	 * <p>A correct Bluetooth address has 17 charaters and the following format: xx:xx:xx:xx:xx:xx,
+	 * each x a hex digit in upper or lower case.</p>
 	 * 
 	 * @param address the address to prove
 	 * @return true if the address is in proper format, otherwise false
 	 */
 	public static boolean isCorrectAddressFormat(String address){
-		if (address.length() != 17) return false;
-		// TODO use regular expression to check format needs more specific regex
-		return Pattern.matches("[[A-F][0-9][:]]+", address.toUpperCase());
+		return MacAddress.isValid(address);
 	}
 	
 	
@@ -668,7 +690,7 @@ public class Amarino {
 		return intent;
 	}
 
-	private static Intent getSendIntent(String address, int dataType, char flag){
+	static Intent getSendIntent(String address, int dataType, char flag){
 		Intent intent = new Intent(AmarinoIntent.ACTION_SEND);
 		intent.putExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS, address);
 		intent.putExtra(AmarinoIntent.EXTRA_DATA_TYPE, dataType);
@@ -50,10 +50,14 @@ public class AmarinoDbAdapter {
 	public static final String KEY_EVENT_SERVICE_CLASS_NAME = "service_class";
 	public static final String KEY_EVENT_PLUGIN_ID = "plugin_id";
 	public static final String KEY_EVENT_DEVICE_ID = "device_id";
+	public static final String KEY_EVENT_CHANGE_ONLY = "change_only";
+	public static final String KEY_EVENT_DEADBAND = "deadband";
+	public static final String KEY_EVENT_DEADBAND_RELATIVE = "deadband_rel";
+	public static final String KEY_EVENT_MAX_SILENCE = "max_silence";
 	
 	private static final boolean DEBUG = true;
 	private static final String TAG = "AmarinoDbAdapter";
-	private static final int DATABASE_VERSION = 2;
+	private static final int DATABASE_VERSION = 3;
 	
 	private static final String DATABASE_NAME = "amarino_2.db";
 	private static final String DEVICE_TABLE_NAME = "devices_tbl";
@@ -93,13 +97,26 @@ public class AmarinoDbAdapter {
                     + KEY_EVENT_EDIT_CLASS_NAME  + " TEXT NOT NULL,"
                     + KEY_EVENT_SERVICE_CLASS_NAME  + " TEXT NOT NULL,"
                     + KEY_EVENT_PLUGIN_ID  + " INTEGER NOT NULL,"
-                    + KEY_EVENT_DEVICE_ID  + " INTEGER REFERENCES " + DEVICE_TABLE_NAME + "(_id) "
+                    + KEY_EVENT_DEVICE_ID  + " INTEGER REFERENCES " + DEVICE_TABLE_NAME + "(_id),"
+                    + KEY_EVENT_CHANGE_ONLY  + " INTEGER DEFAULT 0,"
+                    + KEY_EVENT_DEADBAND  + " NUMBER DEFAULT 0,"
+                    + KEY_EVENT_DEADBAND_RELATIVE  + " NUMBER DEFAULT 0,"
+                    + KEY_EVENT_MAX_SILENCE  + " INTEGER DEFAULT 0"
                     + ");");
         	
         }
         
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        	if (oldVersion == 2){
+        		// version 3 only added the filter columns, keep the devices and events
+        		Log.d(TAG, "add filter columns to " + EVENT_TABLE_NAME);
+        		db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + KEY_EVENT_CHANGE_ONLY + " INTEGER DEFAULT 0");
+        		db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + KEY_EVENT_DEADBAND + " NUMBER DEFAULT 0");
+        		db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + KEY_EVENT_DEADBAND_RELATIVE + " NUMBER DEFAULT 0");
+        		db.execSQL("ALTER TABLE " + EVENT_TABLE_NAME + " ADD COLUMN " + KEY_EVENT_MAX_SILENCE + " INTEGER DEFAULT 0");
+        		return;
+        	}
             Log.w(TAG, "Upgrading database from version " + oldVersion + " to "
                     + newVersion + ", which will destroy all old data");
             
@@ -237,6 +254,7 @@ public class AmarinoDbAdapter {
         initialValues.put(KEY_EVENT_SERVICE_CLASS_NAME, event.serviceClassName);
         initialValues.put(KEY_EVENT_PLUGIN_ID, event.pluginId);
         initialValues.put(KEY_EVENT_DEVICE_ID, event.deviceId);
+        putFilter(initialValues, event);
 
         return mDb.insert(EVENT_TABLE_NAME, null, initialValues);
     }
@@ -287,6 +305,7 @@ public class AmarinoDbAdapter {
 					serviceClassName, pluginId, deviceId);
 			e.visualizerMinValue = minVal;
 			e.visualizerMaxValue = maxVal;
+			getFilter(c, e);
         }
         
         c.close();
@@ -326,6 +345,7 @@ public class AmarinoDbAdapter {
         				serviceClassName, pluginId, deviceId);
         		e.visualizerMinValue = minVal;
         		e.visualizerMaxValue = maxVal;
+        		getFilter(c, e);
         		
         		events.add(e);
         		if (DEBUG) Logger.d(TAG, "event found: " + e.name + " - id=" + e.pluginId);
@@ -347,10 +367,25 @@ public class AmarinoDbAdapter {
     	values.put(KEY_EVENT_VISUALIZER, event.visualizer);
     	values.put(KEY_EVENT_VISUALIZER_MIN, event.visualizerMinValue);
     	values.put(KEY_EVENT_VISUALIZER_MAX, event.visualizerMaxValue);
+    	putFilter(values, event);
         
     	return mDb.update(EVENT_TABLE_NAME, values, KEY_EVENT_ID + "=" + event.id, null);
     }
     
+    private static void putFilter(ContentValues values, Event event){
+    	values.put(KEY_EVENT_CHANGE_ONLY, event.changeOnly ? 1 : 0);
+    	values.put(KEY_EVENT_DEADBAND, event.deadband);
+    	values.put(KEY_EVENT_DEADBAND_RELATIVE, event.deadbandRelative);
+    	values.put(KEY_EVENT_MAX_SILENCE, event.maxSilence);
+    }
+    
+    private static void getFilter(Cursor c, Event e){
+    	e.changeOnly = c.getInt(c.getColumnIndex(KEY_EVENT_CHANGE_ONLY)) != 0;
+    	e.deadband = c.getFloat(c.getColumnIndex(KEY_EVENT_DEADBAND));
+    	e.deadbandRelative = c.getFloat(c.getColumnIndex(KEY_EVENT_DEADBAND_RELATIVE));
+    	e.maxSilence = c.getInt(c.getColumnIndex(KEY_EVENT_MAX_SILENCE));
+    }
+    
 
 
 }
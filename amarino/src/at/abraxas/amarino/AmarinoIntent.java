@@ -159,10 +159,30 @@ public interface AmarinoIntent {
 	 * EXTRA_DATA_TYPE</li>
 	 * <li><em>{@link #EXTRA_FLAG}</em> - The flag to which the data correspond
 	 * to. If EXTRA_FLAG is not set, 'a' will be used by default.</li>
+	 * <li><em>{@link #EXTRA_PRIORITY}</em> - optional, how urgent the data is.
+	 * If not set, the priority configured for the flag with
+	 * {@link #ACTION_SET_PRIORITY} is used, otherwise {@link #PRIORITY_INTERACTIVE}
+	 * for apps and {@link #PRIORITY_BULK} for plug-ins.</li>
+	 * <li><em>{@link #EXTRA_REQUEST_ID}</em> - optional, set it to get an
+	 * answer from Arduino with {@link #ACTION_RESPONSE}</li>
+	 * <li><em>{@link #EXTRA_TIMEOUT}</em> - optional, how long Arduino has to
+	 * answer a request</li>
+	 * <li><em>{@link #EXTRA_RELIABLE}</em> - optional, send the data on the
+	 * reliable channel. If not set, the setting of the flag made with
+	 * {@link #ACTION_SET_RELIABLE} is used.</li>
+	 * <li><em>{@link #EXTRA_STREAM}</em> - optional, send integer arrays as
+	 * differences to the previous message. If not set, the setting of the flag
+	 * made with {@link #ACTION_SET_STREAM} is used.</li>
+	 * <li><em>{@link #EXTRA_DECIMALS}</em> - optional, send float and double
+	 * values as fixed-point integers with this many decimals. If not set, the
+	 * setting of the flag made with {@link #ACTION_SET_FIXED_POINT} is used.</li>
 	 * </ul>
 	 * 
 	 * <p>
-	 * Apart from <em>{@link #EXTRA_FLAG}</em> all EXTRAS are mandatory,
+	 * Apart from <em>{@link #EXTRA_FLAG}</em>, <em>{@link #EXTRA_PRIORITY}</em>,
+	 * <em>{@link #EXTRA_REQUEST_ID}</em>, <em>{@link #EXTRA_TIMEOUT}</em>,
+	 * <em>{@link #EXTRA_RELIABLE}</em>, <em>{@link #EXTRA_STREAM}</em> and
+	 * <em>{@link #EXTRA_DECIMALS}</em> all EXTRAS are mandatory,
 	 * otherwise <i>Amarino</i> will not forward your data to Arduino.
 	 * </p>
 	 * 
@@ -215,6 +235,24 @@ public interface AmarinoIntent {
 	 */
 	public static final String ACTION_RECEIVED = "amarino.intent.action.RECEIVED";
 
+	/**
+	 * Broadcast Action sent by <i>Amarino</i>: the answer to data sent with
+	 * {@link #EXTRA_REQUEST_ID}. Arduino answers with
+	 * <code>meetAndroid.reply()</code>, several requests can be outstanding at
+	 * the same time. {@link AmarinoRpc} does the bookkeeping for you.
+	 * 
+	 * <p>
+	 * The Intent will have the following EXTRAS:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_DEVICE_ADDRESS}</em></li>
+	 * <li><em>{@link #EXTRA_REQUEST_ID}</em> - the id of the request</li>
+	 * <li><em>{@link #EXTRA_DATA}</em> - String, the answer of Arduino, or</li>
+	 * <li><em>{@link #EXTRA_ERROR}</em> - why there is no answer</li>
+	 * </ul>
+	 */
+	public static final String ACTION_RESPONSE = "amarino.intent.action.RESPONSE";
+
 	/**
 	 * Broadcast Action sent by <i>Amarino</i>: A connection to a device has
 	 * been established
@@ -314,6 +352,156 @@ public interface AmarinoIntent {
 	 */
 	public static final String ACTION_CONNECTED_DEVICES = "amarino.intent.action.ACTION_CONNECTED_DEVICES";
 
+	/**
+	 * Activity Action: Request health information of the connections from
+	 * <i>Amarino</i>
+	 * <p>
+	 * Input: <em>{@link #EXTRA_DEVICE_ADDRESS}</em> - optional, if not set
+	 * information about all connected devices is requested
+	 * </p>
+	 * <p>
+	 * Output: <i>Amarino</i> will broadcast one
+	 * <em>{@link #ACTION_LINK_STATS}</em> for each connected device
+	 * </p>
+	 */
+	public static final String ACTION_GET_LINK_STATS = "amarino.intent.action.ACTION_GET_LINK_STATS";
+
+	/**
+	 * Broadcast Action sent by <i>Amarino</i>: Health information of a single
+	 * connection. Round trip times are measured by a heartbeat Amarino sends
+	 * every second to Arduino boards using MeetAndroid version 11 or newer,
+	 * older versions do not tell their version and get no heartbeats.
+	 * 
+	 * <p>
+	 * The Intent will have the following extra values:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_DEVICE_ADDRESS}</em></li>
+	 * <li><em>{@link #EXTRA_RTT_PERCENTILES}</em></li>
+	 * <li><em>{@link #EXTRA_BYTES_SENT}</em></li>
+	 * <li><em>{@link #EXTRA_BYTES_RECEIVED}</em></li>
+	 * <li><em>{@link #EXTRA_SEND_THROUGHPUT}</em></li>
+	 * <li><em>{@link #EXTRA_RECEIVE_THROUGHPUT}</em></li>
+	 * <li><em>{@link #EXTRA_LINK_ERRORS}</em></li>
+	 * <li><em>{@link #EXTRA_LINK_STALLS}</em></li>
+	 * </ul>
+	 * 
+	 * <p>
+	 * This action is only broadcasted if you have requested it before by
+	 * sending {@link #ACTION_GET_LINK_STATS}
+	 * </p>
+	 */
+	public static final String ACTION_LINK_STATS = "amarino.intent.action.ACTION_LINK_STATS";
+
+	/**
+	 * Activity Action: Request a dump of all metrics (message rates, latency
+	 * histograms, errors) from <i>Amarino</i>. Metrics have to be enabled in
+	 * the statistics screen, otherwise only zeros are reported.
+	 * <p>
+	 * Input: nothing
+	 * </p>
+	 * <p>
+	 * Output: <i>Amarino</i> will broadcast the result as
+	 * <em>{@link #ACTION_METRICS}</em>
+	 * </p>
+	 */
+	public static final String ACTION_GET_METRICS = "amarino.intent.action.ACTION_GET_METRICS";
+
+	/**
+	 * Broadcast Action sent by <i>Amarino</i>: A human readable dump of all
+	 * metrics in <em>{@link #EXTRA_METRICS}</em>
+	 */
+	public static final String ACTION_METRICS = "amarino.intent.action.ACTION_METRICS";
+
+	/**
+	 * Activity Action: Set the priority of all data sent to Arduino with a
+	 * certain flag. Data of a higher priority overtakes queued data of lower
+	 * priorities, e.g. a command to stop a motor does not wait behind a burst of
+	 * accelerometer values. The setting is kept until it is changed.
+	 * <p>
+	 * Input:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_FLAG}</em> - the flag of the function on Arduino</li>
+	 * <li><em>{@link #EXTRA_PRIORITY}</em> - {@link #PRIORITY_CONTROL},
+	 * {@link #PRIORITY_INTERACTIVE} or {@link #PRIORITY_BULK}, any other
+	 * value restores the default</li>
+	 * </ul>
+	 * <p>
+	 * Output: nothing
+	 * </p>
+	 */
+	public static final String ACTION_SET_PRIORITY = "amarino.intent.action.ACTION_SET_PRIORITY";
+
+	/**
+	 * Activity Action: Send all data with a certain flag on the reliable
+	 * channel. Every message gets a sequence number and is sent again until
+	 * Arduino acknowledges it, Arduino runs the messages in the order they were
+	 * sent. Lost frames, e.g. because Arduino's receive buffer overflowed, are
+	 * not lost anymore, but every message costs an acknowledgement. Needs
+	 * MeetAndroid version 7 or later. The setting is kept until it is changed.
+	 * <p>
+	 * Input:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_FLAG}</em> - the flag of the function on Arduino</li>
+	 * <li><em>{@link #EXTRA_RELIABLE}</em> - true to send reliably, false for
+	 * the default</li>
+	 * </ul>
+	 * <p>
+	 * Output: nothing
+	 * </p>
+	 */
+	public static final String ACTION_SET_RELIABLE = "amarino.intent.action.ACTION_SET_RELIABLE";
+
+	/**
+	 * Activity Action: Send int, short and byte arrays with a certain flag as
+	 * the differences to the previous message of the flag, packed into a few
+	 * bytes per value instead of decimal text. Arduino gets the values with
+	 * <code>meetAndroid.getIntValues()</code> or <code>getLongValues()</code>
+	 * as before. Needs MeetAndroid version 9 or later with <code>StreamSlots</code>
+	 * raised in MeetAndroid.h, it is 0 to save RAM and Arduino drops streamed
+	 * messages then. Other data is sent as usual. The setting is kept until it
+	 * is changed.
+	 * <p>
+	 * Input:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_FLAG}</em> - the flag of the function on Arduino</li>
+	 * <li><em>{@link #EXTRA_STREAM}</em> - true to send differences, false for
+	 * the default</li>
+	 * </ul>
+	 * <p>
+	 * Output: nothing
+	 * </p>
+	 */
+	public static final String ACTION_SET_STREAM = "amarino.intent.action.ACTION_SET_STREAM";
+
+	/**
+	 * Activity Action: Send float and double values with a certain flag as
+	 * fixed-point integers, rounded to a number of decimals and multiplied by
+	 * 10 to the power of it, e.g. 9.80665 with 2 decimals is sent as 981.
+	 * Messages get shorter than the digits Java prints for a float and
+	 * Arduino parses them with integer math instead of atof():
+	 * <code>meetAndroid.getFloatValues()</code> returns the values as before,
+	 * <code>getLongValues()</code> the integers as they were sent for sketches
+	 * which only use integer math. Needs MeetAndroid version 10 or later for
+	 * 1 or more decimals, 0 decimals sends plain integers. The setting is kept
+	 * until it is changed.
+	 * <p>
+	 * Input:
+	 * </p>
+	 * <ul>
+	 * <li><em>{@link #EXTRA_FLAG}</em> - the flag of the function on Arduino</li>
+	 * <li><em>{@link #EXTRA_DECIMALS}</em> - 0 to 9, -1 to send values as
+	 * text again</li>
+	 * </ul>
+	 * <p>
+	 * Output: nothing
+	 * </p>
+	 */
+	public static final String ACTION_SET_FIXED_POINT = "amarino.intent.action.ACTION_SET_FIXED_POINT";
+
 	/**
 	 * used to enaable a specific plug-in, needs EXTRA_PLUGIN_ID to be set
 	 */
@@ -325,6 +513,14 @@ public interface AmarinoIntent {
 	 */
 	public static final String ACTION_DISABLE = "amarino.intent.action.DISABLE";
 
+	/**
+	 * tells an enabled plug-in how many messages per second the links it sends
+	 * to currently carry for it, see {@link #EXTRA_RATE}. Sent whenever the rate
+	 * changes noticeably, plug-ins streaming sensor data should skip samples to
+	 * stay below it.
+	 */
+	public static final String ACTION_SET_RATE = "amarino.intent.action.SET_RATE";
+
 	/**
 	 * disables all plug-ins if there is no active connection
 	 */
@@ -355,6 +551,118 @@ public interface AmarinoIntent {
 	 */
 	public static final String EXTRA_CONNECTED_DEVICE_ADDRESSES = "amarino.intent.extra.CONNECTED_DEVICE_ADDRESSES";
 
+	/**
+	 * Type: float[] - round trip times in ms of the 50th, 90th and 99th
+	 * percentile, all 0 if Arduino never answered a heartbeat
+	 */
+	public static final String EXTRA_RTT_PERCENTILES = "amarino.intent.extra.RTT_PERCENTILES";
+
+	/**
+	 * Type: long - bytes sent since the connection was established
+	 */
+	public static final String EXTRA_BYTES_SENT = "amarino.intent.extra.BYTES_SENT";
+
+	/**
+	 * Type: long - bytes received since the connection was established
+	 */
+	public static final String EXTRA_BYTES_RECEIVED = "amarino.intent.extra.BYTES_RECEIVED";
+
+	/**
+	 * Type: float - average bytes per second sent
+	 */
+	public static final String EXTRA_SEND_THROUGHPUT = "amarino.intent.extra.SEND_THROUGHPUT";
+
+	/**
+	 * Type: float - average bytes per second received
+	 */
+	public static final String EXTRA_RECEIVE_THROUGHPUT = "amarino.intent.extra.RECEIVE_THROUGHPUT";
+
+	/**
+	 * Type: int - failed writes plus unanswered heartbeats
+	 */
+	public static final String EXTRA_LINK_ERRORS = "amarino.intent.extra.LINK_ERRORS";
+
+	/**
+	 * Type: int - how often the connection stopped responding and was closed
+	 */
+	public static final String EXTRA_LINK_STALLS = "amarino.intent.extra.LINK_STALLS";
+
+	/**
+	 * Type: String - one metric per line
+	 */
+	public static final String EXTRA_METRICS = "amarino.intent.extra.METRICS";
+
+	/**
+	 * Type: int - one of {@link #PRIORITY_CONTROL}, {@link #PRIORITY_INTERACTIVE}
+	 * or {@link #PRIORITY_BULK}
+	 */
+	public static final String EXTRA_PRIORITY = "amarino.intent.extra.PRIORITY";
+
+	/**
+	 * Used with {@link #EXTRA_PRIORITY}: commands which must reach Arduino at once
+	 */
+	public static final int PRIORITY_CONTROL = 0;
+
+	/**
+	 * Used with {@link #EXTRA_PRIORITY}: data a user is waiting for
+	 */
+	public static final int PRIORITY_INTERACTIVE = 1;
+
+	/**
+	 * Used with {@link #EXTRA_PRIORITY}: continuous data like sensor values, if
+	 * the connection cannot keep up old values are dropped
+	 */
+	public static final int PRIORITY_BULK = 2;
+
+	/**
+	 * Type: String - identifies a request and its {@link #ACTION_RESPONSE},
+	 * choose one which is unique among all apps, e.g. prefixed with your package name
+	 */
+	public static final String EXTRA_REQUEST_ID = "amarino.intent.extra.REQUEST_ID";
+
+	/**
+	 * Type: long - milliseconds Arduino has to answer a request, 2000 if not set
+	 */
+	public static final String EXTRA_TIMEOUT = "amarino.intent.extra.TIMEOUT";
+
+	/**
+	 * Type: String - why a request failed, e.g. "timeout", "not connected" or
+	 * the text Arduino passed to <code>meetAndroid.replyError()</code>
+	 */
+	public static final String EXTRA_ERROR = "amarino.intent.extra.ERROR";
+
+	/**
+	 * Type: boolean - whether data is sent on the reliable channel, see
+	 * {@link #ACTION_SET_RELIABLE}
+	 */
+	public static final String EXTRA_RELIABLE = "amarino.intent.extra.RELIABLE";
+
+	/**
+	 * Type: boolean - whether integer arrays are sent as differences to the
+	 * previous message, see {@link #ACTION_SET_STREAM}
+	 */
+	public static final String EXTRA_STREAM = "amarino.intent.extra.STREAM";
+
+	/**
+	 * Type: int - decimals float and double values are sent with as fixed-point
+	 * integers, -1 to send them as text, see {@link #ACTION_SET_FIXED_POINT}
+	 */
+	public static final String EXTRA_DECIMALS = "amarino.intent.extra.DECIMALS";
+
+	/**
+	 * Type: float - messages per second a plug-in should send at most, 0 if
+	 * the links keep up with whatever it sends, see {@link #ACTION_SET_RATE}
+	 */
+	public static final String EXTRA_RATE = "amarino.intent.extra.RATE";
+	/**
+	 * Type: Bundle[] - messages of several plug-ins sent with one
+	 * {@link #ACTION_SEND}, each with its own {@link #EXTRA_PLUGIN_ID},
+	 * {@link #EXTRA_DATA_TYPE} and {@link #EXTRA_DATA}. Messages for the same
+	 * device are written to it at once, see
+	 * {@link Amarino#sendDataFromPlugins(android.content.Context, android.os.Bundle[])}
+	 */
+	public static final String EXTRA_FRAME = "amarino.intent.extra.FRAME";
+
 	/**
 	 * Type: int
 	 * <p>
@@ -530,4 +838,38 @@ public interface AmarinoIntent {
 	 */
 	public static final String EXTRA_VISUALIZER_MAX_VALUE = "amarino.intent.extra.VISUALIZER_MAX_VALUE";
 
+	/**
+	 * Type: Boolean - optional, Amarino only sends the data of your plug-in
+	 * if it differs from the data sent last
+	 * <p>
+	 * Values compared are those of the message to Arduino, e.g. the rounded
+	 * ones if you round them. Set it with the result of your EditActivity.
+	 * </p>
+	 */
+	public static final String EXTRA_FILTER_CHANGE_ONLY = "amarino.intent.extra.FILTER_CHANGE_ONLY";
+
+	/**
+	 * Type: Float - optional, Amarino only sends the data of your plug-in if
+	 * a value changed by more than this since it was sent last
+	 */
+	public static final String EXTRA_FILTER_DEADBAND = "amarino.intent.extra.FILTER_DEADBAND";
+
+	/**
+	 * Type: Float - optional, Amarino only sends the data of your plug-in if
+	 * a value changed by more than this fraction of the value sent last,
+	 * e.g. 0.05 for 5%
+	 * <p>
+	 * Together with {@link #EXTRA_FILTER_DEADBAND} a value must change by
+	 * more than both.
+	 * </p>
+	 */
+	public static final String EXTRA_FILTER_DEADBAND_RELATIVE = "amarino.intent.extra.FILTER_DEADBAND_RELATIVE";
+
+	/**
+	 * Type: Integer - optional, ms after which the data of your plug-in is
+	 * sent even if it did not change, so Arduino knows the plug-in is still
+	 * running, 0 for never
+	 */
+	public static final String EXTRA_FILTER_MAX_SILENCE = "amarino.intent.extra.FILTER_MAX_SILENCE";
+
 }
@@ -0,0 +1,182 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeoutException;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.os.HandlerThread;
+import at.abraxas.amarino.core.rpc.RpcException;
+import at.abraxas.amarino.core.rpc.RpcFuture;
+
+/**
+ * This class is part of the Amarino Library and asks Arduino for answers, e.g.
+ * the value of a pin. Arduino answers with <code>meetAndroid.reply()</code>.
+ *
+ * <p>Calls return at once, any number of requests may be outstanding. Answers
+ * arrive on a thread of their own, thus {@link RpcFuture#get()} does not block
+ * them, but you rather want to use {@link RpcFuture#setListener(RpcFuture.Listener)}
+ * on the UI thread.</p>
+ *
+ * <pre>
+ * AmarinoRpc rpc = new AmarinoRpc(context);
+ * String value = rpc.call(DEVICE_ADDRESS, 'r', 5, 1000).get();
+ * ...
+ * rpc.close();
+ * </pre>
+ */
+public class AmarinoRpc {
+
+	public static final long DEFAULT_TIMEOUT = 2000;
+
+	/* Amarino answers every request, this is for the case it does not run at all */
+	private static final long SERVICE_GRACE = 1000;
+
+	private final Context context;
+	private final String prefix;
+	private final HandlerThread thread;
+	private final Handler handler;
+	/* <request id, future>, guarded by itself */
+	private final HashMap<String, RpcFuture> pending = new HashMap<String, RpcFuture>();
+	private int nextId = 0;
+
+
+	public AmarinoRpc(Context context){
+		this.context = context;
+		this.prefix = context.getPackageName() + "/" + System.identityHashCode(this) + "/";
+		thread = new HandlerThread("AmarinoRpc");
+		thread.start();
+		handler = new Handler(thread.getLooper());
+		context.registerReceiver(receiver, new IntentFilter(AmarinoIntent.ACTION_RESPONSE), null, handler);
+	}
+
+	/**
+	 * Sends data to Arduino and waits for its answer.
+	 *
+	 * @param address the Bluetooth device you want to ask
+	 * @param flag the flag Arduino has registered a function for
+	 * @param data your data you want to send
+	 * @param timeoutMillis how long Arduino has to answer
+	 * @return the answer of Arduino, fails with an {@link RpcException} if
+	 * Arduino replied with an error or is not connected, with a TimeoutException
+	 * if it did not answer in time
+	 */
+	public RpcFuture call(String address, char flag, String data, long timeoutMillis){
+		Intent intent = Amarino.getSendIntent(address, AmarinoIntent.STRING_EXTRA, flag);
+		intent.putExtra(AmarinoIntent.EXTRA_DATA, data);
+		return call(intent, timeoutMillis);
+	}
+
+	/**
+	 * @see #call(String, char, String, long)
+	 */
+	public RpcFuture call(String address, char flag, int data, long timeoutMillis){
+		Intent intent = Amarino.getSendIntent(address, AmarinoIntent.INT_EXTRA, flag);
+		intent.putExtra(AmarinoIntent.EXTRA_DATA, data);
+		return call(intent, timeoutMillis);
+	}
+
+	/**
+	 * @see #call(String, char, String, long)
+	 */
+	public RpcFuture call(String address, char flag, int[] data, long timeoutMillis){
+		Intent intent = Amarino.getSendIntent(address, AmarinoIntent.INT_ARRAY_EXTRA, flag);
+		intent.putExtra(AmarinoIntent.EXTRA_DATA, data);
+		return call(intent, timeoutMillis);
+	}
+
+	/**
+	 * @see #call(String, char, String, long)
+	 */
+	public RpcFuture call(String address, char flag, float data, long timeoutMillis){
+		Intent intent = Amarino.getSendIntent(address, AmarinoIntent.FLOAT_EXTRA, flag);
+		intent.putExtra(AmarinoIntent.EXTRA_DATA, data);
+		return call(intent, timeoutMillis);
+	}
+
+	private RpcFuture call(Intent intent, long timeoutMillis){
+		final String requestId;
+		final RpcFuture future;
+		synchronized (pending){
+			int id = nextId++;
+			requestId = prefix + id;
+			future = new RpcFuture(id);
+			pending.put(requestId, future);
+		}
+		intent.putExtra(AmarinoIntent.EXTRA_REQUEST_ID, requestId);
+		intent.putExtra(AmarinoIntent.EXTRA_TIMEOUT, timeoutMillis);
+		context.sendBroadcast(intent);
+
+		handler.postDelayed(new Runnable() {
+			@Override
+			public void run() {
+				RpcFuture f = remove(requestId);
+				if (f != null) f.fail(new TimeoutException("Amarino did not answer"));
+			}
+		}, timeoutMillis + SERVICE_GRACE);
+		return future;
+	}
+
+	/**
+	 * Stops listening for answers, outstanding requests fail.
+	 */
+	public void close(){
+		context.unregisterReceiver(receiver);
+		thread.quit();
+		ArrayList<RpcFuture> failed;
+		synchronized (pending){
+			failed = new ArrayList<RpcFuture>(pending.values());
+			pending.clear();
+		}
+		for (RpcFuture f : failed)
+			f.fail(new RpcException("closed"));
+	}
+
+	private RpcFuture remove(String requestId){
+		synchronized (pending){
+			return pending.remove(requestId);
+		}
+	}
+
+	private BroadcastReceiver receiver = new BroadcastReceiver() {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			String requestId = intent.getStringExtra(AmarinoIntent.EXTRA_REQUEST_ID);
+			// answers to other apps are ignored
+			if (requestId == null || !requestId.startsWith(prefix)) return;
+			RpcFuture future = remove(requestId);
+			if (future == null) return;
+
+			String error = intent.getStringExtra(AmarinoIntent.EXTRA_ERROR);
+			if (error == null)
+				future.complete(intent.getStringExtra(AmarinoIntent.EXTRA_DATA));
+			else if ("timeout".equals(error))
+				future.fail(new TimeoutException("no answer from " + intent.getStringExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS)));
+			else
+				future.fail(new RpcException(error));
+		}
+	};
+}
@@ -19,20 +19,23 @@
 package at.abraxas.amarino;
 
 import it.gerdavax.easybluetooth.BtSocket;
-import it.gerdavax.easybluetooth.LocalDevice;
-import it.gerdavax.easybluetooth.ReadyListener;
 import it.gerdavax.easybluetooth.RemoteDevice;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Set;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import android.app.Notification;
 import android.app.NotificationManager;
@@ -42,9 +45,37 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Parcelable;
+import android.preference.PreferenceManager;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
+import at.abraxas.amarino.core.FlowControl;
+import at.abraxas.amarino.core.FrameEncoder;
+import at.abraxas.amarino.core.FrameParser;
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkThreads;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.OutboundQueue;
+import at.abraxas.amarino.core.Protocol;
+import at.abraxas.amarino.core.RateController;
+import at.abraxas.amarino.core.ReliableChannel;
+import at.abraxas.amarino.core.Route;
+import at.abraxas.amarino.core.Router;
+import at.abraxas.amarino.core.StreamCodec;
+import at.abraxas.amarino.core.flow.FrameHub;
+import at.abraxas.amarino.core.flow.FramePublisher;
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Gauge;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+import at.abraxas.amarino.core.rpc.RpcClient;
+import at.abraxas.amarino.core.rpc.RpcFuture;
 import at.abraxas.amarino.log.Logger;
 
 /**
@@ -59,21 +90,72 @@ public class AmarinoService extends Service {
 	private static final int ACTIVE_CONNECTIONS = 2;
 	private static final int NO_CONNECTIONS = 3;
 	
+	/* connection state which survives if the system kills our service */
+	private static final String STATE_PREFS = "AmarinoServiceState";
+	private static final String KEY_ACTIVE_CONNECTIONS = "active_connections";
+	private static final String KEY_DESTROYED_AT = "destroyed_at";
+	private static final String KEY_PRIORITY_PREFIX = "priority_";
+	private static final String KEY_RELIABLE_PREFIX = "reliable_";
+	private static final String KEY_STREAM_PREFIX = "stream_";
+	private static final String KEY_DECIMALS_PREFIX = "decimals_";
+	
+	private static final long DEFAULT_RPC_TIMEOUT = 2000;
+	/* how often plug-ins are told the rate the links carry */
+	private static final long RATE_INTERVAL = 1000;
+	
+	private static final byte[] HEARTBEAT = MessageCodec.toBytes(MessageBuilder.ALIVE_MSG);
+	
+	private static final Counter RX_BYTES = Metrics.counter("rx.bytes");
+	private static final Counter RX_MESSAGES = Metrics.counter("rx.messages");
+	private static final Counter RX_PARSE_ERRORS = Metrics.counter("rx.parse_errors");
+	private static final Counter RX_STREAM_DROPPED = Metrics.counter("rx.stream_dropped");
+	private static final Histogram RX_DISPATCH = Metrics.histogram("rx.dispatch");
+	private static final Counter TX_BYTES = Metrics.counter("tx.bytes");
+	private static final Counter TX_MESSAGES = Metrics.counter("tx.messages");
+	private static final Counter TX_DROPPED = Metrics.counter("tx.dropped");
+	/* plug-in messages written together with others of the same frame */
+	private static final Counter TX_COALESCED = Metrics.counter("tx.coalesced");
+	private static final Counter TX_FILTERED = Metrics.counter("tx.filtered");
+	private static final Counter TX_ERRORS = Metrics.counter("tx.errors");
+	private static final Histogram TX_WRITE = Metrics.histogram("tx.write");
+	private static final Histogram TX_FORWARD = Metrics.histogram("tx.forward");
+	private static final Gauge CONNECTIONS = Metrics.gauge("connections");
+	
 	private final IBinder binder = new AmarinoServiceBinder();
 	
-	private LocalDevice localDevice;
+	private ConnectionManager connectionManager;
 	private PendingIntent launchIntent;
 	private Notification notification;
 	private NotificationManager notifyManager;
 	private AmarinoDbAdapter db;
+	private Handler handler;
+	private ReconnectScheduler reconnectScheduler;
+	private LinkMonitor linkMonitor;
+	/* runs the read loop of every connection, platform threads on Android */
+	private ExecutorService linkExecutor;
+	private ExecutorService deliveryExecutor;
+	private FrameHub frameHub;
+	/* expires requests Arduino did not answer and drives retransmissions, shared by all connections */
+	private ScheduledExecutorService linkTimer;
+	/* <flag, lane> set with ACTION_SET_PRIORITY, main thread only */
+	private final SparseIntArray flagLanes = new SparseIntArray();
+	/* flags set to reliable delivery with ACTION_SET_RELIABLE, main thread only */
+	private final SparseBooleanArray reliableFlags = new SparseBooleanArray();
+	/* flags sending differences set with ACTION_SET_STREAM, main thread only */
+	private final SparseBooleanArray streamFlags = new SparseBooleanArray();
+	/* <flag, decimals> of fixed-point values set with ACTION_SET_FIXED_POINT, main thread only */
+	private final SparseIntArray fixedFlags = new SparseIntArray();
+	/* messages built as text are written into it, main thread only */
+	private final FrameEncoder textEncoder = new FrameEncoder(64);
 
-	/* most ppl will only use one Bluetooth device, thus lets start with capacity 1, <address, running thread> */
-	private HashMap<String, ConnectedThread> connections = new HashMap<String, ConnectedThread>(1);
-	
-	/* need to know which plugin has been activated for which device, <pluginId, list of devices> */
-	private HashMap<Integer, List<BTDevice>> enabledEvents = new HashMap<Integer, List<BTDevice>>();
+	/* open connections and which plugin has been activated for which device, safe to use from any thread */
+	private final Router<ConnectedThread> connections = new Router<ConnectedThread>();
+	/* <pluginId, event> of enabled plug-ins, to tell them their rate */
+	private final ConcurrentHashMap<Integer, Event> ratedPlugins = new ConcurrentHashMap<Integer, Event>();
+	/* <pluginId, rate> the plug-in was told last, LinkTimer thread only */
+	private final HashMap<Integer, Float> publishedRates = new HashMap<Integer, Float>();
 	
-	private int serviceState = NO_CONNECTIONS;
+	private volatile int serviceState = NO_CONNECTIONS;
 
 	
 	
@@ -83,6 +165,29 @@ public class AmarinoService extends Service {
 		super.onCreate();
 		
 		db = new AmarinoDbAdapter(this);
+		handler = new Handler();
+		Metrics.enabled = PreferenceManager.getDefaultSharedPreferences(this)
+			.getBoolean(Metrics.KEY_IS_METRICS_ENABLED, false);
+		reconnectScheduler = new ReconnectScheduler(handler, reconnectCallback);
+		linkMonitor = new LinkMonitor();
+		linkExecutor = LinkThreads.newExecutor("ConnectedThread");
+		// a subscriber stuck in onNext only ever blocks its own thread
+		deliveryExecutor = LinkThreads.newExecutor("FrameDelivery");
+		frameHub = new FrameHub(deliveryExecutor);
+		linkTimer = Executors.newSingleThreadScheduledExecutor(new LinkThreads.NamedThreadFactory("LinkTimer"));
+		linkTimer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				adaptRates();
+			}
+		}, RATE_INTERVAL, RATE_INTERVAL, TimeUnit.MILLISECONDS);
+		loadFlagSettings();
+		connectionManager = new ConnectionManager(this, new ConnectionManager.AttemptFactory() {
+			@Override
+			public ConnectionManager.Attempt create(RemoteDevice device) {
+				return new ConnectAttempt(device);
+			}
+		});
 		
 		initNotificationManager();
 			
@@ -107,8 +212,8 @@ public class AmarinoService extends Service {
 		super.onStart(intent, startId);
 		
 		if (intent == null) {
-			// here we might restore our state if we got killed by the system
-			// TODO
+			// we got killed by the system, bring back the connections we had before
+			restoreConnections();
 			return START_STICKY;
 		}
 
@@ -127,6 +232,55 @@ public class AmarinoService extends Service {
 			return START_NOT_STICKY;
 		}
 		
+		// outbound lane of a flag
+		if (action.equals(AmarinoIntent.ACTION_SET_PRIORITY)){
+			setPriority(intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, (char)0),
+					intent.getIntExtra(AmarinoIntent.EXTRA_PRIORITY, -1));
+			if (connections.size() == 0) 
+				shutdownService(false);
+			return START_NOT_STICKY;
+		}
+		
+		// delivery of a flag
+		if (action.equals(AmarinoIntent.ACTION_SET_RELIABLE)){
+			setReliable(intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, (char)0),
+					intent.getBooleanExtra(AmarinoIntent.EXTRA_RELIABLE, false));
+			if (connections.size() == 0) 
+				shutdownService(false);
+			return START_NOT_STICKY;
+		}
+		
+		// encoding of a flag
+		if (action.equals(AmarinoIntent.ACTION_SET_STREAM)){
+			setStream(intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, (char)0),
+					intent.getBooleanExtra(AmarinoIntent.EXTRA_STREAM, false));
+			if (connections.size() == 0) 
+				shutdownService(false);
+			return START_NOT_STICKY;
+		}
+		
+		if (action.equals(AmarinoIntent.ACTION_SET_FIXED_POINT)){
+			setFixedPoint(intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, (char)0),
+					intent.getIntExtra(AmarinoIntent.EXTRA_DECIMALS, -1));
+			if (connections.size() == 0) 
+				shutdownService(false);
+			return START_NOT_STICKY;
+		}
+		
+		// publish round trip times and error counters of the connections
+		if (action.equals(AmarinoIntent.ACTION_GET_LINK_STATS)){
+			broadcastLinkStats(intent.getStringExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS));
+			return START_NOT_STICKY;
+		}
+		
+		if (action.equals(AmarinoIntent.ACTION_GET_METRICS)){
+			sendBroadcast(new Intent(AmarinoIntent.ACTION_METRICS)
+				.putExtra(AmarinoIntent.EXTRA_METRICS, Metrics.dump()));
+			if (connections.size() == 0) 
+				shutdownService(false);
+			return START_NOT_STICKY;
+		}
+		
 		// this intent is used to surely disable all plug-ins
 		// if a user forgot to call force disable after force enable was called
 		if (action.equals(AmarinoIntent.ACTION_DISABLE_ALL)){
@@ -156,10 +310,14 @@ public class AmarinoService extends Service {
 		else {
 			if (AmarinoIntent.ACTION_CONNECT.equals(action)){
 				Logger.d(TAG, "ACTION_CONNECT request received");
+				// an explicit request replaces any automatic reconnect
+				reconnectScheduler.cancel(address);
 				connect(address);
 			}
 			else if (AmarinoIntent.ACTION_DISCONNECT.equals(action)){
 				Logger.d(TAG, "ACTION_DISCONNECT request received");
+				reconnectScheduler.cancel(address);
+				removeActiveConnection(address);
 				disconnect(address);
 			}
 		}
@@ -169,51 +327,220 @@ public class AmarinoService extends Service {
 
 
 	private void forwardDataToArduino(Intent intent){
-		
-		final int pluginId = intent.getIntExtra(AmarinoIntent.EXTRA_PLUGIN_ID, -1);
-		// Log.d(TAG, "send from pluginID: " + pluginId);
-		if (pluginId == -1) {
-			// intent sent from another app which is not a plugin
-			final String address = intent.getStringExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS);
-			if (address == null) {
-				Logger.d(TAG, "Data not sent! EXTRA_DEVICE_ADDRESS not set.");
+		final long start = TX_FORWARD.start();
+		try {
+			// several plug-ins at once
+			Parcelable[] frame = intent.getParcelableArrayExtra(AmarinoIntent.EXTRA_FRAME);
+			if (frame != null){
+				forwardFrameToArduino(frame);
 				return;
 			}
+		
+			final int pluginId = intent.getIntExtra(AmarinoIntent.EXTRA_PLUGIN_ID, -1);
+			final int priority = intent.getIntExtra(AmarinoIntent.EXTRA_PRIORITY, -1);
+			// Log.d(TAG, "send from pluginID: " + pluginId);
+			if (pluginId == -1) {
+				// intent sent from another app which is not a plugin
+				final String address = intent.getStringExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS);
+				if (address == null) {
+					Logger.d(TAG, "Data not sent! EXTRA_DEVICE_ADDRESS not set.");
+					return;
+				}
 
-			String message = MessageBuilder.getMessage(intent);
-			if (message == null) return; 
+				final char flag = intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, '-');
+				final String requestId = intent.getStringExtra(AmarinoIntent.EXTRA_REQUEST_ID);
+				final int lane = getLane(priority, flag, OutboundQueue.INTERACTIVE);
+				if (requestId == null && isPlain(intent, flag)){
+					ConnectedThread ct = connections.get(address);
+					byte[] data = (ct == null) ? null : encode(intent, ct);
+					if (data == null){
+						TX_DROPPED.inc();
+						return;
+					}
+					logMessage(data);
+					ct.write(data, lane);
+					return;
+				}
 			
-			// cutoff leading flag and ACK_FLAG for logger
-			Logger.d(TAG, getString(R.string.service_message_to_send, message.substring(1, message.length()-1)));
+				String message = MessageBuilder.getMessage(intent, textEncoder);
+				if (message == null) {
+					TX_DROPPED.inc();
+					return; 
+				}
 			
-			try {
-				sendData(address, message.getBytes("ISO-8859-1"));
-			} catch (UnsupportedEncodingException e) {
-				// use default encoding as fallback alternative if encoding ISO 8859-1 is not possible
-				Logger.d(TAG, "Encoding message using ISO-8859-1 not possible");
-				sendData(address, message.getBytes());
+				logMessage(message);
+				message = toFixed(intent, flag, message);
+			
+				// the app waits for an answer
+				if (requestId != null){
+					call(address, message, requestId, intent.getLongExtra(AmarinoIntent.EXTRA_TIMEOUT, DEFAULT_RPC_TIMEOUT));
+					return;
+				}
+			
+				message = toStream(intent, address, flag, message);
+			
+				if (isReliable(intent, flag)){
+					sendReliable(address, message);
+					return;
+				}
+			
+				sendData(address, MessageCodec.toBytes(message), lane);
+			}
+			else {
+				forwardPluginData(intent, pluginId, priority, null);
 			}
 		}
-		else {
-			List<BTDevice> devices = enabledEvents.get(pluginId);
+		finally {
+			// failed sends take time too
+			TX_FORWARD.stop(start);
+		}
+	}
+	
+	/* sends the data of a plug-in to all devices it is routed to, or adds it to frames,
+	 * <address, pending write per lane>, to be written together with other plug-ins' data */
+	private void forwardPluginData(Intent intent, int pluginId, int priority, HashMap<String, ByteArrayOutputStream[]> frames){
+		Route[] routes = connections.getRoutes(pluginId);
+		
+		if (routes.length == 0){
+			TX_DROPPED.inc();
+			if (Logger.enabled) Logger.d(TAG, "No device associated with plugin: " + pluginId);
+			return;
+		}
+		
+		if (Metrics.enabled)
+			Metrics.counter("plugin." + pluginId + ".messages").inc();
+		for (Route route : routes){
+			// tells adaptRates() the plug-in is sending
+			route.markUsed();
+			// we have to put the flag into the intent in order to fulfill the message builder requirements
+			intent.putExtra(AmarinoIntent.EXTRA_FLAG, route.flag);
 			
-			if (devices != null && devices.size() != 0){
-				for (BTDevice device : devices){
-					// we have to put the flag into the intent in order to fulfill the message builder requirements
-					intent.putExtra(AmarinoIntent.EXTRA_FLAG, device.events.get(pluginId).flag);
-					//Log.d(TAG, "flag" + device.events.get(pluginId).flag);
-					
-					String message = MessageBuilder.getMessage(intent);
-					if (message == null) return;
-					
-					Logger.d(TAG, getString(R.string.service_message_to_send, message.substring(1, message.length()-1)));
-
-					sendData(device.getAddress(), message.getBytes());
+			byte[] data;
+			if (route.filter == null && isPlain(intent, route.flag)){
+				ConnectedThread ct = connections.get(route);
+				if (ct == null){
+					TX_DROPPED.inc();
+					continue;
+				}
+				data = encode(intent, ct);
+				if (data == null){
+					TX_DROPPED.inc();
+					return;
 				}
+				logMessage(data);
 			}
 			else {
-				Logger.d(TAG, "No device associated with plugin: " + pluginId);
+				String message = MessageBuilder.getMessage(intent, textEncoder);
+				if (message == null) {
+					TX_DROPPED.inc();
+					return;
+				}
+				// nothing new for Arduino
+				if (route.filter != null && !route.filter.accept(message)){
+					TX_FILTERED.inc();
+					continue;
+				}
+				
+				logMessage(message);
+				message = toFixed(intent, route.flag, message);
+				message = toStream(intent, route.address, route.flag, message);
+
+				if (isReliable(intent, route.flag)){
+					sendReliable(route.address, message);
+					continue;
+				}
+				data = MessageCodec.toBytes(message);
 			}
+			
+			// plug-ins stream sensor data, unless told otherwise it must not hold up anything else
+			int lane = getLane(priority, route.flag, OutboundQueue.BULK);
+			if (frames == null){
+				sendData(route.address, data, lane);
+				continue;
+			}
+			
+			ByteArrayOutputStream[] lanes = frames.get(route.address);
+			if (lanes == null){
+				lanes = new ByteArrayOutputStream[OutboundQueue.LANES];
+				frames.put(route.address, lanes);
+			}
+			if (lanes[lane] == null)
+				lanes[lane] = new ByteArrayOutputStream(64);
+			else
+				TX_COALESCED.inc();
+			lanes[lane].write(data, 0, data.length);
+		}
+	}
+	
+	/* data of several plug-ins sampled at about the same time, Arduino gets the messages
+	 * meant for it with a single write instead of one frame after the other */
+	private void forwardFrameToArduino(Parcelable[] messages){
+		HashMap<String, ByteArrayOutputStream[]> frames = new HashMap<String, ByteArrayOutputStream[]>();
+		for (Parcelable p : messages){
+			if (!(p instanceof Bundle)) continue;
+			Intent part = new Intent().putExtras((Bundle)p);
+			forwardPluginData(part, part.getIntExtra(AmarinoIntent.EXTRA_PLUGIN_ID, -1),
+					part.getIntExtra(AmarinoIntent.EXTRA_PRIORITY, -1), frames);
+		}
+		
+		for (Map.Entry<String, ByteArrayOutputStream[]> e : frames.entrySet()){
+			ByteArrayOutputStream[] lanes = e.getValue();
+			for (int lane=0; lane<lanes.length; lane++)
+				if (lanes[lane] != null) sendData(e.getKey(), lanes[lane].toByteArray(), lane);
+		}
+	}
+	
+	/* every link finds its rate on its own, the plug-ins sending to it share that rate evenly
+	 * and each one is held to its share of the slowest link it sends to */
+	private void adaptRates(){
+		HashMap<String, Float> linkRates = new HashMap<String, Float>();
+		for (ConnectedThread ct : connections.connections())
+			linkRates.put(ct.getAddress(), ct.adaptRate());
+		
+		// plug-ins which sent data since the rates were adapted last
+		HashMap<String, Integer> senders = new HashMap<String, Integer>();
+		SparseBooleanArray active = new SparseBooleanArray();
+		for (int pluginId : connections.getPluginIds()){
+			Route[] routes = connections.getRoutes(pluginId);
+			boolean used = false;
+			for (Route route : routes)
+				used |= route.takeUsed();
+			if (!used) continue;
+			active.put(pluginId, true);
+			for (Route route : routes){
+				Integer n = senders.get(route.address);
+				senders.put(route.address, (n == null) ? 1 : n + 1);
+			}
+		}
+		
+		for (Event e : ratedPlugins.values()){
+			float rate = 0;
+			if (active.get(e.pluginId)){
+				for (Route route : connections.getRoutes(e.pluginId)){
+					Float linkRate = linkRates.get(route.address);
+					if (linkRate == null || linkRate == 0) continue;
+					float share = linkRate / senders.get(route.address);
+					if (rate == 0 || share < rate) rate = share;
+				}
+			}
+			else if (!publishedRates.containsKey(e.pluginId)){
+				// silent and never limited, nothing to tell
+				continue;
+			}
+			
+			Float last = publishedRates.get(e.pluginId);
+			float previous = (last == null) ? 0 : last;
+			// small changes are not worth a broadcast
+			if (previous == rate || (previous != 0 && rate != 0 && Math.abs(rate - previous) < previous / 10)) continue;
+			if (rate == 0) publishedRates.remove(e.pluginId);
+			else publishedRates.put(e.pluginId, rate);
+			
+			Intent intent = new Intent(AmarinoIntent.ACTION_SET_RATE);
+			intent.putExtra(AmarinoIntent.EXTRA_RATE, rate);
+			intent.putExtra(AmarinoIntent.EXTRA_PLUGIN_ID, e.pluginId);
+			intent.putExtra(AmarinoIntent.EXTRA_PLUGIN_SERVICE_CLASS_NAME, e.serviceClassName);
+			intent.setPackage(e.packageName);
+			sendBroadcast(intent);
 		}
 	}
 
@@ -226,14 +553,25 @@ public class AmarinoService extends Service {
 		
 		// we do only stop our service if no connections are active, however Android may kill our service without warning
 		// clean up in case service gets killed from the system due to low memory condition
+		reconnectScheduler.cancelAll();
+		connectionManager.shutdown();
+		linkMonitor.shutdown();
 		if (serviceState == ACTIVE_CONNECTIONS){
-			// TODO save which connections are active for recreating later when service is restarted
+			// active connections are already persisted, remember when we went down
+			// to be able to measure how long it takes to get them back
+			getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit()
+				.putLong(KEY_DESTROYED_AT, System.currentTimeMillis())
+				.commit();
 			
 			disableAllPlugins();
-			for (ConnectedThread t : connections.values()){
+			for (ConnectedThread t : connections.connections()){
 				t.cancel();
 			}
 		}
+		linkExecutor.shutdown();
+		frameHub.close();
+		deliveryExecutor.shutdown();
+		linkTimer.shutdownNow();
 		unregisterReceiver(receiver);
 		cancelNotification();
 		
@@ -242,7 +580,8 @@ public class AmarinoService extends Service {
 	private void shutdownService(boolean disablePlugins){
 		if (disablePlugins) 
 			disableAllPlugins();
-		if (serviceState == NO_CONNECTIONS){
+		// keep running as long as we try to get lost connections back
+		if (serviceState == NO_CONNECTIONS && !reconnectScheduler.hasPending()){
 			notifyManager.notify(NOTIFY_ID, 
 					getNotification(getString(R.string.service_no_active_connections)));
 			Logger.d(TAG, getString(R.string.service_ready_to_shutdown));
@@ -251,7 +590,7 @@ public class AmarinoService extends Service {
 	}
 	
 	private void shutdownServiceIfNecessary() {
-		if (connections.size() == 0){
+		if (connections.size() == 0 && !reconnectScheduler.hasPending()){
 			serviceState = NO_CONNECTIONS;
 			shutdownService(false);
 		}
@@ -265,15 +604,13 @@ public class AmarinoService extends Service {
 
 	protected void connect(final String address){
 		if (address == null) return;
-		localDevice = LocalDevice.getInstance();
-		localDevice.init(this, new ReadyListener() {
-			@Override
-			public void ready() {
-				RemoteDevice device = localDevice.getRemoteForAddr(address);
-				localDevice.destroy();
-				new ConnectThread(device).start();
-			}
-		});
+		if (connections.contains(address)){
+			Logger.d(TAG, "already connected to " + address);
+			serviceState = ACTIVE_CONNECTIONS;
+			sendConnectionEstablished(address);
+			return;
+		}
+		connectionManager.connect(address);
 		
 	}
 	
@@ -285,7 +622,7 @@ public class AmarinoService extends Service {
 			ct.cancel();
 
 		// end service if this was the last connection to disconnect
-		if (connections.size()==0){
+		if (connections.size()==0 && !reconnectScheduler.hasPending()){
 			serviceState = NO_CONNECTIONS;
 			shutdownService(true);
 		}
@@ -297,61 +634,319 @@ public class AmarinoService extends Service {
 	}
 	
 	public void sendData(final String address, byte[] data){
+		sendData(address, data, OutboundQueue.INTERACTIVE);
+	}
+	
+	/**
+	 * @param lane one of the {@link OutboundQueue} lanes, frames of higher lanes
+	 * overtake queued frames of lower ones
+	 */
+	public void sendData(final String address, byte[] data, int lane){
 		ConnectedThread ct = connections.get(address);
 		if (ct != null)
-			ct.write(data);
+			ct.write(data, lane);
+		else
+			TX_DROPPED.inc();
+	}
+	
+	/* sends the message as request, the answer is broadcasted with ACTION_RESPONSE */
+	private void call(final String address, String message, final String requestId, long timeout){
+		ConnectedThread ct = connections.get(address);
+		if (ct == null){
+			TX_DROPPED.inc();
+			sendResponse(address, requestId, null, "not connected");
+			return;
+		}
+		ct.call(message, timeout).setListener(new RpcFuture.Listener() {
+			@Override
+			public void onDone(RpcFuture future) {
+				Throwable error = future.getError();
+				if (error == null){
+					try {
+						sendResponse(address, requestId, future.get(), null);
+					} catch (Exception e) {
+						// done and not failed, cannot happen
+					}
+				}
+				else {
+					sendResponse(address, requestId, null, 
+							(error instanceof TimeoutException) ? "timeout" : error.getMessage());
+				}
+			}
+		});
+	}
+	
+	private void sendResponse(String address, String requestId, String data, String error){
+		Intent intent = new Intent(AmarinoIntent.ACTION_RESPONSE);
+		intent.putExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS, address);
+		intent.putExtra(AmarinoIntent.EXTRA_REQUEST_ID, requestId);
+		if (error == null)
+			intent.putExtra(AmarinoIntent.EXTRA_DATA, data);
+		else
+			intent.putExtra(AmarinoIntent.EXTRA_ERROR, error);
+		sendBroadcast(intent);
+	}
+	
+	/**
+	 * Sends the message on the reliable channel of the connection, it is
+	 * delivered in order and sent again until Arduino acknowledges it.
+	 */
+	public void sendReliable(final String address, String message){
+		ConnectedThread ct = connections.get(address);
+		if (ct == null || !ct.sendReliable(message))
+			TX_DROPPED.inc();
+	}
+	
+	/* the message goes out as built, nothing needs it as text but the log */
+	private boolean isPlain(Intent intent, char flag){
+		return !isReliable(intent, flag)
+			&& !intent.getBooleanExtra(AmarinoIntent.EXTRA_STREAM, streamFlags.get(flag, false))
+			&& intent.getIntExtra(AmarinoIntent.EXTRA_DECIMALS, fixedFlags.get(flag, -1)) < 0;
+	}
+	
+	/* the bytes of a plain message, from the cache if it repeats, else written by the encoder of the connection */
+	private byte[] encode(Intent intent, ConnectedThread ct){
+		return MessageBuilder.getCachedBytes(intent, ct.getEncoder());
+	}
+	
+	/* cutoff leading flag and ACK_FLAG for logger, the text is only made if the log is on */
+	private void logMessage(byte[] data){
+		if (Logger.enabled)
+			Logger.d(TAG, getString(R.string.service_message_to_send, MessageCodec.toString(data, 1, data.length - 2)));
+	}
+	
+	/* see logMessage(byte[]) */
+	private void logMessage(String message){
+		if (Logger.enabled)
+			Logger.d(TAG, getString(R.string.service_message_to_send, message.substring(1, message.length()-1)));
+	}
+	
+	private boolean isReliable(Intent intent, char flag){
+		return intent.getBooleanExtra(AmarinoIntent.EXTRA_RELIABLE, reliableFlags.get(flag, false));
+	}
+	
+	/* the message as differences to the previous one of the flag if it is streamed */
+	private String toStream(Intent intent, String address, char flag, String message){
+		if (!intent.getBooleanExtra(AmarinoIntent.EXTRA_STREAM, streamFlags.get(flag, false))) return message;
+		ConnectedThread ct = connections.get(address);
+		if (ct == null) return message;
+		String stream = MessageBuilder.getStreamMessage(intent, ct.getStreamCodec(), message);
+		return (stream == null) ? message : stream;
+	}
+	
+	/* float values as fixed-point integers if the flag is set to it */
+	private String toFixed(Intent intent, char flag, String message){
+		int decimals = intent.getIntExtra(AmarinoIntent.EXTRA_DECIMALS, fixedFlags.get(flag, -1));
+		if (decimals < 0) return message;
+		String fixed = MessageBuilder.getFixedMessage(intent, decimals, message);
+		return (fixed == null) ? message : fixed;
+	}
+	
+	private void setFixedPoint(char flag, int decimals){
+		if (flag == 0) return;
+		SharedPreferences.Editor editor = getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit();
+		if (decimals >= 0 && decimals <= Protocol.MAX_DECIMALS){
+			fixedFlags.put(flag, decimals);
+			editor.putInt(KEY_DECIMALS_PREFIX + (int)flag, decimals);
+		}
+		else {
+			// anything else sends text again
+			fixedFlags.delete(flag);
+			editor.remove(KEY_DECIMALS_PREFIX + (int)flag);
+		}
+		editor.commit();
+	}
+	
+	private void setStream(char flag, boolean stream){
+		if (flag == 0) return;
+		SharedPreferences.Editor editor = getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit();
+		if (stream){
+			streamFlags.put(flag, true);
+			editor.putBoolean(KEY_STREAM_PREFIX + (int)flag, true);
+		}
+		else {
+			streamFlags.delete(flag);
+			editor.remove(KEY_STREAM_PREFIX + (int)flag);
+		}
+		editor.commit();
+	}
+	
+	private void setReliable(char flag, boolean reliable){
+		if (flag == 0) return;
+		SharedPreferences.Editor editor = getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit();
+		if (reliable){
+			reliableFlags.put(flag, true);
+			editor.putBoolean(KEY_RELIABLE_PREFIX + (int)flag, true);
+		}
+		else {
+			reliableFlags.delete(flag);
+			editor.remove(KEY_RELIABLE_PREFIX + (int)flag);
+		}
+		editor.commit();
+	}
+	
+	/* explicit priority of the message, then the one configured for its flag, then the default */
+	private int getLane(int priority, char flag, int defaultLane){
+		if (priority >= 0 && priority < OutboundQueue.LANES) return priority;
+		return flagLanes.get(flag, defaultLane);
+	}
+	
+	private void setPriority(char flag, int priority){
+		if (flag == 0) return;
+		SharedPreferences.Editor editor = getSharedPreferences(STATE_PREFS, MODE_PRIVATE).edit();
+		if (priority >= 0 && priority < OutboundQueue.LANES){
+			flagLanes.put(flag, priority);
+			editor.putInt(KEY_PRIORITY_PREFIX + (int)flag, priority);
+		}
+		else {
+			// anything else resets the flag to the default
+			flagLanes.delete(flag);
+			editor.remove(KEY_PRIORITY_PREFIX + (int)flag);
+		}
+		editor.commit();
+	}
+	
+	private void loadFlagSettings(){
+		Map<String, ?> all = getSharedPreferences(STATE_PREFS, MODE_PRIVATE).getAll();
+		for (Map.Entry<String, ?> e : all.entrySet()){
+			try {
+				if (e.getKey().startsWith(KEY_PRIORITY_PREFIX) && e.getValue() instanceof Integer){
+					int flag = Integer.parseInt(e.getKey().substring(KEY_PRIORITY_PREFIX.length()));
+					flagLanes.put(flag, (Integer)e.getValue());
+				}
+				else if (e.getKey().startsWith(KEY_RELIABLE_PREFIX)){
+					int flag = Integer.parseInt(e.getKey().substring(KEY_RELIABLE_PREFIX.length()));
+					reliableFlags.put(flag, true);
+				}
+				else if (e.getKey().startsWith(KEY_STREAM_PREFIX)){
+					int flag = Integer.parseInt(e.getKey().substring(KEY_STREAM_PREFIX.length()));
+					streamFlags.put(flag, true);
+				}
+				else if (e.getKey().startsWith(KEY_DECIMALS_PREFIX) && e.getValue() instanceof Integer){
+					int flag = Integer.parseInt(e.getKey().substring(KEY_DECIMALS_PREFIX.length()));
+					fixedFlags.put(flag, (Integer)e.getValue());
+				}
+			} catch (NumberFormatException ex){ }
+		}
 	}
 	
 
 	
-	private void informPlugins(String address, boolean enable){
+	/**
+	 * Called by a ConnectedThread whose link broke down without anyone asking for it.
+	 */
+	private void connectionLost(final ConnectedThread t){
+		final long lostAt = System.currentTimeMillis();
+		handler.post(new Runnable() {
+			@Override
+			public void run() {
+				String address = t.mAddress;
+				// the connection might have been replaced or closed meanwhile
+				if (!connections.remove(address, t)) return;
+				
+				// schedule first, the service must not shut down while we are reconnecting
+				reconnectScheduler.schedule(address, lostAt);
+				informPlugins(address, false);
+				sendConnectionDisconnected(address);
+				
+				Logger.d(TAG, getString(R.string.service_reconnecting_to, address));
+				notifyManager.notify(NOTIFY_ID, 
+						getNotification(getString(R.string.service_reconnecting_to, address)));
+			}
+		});
+	}
+	
+	private final ReconnectScheduler.Callback reconnectCallback = new ReconnectScheduler.Callback() {
+		
+		@Override
+		public void reconnect(String address) {
+			serviceState = BUSY;
+			connect(address);
+		}
+		
+		@Override
+		public void giveUp(String address) {
+			removeActiveConnection(address);
+			shutdownServiceIfNecessary();
+		}
+	};
+	
+	private void restoreConnections(){
+		SharedPreferences prefs = getSharedPreferences(STATE_PREFS, MODE_PRIVATE);
+		String[] addresses = getActiveConnections(prefs);
+		if (addresses.length == 0) return;
+		
+		long lostAt = prefs.getLong(KEY_DESTROYED_AT, System.currentTimeMillis());
+		serviceState = BUSY;
+		for (String address : addresses){
+			if (connections.contains(address) || reconnectScheduler.isPending(address)) 
+				continue;
+			Logger.d(TAG, "restore connection to " + address);
+			reconnectScheduler.schedule(address, lostAt);
+		}
+	}
+	
+	private synchronized void addActiveConnection(String address){
+		SharedPreferences prefs = getSharedPreferences(STATE_PREFS, MODE_PRIVATE);
+		String[] addresses = getActiveConnections(prefs);
+		for (String a : addresses)
+			if (a.equals(address)) return;
+		
+		StringBuilder sb = new StringBuilder();
+		for (String a : addresses)
+			sb.append(a).append(MessageBuilder.DELIMITER);
+		sb.append(address);
+		prefs.edit().putString(KEY_ACTIVE_CONNECTIONS, sb.toString()).commit();
+	}
+	
+	private synchronized void removeActiveConnection(String address){
+		SharedPreferences prefs = getSharedPreferences(STATE_PREFS, MODE_PRIVATE);
+		StringBuilder sb = new StringBuilder();
+		for (String a : getActiveConnections(prefs)){
+			if (a.equals(address)) continue;
+			if (sb.length() > 0) sb.append(MessageBuilder.DELIMITER);
+			sb.append(a);
+		}
+		prefs.edit().putString(KEY_ACTIVE_CONNECTIONS, sb.toString()).commit();
+	}
+	
+	private static String[] getActiveConnections(SharedPreferences prefs){
+		String s = prefs.getString(KEY_ACTIVE_CONNECTIONS, "");
+		if (s.length() == 0) return new String[0];
+		return s.split(String.valueOf(MessageBuilder.DELIMITER));
+	}
+	
+	/* called from connection threads and the main thread, the db adapter is not thread safe */
+	private synchronized void informPlugins(String address, boolean enable){
 		db.open();
 		BTDevice device = db.getDevice(address);
 		
 		if (device != null){
 			ArrayList<Event> events = db.fetchEvents(device.id);
-			device.events = new HashMap<Integer, Event>();
 			
-			for (Event e : events){
-				if (enable) {
-					// remember which plugin was started for which device address
-					List<BTDevice> devices = enabledEvents.get(e.pluginId);
-					
-					if (devices == null) {
-						// plugin is not active
-						devices = new LinkedList<BTDevice>();
-						devices.add(device);
-						enabledEvents.put(e.pluginId, devices);
-					}
-					else {
-						// plugin already active, just add the new address
-						devices.add(device);
-					}
-					// add to our fast HashMap for later use when sending data we need fast retrival of pluginId->flag
-					device.events.put(e.pluginId, e);
+			if (enable) {
+				for (Event e : events){
+					// remember which plugin was started for which device address and flag,
+					// senders need fast retrieval of pluginId->flag
+					connections.addRoute(e.pluginId, new Route(address, e.flag, e.createFilter()));
+					ratedPlugins.put(e.pluginId, e);
 					// start plugin no matter if it was active or not, plugins must be able to handle consecutive start calls
 					informPlugIn(e, address, true);
 				}
-				else {
+			}
+			else {
+				for (Event e : events){
 					// only if this is the last device with a certain event attached, disable the plugin
-					List<BTDevice> devices = enabledEvents.get(e.pluginId);
-					if (devices != null) {
-						if (devices.remove(device)){
-							// address found and removed
-							if (devices.size()==0){
-								enabledEvents.remove(e.pluginId);
-								// was the last device which used this plugin, thus disable the plugin now
-								informPlugIn(e, address, false);
-							}
-						}
-					}
-					else {
+					if (!connections.isRouted(e.pluginId)){
 						Logger.d(TAG, "disable requested for Plugin " + e.name + " detected, but was never enabled");
 						// should not happen, but maybe disconnect was called without ever connecting before
 						informPlugIn(e, address, false);
 					}
-					// normally it shouldn't be any event with this id in device's events map, but we double check
-					device.events.remove(e.pluginId);
+					else if (connections.removeRoute(e.pluginId, address)){
+						// was the last device which used this plugin, thus disable the plugin now
+						ratedPlugins.remove(e.pluginId);
+						informPlugIn(e, address, false);
+					}
 				}
 			}
 		}
@@ -375,6 +970,7 @@ public class AmarinoService extends Service {
 	}
 	
 	private void disableAllPlugins(){
+		ratedPlugins.clear();
 		Intent intent = new Intent(AmarinoIntent.ACTION_DISABLE);
 		sendBroadcast(intent);
 	}
@@ -386,13 +982,56 @@ public class AmarinoService extends Service {
 			shutdownService(false);
 			return;
 		}
-		Set<String> addresses = connections.keySet();
-		String[] result = new String[addresses.size()];
-		result = addresses.toArray(result);
+		String[] result = connections.getAddresses();
 		returnIntent.putExtra(AmarinoIntent.EXTRA_CONNECTED_DEVICE_ADDRESSES, result);
 		sendBroadcast(returnIntent);
 	}
 	
+	/* one broadcast per connection, or only for the given address if not null */
+	private void broadcastLinkStats(String address) {
+		if (connections.size() == 0){
+			shutdownService(false);
+			return;
+		}
+		for (String a : connections.getAddresses()){
+			if (address != null && !address.equals(a)) continue;
+			LinkStats stats = getLinkStats(a);
+			if (stats == null) continue;
+			
+			sendBroadcast(new Intent(AmarinoIntent.ACTION_LINK_STATS)
+				.putExtra(AmarinoIntent.EXTRA_DEVICE_ADDRESS, a)
+				.putExtra(AmarinoIntent.EXTRA_RTT_PERCENTILES, stats.getRttPercentiles())
+				.putExtra(AmarinoIntent.EXTRA_BYTES_SENT, stats.getBytesSent())
+				.putExtra(AmarinoIntent.EXTRA_BYTES_RECEIVED, stats.getBytesReceived())
+				.putExtra(AmarinoIntent.EXTRA_SEND_THROUGHPUT, stats.getSendThroughput())
+				.putExtra(AmarinoIntent.EXTRA_RECEIVE_THROUGHPUT, stats.getReceiveThroughput())
+				.putExtra(AmarinoIntent.EXTRA_LINK_ERRORS, stats.getWriteErrors() + stats.getLostHeartbeats())
+				.putExtra(AmarinoIntent.EXTRA_LINK_STALLS, stats.getStalls()));
+		}
+	}
+	
+	/**
+	 * Subscribing is the in-process alternative to listening for {@link AmarinoIntent#ACTION_RECEIVED},
+	 * the service is reached by binding to it, see {@link AmarinoServiceBinder}.
+	 * Subscribers request how many messages they can take and never slow down the connection,
+	 * what happens to messages they did not request yet is chosen when subscribing.
+	 * 
+	 * @param flag only messages starting with this character, {@link FrameHub#ANY_FLAG} for all
+	 * @return the publisher of messages received from the given device, 
+	 * it stays valid across reconnects until the service is destroyed
+	 */
+	public FramePublisher getPublisher(String address, char flag){
+		return frameHub.publisher(address, flag);
+	}
+	
+	/**
+	 * @return health information of the connection to the given device, null if not connected
+	 */
+	LinkStats getLinkStats(String address){
+		ConnectedThread ct = connections.get(address);
+		return (ct == null) ? null : ct.mStats;
+	}
+	
 	private void sendConnectionDisconnected(String address){
 		String info = getString(R.string.service_disconnected_from, address);
 		Logger.d(TAG, info);
@@ -441,8 +1080,12 @@ public class AmarinoService extends Service {
 		return binder;
 	}
 	
+	/**
+	 * Returned by {@link #onBind(Intent)}, gives components running in the same
+	 * process access to the service, e.g. to {@link #getPublisher(String, char)}.
+	 */
 	public class AmarinoServiceBinder extends Binder {
-		AmarinoService getService() {
+		public AmarinoService getService() {
 			return AmarinoService.this;
 		}
 	}
@@ -475,17 +1118,20 @@ public class AmarinoService extends Service {
 	/* ---------- Connection Threads ---------- */
 	
 	/**
-	 * ConnectThread tries to establish a connection and starts the communication thread
+	 * ConnectAttempt tries to establish a connection and starts the communication thread.
+	 * It is executed by the ConnectionManager, which runs several attempts in parallel.
 	 */
-	private class ConnectThread extends Thread {
+	private class ConnectAttempt implements ConnectionManager.Attempt {
 		
-		//private static final String TAG = "ConnectThread";
 		private final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
 		
 		private final RemoteDevice mDevice;
-		private BtSocket mSocket;
+		private volatile BtSocket mSocket;
+		private boolean mAborted = false;
+		private boolean mEstablished = false;
+		private boolean mFailed = false;
 
-	    public ConnectThread(RemoteDevice device) {
+	    public ConnectAttempt(RemoteDevice device) {
 	        mDevice = device;
 	    }
 
@@ -522,29 +1168,53 @@ public class AmarinoService extends Service {
 						mSocket = mDevice.openSocket(1);
 					}
 		    		
+		    		if (!establish())
+		    			throw new IOException("connection attempt to " + mDevice.getAddress() + " aborted");
+		    		
 		    		// Do work to manage the connection (in a separate thread)
 			        manageConnectedSocket(mSocket);
 	    		}
 			}
 	      	
 	    	catch (Exception e) {
-	    		sendConnectionFailed(mDevice.getAddress());
 				e.printStackTrace();
-				if (mSocket != null)
-					try {
-						mSocket.close();
-					} catch (IOException e1) {}
-					shutdownServiceIfNecessary();
-				return;
+				failed();
 			}
 	    }
 
+	    /** Reports the failure once, also if the attempt was cancelled before it ran */
+	    @Override
+	    public void failed() {
+	    	synchronized (this){
+	    		if (mEstablished || mFailed) return;
+	    		mFailed = true;
+	    	}
+	    	sendConnectionFailed(mDevice.getAddress());
+	    	if (mSocket != null)
+	    		try {
+	    			mSocket.close();
+	    		} catch (IOException e1) {}
+	    	// if this was an automatic reconnect, try again later
+	    	if (reconnectScheduler.failed(mDevice.getAddress())){
+	    		notifyManager.notify(NOTIFY_ID, 
+	    				getNotification(getString(R.string.service_reconnecting_to, mDevice.getAddress())));
+	    	}
+	    	shutdownServiceIfNecessary();
+	    }
+
+	    private synchronized boolean establish(){
+	    	if (mAborted) return false;
+	    	mEstablished = true;
+	    	return true;
+	    }
+
 	    /** Will cancel an in-progress connection, and close the socket */
-	    @SuppressWarnings("unused")
-		public void cancel() {
+	    @Override
+		public synchronized void abort() {
+	    	if (mEstablished) return;
+	    	mAborted = true;
 	        try {
 	            if (mSocket != null) mSocket.close();
-	            sendConnectionDisconnected(mDevice.getAddress());
 	        } 
 	        catch (IOException e) { Log.e(TAG, "cannot close socket to " + mDevice.getAddress()); }
 	    }
@@ -555,9 +1225,18 @@ public class AmarinoService extends Service {
 	    	String address = mDevice.getAddress();
 	    	ConnectedThread t = new ConnectedThread(socket, address);
 	    	connections.put(address, t);
-	    	t.start();
+	    	try {
+	    		linkExecutor.execute(t);
+	    	} catch (RejectedExecutionException e){
+	    		// service is going down
+	    		connections.remove(address, t);
+	    		t.cancel();
+	    		return;
+	    	}
 	    	
 	    	serviceState = ACTIVE_CONNECTIONS;
+	    	reconnectScheduler.connected(address);
+	    	addActiveConnection(address);
 	    	
 	    	// now it is time to enable the plug-ins so that they can use our socket
 			informPlugins(address, true);
@@ -565,14 +1244,143 @@ public class AmarinoService extends Service {
 	}
 	
 	/**
-	 * ConnectedThread is holding the socket for communication with a Bluetooth device
+	 * ConnectedThread is holding the socket for communication with a Bluetooth device,
+	 * its read loop runs on the link executor
 	 */
-	private class ConnectedThread extends Thread {
+	private class ConnectedThread implements Runnable, LinkMonitor.Link {
 	    private final BtSocket mSocket;
 	    private final InputStream mInStream;
 	    private final OutputStream mOutStream;
 	    private final String mAddress;
-	    private StringBuffer forwardBuffer = new StringBuffer();
+	    private final LinkStats mStats = new LinkStats();
+	    private final FrameParser mParser = new FrameParser(new FrameParser.Listener() {
+			
+			@Override
+			public void onMessage(String message) {
+				// message complete send the data
+				mStats.messageReceived();
+				RX_MESSAGES.inc();
+				long start = RX_DISPATCH.start();
+				// credits, acknowledgements and answers to requests only go to whoever asked
+				if (mFlow.onMessage(message) || mReliable.onMessage(message) || mRpc.onMessage(message)){
+					RX_DISPATCH.stop(start);
+					return;
+				}
+				// integer arrays sent by meetAndroid.sendStream(), everyone else gets them as text
+				if (message.length() > 0 && message.charAt(0) == Protocol.STREAM_FLAG){
+					message = mStream.decode(message);
+					if (message == null){
+						// a difference to a message we missed, wait for the next key frame
+						RX_STREAM_DROPPED.inc();
+						RX_DISPATCH.stop(start);
+						return;
+					}
+				}
+				frameHub.publish(mAddress, message);
+				forwardDataToOtherApps(message);
+				RX_DISPATCH.stop(start);
+			}
+			
+			@Override
+			public void onAlive() {
+				// answer to our heartbeat, nothing other apps are interested in
+				mFlow.onAlive();
+				linkMonitor.answered(ConnectedThread.this);
+			}
+			
+			@Override
+			public void onVersion(int version) {
+				// repeated while Arduino gets no heartbeats, e.g. after it was reset
+				if (mIdentified) return;
+				mIdentified = true;
+				if (Logger.enabled) Logger.d(TAG, mAddress + " runs MeetAndroid " + version);
+				if (version < LinkMonitor.MIN_VERSION) return;
+				mFlow.onVersion(version);
+				// now Arduino understands heartbeats, the first one asks for credits before anything else is sent
+				sendHeartbeat();
+				linkMonitor.add(ConnectedThread.this, mStats);
+			}
+			
+			@Override
+			public void onParseError() {
+				// a new message starts while the last one was not finished
+				RX_PARSE_ERRORS.inc();
+			}
+		});
+	    private volatile boolean mCancelled = false;
+	    /* Arduino announced its version, reader thread only */
+	    private boolean mIdentified = false;
+	    private final OutboundQueue mOutbound = new OutboundQueue();
+	    /* paces the writer once Arduino grants credits for its receive buffer */
+	    private final FlowControl mFlow = new FlowControl(mOutbound);
+	    /* requests and reliable frames go through the interactive lane, someone is waiting for them */
+	    private final Link mLink = new Link() {
+	    	
+	    	@Override
+	    	public String getAddress() {
+	    		return mAddress;
+	    	}
+	    	
+	    	@Override
+	    	public void send(byte[] frame) throws IOException {
+	    		if (!mOutbound.offer(OutboundQueue.INTERACTIVE, frame)){
+	    			TX_DROPPED.inc();
+	    			throw new IOException("send queue full");
+	    		}
+	    	}
+	    	
+	    	@Override
+	    	public void close() {
+	    		cancel();
+	    	}
+	    };
+	    private final RpcClient mRpc = new RpcClient(mLink, linkTimer);
+	    private final ReliableChannel mReliable = new ReliableChannel(mLink, linkTimer);
+	    private final RateController mRate = new RateController();
+	    /* differences of streamed flags, each direction keeps the previous message */
+	    private final StreamCodec mStream = new StreamCodec();
+	    /* the buffer messages are written into, reused for every one of them */
+	    private final FrameEncoder mEncoder = new FrameEncoder(64);
+	    
+	    /* the only one writing to the socket, takes frames by priority */
+	    private final Runnable mWriter = new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					OutboundQueue.Frame frame;
+					while ((frame = mOutbound.take()) != null){
+						boolean heartbeat = mFlow.taken(frame) || frame.data == HEARTBEAT;
+						long start = TX_WRITE.start();
+						try {
+							mOutStream.write(frame.data);
+						} catch (IOException e) {
+							mStats.writeError();
+							TX_ERRORS.inc();
+							// the socket is dead, let the reader fail and report the lost connection
+							Logger.d(TAG, "cannot write to " + mAddress);
+							mOutbound.close();
+							try {
+								mSocket.close();
+							} catch (IOException e1) { }
+							return;
+						}
+						TX_WRITE.stop(start);
+						mOutbound.written(frame);
+						// heartbeats are not logged, they happen every second
+						if (!heartbeat){
+							mStats.sent(frame.data.length);
+							TX_BYTES.add(frame.data.length);
+							TX_MESSAGES.inc();
+							if (Logger.enabled)
+								Logger.d(TAG, "send to Arduino: " + MessageCodec.toString(frame.data, 0, frame.data.length));
+						}
+					}
+				} catch (InterruptedException e) {
+					// service is going down
+				}
+			}
+		};
 
 	    public ConnectedThread(BtSocket socket, String address) {
 	        mSocket = socket;
@@ -595,57 +1403,47 @@ public class AmarinoService extends Service {
 
 	        byte[] buffer = new byte[1024];  // buffer store for the stream
 	        int bytes = 0; // bytes returned from read()
-	        String msg;
 	        
+	        try {
+	        	linkExecutor.execute(mWriter);
+	        } catch (RejectedExecutionException e){
+	        	// service is going down
+	        	cancel();
+	        	return;
+	        }
+	        // heartbeats start once Arduino announced its version
 	        sendConnectionEstablished(mAddress);
+	        CONNECTIONS.inc();
 	        
 	        // Keep listening to the InputStream until an exception occurs
 	        while (true) {
 	            try {
 	            	// Read from the InputStream
 	                bytes = mInStream.read(buffer);
+	                // end of stream, the remote side has gone
+	                if (bytes == -1) throw new IOException("end of stream");
+	                mStats.received(bytes);
+	                RX_BYTES.add(bytes);
+	                linkMonitor.received(this);
 
 	                // Send the obtained bytes to the UI Activity
-	                msg = new String(buffer, 0, (bytes != -1) ? bytes : 0 );
-	                //Log.d(TAG, msg); // raw data with control flags
-	                
-	                forwardData(msg);
+	                mParser.feed(buffer, 0, bytes);
 
 	            } catch (IOException e) {
 	            	Logger.d(TAG, "communication to " + mAddress + " halted");
+	            	mOutbound.close();
+	            	mRpc.close();
+	            	mReliable.close();
+	            	linkMonitor.remove(this);
+	            	CONNECTIONS.dec();
+	            	if (!mCancelled)
+	            		connectionLost(this);
 	                break;
 	            }
 	        }
 	    }
 	    
-	    private void forwardData(String data){
-			char c;
-			for (int i=0;i<data.length();i++){
-				c = data.charAt(i);
-				if (c == MessageBuilder.ARDUINO_MSG_FLAG){
-					// TODO this could be used to determine the data type
-//					if (i+1<data.length()){
-//						int dataType = data.charAt(i+1);
-//						i++;
-					// depending on the dataType we could convert the following data appropriately
-//					}
-//					else {
-//						// wait for the next char to be sent
-//					}
-				}
-				else if (c == MessageBuilder.ACK_FLAG){
-					// message complete send the data
-					forwardDataToOtherApps(forwardBuffer.toString());
-					forwardBuffer = new StringBuffer();
-				}
-				else {
-					forwardBuffer.append(c);
-				}
-			}
-		}
-	    
 	    private void forwardDataToOtherApps(String msg){
-	    	Logger.d(TAG, "Arduino says: " + msg);
 	    	Intent intent = new Intent(AmarinoIntent.ACTION_RECEIVED);
             intent.putExtra(AmarinoIntent.EXTRA_DATA, msg);
             intent.putExtra(AmarinoIntent.EXTRA_DATA_TYPE, AmarinoIntent.STRING_EXTRA);
@@ -653,16 +1451,60 @@ public class AmarinoService extends Service {
             sendBroadcast(intent);
 	    }
 
-	    /* Call this from the main Activity to send data to the remote device */
-	    public void write(byte[] bytes) {
-	        try {
-	            mOutStream.write(bytes);
-	            Logger.d(TAG, "send to Arduino: " + new String(bytes));
-	        } catch (IOException e) { }
+	    /* Call this from the main Activity to send data to the remote device, returns at once */
+	    public void write(byte[] bytes, int lane) {
+	    	if (!mOutbound.offer(lane, bytes))
+	    		TX_DROPPED.inc();
+	    }
+	    
+	    public RpcFuture call(String message, long timeout){
+	    	return mRpc.call(message, timeout);
+	    }
+	    
+	    public boolean sendReliable(String message){
+	    	return mReliable.send(message);
+	    }
+	    
+	    public StreamCodec getStreamCodec(){
+	    	return mStream;
+	    }
+	    
+	    /* main thread only, like everything which sends */
+	    public FrameEncoder getEncoder(){
+	    	return mEncoder;
+	    }
+	    
+	    /* LinkTimer thread only, messages per second the link carries, 0 if it keeps up */
+	    public float adaptRate(){
+	    	return mRate.update(mStats.getMessagesSent(), mOutbound.size(), mOutbound.getDropped());
+	    }
+	    
+	    @Override
+	    public String getAddress() {
+	    	return mAddress;
+	    }
+	    
+	    /* called by the link monitor, heartbeats overtake queued data to keep round trip times honest */
+	    @Override
+	    public boolean sendHeartbeat() {
+	    	return mOutbound.offer(OutboundQueue.CONTROL, mFlow.heartbeat(HEARTBEAT));
+	    }
+	    
+	    /* the remote side does not respond anymore, close the socket to let the reader fail fast */
+	    @Override
+	    public void stalled() {
+	    	Logger.d(TAG, "connection to " + mAddress + " stalled");
+	    	try {
+	    		mSocket.close();
+	    	} catch (IOException e) { }
 	    }
 
 	    /* Call this from the main Activity to shutdown the connection */
 	    public void cancel() {
+	    	mCancelled = true;
+	    	mOutbound.close();
+	    	mRpc.close();
+	    	mReliable.close();
 	        try {
 	            mSocket.close();
 	            sendConnectionDisconnected(mAddress);
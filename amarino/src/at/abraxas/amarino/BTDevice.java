@@ -21,7 +21,8 @@ package at.abraxas.amarino;
 import it.gerdavax.easybluetooth.RemoteDevice;
 
 import java.io.Serializable;
-import java.util.HashMap;
+
+import at.abraxas.amarino.core.MacAddress;
 
 
 /**
@@ -35,8 +36,6 @@ public class BTDevice implements Serializable {
 	String address;
 	String name;
 	int state = AmarinoIntent.DISCONNECTED;
-	// <pluginID, event>
-	HashMap<Integer, Event> events;
 	
 	public BTDevice(String address){
 		this.address = address;
@@ -72,10 +71,11 @@ public class BTDevice implements Serializable {
 		if (this.id == other.id && this.id != -1) {
 			return true;
 		}
-		if (this.address.equals(other.address)){
-			return true;
-		}
-		return false;
+		// the same device whatever case its hex digits are written in, like hashCode()
+		long mac = MacAddress.parse(this.address);
+		if (mac != MacAddress.INVALID)
+			return mac == MacAddress.parse(other.address);
+		return this.address.equals(other.address);
 	}
 	
 	public BTDevice clone(){
@@ -86,10 +86,9 @@ public class BTDevice implements Serializable {
 
 	@Override
 	public int hashCode() {
-		int hash = 7;
-		for (int i=0;i<address.length();i++)
-			hash += address.charAt(i);
-		return hash;
+		// a sum of the characters is the same for most addresses of a vendor
+		long mac = MacAddress.parse(address);
+		return (mac == MacAddress.INVALID) ? address.hashCode() : MacAddress.hash(mac);
 	}
 
 	@Override
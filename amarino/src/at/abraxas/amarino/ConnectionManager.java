@@ -0,0 +1,220 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import it.gerdavax.easybluetooth.LocalDevice;
+import it.gerdavax.easybluetooth.ReadyListener;
+import it.gerdavax.easybluetooth.RemoteDevice;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import at.abraxas.amarino.core.LinkThreads.NamedThreadFactory;
+import at.abraxas.amarino.log.Logger;
+
+/**
+ * ConnectionManager owns the Bluetooth adapter session and runs connection
+ * attempts in parallel.
+ *
+ * <p>The adapter is initialized once and kept until {@link #shutdown()} is called.
+ * Connect requests arriving before the adapter is ready are queued. Every attempt
+ * runs on a bounded thread pool and is aborted if it does not finish within
+ * {@link #ATTEMPT_TIMEOUT} after it started, time spent waiting for a free
+ * thread does not count. Connecting to several boards takes as long as the
+ * slowest one and not the sum of all of them.</p>
+ */
+class ConnectionManager {
+
+	private static final String TAG = "ConnectionManager";
+
+	static final int MAX_PARALLEL_ATTEMPTS = 4;
+	static final long ATTEMPT_TIMEOUT = 20000;
+
+	/**
+	 * A single connection attempt to a remote device.
+	 */
+	interface Attempt extends Runnable {
+		/**
+		 * Called from the watchdog thread if the attempt takes too long.
+		 * Must unblock a pending {@link #run()}, usually by closing the socket.
+		 */
+		void abort();
+
+		/**
+		 * Called after the attempt was cancelled, whether it ran or not. Must
+		 * report the failure unless {@link #run()} already did or the connection
+		 * was established anyway.
+		 */
+		void failed();
+	}
+
+	interface AttemptFactory {
+		Attempt create(RemoteDevice device);
+	}
+
+	private final Context context;
+	private final AttemptFactory factory;
+
+	private final ExecutorService executor;
+	private final ScheduledExecutorService watchdog;
+
+	private LocalDevice localDevice;
+	private boolean initializing = false;
+	private boolean ready = false;
+	private boolean shutdown = false;
+
+	/* addresses requested before the adapter was ready */
+	private final LinkedList<String> waiting = new LinkedList<String>();
+	/* <address, queued or running attempt>, there is at most one attempt per device */
+	private final HashMap<String, AttemptTask> running = new HashMap<String, AttemptTask>();
+
+
+	/* starts the watchdog once it runs, and is removed from running when done, cancelled or not */
+	private class AttemptTask extends FutureTask<Void> {
+		final String address;
+		final Attempt attempt;
+
+		AttemptTask(String address, Attempt attempt){
+			super(attempt, null);
+			this.address = address;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+			if (isDone()) return;
+			ScheduledFuture<?> timeout;
+			try {
+				timeout = watchdog.schedule(new Runnable() {
+					@Override
+					public void run() {
+						timedOut();
+					}
+				}, ATTEMPT_TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e){
+				// shutting down
+				return;
+			}
+			try {
+				super.run();
+			}
+			finally {
+				timeout.cancel(false);
+			}
+		}
+
+		private void timedOut(){
+			if (isDone()) return;
+			Logger.d(TAG, "connection attempt to " + address + " timed out");
+			attempt.abort();
+			cancel(true);
+		}
+
+		@Override
+		protected void done() {
+			finished(this);
+			if (isCancelled()) attempt.failed();
+		}
+	}
+
+
+	ConnectionManager(Context context, AttemptFactory factory){
+		this.context = context;
+		this.factory = factory;
+		executor = Executors.newFixedThreadPool(MAX_PARALLEL_ATTEMPTS, new NamedThreadFactory("ConnectThread"));
+		watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("ConnectWatchdog"));
+	}
+
+	/**
+	 * Starts a connection attempt to the given address. Returns immediately,
+	 * the result is reported by the attempt itself.
+	 */
+	synchronized void connect(String address){
+		if (shutdown) return;
+
+		if (ready){
+			submit(address);
+			return;
+		}
+
+		if (!waiting.contains(address))
+			waiting.add(address);
+
+		if (!initializing){
+			initializing = true;
+			localDevice = LocalDevice.getInstance();
+			localDevice.init(context, new ReadyListener() {
+				@Override
+				public void ready() {
+					onReady();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Aborts all running attempts and releases the adapter session.
+	 */
+	synchronized void shutdown(){
+		shutdown = true;
+		waiting.clear();
+		running.clear();
+		executor.shutdownNow();
+		watchdog.shutdownNow();
+		if (localDevice != null){
+			localDevice.destroy();
+			localDevice = null;
+		}
+	}
+
+	private synchronized void onReady(){
+		if (shutdown) return;
+		Logger.d(TAG, "Bluetooth adapter ready");
+		ready = true;
+		initializing = false;
+		while (!waiting.isEmpty())
+			submit(waiting.removeFirst());
+	}
+
+	private void submit(final String address){
+		if (running.containsKey(address)){
+			Logger.d(TAG, "connection attempt to " + address + " already running");
+			return;
+		}
+
+		RemoteDevice device = localDevice.getRemoteForAddr(address);
+		AttemptTask task = new AttemptTask(address, factory.create(device));
+		running.put(address, task);
+		executor.execute(task);
+	}
+
+	private synchronized void finished(AttemptTask task){
+		// a new attempt may have taken the place of a cancelled one
+		if (running.get(task.address) == task)
+			running.remove(task.address);
+	}
+}
@@ -18,6 +18,8 @@
 */
 package at.abraxas.amarino;
 
+import at.abraxas.amarino.core.ChangeFilter;
+
 /**
  * $Id: Event.java 444 2010-06-10 13:11:59Z abraxas $
  */
@@ -36,6 +38,13 @@ public class Event {
 	public String address;
 	public float visualizerMinValue = 0f;
 	public float visualizerMaxValue = 1024f;
+	/* messages which did not change are not sent */
+	public boolean changeOnly = false;
+	/* smallest change which is sent, absolute and relative to the last value sent */
+	public float deadband = 0f;
+	public float deadbandRelative = 0f;
+	/* ms after which a message is sent even if it did not change, 0 for never */
+	public int maxSilence = 0;
 	
 	
 	public Event(String name, String desc, int visualizer, char flag, 
@@ -58,6 +67,14 @@ public class Event {
 		this.id = id;
 	}
 	
+	/**
+	 * @return a new filter for one device, null if every message is to be sent
+	 */
+	public ChangeFilter createFilter(){
+		if (!changeOnly && deadband <= 0 && deadbandRelative <= 0) return null;
+		return new ChangeFilter(deadband, deadbandRelative, maxSilence);
+	}
+	
 	@Override
 	public boolean equals(Object o){
 		if (this == o) 
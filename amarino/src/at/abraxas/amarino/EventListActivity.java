@@ -44,6 +44,7 @@ import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import at.abraxas.amarino.log.Logger;
+import at.abraxas.amarino.visualizer.BitmapPool;
 import at.abraxas.amarino.visualizer.Visualizer;
 
 /**
@@ -136,6 +137,13 @@ public class EventListActivity extends ListActivity {
 							.setAction(AmarinoIntent.ACTION_DISABLE_ALL));
 	}
 	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		eventListAdapter.release();
+		BitmapPool.clear();
+	}
+	
 	
 	@Override
 	public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
@@ -311,6 +319,7 @@ public class EventListActivity extends ListActivity {
 					event.visualizerMinValue = data.getFloatExtra(AmarinoIntent.EXTRA_VISUALIZER_MIN_VALUE, 0f);
 					event.visualizerMaxValue = data.getFloatExtra(AmarinoIntent.EXTRA_VISUALIZER_MAX_VALUE, 1024f);
 				}
+				getFilter(data, event);
 				
 				Logger.d(TAG, event.toString());
 
@@ -339,6 +348,9 @@ public class EventListActivity extends ListActivity {
 						event.visualizerMinValue = data.getFloatExtra(AmarinoIntent.EXTRA_VISUALIZER_MIN_VALUE, 0f);
 						event.visualizerMaxValue = data.getFloatExtra(AmarinoIntent.EXTRA_VISUALIZER_MAX_VALUE, 1024f);
 					}
+					// plug-ins which do not know about filters keep the old one
+					if (data.hasExtra(AmarinoIntent.EXTRA_FILTER_CHANGE_ONLY))
+						getFilter(data, event);
 					
 					int num = db.updateEvent(event);
 					Logger.d(TAG, num + " event updated." + event.toString());
@@ -355,6 +367,14 @@ public class EventListActivity extends ListActivity {
 		}
 	}
 	
+	/* takes effect the next time the device connects */
+	private static void getFilter(Intent data, Event event){
+		event.changeOnly = data.getBooleanExtra(AmarinoIntent.EXTRA_FILTER_CHANGE_ONLY, false);
+		event.deadband = data.getFloatExtra(AmarinoIntent.EXTRA_FILTER_DEADBAND, 0f);
+		event.deadbandRelative = data.getFloatExtra(AmarinoIntent.EXTRA_FILTER_DEADBAND_RELATIVE, 0f);
+		event.maxSilence = data.getIntExtra(AmarinoIntent.EXTRA_FILTER_MAX_SILENCE, 0);
+	}
+	
 	private char getNextFlag(){
 		boolean flagInUse = false;
 		
@@ -418,8 +438,11 @@ public class EventListActivity extends ListActivity {
 
 
 	private void updateTextView(Message msg, Event e, int i, final int dataType) {
-		TextView tv = (TextView)getListView().getChildAt(i).findViewWithTag(e.pluginId);
-		if (msg.obj != null && tv != null){
+		// the visualizer might not have been rebuilt yet after the event was edited
+		View v = eventListAdapter.getVisualizerView(e.pluginId);
+		if (!(v instanceof TextView)) return;
+		TextView tv = (TextView)v;
+		if (msg.obj != null){
 			if (dataType % 2 != 0){
 				// data type is a single value
 				tv.setText(String.valueOf(msg.obj));
@@ -436,8 +459,10 @@ public class EventListActivity extends ListActivity {
 
 
 	private void updateVisualizer(Message msg, Event e, int i, final int dataType) {
-		Visualizer visual = (Visualizer) getListView().getChildAt(i).findViewWithTag(e.pluginId);
-		if (msg.obj != null && visual != null){
+		View v = eventListAdapter.getVisualizerView(e.pluginId);
+		if (!(v instanceof Visualizer)) return;
+		Visualizer visual = (Visualizer)v;
+		if (msg.obj != null){
 			try {
 				switch(dataType){
 				
@@ -19,6 +19,8 @@
 package at.abraxas.amarino;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
 
 import android.content.Context;
 import android.util.Log;
@@ -35,6 +37,10 @@ import at.abraxas.amarino.visualizer.GraphView;
 import at.abraxas.amarino.visualizer.Visualizer;
 
 /**
+ * Rows are recycled, but each event keeps its own visualizer for as long as the
+ * adapter lives. Scrolling or {@link #notifyDataSetChanged()} only moves the
+ * visualizer into another row, thus it does not lose its history and no new
+ * bitmap is allocated.
  * 
  * @author Bonifaz Kaufmann
  *
@@ -48,10 +54,30 @@ public class EventListAdapter extends BaseAdapter {
 
 	ArrayList<Event> entries;
 	Context context;
+	LayoutInflater inflater;
+	
+	/* <pluginId, visualizer of the event> */
+	private HashMap<Integer, VisualizerHolder> visualizers = new HashMap<Integer, VisualizerHolder>();
+	
+	private static class ViewHolder {
+		LinearLayout stub;
+		TextView flag;
+		TextView name;
+		TextView desc;
+	}
+	
+	/* remembers what the visualizer was built for, to rebuild it when the event has been edited */
+	private static class VisualizerHolder {
+		View view;
+		int type;
+		float min;
+		float max;
+	}
 	
 	public EventListAdapter(Context context, ArrayList<Event> entries){
 		this.context = context;
 		this.entries = entries;
+		inflater = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 	}
 	
 	public int getCount() {
@@ -66,68 +92,152 @@ public class EventListAdapter extends BaseAdapter {
 	}
 
 	public long getItemId(int position) {
-		return position;
+		return entries.get(position).id;
+	}
+	
+	@Override
+	public boolean hasStableIds() {
+		return true;
 	}
 
 	public View getView(int position, View convertView, ViewGroup parent) {
-		LinearLayout view = null;
-
-		view = new LinearLayout(context);
-		LayoutInflater vi = (LayoutInflater) context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-		vi.inflate(R.layout.event_entry, view, true);
-
-		LinearLayout stub = (LinearLayout)view.findViewById(R.id.event);
-		TextView flag = (TextView) view.findViewById(R.id.event_flag);
-		TextView name = (TextView) view.findViewById(R.id.event_name);
-		TextView desc = (TextView) view.findViewById(R.id.event_desc);
+		ViewHolder holder;
+		
+		if (convertView == null) {
+			convertView = inflater.inflate(R.layout.event_entry, parent, false);
+			holder = new ViewHolder();
+			holder.stub = (LinearLayout)convertView.findViewById(R.id.event);
+			holder.flag = (TextView) convertView.findViewById(R.id.event_flag);
+			holder.name = (TextView) convertView.findViewById(R.id.event_name);
+			holder.desc = (TextView) convertView.findViewById(R.id.event_desc);
+			convertView.setTag(holder);
+		}
+		else {
+			holder = (ViewHolder) convertView.getTag();
+		}
 		
 		Event event = entries.get(position);
 
-		flag.setText("ID: " + (char)event.flag);
-		name.setText(event.name);
-		desc.setText(event.desc);
+		holder.flag.setText("ID: " + (char)event.flag);
+		holder.name.setText(event.name);
+		holder.desc.setText(event.desc);
 		
-		if (stub.findViewWithTag(VISUALIZER_TAG) == null) {
-			switch (event.visualizer){
+		View visualizer = getVisualizer(event);
+		if (visualizer.getParent() != holder.stub) {
+			holder.stub.removeAllViews();
+			// the visualizer might still be shown in another, now recycled row
+			if (visualizer.getParent() != null)
+				((ViewGroup)visualizer.getParent()).removeView(visualizer);
+			holder.stub.addView(visualizer);
+		}
+		return convertView;
+	}
+	
+	/**
+	 * Returns the view showing the data of the given plug-in, even if it is
+	 * currently scrolled out of sight.
+	 * 
+	 * @return a TextView or {@link Visualizer}, null if there is no event for this plug-in
+	 */
+	public View getVisualizerView(int pluginId) {
+		VisualizerHolder vh = visualizers.get(pluginId);
+		return (vh == null) ? null : vh.view;
+	}
 	
-			case AmarinoIntent.VISUALIZER_TEXT:
-				Log.d(TAG, "build text visualizer for event: " + event.name);
-				TextView tv = new TextView(context);
-				
-				LinearLayout.LayoutParams params = 
-					new LinearLayout.LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT);
-				params.gravity = Gravity.LEFT | Gravity.CENTER_VERTICAL;
-				tv.setLayoutParams(params);
-				tv.setGravity(Gravity.LEFT);
-				tv.setPadding(5, 5, 5, 5);
-				tv.setTextSize(14.0f);
-				tv.setTextColor(context.getResources().getColor(R.color.light_yellowish_text));
-				tv.setTag(event.pluginId);
-				tv.setId(event.pluginId);
-				stub.addView(tv);
-				break;
-				
-			case AmarinoIntent.VISUALIZER_BARS:
-				Log.d(TAG, "build bars visualizer for event:" + event.name);
-				BarsView bars = new BarsView(context);
-				addVisualizer(stub, event, bars);
-				break;
-				
-			case AmarinoIntent.VISUALIZER_GRAPH:
-				Log.d(TAG, "build graph visualizer for event:" + event.name);
-				GraphView graph = new GraphView(context);
-				addVisualizer(stub, event, graph);
-				break;
-				
+	@Override
+	public void notifyDataSetChanged() {
+		// forget visualizers of removed events
+		Iterator<Integer> iter = visualizers.keySet().iterator();
+		while (iter.hasNext()){
+			int pluginId = iter.next();
+			boolean found = false;
+			for (Event e : entries){
+				if (e.pluginId == pluginId) {
+					found = true;
+					break;
+				}
+			}
+			if (!found) {
+				release(visualizers.get(pluginId).view);
+				iter.remove();
 			}
 		}
-		else {
-			Log.d(TAG, "visualizer already built for event: " + event.name);
+		super.notifyDataSetChanged();
+	}
+	
+	/**
+	 * Releases all visualizers, call this when the list is not shown anymore.
+	 */
+	public void release() {
+		for (VisualizerHolder vh : visualizers.values())
+			release(vh.view);
+		visualizers.clear();
+	}
+	
+	private void release(View view) {
+		if (view instanceof Visualizer)
+			((Visualizer)view).release();
+	}
+	
+	private View getVisualizer(Event event) {
+		VisualizerHolder vh = visualizers.get(event.pluginId);
+		if (vh != null && vh.type == event.visualizer) {
+			if (vh.min != event.visualizerMinValue || vh.max != event.visualizerMaxValue){
+				if (vh.view instanceof Visualizer)
+					((Visualizer)vh.view).setBoundaries(event.visualizerMinValue, event.visualizerMaxValue);
+				vh.min = event.visualizerMinValue;
+				vh.max = event.visualizerMaxValue;
+			}
+			return vh.view;
+		}
+		
+		if (vh != null) {
+			// visualizer type has been changed
+			release(vh.view);
+			if (vh.view.getParent() != null)
+				((ViewGroup)vh.view.getParent()).removeView(vh.view);
+		}
+		
+		vh = new VisualizerHolder();
+		vh.type = event.visualizer;
+		vh.min = event.visualizerMinValue;
+		vh.max = event.visualizerMaxValue;
+		
+		switch (event.visualizer){
+
+		case AmarinoIntent.VISUALIZER_BARS:
+			Log.d(TAG, "build bars visualizer for event:" + event.name);
+			vh.view = buildVisualizer(event, new BarsView(context));
+			break;
+			
+		case AmarinoIntent.VISUALIZER_GRAPH:
+			Log.d(TAG, "build graph visualizer for event:" + event.name);
+			vh.view = buildVisualizer(event, new GraphView(context));
+			break;
+			
+		case AmarinoIntent.VISUALIZER_TEXT:
+		default:
+			Log.d(TAG, "build text visualizer for event: " + event.name);
+			TextView tv = new TextView(context);
+			
+			LinearLayout.LayoutParams params = 
+				new LinearLayout.LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT);
+			params.gravity = Gravity.LEFT | Gravity.CENTER_VERTICAL;
+			tv.setLayoutParams(params);
+			tv.setGravity(Gravity.LEFT);
+			tv.setPadding(5, 5, 5, 5);
+			tv.setTextSize(14.0f);
+			tv.setTextColor(context.getResources().getColor(R.color.light_yellowish_text));
+			tv.setTag(event.pluginId);
+			tv.setId(event.pluginId);
+			vh.view = tv;
+			break;
 		}
-		return view;
+		visualizers.put(event.pluginId, vh);
+		return vh.view;
 	}
 
-	private void addVisualizer(LinearLayout stub, Event event, Visualizer visualizer) {
+	private View buildVisualizer(Event event, Visualizer visualizer) {
 		LinearLayout.LayoutParams lp = 
 			new LinearLayout.LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.WRAP_CONTENT);
 		lp.gravity = Gravity.LEFT | Gravity.CENTER_VERTICAL;
@@ -136,7 +246,7 @@ public class EventListAdapter extends BaseAdapter {
 		visualizer.setTag(event.pluginId);
 		visualizer.setId(event.pluginId);
 		visualizer.setBoundaries(event.visualizerMinValue, event.visualizerMaxValue);
-		stub.addView(visualizer);
+		return visualizer;
 	}
 }
 
@@ -0,0 +1,199 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+import at.abraxas.amarino.log.Logger;
+
+/**
+ * LinkMonitor sends a heartbeat ({@link MessageBuilder#ALIVE_MSG}) over every
+ * connection added to it and measures the time until Arduino answers it.
+ *
+ * <p>Links are only added once Arduino announced a MeetAndroid library of
+ * {@link #MIN_VERSION} or later. Older libraries take the heartbeat for a
+ * message to a sketch function, version 4 even reads a function pointer
+ * outside of its table for it. Versions before 11 do not announce themselves,
+ * so their links are not monitored at all.</p>
+ *
+ * <p>A broken SPP link is often only noticed by the socket after many seconds.
+ * If a device which has answered heartbeats before stays silent for
+ * {@link #STALL_TIMEOUT}, the link is reported as stalled, so it can be closed and
+ * reconnected right away.</p>
+ *
+ * <p>Only one heartbeat per link is in flight at any time, thus a reply always
+ * belongs to the last heartbeat sent. A heartbeat not answered within
+ * {@link #HEARTBEAT_TIMEOUT} is counted as lost, a late answer to it is ignored
+ * and the next heartbeat goes out with the next interval.</p>
+ */
+class LinkMonitor {
+
+	private static final String TAG = "LinkMonitor";
+
+	static final long HEARTBEAT_INTERVAL = 1000;
+	static final long HEARTBEAT_TIMEOUT = 2000;
+	static final long STALL_TIMEOUT = 3000;
+	/* the first MeetAndroid version answering heartbeats */
+	static final int MIN_VERSION = 5;
+	
+	private static final Histogram RTT = Metrics.histogram("link.rtt");
+	private static final Counter LOST = Metrics.counter("link.lost_heartbeats");
+	private static final Counter STALLS = Metrics.counter("link.stalls");
+
+	interface Link {
+		String getAddress();
+		/**
+		 * Writes the heartbeat message to the link.
+		 * @return false if the message could not be written
+		 */
+		boolean sendHeartbeat();
+		/**
+		 * Called from the monitor thread when the remote side stopped responding.
+		 */
+		void stalled();
+	}
+
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentHashMap<Link, Heartbeat> links = new ConcurrentHashMap<Link, Heartbeat>();
+
+
+	private class Heartbeat implements Runnable {
+		final Link link;
+		final LinkStats stats;
+		ScheduledFuture<?> future;
+
+		/* nanoTime of the heartbeat in flight, 0 if none */
+		long sentAt = 0;
+		/* nanoTime of the first heartbeat not answered since the last answer, 0 if none */
+		long unansweredSince = 0;
+		/* nanoTime of the last byte received */
+		long lastReceived = System.nanoTime();
+		boolean answering = false;
+
+		Heartbeat(Link link, LinkStats stats){
+			this.link = link;
+			this.stats = stats;
+		}
+
+		@Override
+		public void run() {
+			long now = System.nanoTime();
+			synchronized (this) {
+				if (unansweredSince != 0){
+					long silence = TimeUnit.NANOSECONDS.toMillis(now - Math.max(unansweredSince, lastReceived));
+					if (answering && silence >= STALL_TIMEOUT){
+						Logger.d(TAG, link.getAddress() + " did not respond for " + silence + "ms");
+						stats.stalled();
+						STALLS.inc();
+						remove(link);
+						link.stalled();
+						return;
+					}
+				}
+				if (sentAt != 0){
+					// still waiting for the answer
+					if (TimeUnit.NANOSECONDS.toMillis(now - sentAt) < HEARTBEAT_TIMEOUT) return;
+					// the heartbeat or its answer got lost, e.g. in an overrun buffer
+					stats.heartbeatLost();
+					LOST.inc();
+					sentAt = 0;
+					return;
+				}
+				sentAt = now;
+				if (unansweredSince == 0) unansweredSince = now;
+			}
+			if (!link.sendHeartbeat()){
+				stats.writeError();
+			}
+		}
+
+		synchronized void answered(){
+			long now = System.nanoTime();
+			lastReceived = now;
+			if (sentAt == 0) return; // answer to a heartbeat we already gave up on
+			stats.heartbeatAnswered(now - sentAt);
+			RTT.record((now - sentAt) / 1000);
+			sentAt = 0;
+			unansweredSince = 0;
+			answering = true;
+		}
+
+		synchronized void received(){
+			lastReceived = System.nanoTime();
+		}
+	}
+
+
+	LinkMonitor(){
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "LinkMonitor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Starts sending heartbeats over the given link.
+	 *
+	 * @param stats round trip times, lost heartbeats and stalls are recorded here
+	 */
+	void add(Link link, LinkStats stats){
+		Heartbeat h = new Heartbeat(link, stats);
+		h.future = scheduler.scheduleWithFixedDelay(h, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL, TimeUnit.MILLISECONDS);
+		Heartbeat old = links.put(link, h);
+		if (old != null) old.future.cancel(false);
+	}
+
+	void remove(Link link){
+		Heartbeat h = links.remove(link);
+		if (h != null) h.future.cancel(false);
+	}
+
+	/**
+	 * Has to be called whenever a heartbeat reply arrived on the link.
+	 */
+	void answered(Link link){
+		Heartbeat h = links.get(link);
+		if (h != null) h.answered();
+	}
+
+	/**
+	 * Has to be called whenever any data arrived on the link.
+	 */
+	void received(Link link){
+		Heartbeat h = links.get(link);
+		if (h != null) h.received();
+	}
+
+	void shutdown(){
+		scheduler.shutdownNow();
+		links.clear();
+	}
+}
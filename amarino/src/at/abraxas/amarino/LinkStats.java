@@ -0,0 +1,180 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import java.util.Arrays;
+
+/**
+ * LinkStats collects health information of a single connection: round trip
+ * times measured by the heartbeat, transferred bytes and error counters.
+ *
+ * <p>Only the last {@link #RTT_SAMPLES} round trip times are kept, percentiles
+ * are calculated from those when asked for. All methods are thread safe.</p>
+ */
+public class LinkStats {
+
+	static final int RTT_SAMPLES = 128;
+
+	private final long connectedAt;
+
+	/* ring buffer of round trip times in microseconds */
+	private final int[] rtts = new int[RTT_SAMPLES];
+	private int rttCount = 0;
+	private int rttPos = 0;
+	private int maxRtt = 0;
+
+	private long bytesSent = 0;
+	private long bytesReceived = 0;
+	private long messagesSent = 0;
+	private long messagesReceived = 0;
+
+	private int heartbeatsLost = 0;
+	private int writeErrors = 0;
+	private int stalls = 0;
+
+
+	LinkStats(){
+		connectedAt = System.currentTimeMillis();
+	}
+
+	synchronized void sent(int bytes){
+		bytesSent += bytes;
+		messagesSent++;
+	}
+
+	synchronized void received(int bytes){
+		bytesReceived += bytes;
+	}
+
+	synchronized void messageReceived(){
+		messagesReceived++;
+	}
+
+	synchronized void heartbeatAnswered(long rttNanos){
+		int micros = (int)Math.min(rttNanos / 1000, Integer.MAX_VALUE);
+		rtts[rttPos] = micros;
+		rttPos = (rttPos + 1) % RTT_SAMPLES;
+		if (rttCount < RTT_SAMPLES) rttCount++;
+		if (micros > maxRtt) maxRtt = micros;
+	}
+
+	synchronized void heartbeatLost(){
+		heartbeatsLost++;
+	}
+
+	synchronized void writeError(){
+		writeErrors++;
+	}
+
+	synchronized void stalled(){
+		stalls++;
+	}
+
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the round trip time in ms, 0 if nothing was measured yet
+	 */
+	public float getRtt(int percentile){
+		int[] sorted;
+		synchronized (this) {
+			if (rttCount == 0) return 0;
+			sorted = new int[rttCount];
+			System.arraycopy(rtts, 0, sorted, 0, rttCount);
+		}
+		Arrays.sort(sorted);
+		int index = (int)Math.ceil(percentile / 100f * sorted.length) - 1;
+		if (index < 0) index = 0;
+		return sorted[index] / 1000f;
+	}
+
+	/**
+	 * @return the round trip times in ms for the 50th, 90th and 99th percentile
+	 */
+	public float[] getRttPercentiles(){
+		return new float[]{ getRtt(50), getRtt(90), getRtt(99) };
+	}
+
+	public synchronized float getMaxRtt(){
+		return maxRtt / 1000f;
+	}
+
+	/**
+	 * @return average bytes per second sent since the connection was established
+	 */
+	public synchronized float getSendThroughput(){
+		return bytesSent * 1000f / getUptime();
+	}
+
+	/**
+	 * @return average bytes per second received since the connection was established
+	 */
+	public synchronized float getReceiveThroughput(){
+		return bytesReceived * 1000f / getUptime();
+	}
+
+	/**
+	 * @return time in ms since the connection was established, at least 1
+	 */
+	public long getUptime(){
+		return Math.max(1, System.currentTimeMillis() - connectedAt);
+	}
+
+	public synchronized long getBytesSent(){
+		return bytesSent;
+	}
+
+	public synchronized long getBytesReceived(){
+		return bytesReceived;
+	}
+
+	public synchronized long getMessagesSent(){
+		return messagesSent;
+	}
+
+	public synchronized long getMessagesReceived(){
+		return messagesReceived;
+	}
+
+	/**
+	 * @return heartbeats which were not answered in time
+	 */
+	public synchronized int getLostHeartbeats(){
+		return heartbeatsLost;
+	}
+
+	public synchronized int getWriteErrors(){
+		return writeErrors;
+	}
+
+	public synchronized int getStalls(){
+		return stalls;
+	}
+
+	@Override
+	public String toString() {
+		float[] p = getRttPercentiles();
+		return "rtt p50=" + p[0] + "ms p90=" + p[1] + "ms p99=" + p[2] + "ms"
+			+ ", sent=" + getBytesSent() + "B (" + getSendThroughput() + "B/s)"
+			+ ", received=" + getBytesReceived() + "B (" + getReceiveThroughput() + "B/s)"
+			+ ", lost heartbeats=" + getLostHeartbeats()
+			+ ", write errors=" + getWriteErrors()
+			+ ", stalls=" + getStalls();
+	}
+}
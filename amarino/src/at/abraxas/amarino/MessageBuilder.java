@@ -19,11 +19,19 @@
 package at.abraxas.amarino;
 
 import android.content.Intent;
+import at.abraxas.amarino.core.FrameCache;
+import at.abraxas.amarino.core.FrameEncoder;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.Protocol;
+import at.abraxas.amarino.core.StreamCodec;
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
 import at.abraxas.amarino.log.Logger;
 
 /**
  * The MessageBuilder class converts different data types to
- * a String message which is later sent to Arduino.
+ * a String message, or right into its bytes, which is later sent to Arduino.
  * 
  * <p>The last character of the String message is always an {@link #ACK_FLAG}.
  * If the data is given as an array, the resulting String will separate
@@ -35,195 +43,364 @@ public class MessageBuilder {
 	
 	public static final String TAG = "MessageBuilder";
 	
-	public static final char ALIVE_FLAG = 17;
-	public static final char ARDUINO_MSG_FLAG = 18;
-	public static final char ACK_FLAG = 19;
-	public static final char FLUSH_FLAG = 27;
-	public static final char DELIMITER = ';'; // used to separate data strings
+	public static final char ALIVE_FLAG = Protocol.ALIVE_FLAG;
+	public static final char ARDUINO_MSG_FLAG = Protocol.ARDUINO_MSG_FLAG;
+	public static final char ACK_FLAG = Protocol.ACK_FLAG;
+	public static final char FLUSH_FLAG = Protocol.FLUSH_FLAG;
+	public static final char DELIMITER = Protocol.DELIMITER; // used to separate data strings
 	
 	// alive msg is happens very often, we optimize it to be a constant
 	// instead of constructing it always from ground
-	public static final String ALIVE_MSG = ALIVE_FLAG + "" + ACK_FLAG;
+	public static final String ALIVE_MSG = Protocol.ALIVE_MSG;
 	
+	private static final Histogram ENCODE = Metrics.histogram("tx.encode");
+	private static final Counter ENCODE_ERRORS = Metrics.counter("tx.encode_errors");
+	/* what stream messages cost compared to the same data as decimal text */
+	private static final Counter STREAM_BYTES = Metrics.counter("tx.stream.bytes");
+	private static final Counter STREAM_PLAIN_BYTES = Metrics.counter("tx.stream.plain_bytes");
+	/* what fixed-point messages cost compared to the same data as decimal text */
+	private static final Counter FIXED_BYTES = Metrics.counter("tx.fixed.bytes");
+	private static final Counter FIXED_PLAIN_BYTES = Metrics.counter("tx.fixed.plain_bytes");
+	private static final Counter FRAME_CACHE_HITS = Metrics.counter("tx.frame_cache.hits");
+	private static final Counter FRAME_CACHE_MISSES = Metrics.counter("tx.frame_cache.misses");
+	
+	// same as the alive msg for any message repeated often, e.g. switch states and fixed colors, not for sensor data
+	private static final FrameCache FRAME_CACHE = new FrameCache(128);
 	
 
 	public static String getMessage(Intent intent){
+		return getMessage(intent, new FrameEncoder(32));
+	}
+	
+	/**
+	 * Same as {@link #getMessage(Intent)}, without allocating a buffer for every
+	 * message.
+	 * 
+	 * @param encoder its buffer is reused, e.g. one of the main thread
+	 */
+	public static String getMessage(Intent intent, FrameEncoder encoder){
+		long start = ENCODE.start();
+		String msg = buildMessage(intent, encoder) ? encoder.put(ACK_FLAG).toString() : null;
+		ENCODE.stop(start);
+		if (msg == null) ENCODE_ERRORS.inc();
+		return msg;
+	}
+	
+	/**
+	 * Writes the message right into the bytes sent over the wire, without
+	 * building it as String first.
+	 * 
+	 * @param encoder its buffer is reused, e.g. the one of the connection
+	 * @return null if the intent holds no valid data
+	 */
+	public static byte[] getBytes(Intent intent, FrameEncoder encoder){
+		long start = ENCODE.start();
+		byte[] frame = buildMessage(intent, encoder) ? encoder.end() : null;
+		ENCODE.stop(start);
+		if (frame == null) ENCODE_ERRORS.inc();
+		return frame;
+	}
+	
+	/**
+	 * Same as {@link #getBytes(Intent, FrameEncoder)}, but looks the bytes up
+	 * in a cache first. Works for single boolean, byte, char, short and int
+	 * values and for int arrays of up to {@link FrameCache#MAX_VALUES} values,
+	 * which are cached once they were sent twice. The values other data types
+	 * take hardly repeat.
+	 * 
+	 * @return the frame, shared and must not be changed, null if the intent
+	 * holds no valid data
+	 */
+	public static byte[] getCachedBytes(Intent intent, FrameEncoder encoder){
+		final int dataType = intent.getIntExtra(AmarinoIntent.EXTRA_DATA_TYPE, -1);
+		final char flag = intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, '-');
+		int value = 0;
+		int[] ints = null;
+		switch (dataType){
+		case AmarinoIntent.BOOLEAN_EXTRA:
+			value = intent.getBooleanExtra(AmarinoIntent.EXTRA_DATA, false) ? 1 : 0;
+			break;
+		case AmarinoIntent.BYTE_EXTRA:
+			value = intent.getByteExtra(AmarinoIntent.EXTRA_DATA, (byte)-1);
+			break;
+		case AmarinoIntent.CHAR_EXTRA:
+			value = intent.getCharExtra(AmarinoIntent.EXTRA_DATA, 'x');
+			break;
+		case AmarinoIntent.SHORT_EXTRA:
+			value = intent.getShortExtra(AmarinoIntent.EXTRA_DATA, (short)-1);
+			break;
+		case AmarinoIntent.INT_EXTRA:
+			value = intent.getIntExtra(AmarinoIntent.EXTRA_DATA, -1);
+			break;
+		case AmarinoIntent.INT_ARRAY_EXTRA:
+			ints = intent.getIntArrayExtra(AmarinoIntent.EXTRA_DATA);
+			if (ints == null || ints.length > FrameCache.MAX_VALUES) return getBytes(intent, encoder);
+			break;
+		default:
+			return getBytes(intent, encoder);
+		}
+		
+		byte[] frame = (ints == null) ? FRAME_CACHE.get(flag, dataType, value) : FRAME_CACHE.get(flag, dataType, ints);
+		if (frame != null){
+			FRAME_CACHE_HITS.inc();
+			return frame;
+		}
+		FRAME_CACHE_MISSES.inc();
+		// the encoder hands out a copy, which the cache may keep
+		frame = getBytes(intent, encoder);
+		if (frame == null) return null;
+		if (ints == null) FRAME_CACHE.offer(flag, dataType, value, frame);
+		else FRAME_CACHE.offer(flag, dataType, ints, frame);
+		return frame;
+	}
+	
+	/**
+	 * Builds a stream message, the difference to the previous message of the
+	 * flag, see {@link StreamCodec}.
+	 * 
+	 * @param plain the same data as built by {@link #getMessage(Intent)}, for the statistics
+	 * @return null if the data is no integer array, send the plain message instead
+	 */
+	public static String getStreamMessage(Intent intent, StreamCodec codec, String plain){
+		int[] values = null;
+		switch (intent.getIntExtra(AmarinoIntent.EXTRA_DATA_TYPE, -1)){
+		case AmarinoIntent.INT_ARRAY_EXTRA:
+			values = intent.getIntArrayExtra(AmarinoIntent.EXTRA_DATA);
+			break;
+			
+		case AmarinoIntent.SHORT_ARRAY_EXTRA:
+			short[] shorts = intent.getShortArrayExtra(AmarinoIntent.EXTRA_DATA);
+			if (shorts == null) break;
+			values = new int[shorts.length];
+			for (int i=0; i<shorts.length; i++)
+				values[i] = shorts[i];
+			break;
+			
+		case AmarinoIntent.BYTE_ARRAY_EXTRA:
+			byte[] bytes = intent.getByteArrayExtra(AmarinoIntent.EXTRA_DATA);
+			if (bytes == null) break;
+			values = new int[bytes.length];
+			for (int i=0; i<bytes.length; i++)
+				values[i] = bytes[i];
+			break;
+		}
+		if (values == null) return null;
+		
+		String msg = codec.encode(intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, '-'), values);
+		if (msg != null){
+			STREAM_BYTES.add(msg.length());
+			STREAM_PLAIN_BYTES.add(plain.length());
+		}
+		return msg;
+	}
+	
+	/**
+	 * Builds a message with floating point values as fixed-point integers,
+	 * see {@link MessageCodec#encodeFixed(char, int, float)}.
+	 * 
+	 * @param decimals digits kept after the decimal point, 0 to {@link Protocol#MAX_DECIMALS}
+	 * @param plain the same data as built by {@link #getMessage(Intent)}, for the statistics
+	 * @return null if the data is no float or double, send the plain message instead
+	 */
+	public static String getFixedMessage(Intent intent, int decimals, String plain){
+		decimals = Math.max(0, Math.min(decimals, Protocol.MAX_DECIMALS));
+		final char flag = intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, '-');
+		String msg = null;
+		switch (intent.getIntExtra(AmarinoIntent.EXTRA_DATA_TYPE, -1)){
+		case AmarinoIntent.FLOAT_EXTRA:
+			msg = MessageCodec.encodeFixed(flag, decimals, intent.getFloatExtra(AmarinoIntent.EXTRA_DATA, -1f));
+			break;
+			
+		case AmarinoIntent.DOUBLE_EXTRA:
+			msg = MessageCodec.encodeFixed(flag, decimals, intent.getDoubleExtra(AmarinoIntent.EXTRA_DATA, -1));
+			break;
+			
+		case AmarinoIntent.FLOAT_ARRAY_EXTRA:
+			float[] floats = intent.getFloatArrayExtra(AmarinoIntent.EXTRA_DATA);
+			if (floats != null) msg = MessageCodec.encodeFixed(flag, decimals, floats);
+			break;
+			
+		case AmarinoIntent.DOUBLE_ARRAY_EXTRA:
+			double[] doubles = intent.getDoubleArrayExtra(AmarinoIntent.EXTRA_DATA);
+			if (doubles != null) msg = MessageCodec.encodeFixed(flag, decimals, doubles);
+			break;
+		}
+		if (msg != null){
+			FIXED_BYTES.add(msg.length());
+			FIXED_PLAIN_BYTES.add(plain.length());
+		}
+		return msg;
+	}
+	
+	private static boolean buildMessage(Intent intent, FrameEncoder encoder){
 		final int dataType = intent.getIntExtra(AmarinoIntent.EXTRA_DATA_TYPE, -1);
 		if (dataType == -1) {
 			Logger.d(TAG, "EXTRA_DATA_TYPE not found");
-			return null;
+			return false;
 		}
 		
 		final char flag = intent.getCharExtra(AmarinoIntent.EXTRA_FLAG, '-');
 		if (flag  == -1 ){
 			Logger.d(TAG, "EXTRA_FLAG not found");
-			return null;
+			return false;
 		}
 		
 		switch (dataType){
 		case AmarinoIntent.STRING_EXTRA:
 			String s = intent.getStringExtra(AmarinoIntent.EXTRA_DATA);
 			//Logger.d(TAG, "plugin says: " + s);
-			if (s==null) return "0" + ACK_FLAG;
-			return flag + s + ACK_FLAG;
+			if (s==null) encoder.begin().put('0');
+			else encoder.begin(flag).put(s);
+			return true;
 			
 		/* double is too large for Arduinos, better not to use this datatype */
 		case AmarinoIntent.DOUBLE_EXTRA:
 			double d = intent.getDoubleExtra(AmarinoIntent.EXTRA_DATA, -1);
 			//Logger.d(TAG, "plugin says: " + d);
-			return flag + (d + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(d);
+			return true;
 			
 		/* byte is byte. In Arduino a byte stores an 8-bit unsigned number, from 0 to 255. */
 		case AmarinoIntent.BYTE_EXTRA:
 			byte by = intent.getByteExtra(AmarinoIntent.EXTRA_DATA, (byte)-1);
 			//Logger.d(TAG, "plugin says: " + by);
-			return flag + (by + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put((int)by);
+			return true;
 			
 		/* int in Android is long in Arduino (4 bytes) */
 		case AmarinoIntent.INT_EXTRA:
 			int i = intent.getIntExtra(AmarinoIntent.EXTRA_DATA, -1);
 			//Logger.d(TAG, "plugin says: " + i);
-			return flag + (i + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(i);
+			return true;
 			
 		/* short in Android is like int in Arduino (2 bytes) 2^15 */
 		case AmarinoIntent.SHORT_EXTRA:
 			short sh = intent.getShortExtra(AmarinoIntent.EXTRA_DATA, (short)-1);
 			//Logger.d(TAG, "plugin says: " + sh);
-			return flag + (sh + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put((int)sh);
+			return true;
 
 		/* float in Android is float in Arduino (4 bytes) */
 		case AmarinoIntent.FLOAT_EXTRA:
 			float f = intent.getFloatExtra(AmarinoIntent.EXTRA_DATA, -1f);
 			//Logger.d(TAG, "plugin says: " + f);
-			return flag + (f + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(f);
+			return true;
 		
 		/* boolean in Android is in Arduino 0=false, 1=true */
 		case AmarinoIntent.BOOLEAN_EXTRA:
 			boolean b = intent.getBooleanExtra(AmarinoIntent.EXTRA_DATA, false);
 			//Logger.d(TAG, "plugin says: " + b);
-			return flag + (((b) ? 1 : 0) + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(b);
+			return true;
 			
 		/* char is char. In Arduino stored in 1 byte of memory */
 		case AmarinoIntent.CHAR_EXTRA:
 			char c = intent.getCharExtra(AmarinoIntent.EXTRA_DATA, 'x');
 			//Logger.d(TAG, "plugin says: " + c);
-			return flag + (c + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(c);
+			return true;
 		
 		/* long in Android does not fit in Arduino data types, better not to use it */
 		case AmarinoIntent.LONG_EXTRA:
 			long l = intent.getLongExtra(AmarinoIntent.EXTRA_DATA, -1l);
 			//Logger.d(TAG, "plugin says: " + l);
-			return flag + (l + String.valueOf(ACK_FLAG));
+			encoder.begin(flag).put(l);
+			return true;
 
 		case AmarinoIntent.INT_ARRAY_EXTRA:
 			int[] ints = intent.getIntArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (ints != null){
-				String msg = new String();
-				for (int integer : ints){
-					msg += String.valueOf(integer) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (ints == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<ints.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(ints[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.CHAR_ARRAY_EXTRA:
 			char[] chars = intent.getCharArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (chars != null){
-				String msg = new String();
-				for (char character : chars){
-					msg += String.valueOf(character) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (chars == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<chars.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(chars[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.BYTE_ARRAY_EXTRA:
 			byte[] bytes = intent.getByteArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (bytes != null){
-				String msg = new String();
-				for (byte oneByte : bytes){
-					msg += String.valueOf(oneByte) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (bytes == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<bytes.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put((int)bytes[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.SHORT_ARRAY_EXTRA:
 			short[] shorts = intent.getShortArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (shorts != null){
-				String msg = new String();
-				for (short shorty : shorts){
-					msg += String.valueOf(shorty) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (shorts == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<shorts.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put((int)shorts[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.STRING_ARRAY_EXTRA:
 			String[] strings = intent.getStringArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (strings != null){
-				String msg = new String();
-				for (String str : strings){
-					msg += String.valueOf(str) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (strings == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<strings.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(String.valueOf(strings[a]));
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.DOUBLE_ARRAY_EXTRA:
 			double[] doubles = intent.getDoubleArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (doubles != null){
-				String msg = new String();
-				for (double singleDouble : doubles){ // :-)
-					msg += String.valueOf(singleDouble) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (doubles == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<doubles.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(doubles[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.FLOAT_ARRAY_EXTRA:
 			float[] floats = intent.getFloatArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (floats != null){
-				String msg = new String();
-				for (float fl : floats){
-					msg += String.valueOf(fl) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (floats == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<floats.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(floats[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.BOOLEAN_ARRAY_EXTRA:
 			boolean[] booleans = intent.getBooleanArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (booleans != null){
-				String msg = new String();
-				for (boolean bool : booleans){
-					msg += String.valueOf((bool) ? 1 : 0) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (booleans == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<booleans.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(booleans[a]);
 			}
-			break;
+			return true;
 			
 		case AmarinoIntent.LONG_ARRAY_EXTRA:
 			long[] longs = intent.getLongArrayExtra(AmarinoIntent.EXTRA_DATA);
-			if (longs != null){
-				String msg = new String();
-				for (long longo : longs){
-					msg += String.valueOf(longo) + DELIMITER;
-				}
-				return flag + finishingMessage(msg);
+			if (longs == null) break;
+			encoder.begin(flag);
+			for (int a=0; a<longs.length; a++){
+				if (a > 0) encoder.delimiter();
+				encoder.put(longs[a]);
 			}
-			break;
+			return true;
 
 		}
-		return null;
-	}
-	
-	private static String finishingMessage(String msg){
-		int length = msg.length();
-		if (length > 0)
-			return msg.substring(0, length-1) + ACK_FLAG;
-		else
-			return msg + ACK_FLAG;
+		return false;
 	}
 	
 	/**
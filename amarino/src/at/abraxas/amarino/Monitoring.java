@@ -21,14 +21,21 @@ package at.abraxas.amarino;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import java.util.HashMap;
+
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.IBinder;
 import android.preference.PreferenceManager;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.Button;
@@ -36,6 +43,8 @@ import android.widget.EditText;
 import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
+import at.abraxas.amarino.core.flow.Flow;
+import at.abraxas.amarino.core.flow.FrameHub;
 import at.abraxas.amarino.log.LogListener;
 import at.abraxas.amarino.log.Logger;
 
@@ -50,6 +59,8 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 	private static final int DIALOG_FLAGS = 1;
 	private static final int DIALOG_DEVICES = 2;
 	
+	private static final int MENU_STATS = 1;
+	
 	private static final String KEY_FLAG_PREF = "flag_pref";
 	private static final int MAX_ENTRIES = 400;
 	
@@ -67,6 +78,25 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 	String[] flags;
 	char selectedFlag;
 	
+	private AmarinoService service;
+	/* <address, subscriber> of messages received from Arduino, main thread only */
+	private final HashMap<String, ReceivedPrinter> printers = new HashMap<String, ReceivedPrinter>();
+	
+	private final ServiceConnection serviceConnection = new ServiceConnection() {
+		
+		@Override
+		public void onServiceConnected(ComponentName name, IBinder binder) {
+			service = ((AmarinoService.AmarinoServiceBinder)binder).getService();
+			subscribe();
+		}
+		
+		@Override
+		public void onServiceDisconnected(ComponentName name) {
+			unsubscribe();
+			service = null;
+		}
+	};
+	
 	
 	@Override
 	protected void onCreate(Bundle savedInstanceState) {
@@ -137,6 +167,8 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 	protected void onStart() {
 		super.onStart();
 		logScrollView.fullScroll(View.FOCUS_DOWN);
+		// only if the service runs already, the devices are shown once it is bound
+		bindService(new Intent(Monitoring.this, AmarinoService.class), serviceConnection, 0);
 	}
 
 	@Override
@@ -147,6 +179,9 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 			.putInt(KEY_FLAG_PREF, selectedFlag).commit();
 		Logger.unregisterLogListener(this);
 		unregisterReceiver(receiver);
+		unsubscribe();
+		unbindService(serviceConnection);
+		service = null;
 	}
 	
 	
@@ -167,11 +202,13 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 			logScrollView.smoothScrollBy(0, logTV.getHeight());
 			Logger.registerLogListener(this);
 			Logger.enabled = true;
+			subscribe();
 		}
 		else {
 			monitoringBtn.setText("Enable Monitoring");
 			Logger.enabled = false;
 			Logger.unregisterLogListener(this);
+			unsubscribe();
 			logTV.append("Monitoring disabled!\n");
 		}
 	}
@@ -186,35 +223,116 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 		Monitoring.this.startService(intent);
 	}
 	
+	/* shows what connected devices send while monitoring */
+	private void subscribe(){
+		if (service == null || !monitoring || addresses == null) return;
+		for (String address : addresses){
+			if (printers.containsKey(address)) continue;
+			ReceivedPrinter p = new ReceivedPrinter(address);
+			printers.put(address, p);
+			// publishers survive reconnects, so does the subscription
+			service.getPublisher(address, FrameHub.ANY_FLAG).subscribe(p);
+		}
+	}
+	
+	private void unsubscribe(){
+		for (ReceivedPrinter p : printers.values())
+			p.cancel();
+		printers.clear();
+	}
+	
+	/* main thread only */
+	private void append(String line){
+		logEntries++;
+		if (logEntries > MAX_ENTRIES){
+			int size = logTV.getText().length();
+			logTV.setText(logTV.getText().subSequence(size/2, size));
+			logEntries /= 2;
+		}
+		logTV.append(line + "\n");
+		if (!userTouch){
+			logScrollView.post(new Runnable() {
+				
+				@Override
+				public void run() {
+					logScrollView.smoothScrollBy(0, 60);
+				}
+			});
+		}
+	}
 	
 
 	@Override
 	public void logChanged(final String lastAddedMsg) {
-		logEntries++;
-
 		handler.post(new Runnable() {
 			
 			@Override
 			public void run() {
-				if (logEntries > MAX_ENTRIES){
-					int size = logTV.getText().length();
-					logTV.setText(logTV.getText().subSequence(size/2, size));
-					logEntries /= 2;
-				}
-				logTV.append(lastAddedMsg + "\n");
-				if (!userTouch){
-					logScrollView.post(new Runnable() {
-						
-						@Override
-						public void run() {
-							logScrollView.smoothScrollBy(0, 60);
-						}
-					});
-				}
+				append(lastAddedMsg);
 			}
 		});
 	}
 	
+	/**
+	 * Takes one message at a time, the next one is requested once the last one
+	 * is shown. A chatty Arduino fills the buffer of its subscription, not the
+	 * queue of the UI thread.
+	 */
+	private class ReceivedPrinter implements Flow.Subscriber<String> {
+		
+		private final String address;
+		private Flow.Subscription subscription;
+		
+		ReceivedPrinter(String address){
+			this.address = address;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(1);
+		}
+		
+		@Override
+		public void onNext(final String message) {
+			handler.post(new Runnable() {
+				
+				@Override
+				public void run() {
+					append("Arduino " + address + " says: " + message);
+					subscription.request(1);
+				}
+			});
+		}
+		
+		@Override
+		public void onError(Throwable throwable) { }
+		
+		@Override
+		public void onComplete() { }
+		
+		void cancel(){
+			subscription.cancel();
+		}
+	}
+	
+	@Override
+	public boolean onCreateOptionsMenu(Menu menu) {
+		menu.add(Menu.NONE, MENU_STATS, Menu.FIRST, R.string.menu_stats)
+			.setIcon(android.R.drawable.ic_menu_info_details);
+		return super.onCreateOptionsMenu(menu);
+	}
+
+	@Override
+	public boolean onOptionsItemSelected(MenuItem item) {
+		switch (item.getItemId()){
+		case MENU_STATS:
+			startActivity(new Intent(Monitoring.this, StatsActivity.class));
+			return true;
+		}
+		return super.onOptionsItemSelected(item);
+	}
+	
 	@Override
     protected Dialog onCreateDialog(int id) {
 		 switch (id) {
@@ -294,6 +412,7 @@ public class Monitoring extends Activity implements LogListener, View.OnClickLis
 			
 			if (AmarinoIntent.ACTION_CONNECTED_DEVICES.equals(action)){
 				addresses = intent.getStringArrayExtra(AmarinoIntent.EXTRA_CONNECTED_DEVICE_ADDRESSES);
+				subscribe();
 			}
 		}
 	};
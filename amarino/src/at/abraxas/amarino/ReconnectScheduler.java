@@ -0,0 +1,183 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import android.os.Handler;
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+import at.abraxas.amarino.log.Logger;
+
+/**
+ * ReconnectScheduler brings back connections which were lost without the user
+ * asking for it (link broke down, service got killed by the system).
+ *
+ * <p>Each device has its own exponential backoff. The delay doubles with every
+ * failed attempt up to {@link #MAX_DELAY}, half of it is randomized so that
+ * several devices lost at the same time do not hammer the adapter in lockstep.</p>
+ *
+ * <p>The time from losing a link until it is back is recorded in the
+ * <code>reconnect.latency</code> histogram, shown on the statistics screen.</p>
+ *
+ * <p>All callbacks are executed by the given Handler, thus normally on the main thread.</p>
+ */
+class ReconnectScheduler {
+
+	private static final String TAG = "ReconnectScheduler";
+
+	static final long INITIAL_DELAY = 1000;
+	static final long MAX_DELAY = 60000;
+	static final int MAX_ATTEMPTS = 12;
+
+	private static final Histogram LATENCY = Metrics.histogram("reconnect.latency");
+	private static final Counter GIVE_UPS = Metrics.counter("reconnect.give_ups");
+
+	interface Callback {
+		void reconnect(String address);
+		void giveUp(String address);
+	}
+
+	private final Handler handler;
+	private final Callback callback;
+	private final Random random = new Random();
+
+	/* <address, pending reconnect> */
+	private final HashMap<String, Pending> pending = new HashMap<String, Pending>();
+
+
+	private class Pending implements Runnable {
+		final String address;
+		final long lostAt;
+		int attempts = 0;
+
+		Pending(String address, long lostAt){
+			this.address = address;
+			this.lostAt = lostAt;
+		}
+
+		@Override
+		public void run() {
+			attempts++;
+			Logger.d(TAG, "reconnect attempt " + attempts + " to " + address);
+			callback.reconnect(address);
+		}
+	}
+
+
+	ReconnectScheduler(Handler handler, Callback callback){
+		this.handler = handler;
+		this.callback = callback;
+	}
+
+	/**
+	 * Schedules the next reconnect attempt for the given device. The first call
+	 * starts a new backoff sequence, every further call before {@link #connected(String)}
+	 * was reported doubles the delay.
+	 *
+	 * @param address the device to reconnect to
+	 * @param lostAt time in ms when the connection was lost, used to measure the reconnect latency
+	 */
+	synchronized void schedule(String address, long lostAt){
+		Pending p = pending.get(address);
+		if (p == null){
+			p = new Pending(address, lostAt);
+			pending.put(address, p);
+		}
+		else {
+			handler.removeCallbacks(p);
+		}
+
+		if (p.attempts >= MAX_ATTEMPTS){
+			Logger.d(TAG, "giving up on " + address + " after " + p.attempts + " attempts");
+			pending.remove(address);
+			GIVE_UPS.inc();
+			final String giveUpAddress = address;
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					callback.giveUp(giveUpAddress);
+				}
+			});
+			return;
+		}
+
+		long delay = getDelay(p.attempts);
+		Logger.d(TAG, "reconnect to " + address + " in " + delay + "ms");
+		handler.postDelayed(p, delay);
+	}
+
+	/**
+	 * Called after a connection attempt failed. Only devices with a pending reconnect are
+	 * rescheduled, failures of normal connect requests are ignored.
+	 *
+	 * @return true if a new attempt was scheduled
+	 */
+	synchronized boolean failed(String address){
+		Pending p = pending.get(address);
+		if (p == null) return false;
+		schedule(address, p.lostAt);
+		return pending.containsKey(address);
+	}
+
+	/**
+	 * Has to be called whenever a connection has been established.
+	 */
+	synchronized void connected(String address){
+		Pending p = pending.remove(address);
+		if (p == null) return;
+		handler.removeCallbacks(p);
+
+		long latency = System.currentTimeMillis() - p.lostAt;
+		// histograms take us
+		LATENCY.record(latency * 1000);
+
+		Logger.d(TAG, "reconnected to " + address + " after " + latency + "ms (" + p.attempts + " attempts)");
+	}
+
+	synchronized void cancel(String address){
+		Pending p = pending.remove(address);
+		if (p != null)
+			handler.removeCallbacks(p);
+	}
+
+	synchronized void cancelAll(){
+		for (Pending p : pending.values())
+			handler.removeCallbacks(p);
+		pending.clear();
+	}
+
+	synchronized boolean isPending(String address){
+		return pending.containsKey(address);
+	}
+
+	synchronized boolean hasPending(){
+		return pending.size() > 0;
+	}
+
+	private long getDelay(int attempts){
+		long delay = INITIAL_DELAY << Math.min(attempts, 16);
+		if (delay > MAX_DELAY) delay = MAX_DELAY;
+		// equal jitter: keep half of the delay, randomize the other half
+		long half = delay / 2;
+		return half + (long)(random.nextDouble() * half);
+	}
+}
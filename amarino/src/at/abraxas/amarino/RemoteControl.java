@@ -59,6 +59,47 @@ public class RemoteControl extends BroadcastReceiver {
 				i.setAction(AmarinoIntent.ACTION_GET_CONNECTED_DEVICES);
 				context.startService(i);
 			}
+			else if (AmarinoIntent.ACTION_GET_LINK_STATS.equals(action)){
+				Logger.d(TAG, "GET_LINK_STATS request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_GET_LINK_STATS);
+				i.replaceExtras(intent);
+				context.startService(i);
+			}
+			else if (AmarinoIntent.ACTION_GET_METRICS.equals(action)){
+				Logger.d(TAG, "GET_METRICS request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_GET_METRICS);
+				context.startService(i);
+			}
+			else if (AmarinoIntent.ACTION_SET_PRIORITY.equals(action)){
+				Logger.d(TAG, "SET_PRIORITY request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_SET_PRIORITY);
+				i.replaceExtras(intent);
+				context.startService(i);
+			}
+			else if (AmarinoIntent.ACTION_SET_RELIABLE.equals(action)){
+				Logger.d(TAG, "SET_RELIABLE request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_SET_RELIABLE);
+				i.replaceExtras(intent);
+				context.startService(i);
+			}
+			else if (AmarinoIntent.ACTION_SET_STREAM.equals(action)){
+				Logger.d(TAG, "SET_STREAM request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_SET_STREAM);
+				i.replaceExtras(intent);
+				context.startService(i);
+			}
+			else if (AmarinoIntent.ACTION_SET_FIXED_POINT.equals(action)){
+				Logger.d(TAG, "SET_FIXED_POINT request received");
+				Intent i = new Intent(context, AmarinoService.class);
+				i.setAction(AmarinoIntent.ACTION_SET_FIXED_POINT);
+				i.replaceExtras(intent);
+				context.startService(i);
+			}
 		}
 	}
 
@@ -0,0 +1,103 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.view.View;
+import android.widget.Button;
+import android.widget.TextView;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Shows the current content of {@link Metrics}, refreshed every second.
+ */
+public class StatsActivity extends Activity implements View.OnClickListener {
+
+	private static final long REFRESH_INTERVAL = 1000;
+
+	private Button metricsBtn;
+	private TextView statsTV;
+	private Handler handler;
+
+
+	@Override
+	protected void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		setTitle(R.string.stats_title);
+		setContentView(R.layout.stats);
+
+		handler = new Handler();
+
+		metricsBtn = (Button)findViewById(R.id.metrics_btn);
+		statsTV = (TextView)findViewById(R.id.stats);
+
+		metricsBtn.setOnClickListener(this);
+		findViewById(R.id.reset_btn).setOnClickListener(this);
+		updateMetricsState();
+	}
+
+	@Override
+	protected void onResume() {
+		super.onResume();
+		handler.post(refresh);
+	}
+
+	@Override
+	protected void onPause() {
+		super.onPause();
+		handler.removeCallbacks(refresh);
+	}
+
+	private void updateMetricsState(){
+		metricsBtn.setText(Metrics.enabled ? R.string.disable_metrics : R.string.enable_metrics);
+	}
+
+	private Runnable refresh = new Runnable() {
+
+		@Override
+		public void run() {
+			statsTV.setText(Metrics.dump());
+			handler.postDelayed(this, REFRESH_INTERVAL);
+		}
+	};
+
+	@Override
+	public void onClick(View v) {
+		switch (v.getId()){
+		case R.id.metrics_btn:
+			Metrics.enabled = !Metrics.enabled;
+			PreferenceManager.getDefaultSharedPreferences(StatsActivity.this)
+				.edit()
+				.putBoolean(Metrics.KEY_IS_METRICS_ENABLED, Metrics.enabled)
+				.commit();
+			updateMetricsState();
+			break;
+
+		case R.id.reset_btn:
+			Metrics.reset();
+			statsTV.setText(Metrics.dump());
+			break;
+		}
+	}
+
+}
@@ -20,6 +20,9 @@ package at.abraxas.amarino.plugin;
 
 import android.app.Service;
 import android.content.Intent;
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
 import android.os.IBinder;
 import android.util.Log;
 import at.abraxas.amarino.AmarinoIntent;
@@ -40,6 +43,13 @@ public abstract class BackgroundService extends Service {
 	 */
 	public boolean pluginEnabled = false;
 	
+	/**
+	 * Limits how often samples are sent. Set the rate the user configured in
+	 * init(), the target rate Amarino publishes while the link to Arduino is
+	 * congested is applied automatically.
+	 */
+	public final RateLimiter rateLimiter = new RateLimiter(0);
+	
 	public BackgroundService(String tag, boolean debug){
 		super();
 		TAG = tag;
@@ -104,12 +114,33 @@ public abstract class BackgroundService extends Service {
 				Log.d(TAG, "started");
 				initInternal();
 			}
+			else if (AmarinoIntent.ACTION_SET_RATE.equals(action)) {
+				if (!pluginEnabled) {
+					// we were not running, the rate does not matter
+					stopSelf();
+				}
+				else {
+					rateLimiter.setTargetRate(intent.getFloatExtra(AmarinoIntent.EXTRA_RATE, 0));
+					if (DEBUG) Log.d(TAG, "target rate: " + rateLimiter.getEffectiveRate());
+				}
+			}
 		}
 
 		return START_STICKY;
 	}
 	
 	
+	/**
+	 * Registers the listener at the slowest sensor rate which still meets the
+	 * rate of {@link #rateLimiter}, see {@link SensorRates}.
+	 * 
+	 * @param maxReportLatencyMillis how long the sensor may hold samples back
+	 * to deliver them in batches, 0 to get each one at once
+	 */
+	public boolean registerSensor(SensorManager sm, SensorEventListener listener, Sensor sensor, int maxReportLatencyMillis){
+		return SensorRates.register(sm, listener, sensor, rateLimiter.getRate(), maxReportLatencyMillis);
+	}
+	
 	/**
 	 * This method should implement your initialization sequence (register and start sensors, etc).
 	 * The init method is called directly after receiving the ENABLE message from Amarino.
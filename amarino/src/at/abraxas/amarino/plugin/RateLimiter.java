@@ -0,0 +1,105 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+  
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.plugin;
+
+/**
+ * Lets samples through at a rate measured in time rather than in samples,
+ * so a plug-in sends as often as configured however fast the sensor delivers.
+ * 
+ * <p>Two rates apply, the lower one wins: the rate the user configured and
+ * the target rate Amarino publishes with
+ * {@link at.abraxas.amarino.AmarinoIntent#ACTION_SET_RATE} while the link
+ * to Arduino is congested. Samples are judged by their own timestamp, e.g.
+ * <code>SensorEvent.timestamp</code>, so batched samples delivered at once are
+ * still picked evenly.</p>
+ * 
+ * <p>Not thread safe, call {@link #tryAcquire(long)} from one thread, usually
+ * the one delivering sensor events. The rates may be set from any thread.</p>
+ */
+public class RateLimiter {
+	
+	/* samples arriving this early of their slot still pass, sensor timestamps jitter */
+	private static final int SLACK = 16;
+	
+	private volatile float rate;
+	private volatile float targetRate;
+	private long next = Long.MIN_VALUE;
+	
+	
+	/**
+	 * @param rate samples per second, 0 to let everything through
+	 */
+	public RateLimiter(float rate){
+		this.rate = rate;
+	}
+	
+	/**
+	 * @param rate samples per second configured by the user, 0 for no limit
+	 */
+	public void setRate(float rate){
+		this.rate = rate;
+	}
+	
+	/**
+	 * @param rate samples per second the link to Arduino carries, 0 if it keeps up
+	 */
+	public void setTargetRate(float rate){
+		this.targetRate = rate;
+	}
+	
+	/**
+	 * @return samples per second configured by the user, 0 for no limit
+	 */
+	public float getRate(){
+		return rate;
+	}
+	
+	/**
+	 * @return samples per second currently let through, 0 for no limit
+	 */
+	public float getEffectiveRate(){
+		float r = rate;
+		float t = targetRate;
+		if (r <= 0) return t;
+		if (t <= 0) return r;
+		return Math.min(r, t);
+	}
+	
+	/**
+	 * @param timestampNanos when the sample was taken
+	 * @return true if the sample should be sent, false to skip it
+	 */
+	public boolean tryAcquire(long timestampNanos){
+		float r = getEffectiveRate();
+		if (r <= 0) return true;
+		long interval = (long)(1e9 / r);
+		if (next != Long.MIN_VALUE && timestampNanos < next - interval / SLACK) return false;
+		// keep the average rate, but do not catch up after a pause
+		if (next == Long.MIN_VALUE || timestampNanos - next >= interval) next = timestampNanos + interval;
+		else next += interval;
+		return true;
+	}
+	
+	/**
+	 * Same as {@link #tryAcquire(long)} with the current time.
+	 */
+	public boolean tryAcquire(){
+		return tryAcquire(System.nanoTime());
+	}
+}
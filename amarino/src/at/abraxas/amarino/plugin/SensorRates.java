@@ -0,0 +1,125 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+  
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.plugin;
+
+import java.lang.reflect.Method;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+
+/**
+ * Registers sensor listeners at the slowest sampling rate which still meets
+ * the rate a plug-in sends at, the sensor hardware and the CPU idle in
+ * between instead of delivering samples which are skipped anyway.
+ * 
+ * <p>Where the sensor has a hardware FIFO (Android 4.4 and later), samples may
+ * also be batched: the sensor holds them back for up to a given latency and
+ * delivers them at once, the CPU wakes up far less often. Batched samples
+ * arrive late, only use a latency a plug-in can afford.</p>
+ */
+public final class SensorRates {
+	
+	/* period in us of the SENSOR_DELAY_* constants, slowest first */
+	private static final int[] DELAYS = { 200000, 60000, 20000, 0 };
+	private static final int[] CONSTANTS = {
+		SensorManager.SENSOR_DELAY_NORMAL, SensorManager.SENSOR_DELAY_UI,
+		SensorManager.SENSOR_DELAY_GAME, SensorManager.SENSOR_DELAY_FASTEST };
+	
+	/* batching came with API level 19, we still build for older platforms */
+	private static final Method REGISTER_BATCHED;
+	private static final Method GET_FIFO_MAX_EVENT_COUNT;
+	
+	static {
+		Method register = null, fifo = null;
+		try {
+			register = SensorManager.class.getMethod("registerListener",
+					SensorEventListener.class, Sensor.class, int.class, int.class, Handler.class);
+			fifo = Sensor.class.getMethod("getFifoMaxEventCount");
+		} catch (Exception e) {
+			// no batching on this platform
+			register = null;
+		}
+		REGISTER_BATCHED = register;
+		GET_FIFO_MAX_EVENT_COUNT = fifo;
+	}
+	
+	private SensorRates(){}
+	
+	/**
+	 * @param rate samples per second needed, 0 for as fast as possible
+	 * @return the sampling period in us to register with, or one of the
+	 * SENSOR_DELAY_* constants before Android 2.3, which only knows those
+	 */
+	public static int getSamplingPeriod(Sensor sensor, float rate){
+		int period = (rate <= 0) ? 0 : (int)(1000000 / rate);
+		if (Build.VERSION.SDK_INT < 9){
+			// the slowest constant which is fast enough
+			for (int i=0; i<DELAYS.length; i++)
+				if (DELAYS[i] <= period) return CONSTANTS[i];
+			return SensorManager.SENSOR_DELAY_FASTEST;
+		}
+		return Math.max(period, sensor.getMinDelay());
+	}
+	
+	/**
+	 * @return true if the sensor can hold samples back for batching
+	 */
+	public static boolean canBatch(Sensor sensor){
+		if (REGISTER_BATCHED == null) return false;
+		try {
+			return (Integer)GET_FIFO_MAX_EVENT_COUNT.invoke(sensor) > 0;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Registers the listener at the slowest rate still delivering <code>rate</code>
+	 * samples per second.
+	 * 
+	 * @param rate samples per second needed, 0 for as fast as possible
+	 * @param maxReportLatencyMillis how long the sensor may hold samples back,
+	 * 0 to deliver each one at once. Ignored if the sensor cannot batch.
+	 * @return false if the sensor could not be registered
+	 */
+	public static boolean register(SensorManager sm, SensorEventListener listener, Sensor sensor,
+			float rate, int maxReportLatencyMillis){
+		return register(sm, listener, sensor, rate, maxReportLatencyMillis, null);
+	}
+	
+	/**
+	 * @param handler the listener is called on its thread, null for the main thread
+	 * @see #register(SensorManager, SensorEventListener, Sensor, float, int)
+	 */
+	public static boolean register(SensorManager sm, SensorEventListener listener, Sensor sensor,
+			float rate, int maxReportLatencyMillis, Handler handler){
+		int period = getSamplingPeriod(sensor, rate);
+		if (maxReportLatencyMillis > 0 && canBatch(sensor)){
+			try {
+				return (Boolean)REGISTER_BATCHED.invoke(sm, listener, sensor, period, maxReportLatencyMillis * 1000, handler);
+			} catch (Exception e) {
+				// fall through, register without batching
+			}
+		}
+		return sm.registerListener(listener, sensor, period, handler);
+	}
+}
@@ -101,14 +101,22 @@ public class BarsView extends Visualizer {
 		super.onSizeChanged(w, h, oldw, oldh);
 		barHeight = mYOffset / NUM_BARS;
 		
-    	// TODO when screen size changes sometimes w or h == 0 -> Exception
     	Logger.d(TAG, "w: " + w + " h: " + h);
-        mBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
+    	// when screen size changes sometimes w or h == 0
+    	if (w <= 0 || h <= 0) return;
+    	BitmapPool.release(mBitmap);
+        mBitmap = BitmapPool.obtain(w, h);
         mCanvas.setBitmap(mBitmap);
         mCanvas.drawColor(0xFF111111);
         
     }
 
+    @Override
+    public void release() {
+    	BitmapPool.release(mBitmap);
+    	mBitmap = null;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         synchronized (this) {
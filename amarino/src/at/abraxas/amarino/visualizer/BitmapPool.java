@@ -0,0 +1,70 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.visualizer;
+
+import java.util.LinkedList;
+
+import android.graphics.Bitmap;
+
+/**
+ * Keeps bitmaps of visualizers which are not used anymore, so that the next
+ * visualizer of the same size can draw into them instead of allocating a new one.
+ *
+ * <p>All visualizers of a list have the same size, thus most requests are served
+ * from the pool. Only {@link #MAX_POOLED} bitmaps are kept, others are recycled.
+ * Must only be used from the UI thread.</p>
+ */
+public class BitmapPool {
+
+	static final int MAX_POOLED = 8;
+
+	private static final LinkedList<Bitmap> pool = new LinkedList<Bitmap>();
+
+	/**
+	 * @return a RGB_565 bitmap of the given size, the content is undefined
+	 */
+	public static Bitmap obtain(int width, int height){
+		for (Bitmap b : pool){
+			if (b.getWidth() == width && b.getHeight() == height){
+				pool.remove(b);
+				return b;
+			}
+		}
+		return Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+	}
+
+	/**
+	 * Hands the bitmap back, it must not be used by the caller afterwards.
+	 */
+	public static void release(Bitmap bitmap){
+		if (bitmap == null || bitmap.isRecycled()) return;
+		pool.addFirst(bitmap);
+		if (pool.size() > MAX_POOLED)
+			pool.removeLast().recycle();
+	}
+
+	/**
+	 * Frees all pooled bitmaps.
+	 */
+	public static void clear(){
+		for (Bitmap b : pool)
+			b.recycle();
+		pool.clear();
+	}
+}
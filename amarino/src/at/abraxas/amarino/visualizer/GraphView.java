@@ -102,9 +102,11 @@ public class GraphView extends Visualizer {
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
     	super.onSizeChanged(w, h, oldw, oldh);
-    	// TODO when screen size changes sometimes w or h == 0 -> Exception
     	Logger.d(TAG, "w: " + w + " h: " + h);
-        mBitmap = Bitmap.createBitmap(w, h, Bitmap.Config.RGB_565);
+    	// when screen size changes sometimes w or h == 0
+    	if (w <= 0 || h <= 0) return;
+    	BitmapPool.release(mBitmap);
+        mBitmap = BitmapPool.obtain(w, h);
         mCanvas.setBitmap(mBitmap);
         mCanvas.drawColor(0xFF111111);
         mLastX = mWidth;
@@ -114,6 +116,12 @@ public class GraphView extends Visualizer {
     		mLastValue[i] = minValue;
     }
 
+    @Override
+    public void release() {
+    	BitmapPool.release(mBitmap);
+    	mBitmap = null;
+    }
+
     @Override
     protected void onDraw(Canvas canvas) {
         synchronized (this) {
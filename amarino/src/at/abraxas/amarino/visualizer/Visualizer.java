@@ -46,6 +46,13 @@ public abstract class Visualizer extends View {
 	public abstract void setData(float value);
 	public abstract void setData(float[] values);
 	
+	/**
+	 * Hands the drawing buffer back to the {@link BitmapPool}. Call this when the
+	 * visualizer is not shown anymore, it must not be used afterwards.
+	 */
+	public void release(){
+	}
+	
 	
 	public void setBoundaries(float min, float max){
 		this.min = String.valueOf(min);
@@ -57,6 +64,7 @@ public abstract class Visualizer extends View {
     	
     	float[] sizes = new float[this.max.length()];
     	textHeight = mPaint.getTextSize();
+    	textWidth = 0;
     	mPaint.getTextWidths(this.max, sizes);
     	for (float f : sizes)
     		textWidth += f;
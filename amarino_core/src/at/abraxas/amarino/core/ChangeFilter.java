@@ -0,0 +1,110 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Holds back messages which tell Arduino nothing new, the values of an event
+ * which did not change or changed less than a dead-band.
+ *
+ * <p>A message passes if it is the first one, if any of its values differs
+ * from the one last passed by more than the absolute dead-band and by more
+ * than the relative dead-band of the last value, or if nothing passed for
+ * the max silence. Values are compared to what was sent last, not to what
+ * was seen last, a slow drift gets through once it adds up. Messages with
+ * values which are not numbers only pass if they differ at all. The max
+ * silence refresh happens with the next message, the filter has no timer of
+ * its own.</p>
+ *
+ * <p>One filter per event and device, thread safe.</p>
+ */
+public class ChangeFilter {
+
+	private final float absolute;
+	private final float relative;
+	private final long maxSilence;
+
+	private String lastMessage;
+	private double[] lastValues;
+	private long lastSent;
+
+
+	/**
+	 * @param absolute smallest change of a value which is sent, 0 for any change
+	 * @param relative smallest change relative to the last value sent, e.g. 0.05 for 5%
+	 * @param maxSilenceMillis send a message after this long without one, even
+	 * if it did not change, 0 for never
+	 */
+	public ChangeFilter(float absolute, float relative, long maxSilenceMillis){
+		this.absolute = Math.max(0, absolute);
+		this.relative = Math.max(0, relative);
+		this.maxSilence = Math.max(0, maxSilenceMillis);
+	}
+
+	/**
+	 * @param message an encoded message as built by {@link MessageCodec}
+	 * @return true if the message is to be sent
+	 */
+	public synchronized boolean accept(String message){
+		long now = System.nanoTime() / 1000000;
+		boolean silent = maxSilence > 0 && now - lastSent >= maxSilence;
+		if (lastMessage != null && message.equals(lastMessage) && !silent) return false;
+
+		double[] values = parse(message);
+		if (lastMessage != null && !silent && !changed(values)) return false;
+		lastMessage = message;
+		lastValues = values;
+		lastSent = now;
+		return true;
+	}
+
+	private boolean changed(double[] values){
+		// not numbers, any difference counts
+		if (values == null || lastValues == null || values.length != lastValues.length) return true;
+		for (int i=0; i<values.length; i++){
+			double last = lastValues[i];
+			double delta = Math.abs(values[i] - last);
+			if (delta > absolute && delta > relative * Math.abs(last)) return true;
+		}
+		return false;
+	}
+
+	/* the values between flag and ACK_FLAG, null if one of them is not a number */
+	private static double[] parse(String message){
+		int end = message.length() - 1;
+		if (end < 1 || message.charAt(end) != Protocol.ACK_FLAG) return null;
+
+		int count = 1;
+		for (int i=1; i<end; i++)
+			if (message.charAt(i) == Protocol.DELIMITER) count++;
+
+		double[] values = new double[count];
+		int start = 1;
+		try {
+			for (int v=0; v<count; v++){
+				int stop = message.indexOf(Protocol.DELIMITER, start);
+				if (stop < 0 || stop > end) stop = end;
+				values[v] = Double.parseDouble(message.substring(start, stop));
+				start = stop + 1;
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		return values;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Credit based flow control, keeps a fast sender from overrunning Arduino's
+ * receive buffer (64 bytes on most boards) while Arduino is busy.
+ *
+ * <p>Only a board which announced a MeetAndroid library of {@link #MIN_VERSION}
+ * or later ({@link #onVersion(int)}) is asked for credits, any other board
+ * would take the hello for a message to a sketch function, see
+ * {@link Protocol}. Boards running versions 8 to 10 do not announce
+ * themselves and stay unpaced. From then on heartbeats ask for credits until
+ * Arduino grants them:
+ * <code>FLUSH_FLAG ALIVE_FLAG CREDIT_FLAG hello ACK_FLAG</code>, hello being
+ * a hex digit. The flush drops whatever a former connection left in Arduino's
+ * buffer, so Arduino reads the hello first.
+ * Arduino answers the heartbeat as usual and from then on counts the bytes
+ * it reads from the receive buffer, starting after the hello:
+ * <code>ARDUINO_MSG_FLAG CREDIT_FLAG hello consumed window ACK_FLAG</code>,
+ * the count as 4 hex digits, wrapping around, the size of the receive buffer
+ * as 2. Such a frame follows a message whenever Arduino emptied its buffer or
+ * read half of it since the last one, and comes right before the answer to a
+ * hello.</p>
+ *
+ * <p>Until the answer to the first hello arrives, the queue is paced as if
+ * Arduino had {@link #INITIAL_WINDOW} bytes of room, the receive buffer of
+ * the smallest boards. An answer without credits, e.g. from a board reset to
+ * an older sketch, ends pacing.</p>
+ *
+ * <p>The credits are applied to the {@link OutboundQueue} of the link. Its
+ * writer has to tell about every frame it {@link #taken(OutboundQueue.Frame) takes},
+ * the reader hands every message to {@link #onMessage(String)} first and
+ * tells about heartbeat answers with {@link #onAlive()}.</p>
+ */
+public class FlowControl {
+
+	public static final int INITIAL_WINDOW = 63;
+	/** the first MeetAndroid version granting credits which announces itself */
+	public static final int MIN_VERSION = 11;
+
+	private static final int HELLOS = 16;
+
+	private final OutboundQueue queue;
+	private final byte[][] hellos = new byte[HELLOS][];
+	/* bytes taken from the queue up to each hello and the number it was sent as */
+	private final long[] marks = new long[HELLOS];
+	private final long[] helloSeqs = new long[HELLOS];
+	private long nextHello = 0;
+	/* the first hello is not answered yet */
+	private boolean provisional = false;
+	/* Arduino announced a version granting credits */
+	private volatile boolean enabled = false;
+
+	/* the hello Arduino counts from, guarded by this */
+	private long currentSeq = -1;
+	private int lastCount;
+	private long consumed;
+
+
+	public FlowControl(OutboundQueue queue){
+		this.queue = queue;
+		for (int i=0; i<HELLOS; i++){
+			hellos[i] = new byte[] {
+				(byte) Protocol.FLUSH_FLAG, (byte) Protocol.ALIVE_FLAG, (byte) Protocol.CREDIT_FLAG,
+				(byte) Character.forDigit(i, 16), (byte) Protocol.ACK_FLAG };
+			// not sent yet
+			helloSeqs[i] = -1;
+		}
+	}
+
+	/**
+	 * Called whenever Arduino announced its version, hellos are only sent from
+	 * then on.
+	 */
+	public void onVersion(int version){
+		enabled = version >= MIN_VERSION;
+	}
+
+	/**
+	 * @param plain the heartbeat to use unless Arduino is asked for credits
+	 * @return the frame to send as the next heartbeat
+	 */
+	public byte[] heartbeat(byte[] plain){
+		return (!enabled || queue.isPaced()) ? plain : hellos[(int) (nextHello % HELLOS)];
+	}
+
+	/**
+	 * Called by the writer right after it took a frame from the queue, before
+	 * writing it.
+	 *
+	 * @return true if the frame was a hello
+	 */
+	public boolean taken(OutboundQueue.Frame frame){
+		byte[] data = frame.data;
+		if (data.length != 5 || data[2] != Protocol.CREDIT_FLAG || data[1] != Protocol.ALIVE_FLAG) return false;
+		int i = Character.digit(data[3], 16);
+		if (i < 0) return false;
+		synchronized (this){
+			marks[i] = queue.getTaken();
+			helloSeqs[i] = nextHello++;
+			if (helloSeqs[i] == 0){
+				provisional = true;
+				queue.grant(marks[i], INITIAL_WINDOW);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Called with every message received on the link.
+	 *
+	 * @return true if the message granted credits, it must not be handed to
+	 * anyone else
+	 */
+	public boolean onMessage(String message){
+		if (message.length() != 8 || message.charAt(0) != Protocol.CREDIT_FLAG) return false;
+		int i = Character.digit(message.charAt(1), 16);
+		int count = MessageCodec.parseHex(message, 2, 4);
+		int window = MessageCodec.parseHex(message, 6, 2);
+		if (i < 0 || count < 0 || window < 0) return true;
+
+		long granted;
+		synchronized (this){
+			long seq = helloSeqs[i];
+			if (seq < 0){
+				// Arduino still counts for a former connection
+				return true;
+			}
+			if (seq > currentSeq){
+				// Arduino got a newer hello and counts from there
+				currentSeq = seq;
+				consumed = marks[i] + count;
+			}
+			else if (seq == currentSeq){
+				consumed += (count - lastCount) & 0xffff;
+			}
+			else {
+				// left over from an older hello
+				return true;
+			}
+			lastCount = count;
+			granted = consumed;
+			provisional = false;
+		}
+		queue.grant(granted, window);
+		return true;
+	}
+
+	/**
+	 * Called whenever Arduino answered a heartbeat.
+	 */
+	public void onAlive(){
+		synchronized (this){
+			if (!provisional) return;
+			provisional = false;
+		}
+		// the first hello was answered without credits
+		queue.stopPacing();
+	}
+}
@@ -0,0 +1,134 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.Arrays;
+
+/**
+ * Messages sent over and over again, like the state of a switch, a gesture
+ * or a fixed color, encoded once: a sender looks up the frame by flag, data
+ * type and value instead of building the message and its bytes every time.
+ *
+ * <p>Single values and short int arrays are cached. Sensor data changes with
+ * every message and would only push out what repeats, thus a frame is only
+ * taken in once the same flag, type and value was offered before. The cache
+ * is direct mapped, a frame takes the place of the one before it with the
+ * same slot, so it never holds more than its capacity and a lookup costs one
+ * hash and one array access. Thread safe without locking, entries are
+ * immutable and a lost or torn candidate only delays a frame's admission.</p>
+ */
+public class FrameCache {
+
+	/* arrays with more values hardly repeat */
+	public static final int MAX_VALUES = 8;
+
+	private static final class Entry {
+		final long key;
+		/* null for a single value */
+		final int[] values;
+		final byte[] frame;
+
+		Entry(long key, int[] values, byte[] frame){
+			this.key = key;
+			this.values = values;
+			this.frame = frame;
+		}
+	}
+
+	private final Entry[] table;
+	/* keys offered once, by the same slot as the table */
+	private final long[] candidates;
+	private final int mask;
+
+
+	/**
+	 * @param capacity frames held at most, rounded up to a power of two
+	 */
+	public FrameCache(int capacity){
+		int size = capacity > 1 ? Integer.highestOneBit(capacity - 1) << 1 : 1;
+		table = new Entry[size];
+		candidates = new long[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @param type the kind of data, e.g. the Amarino data type, boolean,
+	 * byte, char, short and int values of the same flag must differ in it
+	 * @return the frame as sent over the wire, shared and must not be changed,
+	 * null if it is not cached
+	 */
+	public byte[] get(char flag, int type, int value){
+		long key = key(flag, type, value);
+		Entry e = table[index(key)];
+		return (e != null && e.key == key && e.values == null) ? e.frame : null;
+	}
+
+	/**
+	 * @see #get(char, int, int)
+	 */
+	public byte[] get(char flag, int type, int[] values){
+		if (values.length > MAX_VALUES) return null;
+		long key = key(flag, type, Arrays.hashCode(values));
+		Entry e = table[index(key)];
+		return (e != null && e.key == key && e.values != null && Arrays.equals(e.values, values)) ? e.frame : null;
+	}
+
+	/**
+	 * Caches the frame if the same value was offered before, the first time
+	 * it is only remembered. Costs nothing but a store for values which never
+	 * repeat.
+	 *
+	 * @param frame must not be changed afterwards
+	 */
+	public void offer(char flag, int type, int value, byte[] frame){
+		long key = key(flag, type, value);
+		int i = index(key);
+		if (admit(i, key)) table[i] = new Entry(key, null, frame);
+	}
+
+	/**
+	 * Arrays longer than {@link #MAX_VALUES} are not cached.
+	 *
+	 * @see #offer(char, int, int, byte[])
+	 */
+	public void offer(char flag, int type, int[] values, byte[] frame){
+		if (values.length > MAX_VALUES) return;
+		long key = key(flag, type, Arrays.hashCode(values));
+		int i = index(key);
+		if (admit(i, key)) table[i] = new Entry(key, values.clone(), frame);
+	}
+
+	private boolean admit(int i, long key){
+		if (candidates[i] == key) return true;
+		candidates[i] = key;
+		return false;
+	}
+
+	private static long key(char flag, int type, int value){
+		return ((long)flag << 48) | ((long)(type & 0xffff) << 32) | (value & 0xffffffffL);
+	}
+
+	/* the bits of flag, type and value all end up in the slot */
+	private int index(long key){
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int)key & mask;
+	}
+}
@@ -0,0 +1,209 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes a message for Arduino right into bytes, the same bytes
+ * {@link MessageCodec#toBytes(String)} makes of the message
+ * {@link MessageCodec} builds, without the String in between.
+ *
+ * <pre>
+ * byte[] frame = encoder.begin(flag).put(1).delimiter().put(2).end();
+ * </pre>
+ *
+ * <p>The buffer is kept and grows with the longest message, meant to be
+ * reused for every message of a connection. Not thread safe.</p>
+ */
+public class FrameEncoder {
+
+	private static final byte[] MIN_LONG = MessageCodec.toBytes(String.valueOf(Long.MIN_VALUE));
+	/* 10^0 to 10^11, exact as doubles, enough for 9 digits of a float in the plain range */
+	private static final double[] POWERS = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11 };
+
+	private ByteBuffer buffer;
+
+
+	public FrameEncoder(int capacity){
+		buffer = ByteBuffer.allocate(Math.max(16, capacity));
+	}
+
+	/**
+	 * Drops whatever was written before.
+	 */
+	public FrameEncoder begin(char flag){
+		buffer.clear();
+		return put(flag);
+	}
+
+	/**
+	 * Starts a message without a flag.
+	 */
+	public FrameEncoder begin(){
+		buffer.clear();
+		return this;
+	}
+
+	/**
+	 * A single character, as '?' if it is beyond {@link Protocol#CHARSET}.
+	 */
+	public FrameEncoder put(char c){
+		ensure(1);
+		buffer.put((byte)((c > 0xff) ? '?' : c));
+		return this;
+	}
+
+	public FrameEncoder put(CharSequence s){
+		final int length = s.length();
+		ensure(length);
+		for (int i=0; i<length; i++){
+			char c = s.charAt(i);
+			buffer.put((byte)((c > 0xff) ? '?' : c));
+		}
+		return this;
+	}
+
+	/**
+	 * 1 or 0.
+	 */
+	public FrameEncoder put(boolean value){
+		return put(value ? '1' : '0');
+	}
+
+	/**
+	 * The value as decimal text.
+	 */
+	public FrameEncoder put(int value){
+		return put((long)value);
+	}
+
+	/**
+	 * The value as decimal text.
+	 */
+	public FrameEncoder put(long value){
+		if (value == Long.MIN_VALUE){
+			ensure(MIN_LONG.length);
+			buffer.put(MIN_LONG);
+			return this;
+		}
+		ensure(20);
+		if (value < 0){
+			buffer.put((byte)'-');
+			value = -value;
+		}
+		// the digits backwards, then turned around
+		final byte[] b = buffer.array();
+		final int first = buffer.arrayOffset() + buffer.position();
+		int last = first - 1;
+		do {
+			b[++last] = (byte)('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		buffer.position(last + 1 - buffer.arrayOffset());
+		for (int i=first, j=last; i<j; i++, j--){
+			byte t = b[i];
+			b[i] = b[j];
+			b[j] = t;
+		}
+		return this;
+	}
+
+	/**
+	 * The value as Java prints it, e.g. 1.5 or 1.0E-4.
+	 *
+	 * <p>Values from 10^-3 to 10^7, the ones printed without an exponent, are
+	 * written digit by digit: the fewest digits which read back as the same
+	 * float, like {@link Float#toString(float)} does on current Java versions.
+	 * All other values, and doubles, still go through a String.</p>
+	 */
+	public FrameEncoder put(float value){
+		final double abs = Math.abs((double)value);
+		if (!(abs >= 1e-3 && abs < 1e7)){
+			if (value == 0) return put((Float.floatToRawIntBits(value) < 0) ? "-0.0" : "0.0");
+			return put(Float.toString(value));
+		}
+		// 10^exp <= abs < 10^(exp+1)
+		int exp = -3;
+		for (double bound = 1e-2; abs >= bound; bound *= 10) exp++;
+		// the fewest significant digits which are still the same float, value = digits / 10^scale
+		long digits = 0;
+		int scale = 0;
+		for (int p=1; p<=9; p++){
+			scale = p - 1 - exp;
+			digits = (long)Math.rint((scale >= 0) ? abs * POWERS[scale] : abs / POWERS[-scale]);
+			double back = (scale >= 0) ? digits / POWERS[scale] : digits * POWERS[-scale];
+			if ((float)back == (float)abs) break;
+		}
+		while (scale > 0 && digits % 10 == 0){
+			digits /= 10;
+			scale--;
+		}
+		if (value < 0) put('-');
+		if (scale <= 0){
+			put(digits * (long)POWERS[-scale]);
+			return put('.').put('0');
+		}
+		final long unit = (long)POWERS[scale];
+		put(digits / unit).put('.');
+		// leading zeros of the fraction
+		long fraction = digits % unit;
+		for (long u = unit / 10; u > fraction && u > 1; u /= 10) put('0');
+		return put(fraction);
+	}
+
+	/**
+	 * @see #put(float)
+	 */
+	public FrameEncoder put(double value){
+		return put(Double.toString(value));
+	}
+
+	public FrameEncoder delimiter(){
+		return put(Protocol.DELIMITER);
+	}
+
+	/**
+	 * Closes the message with {@link Protocol#ACK_FLAG}.
+	 *
+	 * @return the bytes of the message, a copy the caller owns
+	 */
+	public byte[] end(){
+		put(Protocol.ACK_FLAG);
+		byte[] frame = new byte[buffer.position()];
+		System.arraycopy(buffer.array(), buffer.arrayOffset(), frame, 0, frame.length);
+		return frame;
+	}
+
+	/**
+	 * @return what was written so far, as text
+	 */
+	@Override
+	public String toString() {
+		return MessageCodec.toString(buffer.array(), buffer.arrayOffset(), buffer.position());
+	}
+
+	private void ensure(int bytes){
+		if (buffer.remaining() >= bytes) return;
+		ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+		buffer.flip();
+		larger.put(buffer);
+		buffer = larger;
+	}
+}
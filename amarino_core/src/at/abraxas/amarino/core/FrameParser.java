@@ -0,0 +1,101 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * FrameParser splits the byte stream coming from Arduino into messages.
+ *
+ * <p>Data can be fed in chunks of any size, a message may be spread over several
+ * reads. Answers to a heartbeat ({@link Protocol#ALIVE_FLAG}) and the version
+ * Arduino announces are reported separately. One parser per connection, it is not thread safe.</p>
+ */
+public class FrameParser {
+
+	public interface Listener {
+		/**
+		 * A complete message without the leading flag and the trailing ACK.
+		 */
+		void onMessage(String message);
+		/**
+		 * Arduino answered a heartbeat.
+		 */
+		void onAlive();
+		/**
+		 * Arduino announced the version of its MeetAndroid library.
+		 */
+		void onVersion(int version);
+		/**
+		 * A new message started before the last one was finished. The data
+		 * received so far is kept and becomes part of the next message.
+		 */
+		void onParseError();
+	}
+
+	private final Listener listener;
+	private final StringBuilder buffer = new StringBuilder(64);
+
+
+	public FrameParser(Listener listener){
+		this.listener = listener;
+	}
+
+	/**
+	 * Feeds raw bytes, each byte is one {@link Protocol#CHARSET} character.
+	 */
+	public void feed(byte[] data, int offset, int length){
+		final int end = offset + length;
+		for (int i=offset; i<end; i++){
+			feed((char)(data[i] & 0xff));
+		}
+	}
+
+	public void feed(CharSequence data){
+		final int length = data.length();
+		for (int i=0; i<length; i++){
+			feed(data.charAt(i));
+		}
+	}
+
+	private void feed(char c){
+		if (c == Protocol.ARDUINO_MSG_FLAG){
+			if (buffer.length() > 0) listener.onParseError();
+		}
+		else if (c == Protocol.ACK_FLAG){
+			// message complete
+			if (buffer.length() == 1 && buffer.charAt(0) == Protocol.ALIVE_FLAG)
+				listener.onAlive();
+			else if (buffer.length() == 3 && buffer.charAt(0) == Protocol.ALIVE_FLAG
+					&& MessageCodec.parseHex(buffer, 1, 2) >= 0)
+				listener.onVersion(MessageCodec.parseHex(buffer, 1, 2));
+			else
+				listener.onMessage(buffer.toString());
+			buffer.setLength(0);
+		}
+		else {
+			buffer.append(c);
+		}
+	}
+
+	/**
+	 * Drops a partially received message, e.g. after the connection was re-established.
+	 */
+	public void reset(){
+		buffer.setLength(0);
+	}
+}
@@ -0,0 +1,46 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.io.IOException;
+
+/**
+ * An open connection to a single Arduino, independent of the underlying
+ * transport (Bluetooth, serial line, TCP).
+ */
+public interface Link {
+
+	/**
+	 * @return the address the link was opened for, e.g. a Bluetooth MAC address,
+	 * a device node or host:port
+	 */
+	String getAddress();
+
+	/**
+	 * Writes an encoded frame. Implementations must be safe to call from
+	 * several threads, frames must never interleave.
+	 */
+	void send(byte[] frame) throws IOException;
+
+	/**
+	 * Closes the link, {@link LinkListener#onClosed(Link, IOException)} is called
+	 * once it is down.
+	 */
+	void close();
+}
@@ -0,0 +1,111 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executors running one blocking task per link, e.g. the read loop of a
+ * {@link StreamLink}.
+ *
+ * <p>On a JVM with virtual threads (Java 21 and later) every task gets its own
+ * virtual thread, so thousands of links cost little more than their buffers.
+ * Elsewhere, Android in particular, a cached pool of platform threads is used
+ * instead. The lookup is done reflectively, the library still builds for older
+ * platforms.</p>
+ */
+public class LinkThreads {
+
+	private static final Method OF_VIRTUAL;
+	private static final Method NAME;
+	private static final Method FACTORY;
+	private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+	static {
+		Method ofVirtual = null, name = null, factory = null, perTask = null;
+		try {
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			name = builder.getMethod("name", String.class, long.class);
+			factory = builder.getMethod("factory");
+			perTask = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+		} catch (Exception e) {
+			// no virtual threads on this platform
+			ofVirtual = null;
+		}
+		OF_VIRTUAL = ofVirtual;
+		NAME = name;
+		FACTORY = factory;
+		NEW_THREAD_PER_TASK_EXECUTOR = perTask;
+	}
+
+	private LinkThreads(){}
+
+	public static boolean isVirtualAvailable(){
+		return OF_VIRTUAL != null;
+	}
+
+	/**
+	 * @param name prefix of the thread names
+	 * @return an executor starting a virtual thread per task if available,
+	 * otherwise {@link #newPlatformExecutor(String)}
+	 */
+	public static ExecutorService newExecutor(String name){
+		if (OF_VIRTUAL != null){
+			try {
+				Object builder = NAME.invoke(OF_VIRTUAL.invoke(null), name + "-", 1L);
+				ThreadFactory factory = (ThreadFactory)FACTORY.invoke(builder);
+				return (ExecutorService)NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+			} catch (Exception e) {
+				// fall through
+			}
+		}
+		return newPlatformExecutor(name);
+	}
+
+	/**
+	 * @return an executor running each task on a platform daemon thread, idle
+	 * threads are reused
+	 */
+	public static ExecutorService newPlatformExecutor(String name){
+		return Executors.newCachedThreadPool(new NamedThreadFactory(name));
+	}
+
+	/**
+	 * Creates numbered daemon threads.
+	 */
+	public static class NamedThreadFactory implements ThreadFactory {
+		private final String name;
+		private int count = 0;
+
+		public NamedThreadFactory(String name){
+			this.name = name;
+		}
+
+		@Override
+		public synchronized Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name + "-" + (++count));
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A map from long keys to values without boxing the keys, open addressing
+ * with linear probing, e.g. for connections by {@link MacAddress}.
+ *
+ * <p>Not thread safe. Shared maps are copied with {@link #copy()}, changed
+ * and published as a whole.</p>
+ *
+ * @param <V> the type of the values, null values are not supported
+ */
+public class LongMap<V> {
+
+	private long[] keys;
+	private Object[] values;
+	private int size = 0;
+	private int mask;
+
+
+	/**
+	 * @param expected entries the map holds without growing
+	 */
+	public LongMap(int expected){
+		int capacity = Integer.highestOneBit(Math.max(2, expected * 2 - 1)) << 1;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V get(long key){
+		for (int i = slot(key); ; i = (i + 1) & mask){
+			Object v = values[i];
+			if (v == null) return null;
+			if (keys[i] == key) return (V)v;
+		}
+	}
+
+	public boolean containsKey(long key){
+		return get(key) != null;
+	}
+
+	/**
+	 * @return the value previously stored for the key, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(long key, V value){
+		if (value == null) throw new NullPointerException();
+		int i = slot(key);
+		for (; values[i] != null; i = (i + 1) & mask){
+			if (keys[i] == key){
+				V old = (V)values[i];
+				values[i] = value;
+				return old;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		// at most half full, probes stay short
+		if (++size * 2 > keys.length) resize(keys.length * 2);
+		return null;
+	}
+
+	/**
+	 * @return the value removed, or null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(long key){
+		int i = slot(key);
+		for (; values[i] != null; i = (i + 1) & mask){
+			if (keys[i] == key) break;
+		}
+		V old = (V)values[i];
+		if (old == null) return null;
+		values[i] = null;
+		size--;
+
+		// move entries of the probe sequence up into the gap, lookups must not stop at it
+		for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask){
+			int home = slot(keys[j]);
+			if (((j - home) & mask) >= ((j - i) & mask)){
+				keys[i] = keys[j];
+				values[i] = values[j];
+				values[j] = null;
+				i = j;
+			}
+		}
+		return old;
+	}
+
+	public int size(){
+		return size;
+	}
+
+	public long[] keys(){
+		long[] k = new long[size];
+		int n = 0;
+		for (int i=0; i<values.length; i++)
+			if (values[i] != null) k[n++] = keys[i];
+		return k;
+	}
+
+	@SuppressWarnings("unchecked")
+	public List<V> values(){
+		ArrayList<V> v = new ArrayList<V>(size);
+		for (int i=0; i<values.length; i++)
+			if (values[i] != null) v.add((V)values[i]);
+		return v;
+	}
+
+	public LongMap<V> copy(){
+		LongMap<V> copy = new LongMap<V>(1);
+		copy.keys = keys.clone();
+		copy.values = values.clone();
+		copy.size = size;
+		copy.mask = mask;
+		return copy;
+	}
+
+	public void clear(){
+		Arrays.fill(values, null);
+		size = 0;
+	}
+
+	private void resize(int capacity){
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[capacity];
+		values = new Object[capacity];
+		mask = capacity - 1;
+		for (int i=0; i<oldValues.length; i++){
+			if (oldValues[i] == null) continue;
+			int j = slot(oldKeys[i]);
+			while (values[j] != null) j = (j + 1) & mask;
+			keys[j] = oldKeys[i];
+			values[j] = oldValues[i];
+		}
+	}
+
+	private int slot(long key){
+		return MacAddress.hash(key) & mask;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * A Bluetooth device address, the 48 bits of <code>00:06:66:03:A9:2B</code>
+ * in a long.
+ *
+ * <p>Parsing checks the format on the way and allocates nothing, lookups by
+ * the long do not hash or compare strings. Hex digits may be upper or lower
+ * case, {@link #format(long)} prints them upper case as Android does.</p>
+ */
+public final class MacAddress {
+
+	/* returned by parse() for anything but an address */
+	public static final long INVALID = -1;
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final int LENGTH = 17;
+
+
+	private MacAddress(){}
+
+	/**
+	 * @return the 48 bits of an address like <code>00:06:66:03:A9:2B</code>,
+	 * {@link #INVALID} if the text is none
+	 */
+	public static long parse(CharSequence s){
+		if (s == null || s.length() != LENGTH) return INVALID;
+		long value = 0;
+		for (int i=0; i<LENGTH; i+=3){
+			int high = digit(s.charAt(i));
+			int low = digit(s.charAt(i + 1));
+			if (high < 0 || low < 0) return INVALID;
+			if (i + 2 < LENGTH && s.charAt(i + 2) != ':') return INVALID;
+			value = (value << 8) | (high << 4) | low;
+		}
+		return value;
+	}
+
+	public static boolean isValid(CharSequence s){
+		return parse(s) != INVALID;
+	}
+
+	/**
+	 * @return the address as Android writes it, e.g. <code>00:06:66:03:A9:2B</code>
+	 */
+	public static String format(long value){
+		char[] c = new char[LENGTH];
+		for (int i=0, shift=40; i<LENGTH; i+=3, shift-=8){
+			c[i] = HEX[(int)(value >>> (shift + 4)) & 0xf];
+			c[i + 1] = HEX[(int)(value >>> shift) & 0xf];
+			if (i + 2 < LENGTH) c[i + 2] = ':';
+		}
+		return new String(c);
+	}
+
+	/**
+	 * Spreads the bits of the address over the hash, devices of the same
+	 * vendor share the upper half and often differ in a few low bits only.
+	 */
+	public static int hash(long value){
+		value ^= value >>> 33;
+		value *= 0xff51afd7ed558ccdL;
+		value ^= value >>> 33;
+		return (int)value;
+	}
+
+	private static int digit(char c){
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+		if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+		return -1;
+	}
+}
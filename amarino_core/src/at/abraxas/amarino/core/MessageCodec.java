@@ -0,0 +1,303 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * MessageCodec turns values into messages for Arduino.
+ *
+ * <p>Every message starts with the flag Arduino has registered a function for
+ * and ends with {@link Protocol#ACK_FLAG}. Array values are separated by
+ * {@link Protocol#DELIMITER}. Numbers are sent as decimal text, booleans as 1 or 0.</p>
+ */
+public class MessageCodec {
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	/* 10^decimals of fixed-point values */
+	private static final double[] POWERS = { 1, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9 };
+
+	private MessageCodec(){}
+
+	public static String encode(char flag, String value){
+		return flag + value + Protocol.ACK_FLAG;
+	}
+
+	public static String encode(char flag, boolean value){
+		return new StringBuilder(16).append(flag).append((value ? 1 : 0)).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, byte value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, char value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, short value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, int value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, long value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, float value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, double value){
+		return new StringBuilder(16).append(flag).append(value).append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, boolean[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append((values[i] ? 1 : 0));
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, byte[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, char[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, short[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, int[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, long[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, float[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, double[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	public static String encode(char flag, String[] values){
+		StringBuilder sb = start(flag, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * Encodes floating point values as fixed-point integers, value times
+	 * 10^decimals, see {@link Protocol#FIXED_FLAG}. Arduino parses them with
+	 * integer math instead of atof(). Values beyond the range of a long on
+	 * Arduino are clamped to it, NaN becomes 0.
+	 *
+	 * @param decimals 0 to {@link Protocol#MAX_DECIMALS}, 0 sends plain
+	 * integers any version of MeetAndroid understands
+	 */
+	public static String encodeFixed(char flag, int decimals, float value){
+		return encodeFixed(flag, decimals, (double)value);
+	}
+
+	/**
+	 * @see #encodeFixed(char, int, float)
+	 */
+	public static String encodeFixed(char flag, int decimals, double value){
+		return startFixed(flag, decimals, 1).append(toFixed(value, decimals)).append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * @see #encodeFixed(char, int, float)
+	 */
+	public static String encodeFixed(char flag, int decimals, float[] values){
+		StringBuilder sb = startFixed(flag, decimals, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(toFixed(values[i], decimals));
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * @see #encodeFixed(char, int, float)
+	 */
+	public static String encodeFixed(char flag, int decimals, double[] values){
+		StringBuilder sb = startFixed(flag, decimals, values.length);
+		for (int i=0; i<values.length; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(toFixed(values[i], decimals));
+		}
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * Turns a message into a request Arduino answers with the same id.
+	 *
+	 * @param id 0 to {@link Protocol#MAX_REQUEST_ID}
+	 * @param message an encoded message, starting with its flag
+	 */
+	public static String request(int id, String message){
+		StringBuilder sb = new StringBuilder(message.length() + 1 + Protocol.REQUEST_ID_LENGTH)
+			.append(Protocol.REQUEST_FLAG);
+		return appendHex(sb, id, Protocol.REQUEST_ID_LENGTH).append(message).toString();
+	}
+
+	/**
+	 * Turns a message into a frame of the reliable channel.
+	 *
+	 * @param seq sequence number, 0 to 255
+	 * @param message an encoded message, starting with its flag
+	 */
+	public static String reliable(int seq, String message){
+		StringBuilder sb = new StringBuilder(message.length() + 3).append(Protocol.RELIABLE_FLAG);
+		return appendHex(sb, seq, 2).append(message).toString();
+	}
+
+	/**
+	 * Starts the reliable channel over, Arduino expects sequence number 0 next.
+	 *
+	 * @param epoch 0 to 255, different from the one of the last sync
+	 */
+	public static String reliableSync(int epoch){
+		StringBuilder sb = new StringBuilder(4).append(Protocol.RELIABLE_FLAG);
+		return appendHex(sb, epoch, 2).append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * @return the id of an answer to a request, -1 if the message is none
+	 */
+	public static int responseId(String message){
+		if (message.length() < 1 + Protocol.REQUEST_ID_LENGTH) return -1;
+		char c = message.charAt(0);
+		if (c != Protocol.REQUEST_FLAG && c != Protocol.ERROR_FLAG) return -1;
+		return parseHex(message, 1, Protocol.REQUEST_ID_LENGTH);
+	}
+
+	/**
+	 * @return the value of <code>digits</code> hex digits starting at
+	 * <code>offset</code>, -1 if one of them is none
+	 */
+	public static int parseHex(CharSequence s, int offset, int digits){
+		if (s.length() < offset + digits) return -1;
+		int value = 0;
+		for (int i=offset; i<offset+digits; i++){
+			int digit = Character.digit(s.charAt(i), 16);
+			if (digit < 0) return -1;
+			value = (value << 4) | digit;
+		}
+		return value;
+	}
+
+	private static StringBuilder appendHex(StringBuilder sb, int value, int digits){
+		for (int shift = 4 * (digits - 1); shift >= 0; shift -= 4)
+			sb.append(HEX[(value >> shift) & 0xf]);
+		return sb;
+	}
+
+	private static StringBuilder start(char flag, int values){
+		return new StringBuilder(2 + values * 8).append(flag);
+	}
+
+	private static StringBuilder startFixed(char flag, int decimals, int values){
+		StringBuilder sb = start(flag, values);
+		if (decimals > 0)
+			sb.append(Protocol.FIXED_FLAG).append((char)('0' + decimals));
+		return sb;
+	}
+
+	private static int toFixed(double value, int decimals){
+		long l = Math.round(value * POWERS[decimals]);
+		if (l > Integer.MAX_VALUE) return Integer.MAX_VALUE;
+		if (l < -Integer.MAX_VALUE) return -Integer.MAX_VALUE;
+		return (int)l;
+	}
+
+	/**
+	 * Converts a message to the bytes sent over the wire. Characters beyond
+	 * {@link Protocol#CHARSET} are replaced by '?'.
+	 */
+	public static byte[] toBytes(String message){
+		final int length = message.length();
+		byte[] bytes = new byte[length];
+		for (int i=0; i<length; i++){
+			char c = message.charAt(i);
+			bytes[i] = (byte)((c > 0xff) ? '?' : c);
+		}
+		return bytes;
+	}
+
+	/**
+	 * Converts bytes received or sent over the wire to text, one character
+	 * per byte as in {@link Protocol#CHARSET}.
+	 */
+	public static String toString(byte[] bytes, int offset, int length){
+		char[] chars = new char[length];
+		for (int i=0; i<length; i++)
+			chars[i] = (char)(bytes[offset + i] & 0xff);
+		return new String(chars);
+	}
+}
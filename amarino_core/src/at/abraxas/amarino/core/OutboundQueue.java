@@ -0,0 +1,292 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Gauge;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Frames waiting to be written to one link, sorted into priority lanes.
+ *
+ * <p>The writer always takes the oldest frame of the highest non-empty lane.
+ * Frames are never split, so a control frame waits for at most the one frame
+ * currently being written, however many bulk frames are queued. The time from
+ * {@link #offer(int, byte[])} until the writer reports the frame as written is
+ * recorded per lane (<code>tx.lane.*</code>, in us).</p>
+ *
+ * <p>Once the receiver {@link #grant(long, int) grants} credits, frames are
+ * only handed out while they fit into the receive buffer the receiver has
+ * left, counted in bytes since the queue was created. Without a grant for
+ * {@link #CREDIT_TIMEOUT} ms the queue assumes the receiver lost track and
+ * stops pacing until the next grant.</p>
+ */
+public class OutboundQueue {
+
+	/** Commands which must get through at once, e.g. stopping a motor, heartbeats */
+	public static final int CONTROL = 0;
+	/** Data a user is waiting for, the default for explicitly sent data */
+	public static final int INTERACTIVE = 1;
+	/** Continuous sensor streams, old values are worthless once newer ones are queued */
+	public static final int BULK = 2;
+	public static final int LANES = 3;
+
+	public static final long CREDIT_TIMEOUT = 1000;
+
+	private static final String[] NAMES = { "control", "interactive", "bulk" };
+
+	/* a full bulk lane drops its oldest frame, the other lanes reject new ones */
+	private static final int[] CAPACITY = { 256, 256, 64 };
+
+	private static final Histogram[] LATENCY = {
+		Metrics.histogram("tx.lane.control"),
+		Metrics.histogram("tx.lane.interactive"),
+		Metrics.histogram("tx.lane.bulk")
+	};
+	private static final Gauge QUEUED = Metrics.gauge("tx.queued");
+	private static final Histogram CREDIT_WAIT = Metrics.histogram("tx.credit_wait");
+	private static final Counter CREDIT_TIMEOUTS = Metrics.counter("tx.credit_timeouts");
+
+	/**
+	 * A queued frame.
+	 */
+	public static final class Frame {
+		public final byte[] data;
+		public final int lane;
+		final long enqueued;
+
+		Frame(byte[] data, int lane, long enqueued){
+			this.data = data;
+			this.lane = lane;
+			this.enqueued = enqueued;
+		}
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final LinkedList<Frame>[] lanes = new LinkedList[LANES];
+	private int size;
+	private int dropped;
+	private boolean closed;
+
+	/* bytes handed out so far, bytes the receiver has taken in and the limit it allows, -1 while not paced */
+	private long taken;
+	private long consumed;
+	private long limit = -1;
+	private long lastGrant;
+
+
+	public OutboundQueue(){
+		for (int i=0; i<LANES; i++)
+			lanes[i] = new LinkedList<Frame>();
+	}
+
+	public static String getLaneName(int lane){
+		return NAMES[lane];
+	}
+
+	/**
+	 * @param lane one of {@link #CONTROL}, {@link #INTERACTIVE} or {@link #BULK},
+	 * other values are treated as {@link #BULK}
+	 * @return false if the frame was not queued because the lane is full or
+	 * the queue is closed
+	 */
+	public boolean offer(int lane, byte[] frame){
+		if (lane < 0 || lane >= LANES) lane = BULK;
+		Frame f = new Frame(frame, lane, LATENCY[lane].start());
+		lock.lock();
+		try {
+			if (closed) return false;
+			LinkedList<Frame> queue = lanes[lane];
+			if (queue.size() >= CAPACITY[lane]){
+				dropped++;
+				if (lane != BULK) return false;
+				queue.removeFirst();
+				size--;
+				QUEUED.dec();
+			}
+			queue.addLast(f);
+			size++;
+			QUEUED.inc();
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for the next frame, higher lanes first. While paced, also waits
+	 * until the receiver has room for it.
+	 *
+	 * @return null once the queue is closed
+	 */
+	public Frame take() throws InterruptedException {
+		lock.lock();
+		try {
+			long waiting = 0;
+			while (true){
+				if (closed) return null;
+				int lane = head();
+				if (lane < 0){
+					notEmpty.await();
+					continue;
+				}
+				Frame f = lanes[lane].getFirst();
+				if (limit < 0 || fits(f.data.length)){
+					if (waiting != 0) CREDIT_WAIT.record((System.nanoTime() - waiting) / 1000);
+					lanes[lane].removeFirst();
+					size--;
+					QUEUED.dec();
+					taken += f.data.length;
+					return f;
+				}
+				// the head of the highest lane waits, smaller frames behind it must not overtake
+				if (waiting == 0) waiting = System.nanoTime();
+				long left = Math.max(waiting, lastGrant) + TimeUnit.MILLISECONDS.toNanos(CREDIT_TIMEOUT) - System.nanoTime();
+				if (left <= 0){
+					CREDIT_TIMEOUTS.inc();
+					limit = -1;
+				}
+				else {
+					notEmpty.awaitNanos(left);
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private int head(){
+		if (size == 0) return -1;
+		for (int i=0; i<LANES; i++)
+			if (!lanes[i].isEmpty()) return i;
+		return -1;
+	}
+
+	/* a frame larger than the receive buffer still goes once the receiver has taken in everything */
+	private boolean fits(int length){
+		return taken + length <= limit || taken <= consumed;
+	}
+
+	/**
+	 * Starts or continues pacing: the receiver has taken in <code>consumed</code>
+	 * of the bytes handed out and has room for <code>window</code> bytes beyond.
+	 */
+	public void grant(long consumed, int window){
+		lock.lock();
+		try {
+			this.consumed = consumed;
+			limit = consumed + window;
+			lastGrant = System.nanoTime();
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Hands out frames regardless of the receiver's room until the next grant.
+	 */
+	public void stopPacing(){
+		lock.lock();
+		try {
+			limit = -1;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return bytes of all frames {@link #take() taken} so far
+	 */
+	public long getTaken(){
+		lock.lock();
+		try {
+			return taken;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return true while frames wait for the receiver's credits
+	 */
+	public boolean isPaced(){
+		lock.lock();
+		try {
+			return limit >= 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The writer calls this once the frame is out, records its latency.
+	 */
+	public void written(Frame frame){
+		LATENCY[frame.lane].stop(frame.enqueued);
+	}
+
+	public int size(){
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return how many frames did not fit into their lane so far
+	 */
+	public int getDropped(){
+		lock.lock();
+		try {
+			return dropped;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Discards all queued frames and wakes up the writer, {@link #take()} returns null.
+	 */
+	public void close(){
+		lock.lock();
+		try {
+			closed = true;
+			QUEUED.add(-size);
+			for (LinkedList<Frame> queue : lanes)
+				queue.clear();
+			size = 0;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+}
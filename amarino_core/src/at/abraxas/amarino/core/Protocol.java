@@ -0,0 +1,81 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Control characters of the Amarino wire protocol, shared with the MeetAndroid
+ * library on the Arduino side.
+ *
+ * <p>A message to Arduino is <code>flag data ACK_FLAG</code>, array values are
+ * separated by {@link #DELIMITER}. A message from Arduino is
+ * <code>ARDUINO_MSG_FLAG data ACK_FLAG</code>.</p>
+ *
+ * <p>A request expecting an answer is a message to Arduino prefixed with
+ * {@link #REQUEST_FLAG} and a request id of {@link #REQUEST_ID_LENGTH} hex
+ * digits: <code>REQUEST_FLAG id flag data ACK_FLAG</code>. Arduino answers
+ * with <code>ARDUINO_MSG_FLAG REQUEST_FLAG id data ACK_FLAG</code>, or
+ * {@link #ERROR_FLAG} instead of REQUEST_FLAG if the request failed.</p>
+ *
+ * <p>MeetAndroid 11 and later announce their version while no heartbeat
+ * ({@link #ALIVE_MSG}) arrived for a few seconds:
+ * <code>ARDUINO_MSG_FLAG ALIVE_FLAG version ACK_FLAG</code>, the version as
+ * 2 hex digits. Older versions take any flag they do not know for one of a
+ * sketch function and may crash on it, so nothing but the messages of the
+ * sketch is sent to a board before it announced itself.</p>
+ *
+ * <p>Messages of the reliable channel are prefixed with {@link #RELIABLE_FLAG}
+ * and a sequence number of two hex digits, see {@link ReliableChannel}.</p>
+ *
+ * <p>Arduino grants credits for its receive buffer with {@link #CREDIT_FLAG}
+ * frames once asked to by a heartbeat carrying it, see {@link FlowControl}.</p>
+ *
+ * <p>Integer arrays may be sent as differences to the previous message with
+ * {@link #STREAM_FLAG}, see {@link StreamCodec}.</p>
+ *
+ * <p>Floating point values may be sent as fixed-point integers,
+ * <code>flag FIXED_FLAG decimals values ACK_FLAG</code>: every value is
+ * multiplied by 10 to the power of the single decimal digit following
+ * {@link #FIXED_FLAG}, rounded and sent as an integer.</p>
+ */
+public class Protocol {
+
+	public static final char ALIVE_FLAG = 17;
+	public static final char ARDUINO_MSG_FLAG = 18;
+	public static final char ACK_FLAG = 19;
+	public static final char REQUEST_FLAG = 20;
+	public static final char ERROR_FLAG = 21;
+	public static final char RELIABLE_FLAG = 22;
+	public static final char CREDIT_FLAG = 23;
+	public static final char STREAM_FLAG = 24;
+	public static final char FIXED_FLAG = 25;
+	public static final char FLUSH_FLAG = 27;
+	public static final char DELIMITER = ';';
+
+	public static final int REQUEST_ID_LENGTH = 4;
+	public static final int MAX_REQUEST_ID = 0xffff;
+	/* 10^9 still fits a long on Arduino, the values hardly do */
+	public static final int MAX_DECIMALS = 9;
+
+	public static final String ALIVE_MSG = ALIVE_FLAG + "" + ACK_FLAG;
+
+	/* Arduino only knows single byte characters */
+	public static final String CHARSET = "ISO-8859-1";
+
+	private Protocol(){}
+}
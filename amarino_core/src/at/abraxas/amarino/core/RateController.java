@@ -0,0 +1,102 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Finds the rate of messages a link carries without congestion, additive
+ * increase and multiplicative decrease (AIMD) like TCP's congestion window.
+ *
+ * <p>{@link #update(long, int, long)} is called at a steady interval with
+ * the counters of the link. The link is congested if frames were dropped
+ * since the last update, or if more than {@link #QUEUE_TARGET} frames wait
+ * and the queue did not shrink. The rate is then cut to {@link #DECREASE}
+ * of what actually got through, otherwise it grows by {@link #INCREASE}
+ * messages per second until it is above {@link #MAX_RATE} and the link is
+ * no limit anymore. It never grows further than {@link #INCREASE} above what
+ * got through, a rate the senders do not use tells nothing about the link.</p>
+ *
+ * <p>Not thread safe, meant to be driven by a single timer.</p>
+ */
+public class RateController {
+
+	/** messages per second */
+	public static final float MIN_RATE = 1;
+	public static final float MAX_RATE = 200;
+	public static final float INCREASE = 5;
+	public static final float DECREASE = 0.7f;
+	public static final int QUEUE_TARGET = 8;
+
+	private static final Counter CUTS = Metrics.counter("rate.cuts");
+
+	/* 0 while the link keeps up */
+	private float rate = 0;
+	private long lastWritten = -1;
+	private long lastDropped;
+	private int lastQueued;
+	private long lastTime;
+
+
+	/**
+	 * @param written messages written to the link so far
+	 * @param queued frames waiting to be written
+	 * @param dropped frames dropped so far because the queue was full
+	 * @return the new rate in messages per second, 0 if there is no limit
+	 */
+	public float update(long written, int queued, long dropped){
+		long now = System.nanoTime();
+		if (lastWritten < 0){
+			// first call, nothing to compare with yet
+			remember(written, queued, dropped, now);
+			return rate;
+		}
+		float seconds = (now - lastTime) / 1e9f;
+		float throughput = (written - lastWritten) / Math.max(seconds, 0.001f);
+		boolean congested = dropped > lastDropped
+			|| (queued > QUEUE_TARGET && queued >= lastQueued);
+
+		if (congested){
+			float base = (rate == 0) ? throughput : Math.min(rate, throughput);
+			rate = Math.max(MIN_RATE, base * DECREASE);
+			CUTS.inc();
+		}
+		else if (rate != 0){
+			rate = Math.min(rate + INCREASE * seconds, throughput + INCREASE);
+			if (rate > MAX_RATE) rate = 0;
+		}
+		remember(written, queued, dropped, now);
+		return rate;
+	}
+
+	/**
+	 * @return messages per second the link carries, 0 if there is no limit
+	 */
+	public float getRate(){
+		return rate;
+	}
+
+	private void remember(long written, int queued, long dropped, long now){
+		lastWritten = written;
+		lastQueued = queued;
+		lastDropped = dropped;
+		lastTime = now;
+	}
+}
@@ -0,0 +1,352 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.io.IOException;
+import java.util.LinkedList;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Delivers messages to Arduino in order and without loss, even if frames are
+ * dropped on the way, e.g. because Arduino's receive buffer overflowed.
+ *
+ * <p>Every message gets a sequence number, <code>RELIABLE_FLAG seq message</code>.
+ * Arduino acknowledges each frame with the sequence number it expects next and
+ * a bitmap of the frames it holds beyond a missing one:
+ * <code>ARDUINO_MSG_FLAG RELIABLE_FLAG epoch next bitmap window ACK_FLAG</code>,
+ * all hex digits. Only frames neither acknowledged nor held are sent again: at
+ * once if later frames overtook them, otherwise after a retransmission timeout
+ * derived from the measured round trip time.</p>
+ *
+ * <p>At most window frames are unacknowledged, the smaller of
+ * {@link #setMaxWindow(int)} and the window Arduino advertises
+ * (<code>ReliableWindow</code> in MeetAndroid.h, 1 unless raised there, every
+ * frame beyond the first costs Arduino a frame buffer of RAM). The channel starts with a sync frame carrying
+ * a random epoch once the first message is sent, sequence numbers then start
+ * at 0. Arduinos which never get a reliable message are not bothered.</p>
+ *
+ * <p>Frames are handed to the link with the lock held, {@link Link#send(byte[])}
+ * must not block for long.</p>
+ */
+public class ReliableChannel {
+
+	public static final int DEFAULT_MAX_WINDOW = 8;
+	/* messages waiting for room in the window, further ones are dropped */
+	public static final int MAX_BACKLOG = 256;
+
+	private static final int SEQ_MOD = 256;
+	private static final long TICK = 20;
+	/* round trip times and timeouts in us */
+	private static final long INITIAL_RTO = 500000;
+	private static final long MIN_RTO = 40000;
+	private static final long MAX_RTO = 4000000;
+
+	private static final Counter SENT = Metrics.counter("reliable.sent");
+	private static final Counter RETRANSMITS = Metrics.counter("reliable.retransmits");
+	private static final Counter FAST_RETRANSMITS = Metrics.counter("reliable.fast_retransmits");
+	private static final Counter DROPPED = Metrics.counter("reliable.dropped");
+	private static final Histogram RTT = Metrics.histogram("reliable.rtt");
+
+	private static final Random random = new Random();
+
+	private static class Frame {
+		final byte[] data;
+		long sentAt;
+		int sends;
+		/* Arduino has it, but misses an earlier one */
+		boolean held;
+
+		Frame(byte[] data){
+			this.data = data;
+		}
+	}
+
+	private final Link link;
+	private final ScheduledExecutorService timer;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Frame[] window = new Frame[SEQ_MOD];
+	private final LinkedList<String> backlog = new LinkedList<String>();
+	private int base = 0;
+	private int next = 0;
+	private int inflight = 0;
+	private int maxWindow = DEFAULT_MAX_WINDOW;
+	private int peerWindow = 1;
+
+	private int epoch;
+	private boolean started = false;
+	private boolean synced = false;
+	private Frame sync;
+	private ScheduledFuture<?> ticker;
+	private boolean closed = false;
+
+	private long srtt = -1;
+	private long rttvar = 0;
+	private long rto = INITIAL_RTO;
+
+
+	/**
+	 * @param timer drives retransmissions, may be shared
+	 */
+	public ReliableChannel(Link link, ScheduledExecutorService timer){
+		this.link = link;
+		this.timer = timer;
+	}
+
+	/**
+	 * @param max 1 to 8, Arduino's window still limits it
+	 */
+	public void setMaxWindow(int max){
+		lock.lock();
+		try {
+			maxWindow = Math.max(1, Math.min(max, 8));
+			pump();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Queues a message for Arduino, returns at once.
+	 *
+	 * @param message an encoded message as built by {@link MessageCodec}
+	 * @return false if the channel is closed or too many messages wait for
+	 * Arduino's acknowledgements
+	 */
+	public boolean send(String message){
+		lock.lock();
+		try {
+			if (closed) return false;
+			if (backlog.size() >= MAX_BACKLOG){
+				DROPPED.inc();
+				return false;
+			}
+			backlog.add(message);
+			if (!started) start();
+			pump();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Called with every message received on the link.
+	 *
+	 * @return true if the message was an acknowledgement, it must not be handed
+	 * to anyone else
+	 */
+	public boolean onMessage(String message){
+		if (message.length() < 8 || message.charAt(0) != Protocol.RELIABLE_FLAG) return false;
+		int ackEpoch = MessageCodec.parseHex(message, 1, 2);
+		int expected = MessageCodec.parseHex(message, 3, 2);
+		int held = MessageCodec.parseHex(message, 5, 2);
+		int advertised = MessageCodec.parseHex(message, 7, 1);
+		if (ackEpoch < 0 || expected < 0 || held < 0 || advertised < 0) return true;
+
+		lock.lock();
+		try {
+			// left over from an earlier sync
+			if (!started || closed || ackEpoch != epoch) return true;
+			peerWindow = Math.max(1, advertised);
+			if (!synced){
+				if (expected == 0 && held == 0){
+					synced = true;
+					acknowledged(sync);
+					sync = null;
+					pump();
+				}
+				else {
+					// Arduino was already in this epoch, try another one
+					resync();
+				}
+				return true;
+			}
+
+			// everything before the expected sequence number arrived
+			int acked = (expected - base) & (SEQ_MOD - 1);
+			if (acked > inflight) return true;
+			for (int i=0; i<acked; i++){
+				acknowledged(window[base]);
+				window[base] = null;
+				base = (base + 1) & (SEQ_MOD - 1);
+				inflight--;
+			}
+
+			// frames held beyond a missing one, send the missing ones right away
+			int last = -1;
+			long overtaken = 0;
+			for (int i=0; i<8 && i+1<inflight; i++){
+				if ((held & (1 << i)) != 0){
+					Frame f = window[(base + 1 + i) & (SEQ_MOD - 1)];
+					f.held = true;
+					overtaken = Math.max(overtaken, f.sentAt);
+					last = i + 1;
+				}
+			}
+			for (int i=0; i<last; i++){
+				Frame f = window[(base + i) & (SEQ_MOD - 1)];
+				// only if a frame sent after it made it, not again while the retransmission is on its way
+				if (!f.held && f.sentAt < overtaken){
+					FAST_RETRANSMITS.inc();
+					transmit(f);
+				}
+			}
+			pump();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Drops all queued and unacknowledged messages.
+	 */
+	public void close(){
+		lock.lock();
+		try {
+			closed = true;
+			if (ticker != null) ticker.cancel(false);
+			backlog.clear();
+			for (int i=0; i<SEQ_MOD; i++)
+				window[i] = null;
+			inflight = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return messages sent but not yet acknowledged plus those waiting for room in the window
+	 */
+	public int getPending(){
+		lock.lock();
+		try {
+			return inflight + backlog.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void start(){
+		started = true;
+		try {
+			ticker = timer.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					tick();
+				}
+			}, TICK, TICK, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e){
+			// shutting down
+			closed = true;
+			return;
+		}
+		epoch = random.nextInt(SEQ_MOD);
+		resync();
+	}
+
+	private void resync(){
+		epoch = (epoch + 1) & (SEQ_MOD - 1);
+		synced = false;
+		sync = new Frame(MessageCodec.toBytes(MessageCodec.reliableSync(epoch)));
+		transmit(sync);
+	}
+
+	/* fills the window from the backlog */
+	private void pump(){
+		if (!synced) return;
+		final int w = Math.min(maxWindow, peerWindow);
+		while (inflight < w && !backlog.isEmpty()){
+			Frame f = new Frame(MessageCodec.toBytes(MessageCodec.reliable(next, backlog.removeFirst())));
+			window[next] = f;
+			next = (next + 1) & (SEQ_MOD - 1);
+			inflight++;
+			SENT.inc();
+			transmit(f);
+		}
+	}
+
+	private void tick(){
+		lock.lock();
+		try {
+			if (closed) return;
+			long now = now();
+			boolean expired = false;
+			if (!synced){
+				if (sync != null && now - sync.sentAt > rto){
+					transmit(sync);
+					expired = true;
+				}
+			}
+			else {
+				for (int i=0; i<inflight; i++){
+					Frame f = window[(base + i) & (SEQ_MOD - 1)];
+					if (!f.held && now - f.sentAt > rto){
+						RETRANSMITS.inc();
+						transmit(f);
+						expired = true;
+					}
+				}
+			}
+			// back off, Arduino may be busy
+			if (expired) rto = Math.min(rto * 2, MAX_RTO);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void transmit(Frame f){
+		f.sentAt = now();
+		f.sends++;
+		try {
+			link.send(f.data);
+		} catch (IOException e) {
+			// sent again once the timeout expires
+		}
+	}
+
+	/* round trip time estimation as in TCP, frames sent more than once do not count */
+	private void acknowledged(Frame f){
+		if (f == null || f.sends != 1) return;
+		long rtt = now() - f.sentAt;
+		RTT.record(rtt);
+		if (srtt < 0){
+			srtt = rtt;
+			rttvar = rtt / 2;
+		}
+		else {
+			rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+			srtt = (7 * srtt + rtt) / 8;
+		}
+		rto = Math.max(MIN_RTO, Math.min(srtt + 4 * rttvar, MAX_RTO));
+	}
+
+	private static long now(){
+		return System.nanoTime() / 1000;
+	}
+}
@@ -0,0 +1,92 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Where the data of a plug-in goes: the device and the flag Arduino has
+ * registered a function for, and which of its messages are worth sending.
+ * Immutable but for the state of the filter and whether data went along it
+ * lately, neither is part of its identity.
+ */
+public final class Route {
+
+	public final String address;
+	/* the address as number, MacAddress.INVALID if it is none */
+	public final long mac;
+	public final char flag;
+	/* null if every message is sent */
+	public final ChangeFilter filter;
+	/* data went along it since takeUsed() was called last */
+	private volatile boolean used = false;
+
+	public Route(String address, char flag){
+		this(address, flag, null);
+	}
+
+	public Route(String address, char flag, ChangeFilter filter){
+		this.address = address;
+		this.mac = MacAddress.parse(address);
+		this.flag = flag;
+		this.filter = filter;
+	}
+
+	/**
+	 * Marks that data was sent along this route, cheap enough for every message.
+	 */
+	public void markUsed(){
+		// the field is only written once per round, not with every message
+		if (!used) used = true;
+	}
+
+	/**
+	 * @return true if data was sent along this route since the last call
+	 */
+	public boolean takeUsed(){
+		if (!used) return false;
+		used = false;
+		return true;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof Route)) return false;
+		Route other = (Route)o;
+		return flag == other.flag && sameDevice(other);
+	}
+
+	/**
+	 * @return true if both routes lead to the same device, addresses differing
+	 * in the case of hex digits are the same
+	 */
+	public boolean sameDevice(Route other){
+		return (mac != MacAddress.INVALID) ? mac == other.mac : address.equals(other.address);
+	}
+
+	@Override
+	public int hashCode() {
+		int device = (mac != MacAddress.INVALID) ? MacAddress.hash(mac) : address.hashCode();
+		return device * 31 + flag;
+	}
+
+	@Override
+	public String toString() {
+		return address + " '" + flag + "'";
+	}
+}
@@ -0,0 +1,252 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Router keeps track of open connections and of the routes each plug-in
+ * sends its data along.
+ *
+ * <p>It is accessed from the connection threads, the main thread and broadcast
+ * handlers at the same time. Reads never lock: the routes of a plug-in are an
+ * immutable array which is replaced as a whole (copy-on-write) whenever a device
+ * gets connected or disconnected, and so is the {@link IntMap} holding them by
+ * plug-in id, {@link #getRoutes(int)} boxes nothing. Writers are serialized.</p>
+ *
+ * <p>Connections to Bluetooth devices are kept by their {@link MacAddress},
+ * looking one up parses the address instead of hashing and comparing strings,
+ * and {@link #get(Route)} neither. Anything else, e.g. a serial port of the
+ * gateway, is kept by its address as is. {@link #getAddresses()} returns the
+ * addresses as the connections were registered with.</p>
+ *
+ * @param <C> the type representing a single connection
+ */
+public class Router<C> {
+
+	private static final Route[] NO_ROUTES = new Route[0];
+
+	/* a connection and the address it was registered with */
+	private static final class Device<C> {
+		final String address;
+		final C connection;
+
+		Device(String address, C connection){
+			this.address = address;
+			this.connection = connection;
+		}
+	}
+
+	/* most ppl will only use one Bluetooth device, <MAC address, device>, replaced as a whole on every change */
+	private volatile LongMap<Device<C>> devices = new LongMap<Device<C>>(4);
+	/* connections without a MAC address, <address, connection> */
+	private final ConcurrentHashMap<String, C> others = new ConcurrentHashMap<String, C>(4);
+
+	/* need to know which plugin has been activated for which device, <pluginId, routes>, replaced as a whole on every change */
+	private volatile IntMap<Route[]> routes = new IntMap<Route[]>(8);
+
+
+	/* ---------- connections ---------- */
+
+	public C get(String address){
+		long mac = MacAddress.parse(address);
+		return (mac != MacAddress.INVALID) ? get(mac) : others.get(address);
+	}
+
+	/**
+	 * @param mac the address of a Bluetooth device, see {@link MacAddress#parse(CharSequence)}
+	 */
+	public C get(long mac){
+		Device<C> d = devices.get(mac);
+		return (d == null) ? null : d.connection;
+	}
+
+	/**
+	 * @return the connection of the device the route leads to, or null
+	 */
+	public C get(Route route){
+		return (route.mac != MacAddress.INVALID) ? get(route.mac) : others.get(route.address);
+	}
+
+	public boolean contains(String address){
+		return get(address) != null;
+	}
+
+	/**
+	 * @return the connection previously registered for this address, or null
+	 */
+	public synchronized C put(String address, C connection){
+		long mac = MacAddress.parse(address);
+		if (mac == MacAddress.INVALID) return others.put(address, connection);
+		LongMap<Device<C>> copy = devices.copy();
+		Device<C> old = copy.put(mac, new Device<C>(address, connection));
+		devices = copy;
+		return (old == null) ? null : old.connection;
+	}
+
+	public synchronized C remove(String address){
+		long mac = MacAddress.parse(address);
+		if (mac == MacAddress.INVALID) return others.remove(address);
+		if (!devices.containsKey(mac)) return null;
+		LongMap<Device<C>> copy = devices.copy();
+		Device<C> old = copy.remove(mac);
+		devices = copy;
+		return old.connection;
+	}
+
+	/**
+	 * Removes the connection only if it is still the one registered for this address.
+	 *
+	 * @return true if the connection was removed
+	 */
+	public synchronized boolean remove(String address, C connection){
+		long mac = MacAddress.parse(address);
+		if (mac == MacAddress.INVALID) return others.remove(address, connection);
+		C current = get(mac);
+		if (current == null || current != connection) return false;
+		LongMap<Device<C>> copy = devices.copy();
+		copy.remove(mac);
+		devices = copy;
+		return true;
+	}
+
+	public int size(){
+		return devices.size() + others.size();
+	}
+
+	/**
+	 * @return a snapshot of the open connections
+	 */
+	public Collection<C> connections(){
+		List<Device<C>> d = devices.values();
+		ArrayList<C> all = new ArrayList<C>(d.size() + others.size());
+		for (Device<C> device : d)
+			all.add(device.connection);
+		all.addAll(others.values());
+		return all;
+	}
+
+	/**
+	 * @return the addresses of the open connections, as they were registered
+	 */
+	public String[] getAddresses(){
+		ArrayList<String> all = new ArrayList<String>();
+		for (Device<C> device : devices.values())
+			all.add(device.address);
+		all.addAll(others.keySet());
+		return all.toArray(new String[all.size()]);
+	}
+
+
+	/* ---------- plug-in routing ---------- */
+
+	/**
+	 * Returns all routes of the given plug-in. The returned array is a
+	 * snapshot and must not be modified.
+	 *
+	 * @return the routes, never null
+	 */
+	public Route[] getRoutes(int pluginId){
+		Route[] r = routes.get(pluginId);
+		return (r == null) ? NO_ROUTES : r;
+	}
+
+	/**
+	 * Enables the plug-in for the device of the given route. An existing route
+	 * of the plug-in to the same device is replaced.
+	 *
+	 * @return true if the plug-in was not enabled for any device before
+	 */
+	public synchronized boolean addRoute(int pluginId, Route route){
+		Route[] r = routes.get(pluginId);
+		if (r == null){
+			setRoutes(pluginId, new Route[]{ route });
+			return true;
+		}
+
+		int length = r.length;
+		Route[] copy = new Route[length + 1];
+		for (int i=0; i<length; i++){
+			// replace an old entry of the same device (e.g. reconnect)
+			if (r[i].sameDevice(route)){
+				copy = r.clone();
+				copy[i] = route;
+				setRoutes(pluginId, copy);
+				return false;
+			}
+			copy[i] = r[i];
+		}
+		copy[length] = route;
+		setRoutes(pluginId, copy);
+		return false;
+	}
+
+	/**
+	 * Disables the plug-in for the given device.
+	 *
+	 * @return true if this was the last device the plug-in was enabled for
+	 */
+	public synchronized boolean removeRoute(int pluginId, String address){
+		Route[] r = routes.get(pluginId);
+		if (r == null) return false;
+
+		long mac = MacAddress.parse(address);
+		int index = -1;
+		for (int i=0; i<r.length; i++){
+			if ((mac != MacAddress.INVALID) ? r[i].mac == mac : r[i].address.equals(address)){
+				index = i;
+				break;
+			}
+		}
+		if (index == -1) return false;
+
+		if (r.length == 1){
+			setRoutes(pluginId, null);
+			return true;
+		}
+
+		Route[] copy = new Route[r.length - 1];
+		System.arraycopy(r, 0, copy, 0, index);
+		System.arraycopy(r, index + 1, copy, index, r.length - index - 1);
+		setRoutes(pluginId, copy);
+		return false;
+	}
+
+	public boolean isRouted(int pluginId){
+		return routes.containsKey(pluginId);
+	}
+
+	/**
+	 * @return the ids of all plug-ins enabled for at least one device
+	 */
+	public int[] getPluginIds(){
+		return routes.keys();
+	}
+
+	/* with this held, null removes the plug-in */
+	private void setRoutes(int pluginId, Route[] r){
+		IntMap<Route[]> copy = routes.copy();
+		if (r == null) copy.remove(pluginId);
+		else copy.put(pluginId, r);
+		routes = copy;
+	}
+}
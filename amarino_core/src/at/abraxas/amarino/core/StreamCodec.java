@@ -0,0 +1,160 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Sends integer arrays which change little from one message to the next as
+ * the differences to the previous message of the same flag, a few bytes
+ * instead of all values as decimal text.
+ *
+ * <p>A stream message is <code>STREAM_FLAG flag header values ACK_FLAG</code>.
+ * The header is <code>0x40 | key &lt;&lt; 5 | seq</code>, seq counting messages
+ * of the flag modulo 32. Key frames carry the values, the others the
+ * difference to the previous message, zigzag coded so small negative
+ * differences stay small. Each value is a varint of 5 bit digits, least
+ * significant first, a digit is <code>0x40 | more &lt;&lt; 5 | bits</code>.
+ * All bytes are 0x40 to 0x7F, none of them is a control character of the
+ * protocol or the {@link Protocol#DELIMITER}.</p>
+ *
+ * <p>Arduino drops differences once it missed a message, e.g. after a reset
+ * or an overflow of its receive buffer, and waits for the next key frame.
+ * One is sent every {@link #KEYFRAME_INTERVAL} messages, after
+ * {@link #KEYFRAME_MILLIS} and whenever the number of values changes.</p>
+ *
+ * <p>Arduino sends streams the same way with <code>meetAndroid.sendStream()</code>,
+ * <code>ARDUINO_MSG_FLAG STREAM_FLAG header values ACK_FLAG</code>, without a flag.
+ * {@link #decode(String)} turns them back into values separated by
+ * {@link Protocol#DELIMITER}.</p>
+ *
+ * <p>One codec per connection, thread safe.</p>
+ */
+public class StreamCodec {
+
+	public static final int KEYFRAME_INTERVAL = 16;
+	public static final long KEYFRAME_MILLIS = 2000;
+
+	private static final int SEQ_MOD = 32;
+	private static final char DIGIT = 0x40;
+	private static final int MORE = 0x20;
+	private static final int BITS = 0x1f;
+
+	private static class Stream {
+		int[] values;
+		int seq = 0;
+		int sinceKey = 0;
+		long keyAt = 0;
+	}
+
+	/* by flag */
+	private final Stream[] out = new Stream[256];
+	private final Stream in = new Stream();
+
+
+	/**
+	 * @return the stream message, null if the flag does not fit into a byte
+	 */
+	public synchronized String encode(char flag, int[] values){
+		if (flag > 0xff) return null;
+		Stream s = out[flag];
+		if (s == null) s = out[flag] = new Stream();
+
+		long now = System.nanoTime() / 1000000;
+		boolean key = s.values == null || s.values.length != values.length
+				|| s.sinceKey >= KEYFRAME_INTERVAL - 1 || now - s.keyAt >= KEYFRAME_MILLIS;
+
+		StringBuilder sb = new StringBuilder(4 + values.length * 2)
+			.append(Protocol.STREAM_FLAG).append(flag)
+			.append((char)(DIGIT | (key ? MORE : 0) | s.seq));
+		for (int i=0; i<values.length; i++)
+			appendVarint(sb, key ? values[i] : values[i] - s.values[i]);
+
+		if (key){
+			s.sinceKey = 0;
+			s.keyAt = now;
+		}
+		else {
+			s.sinceKey++;
+		}
+		s.values = values.clone();
+		s.seq = (s.seq + 1) & (SEQ_MOD - 1);
+		return sb.append(Protocol.ACK_FLAG).toString();
+	}
+
+	/**
+	 * @param message a message from Arduino starting with {@link Protocol#STREAM_FLAG}
+	 * @return the values separated by {@link Protocol#DELIMITER}, null if the
+	 * message is broken or a difference to a message which never arrived
+	 */
+	public synchronized String decode(String message){
+		final int length = message.length();
+		if (length < 2 || message.charAt(0) != Protocol.STREAM_FLAG) return null;
+		int header = message.charAt(1);
+		if ((header & ~(MORE | BITS)) != DIGIT) return null;
+		boolean key = (header & MORE) != 0;
+		int seq = header & BITS;
+
+		int count = 0;
+		for (int i=2; i<length; i++){
+			char c = message.charAt(i);
+			if ((c & ~(MORE | BITS)) != DIGIT) return reset();
+			if ((c & MORE) == 0) count++;
+		}
+		if (length > 2 && (message.charAt(length - 1) & MORE) != 0) return reset();
+		if (!key && (in.values == null || seq != in.seq || count != in.values.length)) return reset();
+
+		int[] values = key ? new int[count] : in.values;
+		int v = 0, z = 0, shift = 0;
+		for (int i=2; i<length; i++){
+			int c = message.charAt(i);
+			if (shift < 32) z |= (c & BITS) << shift;
+			shift += 5;
+			if ((c & MORE) == 0){
+				int d = (z >>> 1) ^ -(z & 1);
+				values[v] = key ? d : values[v] + d;
+				v++;
+				z = 0;
+				shift = 0;
+			}
+		}
+		in.values = values;
+		in.seq = (seq + 1) & (SEQ_MOD - 1);
+
+		StringBuilder sb = new StringBuilder(count * 5);
+		for (int i=0; i<count; i++){
+			if (i > 0) sb.append(Protocol.DELIMITER);
+			sb.append(values[i]);
+		}
+		return sb.toString();
+	}
+
+	/* waits for the next key frame */
+	private String reset(){
+		in.values = null;
+		return null;
+	}
+
+	private static void appendVarint(StringBuilder sb, int value){
+		int z = (value << 1) ^ (value >> 31);
+		while ((z & ~BITS) != 0){
+			sb.append((char)(DIGIT | MORE | (z & BITS)));
+			z >>>= 5;
+		}
+		sb.append((char)(DIGIT | z));
+	}
+}
@@ -0,0 +1,116 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A link over a pair of blocking streams (sockets, serial ports, in-memory
+ * pipes). {@link #run()} is the read loop and occupies a thread for the whole
+ * lifetime of the link, run it on an executor of {@link LinkThreads}.
+ */
+public class StreamLink implements Link, Runnable {
+
+	private final String address;
+	private final InputStream in;
+	private final OutputStream out;
+	private final LinkListener listener;
+	private final int bufferSize;
+
+	/* not synchronized, a virtual thread blocked in a monitor pins its carrier */
+	private final ReentrantLock writeLock = new ReentrantLock();
+	private volatile boolean closed;
+
+
+	public StreamLink(String address, InputStream in, OutputStream out, LinkListener listener){
+		this(address, in, out, listener, 1024);
+	}
+
+	public StreamLink(String address, InputStream in, OutputStream out, LinkListener listener, int bufferSize){
+		this.address = address;
+		this.in = in;
+		this.out = out;
+		this.listener = listener;
+		this.bufferSize = bufferSize;
+	}
+
+	@Override
+	public String getAddress() {
+		return address;
+	}
+
+	@Override
+	public void run() {
+		byte[] buffer = new byte[bufferSize];
+		IOException cause;
+		try {
+			int n;
+			while ((n = in.read(buffer)) != -1){
+				listener.onReceived(this, buffer, 0, n);
+			}
+			cause = new IOException("end of stream");
+		} catch (IOException e) {
+			cause = e;
+		}
+		closeStreams();
+		listener.onClosed(this, closed ? null : cause);
+	}
+
+	@Override
+	public void send(byte[] frame) throws IOException {
+		if (closed) throw new IOException(address + " is closed");
+		writeLock.lock();
+		try {
+			out.write(frame);
+			out.flush();
+		} finally {
+			writeLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes both streams, which makes the read loop return.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		closeStreams();
+	}
+
+	public boolean isClosed(){
+		return closed;
+	}
+
+	private void closeStreams(){
+		try {
+			in.close();
+		} catch (IOException e) {}
+		try {
+			out.close();
+		} catch (IOException e) {}
+	}
+
+	@Override
+	public String toString() {
+		return address;
+	}
+}
@@ -0,0 +1,36 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.io.IOException;
+
+/**
+ * Opens {@link Link}s of one kind, e.g. Bluetooth RFCOMM sockets on Android or
+ * serial lines on a gateway.
+ */
+public interface Transport {
+
+	/**
+	 * Opens a link to the given address. Blocks until the link is established.
+	 *
+	 * @param listener gets all data received on the link
+	 * @throws IOException if the link could not be opened
+	 */
+	Link open(String address, LinkListener listener) throws IOException;
+}
@@ -0,0 +1,60 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+/**
+ * Reactive streams interfaces, shaped like <code>java.util.concurrent.Flow</code>
+ * which is not available on Android.
+ *
+ * <p>A subscriber receives nothing until it asks for it with
+ * {@link Subscription#request(long)}, thus it controls how fast data is
+ * pushed. What happens to data nobody asked for yet is decided by the
+ * publisher, see {@link Overflow}.</p>
+ */
+public final class Flow {
+
+	private Flow(){}
+
+	public interface Publisher<T> {
+		/**
+		 * Adds the subscriber, it is told about its subscription through
+		 * {@link Subscriber#onSubscribe(Subscription)}.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	}
+
+	public interface Subscriber<T> {
+		void onSubscribe(Subscription subscription);
+		void onNext(T item);
+		void onError(Throwable throwable);
+		void onComplete();
+	}
+
+	public interface Subscription {
+		/**
+		 * Allows the publisher to send <code>n</code> more items, a value
+		 * &lt;= 0 is an error.
+		 */
+		void request(long n);
+		/**
+		 * Stops the subscription, a few items already on their way may still arrive.
+		 */
+		void cancel();
+	}
+}
@@ -0,0 +1,100 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands messages received from Arduino to the {@link FramePublisher} of their
+ * device and flag.
+ *
+ * <p>Messages from Arduino carry no flag of their own, by convention the
+ * first character of a message is used. Publishers for {@link #ANY_FLAG}
+ * get every message of the device. Publishers live as long as the hub, they
+ * survive reconnects of their device.</p>
+ */
+public class FrameHub {
+
+	public static final char ANY_FLAG = 0;
+
+	private final Executor executor;
+	/* <address, <flag, publisher>> */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<Character, FramePublisher>> publishers =
+		new ConcurrentHashMap<String, ConcurrentHashMap<Character, FramePublisher>>();
+	private volatile boolean closed;
+
+
+	/**
+	 * @param executor delivers items to subscribers, the reader threads never do.
+	 * Use one which does not limit the number of threads (e.g. from
+	 * {@link at.abraxas.amarino.core.LinkThreads}), otherwise a few blocking
+	 * subscribers hold up all others.
+	 */
+	public FrameHub(Executor executor){
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the publisher for messages of the device starting with the flag,
+	 * or all its messages for {@link #ANY_FLAG}
+	 */
+	public FramePublisher publisher(String address, char flag){
+		ConcurrentHashMap<Character, FramePublisher> byFlag = publishers.get(address);
+		if (byFlag == null){
+			ConcurrentHashMap<Character, FramePublisher> created = new ConcurrentHashMap<Character, FramePublisher>(4);
+			byFlag = publishers.putIfAbsent(address, created);
+			if (byFlag == null) byFlag = created;
+		}
+		FramePublisher p = byFlag.get(flag);
+		if (p == null){
+			FramePublisher created = new FramePublisher(address, flag, executor);
+			p = byFlag.putIfAbsent(flag, created);
+			if (p == null) p = created;
+		}
+		return p;
+	}
+
+	/**
+	 * Called by the reader thread of a link, returns without waiting for subscribers.
+	 */
+	public void publish(String address, String message){
+		if (closed) return;
+		ConcurrentHashMap<Character, FramePublisher> byFlag = publishers.get(address);
+		if (byFlag == null) return;
+
+		FramePublisher p = byFlag.get(ANY_FLAG);
+		if (p != null) p.publish(message);
+		if (message.length() > 0){
+			p = byFlag.get(message.charAt(0));
+			if (p != null) p.publish(message);
+		}
+	}
+
+	/**
+	 * Completes all subscriptions, nothing is published afterwards.
+	 */
+	public void close(){
+		closed = true;
+		for (ConcurrentHashMap<Character, FramePublisher> byFlag : publishers.values())
+			for (FramePublisher p : byFlag.values())
+				p.complete();
+		publishers.clear();
+	}
+}
@@ -0,0 +1,87 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Publishes the messages received from one device, optionally only those
+ * starting with a certain flag. Obtain instances from {@link FrameHub}.
+ */
+public class FramePublisher implements Flow.Publisher<String> {
+
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final String address;
+	private final char flag;
+	private final Executor executor;
+	private final CopyOnWriteArrayList<FrameSubscription> subscriptions = new CopyOnWriteArrayList<FrameSubscription>();
+
+
+	FramePublisher(String address, char flag, Executor executor){
+		this.address = address;
+		this.flag = flag;
+		this.executor = executor;
+	}
+
+	public String getAddress(){
+		return address;
+	}
+
+	/**
+	 * @return the flag messages must start with, {@link FrameHub#ANY_FLAG} for all
+	 */
+	public char getFlag(){
+		return flag;
+	}
+
+	/**
+	 * Subscribes with {@link Overflow#BUFFER} and {@link #DEFAULT_CAPACITY}.
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super String> subscriber) {
+		subscribe(subscriber, Overflow.BUFFER, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param overflow what to do with messages the subscriber did not request yet
+	 * @param capacity how many of them to keep with {@link Overflow#BUFFER}
+	 */
+	public void subscribe(Flow.Subscriber<? super String> subscriber, Overflow overflow, int capacity){
+		if (subscriber == null) throw new NullPointerException("subscriber");
+		FrameSubscription s = new FrameSubscription(this, subscriber, executor, overflow, capacity);
+		subscriptions.add(s);
+		subscriber.onSubscribe(s);
+	}
+
+	void publish(String message){
+		for (FrameSubscription s : subscriptions)
+			s.offer(message);
+	}
+
+	void complete(){
+		for (FrameSubscription s : subscriptions)
+			s.complete();
+	}
+
+	void remove(FrameSubscription s){
+		subscriptions.remove(s);
+	}
+}
@@ -0,0 +1,207 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * A subscriber together with its queue and demand.
+ *
+ * <p>{@link #offer(String)} is called by the reader thread of a link and never
+ * blocks. Items are delivered on the executor, by at most one task per
+ * subscription at a time, so a slow subscriber only ever holds up itself.</p>
+ */
+final class FrameSubscription implements Flow.Subscription, Runnable {
+
+	/* items delivered per task, gives other subscriptions a turn on the executor */
+	private static final int BATCH = 32;
+
+	private static final Counter DROPPED = Metrics.counter("rx.flow.dropped");
+	private static final Counter COALESCED = Metrics.counter("rx.flow.coalesced");
+
+	private final FramePublisher publisher;
+	private final Flow.Subscriber<? super String> subscriber;
+	private final Executor executor;
+	private final Overflow overflow;
+	private final int capacity;
+
+	/* all guarded by this */
+	private final LinkedList<String> queue = new LinkedList<String>();
+	private long demand;
+	private boolean scheduled;
+	private boolean cancelled;
+	private boolean completing;
+	private Throwable error;
+
+
+	FrameSubscription(FramePublisher publisher, Flow.Subscriber<? super String> subscriber,
+			Executor executor, Overflow overflow, int capacity){
+		this.publisher = publisher;
+		this.subscriber = subscriber;
+		this.executor = executor;
+		this.overflow = overflow;
+		this.capacity = Math.max(1, capacity);
+	}
+
+	@Override
+	public void request(long n) {
+		synchronized (this){
+			if (cancelled) return;
+			if (n <= 0){
+				error = new IllegalArgumentException("request must be positive, was " + n);
+			}
+			else {
+				demand += n;
+				// overflow means unbounded
+				if (demand < 0) demand = Long.MAX_VALUE;
+			}
+		}
+		schedule();
+	}
+
+	@Override
+	public void cancel() {
+		synchronized (this){
+			cancelled = true;
+			queue.clear();
+		}
+		publisher.remove(this);
+	}
+
+	void offer(String item){
+		synchronized (this){
+			if (cancelled || completing) return;
+			switch (overflow){
+			case BUFFER:
+				if (queue.size() >= capacity){
+					DROPPED.inc();
+					return;
+				}
+				break;
+			case DROP:
+				// queued items already have their demand reserved
+				if (demand <= queue.size()){
+					DROPPED.inc();
+					return;
+				}
+				break;
+			case COALESCE:
+				if (!queue.isEmpty()){
+					queue.clear();
+					COALESCED.inc();
+				}
+				break;
+			}
+			queue.add(item);
+			if (demand == 0) return;
+		}
+		schedule();
+	}
+
+	void complete(){
+		synchronized (this){
+			if (cancelled) return;
+			completing = true;
+		}
+		schedule();
+	}
+
+	private void schedule(){
+		synchronized (this){
+			if (scheduled || cancelled) return;
+			if (error == null && !completing && (demand == 0 || queue.isEmpty())) return;
+			scheduled = true;
+		}
+		try {
+			executor.execute(this);
+		} catch (RejectedExecutionException e){
+			// executor is shut down, nothing will be delivered anymore
+			synchronized (this){
+				cancelled = true;
+				queue.clear();
+			}
+			publisher.remove(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		for (int i=0; i<BATCH; i++){
+			String item;
+			Throwable failure = null;
+			boolean done = false;
+			synchronized (this){
+				if (cancelled){
+					scheduled = false;
+					return;
+				}
+				if (error != null){
+					failure = error;
+					cancelled = true;
+					item = null;
+				}
+				else if (demand > 0 && !queue.isEmpty()){
+					item = queue.poll();
+					if (demand != Long.MAX_VALUE) demand--;
+				}
+				else if (completing){
+					// items nobody asked for are not delivered anymore
+					queue.clear();
+					cancelled = true;
+					done = true;
+					item = null;
+				}
+				else {
+					scheduled = false;
+					return;
+				}
+			}
+
+			if (failure != null){
+				publisher.remove(this);
+				subscriber.onError(failure);
+				return;
+			}
+			if (done){
+				publisher.remove(this);
+				subscriber.onComplete();
+				return;
+			}
+			try {
+				subscriber.onNext(item);
+			} catch (RuntimeException e){
+				// a broken subscriber is dropped
+				cancel();
+				subscriber.onError(e);
+				return;
+			}
+		}
+
+		// more to do, queue up behind the others
+		synchronized (this){
+			scheduled = false;
+		}
+		schedule();
+	}
+}
@@ -0,0 +1,39 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+/**
+ * What a publisher does with items a subscriber has not requested yet.
+ */
+public enum Overflow {
+	/**
+	 * Queue them up to the capacity of the subscription, newer items are
+	 * dropped while the queue is full.
+	 */
+	BUFFER,
+	/**
+	 * Drop them, only items arriving while there is demand are delivered.
+	 */
+	DROP,
+	/**
+	 * Keep the newest one only, suits sensor values where only the current
+	 * state matters.
+	 */
+	COALESCE
+}
@@ -0,0 +1,48 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A monotonically increasing count, e.g. bytes or messages sent.
+ * Does nothing while {@link Metrics#enabled} is false.
+ */
+public class Counter {
+
+	private final AtomicLong count = new AtomicLong();
+
+	Counter(){}
+
+	public void inc(){
+		if (Metrics.enabled) count.incrementAndGet();
+	}
+
+	public void add(long n){
+		if (Metrics.enabled) count.addAndGet(n);
+	}
+
+	public long get(){
+		return count.get();
+	}
+
+	void reset(){
+		count.set(0);
+	}
+}
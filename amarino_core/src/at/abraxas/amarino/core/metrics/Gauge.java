@@ -0,0 +1,55 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A value which goes up and down, e.g. the number of open connections.
+ *
+ * <p>Unlike counters and histograms a gauge is always updated, even while
+ * {@link Metrics#enabled} is false. Otherwise it would show a wrong value
+ * after metrics have been switched on.</p>
+ */
+public class Gauge {
+
+	private final AtomicLong value = new AtomicLong();
+
+	Gauge(){}
+
+	public void set(long v){
+		value.set(v);
+	}
+
+	public void inc(){
+		value.incrementAndGet();
+	}
+
+	public void dec(){
+		value.decrementAndGet();
+	}
+
+	public void add(long delta){
+		value.addAndGet(delta);
+	}
+
+	public long get(){
+		return value.get();
+	}
+}
@@ -0,0 +1,142 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with a fixed amount of memory, similar to HdrHistogram.
+ *
+ * <p>Values are sorted into buckets on a log-linear scale: every power of two
+ * is split into {@link #SUB_BUCKETS} equally sized buckets, thus any recorded
+ * value is off by less than 1/16 (6.25%), no matter if it is a few
+ * microseconds or several seconds. Recording is lock free and does not allocate.</p>
+ *
+ * <p>Latencies are recorded in microseconds. Does nothing while
+ * {@link Metrics#enabled} is false.</p>
+ */
+public class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/* enough buckets to hold any positive long */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	Histogram(){}
+
+	/**
+	 * Use together with {@link #stop(long)} to measure the time of an operation.
+	 *
+	 * @return the current time in ns, or 0 if metrics are disabled
+	 */
+	public long start(){
+		return Metrics.enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Records the time passed since {@link #start()} was called.
+	 */
+	public void stop(long start){
+		if (start != 0) record((System.nanoTime() - start) / 1000);
+	}
+
+	public void record(long value){
+		if (!Metrics.enabled) return;
+		if (value < 0) value = 0;
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long m = max.get();
+		while (value > m && !max.compareAndSet(m, value))
+			m = max.get();
+	}
+
+	public long getCount(){
+		return count.get();
+	}
+
+	public long getMax(){
+		return max.get();
+	}
+
+	public long getMean(){
+		long c = count.get();
+		return (c == 0) ? 0 : sum.get() / c;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the value below which the given percentage of recorded values fall,
+	 * 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile){
+		long total = count.get();
+		if (total == 0) return 0;
+		long wanted = (long)Math.ceil(percentile / 100 * total);
+		if (wanted < 1) wanted = 1;
+
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++){
+			seen += buckets.get(i);
+			if (seen >= wanted)
+				return Math.min(valueOf(i), max.get());
+		}
+		return max.get();
+	}
+
+	void reset(){
+		for (int i=0; i<BUCKETS; i++)
+			buckets.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	static int indexOf(long value){
+		if (value < SUB_BUCKETS) return (int)value;
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int sub = (int)(value >>> shift) & (SUB_BUCKETS - 1);
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/* highest value which falls into the given bucket */
+	static long valueOf(int index){
+		if (index < SUB_BUCKETS) return index;
+		int shift = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + getCount()
+			+ " mean=" + getMean()
+			+ " p50=" + getPercentile(50)
+			+ " p90=" + getPercentile(90)
+			+ " p99=" + getPercentile(99)
+			+ " max=" + getMax();
+	}
+}
@@ -0,0 +1,114 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Metrics is the registry of all counters, gauges and histograms of Amarino.
+ *
+ * <p>It is a process wide singleton. Instruments are
+ * created once, usually kept in a static field, and updated from anywhere.
+ * Metrics are disabled by default, then updating a counter or histogram costs
+ * a single volatile read.</p>
+ *
+ * <p>Naming convention: <code>rx.*</code> for data coming from Arduino,
+ * <code>tx.*</code> for data sent to Arduino, <code>plugin.&lt;id&gt;.*</code>
+ * for plug-ins. Histograms are in microseconds.</p>
+ */
+public class Metrics {
+
+	public static final String KEY_IS_METRICS_ENABLED = "is_metrics_enabled";
+
+	public static volatile boolean enabled = false;
+
+	private static final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private static final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+	private static final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+	private static volatile long resetAt = System.currentTimeMillis();
+
+
+	public static Counter counter(String name){
+		Counter c = counters.get(name);
+		if (c == null){
+			Counter created = new Counter();
+			c = counters.putIfAbsent(name, created);
+			if (c == null) c = created;
+		}
+		return c;
+	}
+
+	public static Gauge gauge(String name){
+		Gauge g = gauges.get(name);
+		if (g == null){
+			Gauge created = new Gauge();
+			g = gauges.putIfAbsent(name, created);
+			if (g == null) g = created;
+		}
+		return g;
+	}
+
+	public static Histogram histogram(String name){
+		Histogram h = histograms.get(name);
+		if (h == null){
+			Histogram created = new Histogram();
+			h = histograms.putIfAbsent(name, created);
+			if (h == null) h = created;
+		}
+		return h;
+	}
+
+	/**
+	 * Sets all counters and histograms back to zero. Gauges keep their value.
+	 */
+	public static void reset(){
+		for (Counter c : counters.values())
+			c.reset();
+		for (Histogram h : histograms.values())
+			h.reset();
+		resetAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Returns a human readable dump of all metrics, sorted by name. Counters
+	 * are shown together with their average rate since the last reset.
+	 */
+	public static String dump(){
+		float seconds = Math.max(1, System.currentTimeMillis() - resetAt) / 1000f;
+		StringBuilder sb = new StringBuilder();
+		sb.append(enabled ? "metrics enabled" : "metrics disabled")
+			.append(", ").append((long)seconds).append("s since reset\n");
+
+		for (Map.Entry<String, Counter> e : new TreeMap<String, Counter>(counters).entrySet()){
+			long count = e.getValue().get();
+			sb.append(e.getKey()).append(": ").append(count)
+				.append(" (").append(Math.round(count / seconds * 10) / 10f).append("/s)\n");
+		}
+		for (Map.Entry<String, Gauge> e : new TreeMap<String, Gauge>(gauges).entrySet()){
+			sb.append(e.getKey()).append(": ").append(e.getValue().get()).append('\n');
+		}
+		for (Map.Entry<String, Histogram> e : new TreeMap<String, Histogram>(histograms).entrySet()){
+			sb.append(e.getKey()).append(" [us]: ").append(e.getValue()).append('\n');
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,224 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.Protocol;
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Gauge;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Sends requests over a link and matches Arduino's answers to them by their id.
+ *
+ * <p>Requests are pipelined: up to {@link #setMaxOutstanding(int) max outstanding}
+ * requests are on their way at the same time instead of one round trip after
+ * the other. Arduino answers in the order it received them, but nothing relies
+ * on that. Further calls fail at once, Arduino's receive buffer is small.</p>
+ *
+ * <p>One client per link. The reader of the link hands every message to
+ * {@link #onMessage(String)} first, {@link #close()} is called when the link
+ * goes down.</p>
+ */
+public class RpcClient {
+
+	public static final int DEFAULT_MAX_OUTSTANDING = 8;
+
+	private static final Counter CALLS = Metrics.counter("rpc.calls");
+	private static final Counter ERRORS = Metrics.counter("rpc.errors");
+	private static final Counter TIMEOUTS = Metrics.counter("rpc.timeouts");
+	private static final Counter REJECTED = Metrics.counter("rpc.rejected");
+	/* answers to requests which already timed out */
+	private static final Counter LATE = Metrics.counter("rpc.late");
+	private static final Histogram LATENCY = Metrics.histogram("rpc.latency");
+	private static final Gauge OUTSTANDING = Metrics.gauge("rpc.outstanding");
+
+	private final Link link;
+	private final ScheduledExecutorService timer;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final HashMap<Integer, RpcFuture> pending = new HashMap<Integer, RpcFuture>();
+	private int nextId = 0;
+	private int maxOutstanding = DEFAULT_MAX_OUTSTANDING;
+	private boolean closed = false;
+
+
+	/**
+	 * @param timer expires requests which are not answered in time, may be shared
+	 */
+	public RpcClient(Link link, ScheduledExecutorService timer){
+		this.link = link;
+		this.timer = timer;
+	}
+
+	public void setMaxOutstanding(int max){
+		lock.lock();
+		try {
+			maxOutstanding = Math.max(1, Math.min(max, Protocol.MAX_REQUEST_ID + 1));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getOutstanding(){
+		lock.lock();
+		try {
+			return pending.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public RpcFuture call(char flag, String data, long timeoutMillis){
+		return call(MessageCodec.encode(flag, data), timeoutMillis);
+	}
+
+	/**
+	 * Sends the message as a request, returns without waiting for the answer.
+	 *
+	 * @param message an encoded message as built by {@link MessageCodec}
+	 * @param timeoutMillis how long Arduino has to answer
+	 */
+	public RpcFuture call(String message, long timeoutMillis){
+		final RpcFuture future;
+		lock.lock();
+		try {
+			if (closed) return failed(new RpcException("link closed"));
+			if (pending.size() >= maxOutstanding){
+				REJECTED.inc();
+				return failed(new RpcException("too many outstanding requests"));
+			}
+			int id = nextId;
+			while (pending.containsKey(id))
+				id = (id + 1) & Protocol.MAX_REQUEST_ID;
+			nextId = (id + 1) & Protocol.MAX_REQUEST_ID;
+			future = new RpcFuture(id);
+			pending.put(id, future);
+		} finally {
+			lock.unlock();
+		}
+		OUTSTANDING.inc();
+		CALLS.inc();
+
+		try {
+			future.timeout = timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (remove(future)){
+						TIMEOUTS.inc();
+						future.fail(new TimeoutException("no answer from " + link.getAddress()));
+					}
+				}
+			}, timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e){
+			if (remove(future)) future.fail(new RpcException("shut down"));
+			return future;
+		}
+
+		try {
+			link.send(MessageCodec.toBytes(MessageCodec.request(future.getId(), message)));
+		} catch (IOException e) {
+			if (remove(future)) future.fail(new RpcException("send failed: " + e.getMessage()));
+		}
+		return future;
+	}
+
+	/**
+	 * Called with every message received on the link.
+	 *
+	 * @return true if the message was an answer to a request, it must not be
+	 * handed to anyone else
+	 */
+	public boolean onMessage(String message){
+		int id = MessageCodec.responseId(message);
+		if (id < 0) return false;
+
+		RpcFuture future;
+		lock.lock();
+		try {
+			future = pending.remove(id);
+		} finally {
+			lock.unlock();
+		}
+		if (future == null){
+			LATE.inc();
+			return true;
+		}
+		OUTSTANDING.dec();
+		LATENCY.record((System.nanoTime() - future.started) / 1000);
+
+		String data = message.substring(1 + Protocol.REQUEST_ID_LENGTH);
+		if (message.charAt(0) == Protocol.ERROR_FLAG){
+			ERRORS.inc();
+			future.fail(new RpcException(data));
+		}
+		else {
+			future.complete(data);
+		}
+		return true;
+	}
+
+	/**
+	 * Fails all outstanding requests and any later call.
+	 */
+	public void close(){
+		ArrayList<RpcFuture> failed;
+		lock.lock();
+		try {
+			closed = true;
+			failed = new ArrayList<RpcFuture>(pending.values());
+			pending.clear();
+		} finally {
+			lock.unlock();
+		}
+		for (RpcFuture f : failed){
+			OUTSTANDING.dec();
+			f.fail(new RpcException("link closed"));
+		}
+	}
+
+	private boolean remove(RpcFuture future){
+		lock.lock();
+		try {
+			// the id may already be in use by a newer request
+			if (pending.get(future.getId()) != future) return false;
+			pending.remove(future.getId());
+		} finally {
+			lock.unlock();
+		}
+		OUTSTANDING.dec();
+		return true;
+	}
+
+	private static RpcFuture failed(RpcException e){
+		RpcFuture f = new RpcFuture(-1);
+		f.fail(e);
+		return f;
+	}
+}
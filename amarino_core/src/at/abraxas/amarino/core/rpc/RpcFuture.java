@@ -0,0 +1,147 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.rpc;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The answer to a request, the data Arduino replied with (without the request
+ * flag and id).
+ *
+ * <p>If the request fails, {@link #get()} throws an ExecutionException caused
+ * by an {@link RpcException}, or a TimeoutException if Arduino did not answer
+ * in time. The first outcome wins, later ones are ignored.</p>
+ */
+public class RpcFuture implements Future<String> {
+
+	public interface Listener {
+		/**
+		 * Called once, on the thread which completed the request, or right away
+		 * if it already was. Must not block.
+		 */
+		void onDone(RpcFuture future);
+	}
+
+	private final int id;
+	final long started = System.nanoTime();
+	private final CountDownLatch done = new CountDownLatch(1);
+	private final AtomicBoolean finished = new AtomicBoolean();
+	private volatile String result;
+	private volatile Throwable error;
+	private volatile boolean cancelled;
+	private Listener listener;
+	/* set by the client, fires if Arduino does not answer */
+	volatile ScheduledFuture<?> timeout;
+
+
+	public RpcFuture(int id){
+		this.id = id;
+	}
+
+	public int getId(){
+		return id;
+	}
+
+	public boolean complete(String result){
+		return finish(result, null, false);
+	}
+
+	public boolean fail(Throwable error){
+		return finish(null, error, false);
+	}
+
+	/**
+	 * The request stays outstanding on the link until it is answered or times
+	 * out, only the caller stops waiting.
+	 */
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return finish(null, null, true);
+	}
+
+	private boolean finish(String result, Throwable error, boolean cancelled){
+		if (!finished.compareAndSet(false, true)) return false;
+		this.result = result;
+		this.error = error;
+		this.cancelled = cancelled;
+		ScheduledFuture<?> t = timeout;
+		if (t != null) t.cancel(false);
+		done.countDown();
+
+		Listener l;
+		synchronized (this){
+			l = listener;
+			listener = null;
+		}
+		if (l != null) l.onDone(this);
+		return true;
+	}
+
+	public void setListener(Listener listener){
+		synchronized (this){
+			if (!isDone()){
+				this.listener = listener;
+				return;
+			}
+		}
+		listener.onDone(this);
+	}
+
+	/**
+	 * @return why the request failed, null if it was answered or is still outstanding
+	 */
+	public Throwable getError(){
+		return error;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return done.getCount() == 0;
+	}
+
+	@Override
+	public String get() throws InterruptedException, ExecutionException {
+		done.await();
+		return report();
+	}
+
+	@Override
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit)) throw new TimeoutException();
+		return report();
+	}
+
+	private String report() throws ExecutionException {
+		if (cancelled) throw new CancellationException();
+		if (error != null) throw new ExecutionException(error);
+		return result;
+	}
+}
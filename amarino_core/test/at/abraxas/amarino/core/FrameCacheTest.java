@@ -0,0 +1,141 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Checks the admission policy of {@link FrameCache}: a frame is only taken
+ * in once the same flag, type and value was offered before, and a slot
+ * holds one frame at a time.
+ *
+ * <p>Exits with status 1 if any check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.FrameCacheTest
+ * </pre>
+ */
+public class FrameCacheTest {
+
+	private static final int TYPE = 1;
+	private static final int OTHER_TYPE = 2;
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+
+	public static void main(String[] args){
+		admission();
+		keys();
+		arrays();
+		slots();
+
+		System.out.println(String.format("%d checks, %d failures", checks, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/* the first offer is only remembered, the second one caches */
+	private static void admission(){
+		FrameCache cache = new FrameCache(16);
+		byte[] frame = frame("A5");
+
+		check("nothing cached at first", cache.get('A', TYPE, 5) == null);
+		cache.offer('A', TYPE, 5, frame);
+		check("not cached after one offer", cache.get('A', TYPE, 5) == null);
+		cache.offer('A', TYPE, 5, frame);
+		check("cached after the second offer", cache.get('A', TYPE, 5) == frame);
+		check("still cached", cache.get('A', TYPE, 5) == frame);
+	}
+
+	/* flag, type and value all tell frames apart */
+	private static void keys(){
+		FrameCache cache = new FrameCache(64);
+		byte[] frame = frame("A5");
+		cache.offer('A', TYPE, 5, frame);
+		cache.offer('A', TYPE, 5, frame);
+
+		check("other flag", cache.get('B', TYPE, 5) == null);
+		check("other type", cache.get('A', OTHER_TYPE, 5) == null);
+		check("other value", cache.get('A', TYPE, 6) == null);
+		check("negative value", cache.get('A', TYPE, -5) == null);
+		check("single value is no array", cache.get('A', TYPE, new int[]{ 5 }) == null);
+
+		// values which never repeat never get in
+		for (int i=0; i<1000; i++)
+			cache.offer('S', TYPE, i, frame("S" + i));
+		int cached = 0;
+		for (int i=0; i<1000; i++)
+			if (cache.get('S', TYPE, i) != null) cached++;
+		check("values offered once are not cached", cached == 0);
+	}
+
+	private static void arrays(){
+		FrameCache cache = new FrameCache(16);
+		int[] values = { 0, 31 };
+		byte[] frame = frame("A0;31");
+		cache.offer('A', TYPE, values, frame);
+		cache.offer('A', TYPE, values.clone(), frame);
+		check("array cached after the second offer", cache.get('A', TYPE, new int[]{ 0, 31 }) == frame);
+
+		// the cache keeps its own copy of the values
+		values[1] = 32;
+		check("changing the offered array does not change the entry", cache.get('A', TYPE, new int[]{ 0, 31 }) == frame);
+		// {1, 0} has the same Arrays.hashCode() as {0, 31}
+		check("same hash, other values", cache.get('A', TYPE, new int[]{ 1, 0 }) == null);
+
+		int[] longer = new int[FrameCache.MAX_VALUES + 1];
+		cache.offer('A', TYPE, longer, frame("long"));
+		cache.offer('A', TYPE, longer, frame("long"));
+		check("arrays longer than MAX_VALUES are not cached", cache.get('A', TYPE, longer) == null);
+	}
+
+	/* with a single slot every key competes for it */
+	private static void slots(){
+		FrameCache cache = new FrameCache(1);
+		byte[] a = frame("A1");
+		byte[] b = frame("A2");
+		cache.offer('A', TYPE, 1, a);
+		cache.offer('A', TYPE, 1, a);
+		cache.offer('A', TYPE, 2, b);
+		check("a single offer does not push out a cached frame", cache.get('A', TYPE, 1) == a);
+		cache.offer('A', TYPE, 2, b);
+		check("the second offer takes the slot", cache.get('A', TYPE, 2) == b);
+		check("the former frame is gone", cache.get('A', TYPE, 1) == null);
+
+		FrameCache alternating = new FrameCache(1);
+		for (int i=0; i<10; i++)
+			alternating.offer('A', TYPE, i % 2, frame("A" + (i % 2)));
+		check("keys taking turns in one slot never get in",
+				alternating.get('A', TYPE, 0) == null && alternating.get('A', TYPE, 1) == null);
+	}
+
+	private static byte[] frame(String data){
+		return MessageCodec.toBytes(data + Protocol.ACK_FLAG);
+	}
+
+	private static void check(String what, boolean condition){
+		checks++;
+		if (condition) return;
+		failures++;
+		System.out.println("failed: " + what);
+	}
+}
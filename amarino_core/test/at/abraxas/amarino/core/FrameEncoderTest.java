@@ -0,0 +1,91 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.Random;
+
+/**
+ * Checks that {@link FrameEncoder} writes numbers the way Java prints them,
+ * floats in particular, which it writes digit by digit.
+ *
+ * <p>Floats have to read back as the same value and must not take more
+ * characters than {@link Float#toString(float)}. Exits with status 1 if any
+ * check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.FrameEncoderTest
+ * </pre>
+ */
+public class FrameEncoderTest {
+
+	private static final float[] FLOATS = {
+		0f, -0f, 1f, -1f, 1.5f, 0.1f, 0.001f, 0.00099999f, 9.81f, -9.81f, 100f,
+		1234.5f, 9999999f, 1e7f, 1e-4f, 3.1415927f, 2.6132812f, 16.539062f,
+		Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN, Float.POSITIVE_INFINITY
+	};
+	private static final long[] LONGS = {
+		0, 1, -1, 9, 10, -10, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE,
+		Long.MAX_VALUE, Long.MIN_VALUE
+	};
+
+	private static int failures = 0;
+
+
+	public static void main(String[] args){
+		FrameEncoder encoder = new FrameEncoder(16);
+
+		for (float f : FLOATS)
+			check(Float.toString(f), encoder.begin().put(f).toString());
+		for (long l : LONGS)
+			check(String.valueOf(l), encoder.begin().put(l).toString());
+		check(MessageCodec.encode('a', new float[]{ 1f, -2.5f, 1e-5f }),
+				encoder.begin('a').put(1f).delimiter().put(-2.5f).delimiter().put(1e-5f).put(Protocol.ACK_FLAG).toString());
+
+		// sensor values and whatever else a float may be
+		Random random = new Random(42);
+		int floats = 0;
+		for (int i=0; i<2000000; i++){
+			float f = (i % 2 == 0)
+				? (random.nextFloat() - 0.5f) * (float)Math.pow(10, random.nextInt(12) - 4)
+				: Float.intBitsToFloat(random.nextInt());
+			if (Float.isNaN(f)) continue;
+			String s = encoder.begin().put(f).toString();
+			String java = Float.toString(f);
+			floats++;
+			if (Float.parseFloat(s) != f || s.length() > java.length()){
+				check(java, s);
+				if (failures > 10) break;
+			}
+		}
+
+		System.out.println(String.format("%d floats, %d failures", floats, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void check(String expected, String actual){
+		if (expected.equals(actual)) return;
+		failures++;
+		System.out.println("expected " + expected + " but got " + actual);
+	}
+}
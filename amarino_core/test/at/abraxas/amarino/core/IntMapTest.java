@@ -0,0 +1,147 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link IntMap}, which holds the routes by plug-in id, with a
+ * HashMap over random puts and removes of 40 ids. The map is sized for all
+ * of them and never grows, so its probe sequences stay crowded and the
+ * removals have to shift entries back, see {@link LongMapTest}.
+ *
+ * <p>Exits with status 1 if any check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.IntMapTest
+ * </pre>
+ */
+public class IntMapTest {
+
+	private static final int STEPS = 200000;
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+
+	public static void main(String[] args){
+		int[] pool = pool();
+		IntMap<String> map = new IntMap<String>(pool.length);
+		HashMap<Integer, String> model = new HashMap<Integer, String>();
+		Random random = new Random(50);
+
+		int mismatches = 0;
+		for (int step=0; step<STEPS && mismatches == 0; step++){
+			int key = pool[random.nextInt(pool.length)];
+			String expected, actual;
+			if (random.nextInt(3) == 0){
+				expected = model.remove(key);
+				actual = map.remove(key);
+			}
+			else {
+				String value = Integer.toString(step);
+				expected = model.put(key, value);
+				actual = map.put(key, value);
+			}
+			if (!equal(expected, actual)) mismatches++;
+			mismatches += compare(pool, model, map);
+		}
+		check("random puts and removes", "0", Integer.toString(mismatches));
+
+		// drain in a different order than filled
+		List<Integer> order = new ArrayList<Integer>(model.keySet());
+		Collections.shuffle(order, random);
+		for (int key : order){
+			model.remove(key);
+			map.remove(key);
+			mismatches += compare(pool, model, map);
+		}
+		check("drained", "0", Integer.toString(mismatches));
+		check("drained size", "0", Integer.toString(map.size()));
+
+		map.put(1, "a");
+		map.put(2, "b");
+		IntMap<String> copy = map.copy();
+		copy.remove(1);
+		copy.put(3, "c");
+		check("copy is independent", "a b null", map.get(1) + " " + map.get(2) + " " + map.get(3));
+		check("copy", "null b c", copy.get(1) + " " + copy.get(2) + " " + copy.get(3));
+		map.clear();
+		check("cleared", "0 null", map.size() + " " + map.get(2));
+
+		System.out.println(String.format("%d checks, %d failures", checks, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/* plug-in ids as they are handed out and a few extremes */
+	private static int[] pool(){
+		int[] pool = new int[40];
+		for (int i=0; i<32; i++) pool[i] = i;
+		pool[32] = -1;
+		pool[33] = Integer.MIN_VALUE;
+		pool[34] = Integer.MAX_VALUE;
+		pool[35] = 1 << 16;
+		pool[36] = 1 << 30;
+		pool[37] = 128;
+		pool[38] = 256;
+		pool[39] = 1000;
+		return pool;
+	}
+
+	private static int compare(int[] pool, HashMap<Integer, String> model, IntMap<String> map){
+		int mismatches = 0;
+		for (int key : pool){
+			if (!equal(model.get(key), map.get(key))) mismatches++;
+			if (model.containsKey(key) != map.containsKey(key)) mismatches++;
+		}
+		if (model.size() != map.size()) mismatches++;
+
+		int[] keys = map.keys();
+		int[] expected = new int[model.size()];
+		int n = 0;
+		for (int key : model.keySet()) expected[n++] = key;
+		Arrays.sort(keys);
+		Arrays.sort(expected);
+		if (!Arrays.equals(expected, keys)) mismatches++;
+
+		if (mismatches > 0) System.out.println("differs from the model: " + model);
+		return mismatches;
+	}
+
+	private static boolean equal(String a, String b){
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static void check(String what, String expected, String actual){
+		checks++;
+		if (expected.equals(actual)) return;
+		failures++;
+		System.out.println("failed: " + what + ", expected " + expected + " but was " + actual);
+	}
+}
@@ -0,0 +1,97 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+/**
+ * Checks that {@link MacAddress} parses what Android writes, in either case,
+ * rejects anything else and formats the long back to the same text.
+ *
+ * <p>Exits with status 1 if any check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.MacAddressTest
+ * </pre>
+ */
+public class MacAddressTest {
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+
+	public static void main(String[] args){
+		check("parse", "6606A92B", Long.toHexString(MacAddress.parse("00:00:66:06:A9:2B")).toUpperCase());
+		check("all bits", Long.toHexString(0xffffffffffffL), Long.toHexString(MacAddress.parse("FF:FF:FF:FF:FF:FF")));
+		check("zero", "0", Long.toString(MacAddress.parse("00:00:00:00:00:00")));
+		check("lower case", Long.toString(MacAddress.parse("00:06:66:03:A9:2B")),
+				Long.toString(MacAddress.parse("00:06:66:03:a9:2b")));
+		check("mixed case", Long.toString(MacAddress.parse("00:06:66:03:A9:2B")),
+				Long.toString(MacAddress.parse("00:06:66:03:a9:2B")));
+
+		check("format", "00:06:66:03:A9:2B", MacAddress.format(MacAddress.parse("00:06:66:03:A9:2B")));
+		check("format upper case", "AB:CD:EF:01:23:45", MacAddress.format(MacAddress.parse("ab:cd:ef:01:23:45")));
+		check("format all bits", "FF:FF:FF:FF:FF:FF", MacAddress.format(0xffffffffffffL));
+
+		invalid("null", null);
+		invalid("empty", "");
+		invalid("too short", "00:06:66:03:A9:2");
+		invalid("too long", "00:06:66:03:A9:2B:");
+		invalid("no colons", "000666:03:A9:2B00");
+		invalid("other separator", "00-06-66-03-A9-2B");
+		invalid("colon shifted", "0:006:66:03:A9:2B");
+		invalid("not hex", "00:06:66:03:A9:2G");
+		invalid("not hex, high digit", "00:06:66:03:G9:2B");
+		invalid("sign", "00:06:66:03:A9:-B");
+		invalid("space", "00:06:66:03:A9: B");
+
+		// every value survives the round trip, both ways
+		java.util.Random random = new java.util.Random(47);
+		int mismatches = 0;
+		for (int i=0; i<100000; i++){
+			long value = random.nextLong() & 0xffffffffffffL;
+			String text = MacAddress.format(value);
+			if (MacAddress.parse(text) != value) mismatches++;
+			if (MacAddress.parse(text.toLowerCase()) != value) mismatches++;
+			if (!MacAddress.format(MacAddress.parse(text)).equals(text)) mismatches++;
+		}
+		check("round trips", "0", Integer.toString(mismatches));
+
+		check("equal addresses hash alike", Integer.toString(MacAddress.hash(MacAddress.parse("00:06:66:03:A9:2B"))),
+				Integer.toString(MacAddress.hash(MacAddress.parse("00:06:66:03:a9:2b"))));
+
+		System.out.println(String.format("%d checks, %d failures", checks, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void invalid(String what, String text){
+		check(what, Long.toString(MacAddress.INVALID), Long.toString(MacAddress.parse(text)));
+		check(what + " is not valid", "false", Boolean.toString(MacAddress.isValid(text)));
+	}
+
+	private static void check(String what, String expected, String actual){
+		checks++;
+		if (expected.equals(actual)) return;
+		failures++;
+		System.out.println("failed: " + what + ", expected " + expected + " but was " + actual);
+	}
+}
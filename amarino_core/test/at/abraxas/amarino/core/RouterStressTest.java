@@ -0,0 +1,274 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hammers a {@link Router} from writer and reader threads at the same time,
+ * the way connect threads, the main thread and broadcast handlers use it.
+ *
+ * <p>Every writer owns some devices and plug-ins and keeps a model of them,
+ * readers check that no snapshot they get is ever torn: no null entries, no
+ * device twice in the routes of a plug-in, connections only under their own
+ * address. Once all threads stopped, the router has to match the models.
+ * Exits with status 1 on the first violation.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.RouterStressTest [-seconds 5] [-writers 4] [-readers 4]
+ * </pre>
+ */
+public class RouterStressTest {
+
+	private static final int DEVICES = 24;
+	private static final int PLUGINS = 12;
+
+	private final Router<Connection> router = new Router<Connection>();
+	private final String[] addresses = new String[DEVICES];
+	private final AtomicReference<String> failure = new AtomicReference<String>();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong reads = new AtomicLong();
+	private volatile boolean running = true;
+
+
+	private static class Connection {
+		final String address;
+
+		Connection(String address){
+			this.address = address;
+		}
+	}
+
+	/* what a writer expects of the devices and plug-ins it owns */
+	private static class Model {
+		final HashMap<String, Connection> connections = new HashMap<String, Connection>();
+		final HashMap<Integer, ArrayList<Route>> routes = new HashMap<Integer, ArrayList<Route>>();
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		int seconds = 5;
+		int writers = 4;
+		int readers = 4;
+		for (int i=0; i<args.length; i++){
+			String a = args[i];
+			if ("-seconds".equals(a)) seconds = Integer.parseInt(args[++i]);
+			else if ("-writers".equals(a)) writers = Integer.parseInt(args[++i]);
+			else if ("-readers".equals(a)) readers = Integer.parseInt(args[++i]);
+			else {
+				System.err.println("usage: RouterStressTest [-seconds n] [-writers n] [-readers n]");
+				System.exit(2);
+			}
+		}
+		if (!new RouterStressTest().run(seconds, writers, readers))
+			System.exit(1);
+	}
+
+	private boolean run(int seconds, final int writers, int readers) throws Exception {
+		// Bluetooth devices and, like on the gateway, links without a MAC address
+		for (int i=0; i<DEVICES; i++)
+			addresses[i] = (i % 4 == 3) ? "sim-" + i : MacAddress.format(0x001122330000L + i * 0x1001L);
+
+		final Model[] models = new Model[writers];
+		final CountDownLatch done = new CountDownLatch(writers + readers);
+		for (int w=0; w<writers; w++){
+			final int id = w;
+			models[w] = new Model();
+			start("writer-" + w, done, new Runnable() {
+				@Override
+				public void run() {
+					write(id, writers, models[id]);
+				}
+			});
+		}
+		for (int r=0; r<readers; r++){
+			start("reader-" + r, done, new Runnable() {
+				@Override
+				public void run() {
+					read();
+				}
+			});
+		}
+
+		Thread.sleep(seconds * 1000L);
+		running = false;
+		done.await();
+
+		if (failure.get() == null) verify(models);
+		System.out.println(String.format("%d writes, %d reads in %d s", writes.get(), reads.get(), seconds));
+		if (failure.get() != null){
+			System.out.println("FAILED: " + failure.get());
+			return false;
+		}
+		System.out.println("OK");
+		return true;
+	}
+
+	private void start(String name, final CountDownLatch done, final Runnable body){
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					body.run();
+				} catch (Throwable e){
+					fail(Thread.currentThread().getName() + ": " + e);
+				} finally {
+					done.countDown();
+				}
+			}
+		}, name);
+		t.start();
+	}
+
+	/* changes the devices and plug-ins whose index modulo writers is id */
+	private void write(int id, int writers, Model model){
+		Random random = new Random(id);
+		while (running && failure.get() == null){
+			int op = random.nextInt(4);
+			if (op < 2){
+				String address = addresses[pick(random, DEVICES, id, writers)];
+				if (op == 0){
+					Connection c = new Connection(address);
+					Connection old = router.put(address, c);
+					check(old == model.connections.get(address), "put returned a foreign connection for " + address);
+					model.connections.put(address, c);
+				}
+				else {
+					Connection c = model.connections.get(address);
+					// a stale connection must never remove the current one
+					check(!router.remove(address, new Connection(address)), "removed a stale connection of " + address);
+					check(router.remove(address, c) == (c != null), "remove did not find the connection of " + address);
+					model.connections.remove(address);
+				}
+			}
+			else {
+				int pluginId = pick(random, PLUGINS, id, writers);
+				String address = addresses[random.nextInt(DEVICES)];
+				ArrayList<Route> expected = model.routes.get(pluginId);
+				if (op == 2){
+					Route route = new Route(address, (char)('A' + random.nextInt(26)));
+					boolean first = router.addRoute(pluginId, route);
+					check(first == (expected == null), "addRoute reported first " + first + " for plugin " + pluginId);
+					if (expected == null){
+						expected = new ArrayList<Route>();
+						model.routes.put(pluginId, expected);
+					}
+					int i = indexOf(expected, address);
+					if (i >= 0) expected.set(i, route);
+					else expected.add(route);
+				}
+				else {
+					boolean last = router.removeRoute(pluginId, address);
+					int i = (expected == null) ? -1 : indexOf(expected, address);
+					check(last == (i >= 0 && expected.size() == 1), "removeRoute reported last " + last + " for plugin " + pluginId);
+					if (i >= 0){
+						expected.remove(i);
+						if (expected.isEmpty()) model.routes.remove(pluginId);
+					}
+				}
+			}
+			writes.incrementAndGet();
+		}
+	}
+
+	private void read(){
+		Random random = new Random();
+		while (running && failure.get() == null){
+			int pluginId = random.nextInt(PLUGINS);
+			Route[] routes = router.getRoutes(pluginId);
+			HashSet<Long> macs = new HashSet<Long>();
+			HashSet<String> others = new HashSet<String>();
+			for (Route route : routes){
+				if (route == null){
+					fail("null route of plugin " + pluginId);
+					return;
+				}
+				boolean unique = (route.mac != MacAddress.INVALID) ? macs.add(route.mac) : others.add(route.address);
+				check(unique, "plugin " + pluginId + " routed twice to " + route.address);
+				Connection c = router.get(route);
+				check(c == null || c.address.equals(route.address), "route to " + route.address + " led to " + (c == null ? null : c.address));
+			}
+
+			String address = addresses[random.nextInt(DEVICES)];
+			Connection c = router.get(address);
+			if (c != null) check(c.address.equals(address), "connection of " + c.address + " found under " + address);
+			for (Connection each : router.connections())
+				check(each != null, "null in connections()");
+			check(router.size() >= 0 && router.size() <= DEVICES, "size " + router.size());
+			reads.incrementAndGet();
+		}
+	}
+
+	private void verify(Model[] models){
+		HashMap<String, Connection> connections = new HashMap<String, Connection>();
+		for (Model m : models){
+			connections.putAll(m.connections);
+			for (int pluginId=0; pluginId<PLUGINS; pluginId++){
+				ArrayList<Route> expected = m.routes.get(pluginId);
+				if (expected == null) continue;
+				Route[] routes = router.getRoutes(pluginId);
+				check(routes.length == expected.size(), "plugin " + pluginId + " has " + routes.length + " routes, expected " + expected.size());
+				for (Route route : expected)
+					check(indexOf(routes, route) >= 0, "plugin " + pluginId + " lost its route " + route);
+			}
+		}
+		check(router.size() == connections.size(), "size " + router.size() + ", expected " + connections.size());
+		for (String address : addresses)
+			check(router.get(address) == connections.get(address), "wrong connection for " + address);
+		check(router.getAddresses().length == connections.size(), "getAddresses() does not match size()");
+
+		int routed = 0;
+		for (Model m : models)
+			routed += m.routes.size();
+		check(router.getPluginIds().length == routed, router.getPluginIds().length + " plugins routed, expected " + routed);
+	}
+
+	/* a random index owned by the writer */
+	private static int pick(Random random, int count, int id, int writers){
+		int owned = (count - id + writers - 1) / writers;
+		return id + random.nextInt(owned) * writers;
+	}
+
+	private static int indexOf(ArrayList<Route> routes, String address){
+		for (int i=0; i<routes.size(); i++)
+			if (routes.get(i).address.equals(address)) return i;
+		return -1;
+	}
+
+	private static int indexOf(Route[] routes, Route route){
+		for (int i=0; i<routes.length; i++)
+			if (routes[i] == route) return i;
+		return -1;
+	}
+
+	private void check(boolean condition, String message){
+		if (!condition) fail(message);
+	}
+
+	private void fail(String message){
+		failure.compareAndSet(null, message);
+	}
+}
@@ -0,0 +1,140 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Checks the plug-in routes of {@link Router}: adding, replacing and
+ * removing them, that {@link Router#getRoutes(int)} hands out snapshots and
+ * that looking them up allocates nothing, i.e. boxes no plug-in id.
+ *
+ * <p>Exits with status 1 if any check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.RoutesTest
+ * </pre>
+ */
+public class RoutesTest {
+
+	private static final String A = "00:06:66:03:A9:2B";
+	private static final String B = "00:06:66:03:A9:2C";
+	/* outside of the Integer cache, boxing it would allocate */
+	private static final int PLUGIN = 1000;
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+
+	public static void main(String[] args){
+		Router<Object> router = new Router<Object>();
+		check("unknown plug-in", "0", Integer.toString(router.getRoutes(PLUGIN).length));
+		check("no routes are shared", "true", Boolean.toString(router.getRoutes(PLUGIN) == router.getRoutes(-1)));
+		check("unknown plug-in is not routed", "false", Boolean.toString(router.isRouted(PLUGIN)));
+
+		check("first route", "true", Boolean.toString(router.addRoute(PLUGIN, new Route(A, 'A'))));
+		Route[] first = router.getRoutes(PLUGIN);
+		check("second route", "false", Boolean.toString(router.addRoute(PLUGIN, new Route(B, 'B'))));
+		check("routes", A + " " + B, addresses(router.getRoutes(PLUGIN)));
+		check("snapshot stays as it was", A, addresses(first));
+
+		// same device in lower case, e.g. after a reconnect
+		router.addRoute(PLUGIN, new Route(A.toLowerCase(), 'C'));
+		Route[] routes = router.getRoutes(PLUGIN);
+		check("replaced, not added", "2", Integer.toString(routes.length));
+		check("replaced in place", "C", Character.toString(routes[0].flag));
+
+		router.addRoute(7, new Route(A, 'A'));
+		check("plug-in ids", "7 1000", ids(router.getPluginIds()));
+		check("other plug-in", A, addresses(router.getRoutes(7)));
+
+		check("remove unknown", "false", Boolean.toString(router.removeRoute(PLUGIN, "00:06:66:03:A9:2D")));
+		check("remove one of two", "false", Boolean.toString(router.removeRoute(PLUGIN, A.toLowerCase())));
+		check("one left", B, addresses(router.getRoutes(PLUGIN)));
+		check("remove the last", "true", Boolean.toString(router.removeRoute(PLUGIN, B)));
+		check("none left", "0", Integer.toString(router.getRoutes(PLUGIN).length));
+		check("not routed anymore", "false", Boolean.toString(router.isRouted(PLUGIN)));
+		check("remove from unknown plug-in", "false", Boolean.toString(router.removeRoute(PLUGIN, B)));
+		check("plug-in ids left", "7", ids(router.getPluginIds()));
+
+		router.addRoute(PLUGIN, new Route(B, 'B'));
+		allocation(router);
+
+		System.out.println(String.format("%d checks, %d failures", checks, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	private static void allocation(Router<Object> router){
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)){
+			System.out.println("allocations cannot be measured on this VM, skipped");
+			return;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+		long id = Thread.currentThread().getId();
+		int lookups = 100000;
+		int found = 0;
+
+		long before = threads.getThreadAllocatedBytes(id);
+		for (int i=0; i<lookups; i++)
+			found += router.getRoutes(PLUGIN + (i & 1)).length;
+		long allocated = threads.getThreadAllocatedBytes(id) - before;
+
+		check("routes found", Integer.toString(lookups / 2), Integer.toString(found));
+		// a boxed id alone takes 16 bytes per lookup
+		if (allocated >= lookups){
+			checks++;
+			failures++;
+			System.out.println("failed: getRoutes() allocated " + allocated + " bytes in " + lookups + " lookups");
+		}
+		else checks++;
+	}
+
+	private static String addresses(Route[] routes){
+		StringBuilder sb = new StringBuilder();
+		for (Route r : routes){
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(r.address);
+		}
+		return sb.toString();
+	}
+
+	private static String ids(int[] ids){
+		java.util.Arrays.sort(ids);
+		StringBuilder sb = new StringBuilder();
+		for (int id : ids){
+			if (sb.length() > 0) sb.append(' ');
+			sb.append(id);
+		}
+		return sb.toString();
+	}
+
+	private static void check(String what, String expected, String actual){
+		checks++;
+		if (expected.equals(actual)) return;
+		failures++;
+		System.out.println("failed: " + what + ", expected " + expected + " but was " + actual);
+	}
+}
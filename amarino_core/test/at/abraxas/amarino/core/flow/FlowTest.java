@@ -0,0 +1,258 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.core.flow;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+
+/**
+ * Checks the overflow policies and demand accounting of {@link FrameHub}
+ * subscriptions.
+ *
+ * <p>Deliveries run on an executor driven by the test, so every check sees
+ * exactly what was delivered up to that point. Exits with status 1 if any
+ * check failed.</p>
+ *
+ * <pre>
+ * ant test
+ * java -cp bin/classes:bin/test at.abraxas.amarino.core.flow.FlowTest
+ * </pre>
+ */
+public class FlowTest {
+
+	private static final String ADDRESS = "00:11:22:33:44:55";
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+
+	/* runs tasks only when told to */
+	private static class ManualExecutor implements Executor {
+		final LinkedList<Runnable> tasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(Runnable command) {
+			tasks.add(command);
+		}
+
+		void runAll(){
+			while (!tasks.isEmpty())
+				tasks.poll().run();
+		}
+	}
+
+	/* records what it gets, requests nothing on its own */
+	private static class Recorder implements Flow.Subscriber<String> {
+		final ArrayList<String> items = new ArrayList<String>();
+		Flow.Subscription subscription;
+		Throwable error;
+		boolean completed;
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(String item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+
+		String take(){
+			String s = items.toString();
+			items.clear();
+			return s;
+		}
+	}
+
+
+	public static void main(String[] args){
+		buffer();
+		drop();
+		coalesce();
+		demand();
+		flags();
+		complete();
+
+		System.out.println(String.format("%d checks, %d failures", checks, failures));
+		if (failures > 0){
+			System.out.println("FAILED");
+			System.exit(1);
+		}
+		System.out.println("OK");
+	}
+
+	/* queued up to the capacity while there is no demand, the newest are dropped */
+	private static void buffer(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder r = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 3);
+
+		publish(hub, executor, "a", "b", "c", "d", "e");
+		check("buffer: nothing without demand", "[]", r.take());
+		r.subscription.request(2);
+		executor.runAll();
+		check("buffer: as many as requested", "[a, b]", r.take());
+		r.subscription.request(10);
+		executor.runAll();
+		check("buffer: the rest up to the capacity", "[c]", r.take());
+		publish(hub, executor, "f", "g");
+		check("buffer: delivered at once while there is demand", "[f, g]", r.take());
+	}
+
+	/* only items arriving while there is demand are kept */
+	private static void drop(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder r = subscribe(hub, FrameHub.ANY_FLAG, Overflow.DROP, 64);
+
+		publish(hub, executor, "a");
+		check("drop: nothing without demand", "[]", r.take());
+		r.subscription.request(2);
+		// queued items have their demand reserved before they are delivered
+		hub.publish(ADDRESS, "b");
+		hub.publish(ADDRESS, "c");
+		hub.publish(ADDRESS, "d");
+		executor.runAll();
+		check("drop: as many as requested", "[b, c]", r.take());
+		r.subscription.request(1);
+		executor.runAll();
+		check("drop: dropped items do not come back", "[]", r.take());
+		publish(hub, executor, "e", "f");
+		check("drop: one more requested", "[e]", r.take());
+	}
+
+	/* only the newest item waits for demand */
+	private static void coalesce(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder r = subscribe(hub, FrameHub.ANY_FLAG, Overflow.COALESCE, 64);
+
+		publish(hub, executor, "1", "2", "3");
+		r.subscription.request(1);
+		executor.runAll();
+		check("coalesce: the newest one", "[3]", r.take());
+		publish(hub, executor, "4", "5");
+		r.subscription.request(5);
+		executor.runAll();
+		check("coalesce: older ones are replaced", "[5]", r.take());
+		publish(hub, executor, "6");
+		check("coalesce: delivered at once while there is demand", "[6]", r.take());
+	}
+
+	private static void demand(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder r = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 1000);
+
+		// adding up beyond Long.MAX_VALUE means unbounded, not negative
+		r.subscription.request(Long.MAX_VALUE);
+		r.subscription.request(Long.MAX_VALUE);
+		for (int i=0; i<500; i++)
+			hub.publish(ADDRESS, String.valueOf(i));
+		executor.runAll();
+		check("demand: unbounded, delivered in batches", "500", String.valueOf(r.items.size()));
+		check("demand: in order", "499", r.items.get(r.items.size() - 1));
+		r.items.clear();
+
+		Recorder counted = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 1000);
+		counted.subscription.request(3);
+		counted.subscription.request(2);
+		for (int i=0; i<10; i++)
+			hub.publish(ADDRESS, String.valueOf(i));
+		executor.runAll();
+		check("demand: requests add up", "[0, 1, 2, 3, 4]", counted.take());
+
+		counted.subscription.cancel();
+		counted.subscription.request(10);
+		publish(hub, executor, "x");
+		check("demand: nothing after cancel", "[]", counted.take());
+		check("demand: others unaffected by cancel", "[0, 1, 2, 3, 4, 5, 6, 7, 8, 9, x]", r.take());
+
+		Recorder invalid = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 10);
+		invalid.subscription.request(0);
+		executor.runAll();
+		check("demand: 0 is an error", "true", String.valueOf(invalid.error instanceof IllegalArgumentException));
+		publish(hub, executor, "y");
+		check("demand: nothing after an error", "[]", invalid.take());
+	}
+
+	/* messages go to the publisher of their first character and to ANY_FLAG */
+	private static void flags(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder any = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 10);
+		Recorder a = subscribe(hub, 'A', Overflow.BUFFER, 10);
+		any.subscription.request(10);
+		a.subscription.request(10);
+
+		publish(hub, executor, "A1", "B2", "", "A3");
+		hub.publish("other", "A4");
+		executor.runAll();
+		check("flags: all messages of the device", "[A1, B2, , A3]", any.take());
+		check("flags: only those starting with the flag", "[A1, A3]", a.take());
+		check("flags: same publisher for the same device and flag", "true",
+				String.valueOf(hub.publisher(ADDRESS, 'A') == hub.publisher(ADDRESS, 'A')));
+	}
+
+	/* closing the hub completes subscriptions, undelivered items are dropped */
+	private static void complete(){
+		ManualExecutor executor = new ManualExecutor();
+		FrameHub hub = new FrameHub(executor);
+		Recorder r = subscribe(hub, FrameHub.ANY_FLAG, Overflow.BUFFER, 10);
+
+		publish(hub, executor, "a", "b");
+		hub.close();
+		executor.runAll();
+		check("complete: completed", "true", String.valueOf(r.completed));
+		r.subscription.request(10);
+		publish(hub, executor, "c");
+		check("complete: nothing after completion", "[]", r.take());
+	}
+
+	private static Recorder subscribe(FrameHub hub, char flag, Overflow overflow, int capacity){
+		Recorder r = new Recorder();
+		hub.publisher(ADDRESS, flag).subscribe(r, overflow, capacity);
+		return r;
+	}
+
+	private static void publish(FrameHub hub, ManualExecutor executor, String... messages){
+		for (String m : messages)
+			hub.publish(ADDRESS, m);
+		executor.runAll();
+	}
+
+	private static void check(String what, String expected, String actual){
+		checks++;
+		if (expected.equals(actual)) return;
+		failures++;
+		System.out.println(what + ": expected " + expected + " but got " + actual);
+	}
+}
@@ -0,0 +1,157 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+
+/**
+ * Base of links served by a {@link Reactor}.
+ *
+ * <p>{@link #send(byte[])} may be called from any thread, frames are queued and
+ * written by the reactor. Reading, writing and closing the channel only happen
+ * on the reactor thread, thus subclasses need no locking.</p>
+ */
+abstract class ChannelLink implements Link {
+
+	final String address;
+	final Reactor reactor;
+	final LinkListener listener;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private volatile boolean closed;
+
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+
+
+	ChannelLink(String address, Reactor reactor, LinkListener listener){
+		this.address = address;
+		this.reactor = reactor;
+		this.listener = listener;
+	}
+
+	/* reactor thread only */
+	abstract int read(ByteBuffer dst) throws IOException;
+	/* reactor thread only */
+	abstract int write(ByteBuffer src) throws IOException;
+	/* reactor thread only, called when a write could not complete, or with false once it did */
+	abstract void writePending(boolean pending);
+	/* reactor thread only */
+	abstract void closeChannel();
+
+	@Override
+	public String getAddress() {
+		return address;
+	}
+
+	@Override
+	public void send(byte[] frame) throws IOException {
+		if (closed) throw new IOException(address + " is closed");
+		outbound.add(ByteBuffer.wrap(frame));
+		if (flushScheduled.compareAndSet(false, true))
+			reactor.execute(flushTask);
+	}
+
+	@Override
+	public void close() {
+		reactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				closed(null);
+			}
+		});
+	}
+
+	boolean isClosed(){
+		return closed;
+	}
+
+	/**
+	 * Reads everything available and hands it to the listener.
+	 *
+	 * @param eofIsData true if a read of -1 only means there is nothing to read
+	 */
+	void readAvailable(boolean eofIsData){
+		if (closed) return;
+		ByteBuffer buffer = reactor.readBuffer;
+		try {
+			while (true){
+				buffer.clear();
+				int n = read(buffer);
+				if (n > 0){
+					listener.onReceived(this, buffer.array(), 0, n);
+					if (n < buffer.capacity()) return;
+				}
+				else if (n < 0 && !eofIsData){
+					throw new IOException("end of stream");
+				}
+				else return;
+			}
+		} catch (IOException e) {
+			closed(e);
+		}
+	}
+
+	/**
+	 * Writes as much of the queued frames as the channel accepts.
+	 */
+	void flush(){
+		if (closed) return;
+		try {
+			ByteBuffer b;
+			while ((b = outbound.peek()) != null){
+				write(b);
+				if (b.hasRemaining()){
+					writePending(true);
+					return;
+				}
+				outbound.poll();
+			}
+			writePending(false);
+		} catch (IOException e) {
+			closed(e);
+		}
+	}
+
+	/* reactor thread only */
+	void closed(IOException cause){
+		if (closed) return;
+		closed = true;
+		outbound.clear();
+		closeChannel();
+		listener.onClosed(this, cause);
+	}
+
+	@Override
+	public String toString() {
+		return address;
+	}
+}
@@ -0,0 +1,263 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.Route;
+import at.abraxas.amarino.core.metrics.Metrics;
+import at.abraxas.amarino.core.rpc.RpcFuture;
+
+/**
+ * Line based text interface to the {@link Gateway}, e.g. for <code>nc localhost 4478</code>.
+ * Anyone who reaches the port controls the devices, there is no authentication.
+ * Thus it only listens on the loopback interface unless given another address.
+ *
+ * <pre>
+ * open &lt;address&gt;                    connect a device
+ * close &lt;address&gt;                   disconnect a device
+ * links                             list connected devices
+ * route &lt;channel&gt; &lt;address&gt; &lt;flag&gt;  send data of the channel to the device
+ * unroute &lt;channel&gt; &lt;address&gt;
+ * routes &lt;channel&gt;
+ * send &lt;channel&gt; &lt;data&gt;             send along all routes of the channel
+ * sendto &lt;address&gt; &lt;flag&gt; &lt;data&gt;    send to a single device
+ * call &lt;address&gt; &lt;flag&gt; &lt;data&gt;      send a request, answered with ok &lt;call&gt;
+ * stats                             dump metrics
+ * quit
+ * </pre>
+ *
+ * Every command is answered with a line starting with <code>ok</code> or
+ * <code>error</code>. Events are pushed to all clients as <code>opened &lt;address&gt;</code>,
+ * <code>closed &lt;address&gt;</code> and <code>recv &lt;address&gt; &lt;message&gt;</code>.
+ * The answer to a call is pushed to the client which made it as
+ * <code>reply &lt;call&gt; &lt;data&gt;</code> or <code>failed &lt;call&gt; &lt;reason&gt;</code>,
+ * calls do not wait for each other.
+ */
+class ControlServer implements Gateway.Listener, Reactor.Handler {
+
+	private static final Logger log = Logger.getLogger(ControlServer.class.getName());
+
+	private static final int MAX_LINE = 4096;
+
+	private final Gateway gateway;
+	private final InetAddress bindAddress;
+	private final int port;
+	private final Reactor reactor;
+	private final CopyOnWriteArrayList<Session> sessions = new CopyOnWriteArrayList<Session>();
+	private ServerSocketChannel server;
+
+
+	/**
+	 * @param bindAddress the interface to listen on, null for loopback only
+	 */
+	ControlServer(Gateway gateway, InetAddress bindAddress, int port){
+		this.gateway = gateway;
+		this.bindAddress = (bindAddress == null) ? InetAddress.getLoopbackAddress() : bindAddress;
+		this.port = port;
+		this.reactor = gateway.reactors().next();
+	}
+
+	void start() throws IOException {
+		server = ServerSocketChannel.open();
+		server.socket().setReuseAddress(true);
+		server.socket().bind(new InetSocketAddress(bindAddress, port));
+		server.configureBlocking(false);
+		reactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					reactor.register(server, SelectionKey.OP_ACCEPT, ControlServer.this);
+				} catch (IOException e) {
+					log.severe("cannot accept control connections: " + e);
+				}
+			}
+		});
+		gateway.addListener(this);
+		log.info("control port " + bindAddress.getHostAddress() + ":" + port);
+	}
+
+	@Override
+	public void ready(SelectionKey key) {
+		SocketChannel channel;
+		try {
+			while ((channel = server.accept()) != null){
+				String remote = channel.socket().getRemoteSocketAddress().toString();
+				Session s = new Session();
+				sessions.add(s);
+				s.link = gateway.serve(remote, channel, s);
+			}
+		} catch (IOException e) {
+			log.warning("accept failed: " + e);
+		}
+	}
+
+	@Override
+	public void onOpened(String address) {
+		broadcast("opened " + address);
+	}
+
+	@Override
+	public void onMessage(String address, String message) {
+		broadcast("recv " + address + " " + message);
+	}
+
+	@Override
+	public void onClosed(String address, IOException cause) {
+		broadcast("closed " + address);
+	}
+
+	private void broadcast(String line){
+		for (Session s : sessions)
+			s.println(line);
+	}
+
+	/**
+	 * A connected client.
+	 */
+	private class Session implements LinkListener {
+
+		volatile Link link;
+		private final StringBuilder line = new StringBuilder();
+		private final AtomicInteger calls = new AtomicInteger();
+
+		void println(String s){
+			Link l = link;
+			if (l == null) return;
+			try {
+				l.send(MessageCodec.toBytes(s + "\n"));
+			} catch (IOException e) {
+				// closed, onClosed cleans up
+			}
+		}
+
+		@Override
+		public void onReceived(Link link, byte[] data, int offset, int length) {
+			// data may arrive before serve() returned the link
+			this.link = link;
+			for (int i=offset; i<offset+length; i++){
+				char c = (char)(data[i] & 0xff);
+				if (c == '\n'){
+					String cmd = line.toString().trim();
+					line.setLength(0);
+					if (cmd.length() > 0) execute(cmd);
+				}
+				else if (line.length() < MAX_LINE){
+					line.append(c);
+				}
+			}
+		}
+
+		@Override
+		public void onClosed(Link link, IOException cause) {
+			sessions.remove(this);
+		}
+
+		private void execute(String cmd){
+			String[] args = cmd.split("\\s+", 4);
+			String name = args[0];
+			try {
+				if ("open".equals(name) && args.length >= 2){
+					gateway.openLater(args[1], new Gateway.Callback() {
+						@Override
+						public void done(String address, IOException error) {
+							println((error == null) ? "ok open " + address : "error open " + address + " " + error.getMessage());
+						}
+					});
+				}
+				else if ("close".equals(name) && args.length >= 2){
+					println(gateway.close(args[1]) ? "ok" : "error not connected");
+				}
+				else if ("links".equals(name)){
+					StringBuilder sb = new StringBuilder("ok");
+					for (String a : gateway.getAddresses())
+						sb.append(' ').append(a);
+					println(sb.toString());
+				}
+				else if ("route".equals(name) && args.length == 4 && args[3].length() == 1){
+					gateway.addRoute(Integer.parseInt(args[1]), args[2], args[3].charAt(0));
+					println("ok");
+				}
+				else if ("unroute".equals(name) && args.length >= 3){
+					gateway.removeRoute(Integer.parseInt(args[1]), args[2]);
+					println("ok");
+				}
+				else if ("routes".equals(name) && args.length >= 2){
+					StringBuilder sb = new StringBuilder("ok");
+					for (Route r : gateway.getRoutes(Integer.parseInt(args[1])))
+						sb.append(' ').append(r.address).append(':').append(r.flag);
+					println(sb.toString());
+				}
+				else if ("send".equals(name) && args.length >= 3){
+					// keep blanks within the data
+					String data = cmd.split("\\s+", 3)[2];
+					println("ok " + gateway.send(Integer.parseInt(args[1]), data));
+				}
+				else if ("sendto".equals(name) && args.length == 4 && args[2].length() == 1){
+					println(gateway.send(args[1], args[2].charAt(0), args[3]) ? "ok" : "error not connected");
+				}
+				else if ("call".equals(name) && args.length == 4 && args[2].length() == 1){
+					final int call = calls.incrementAndGet();
+					println("ok " + call);
+					gateway.call(args[1], args[2].charAt(0), args[3], Gateway.DEFAULT_RPC_TIMEOUT)
+						.setListener(new RpcFuture.Listener() {
+							@Override
+							public void onDone(RpcFuture future) {
+								Throwable error = future.getError();
+								if (error == null){
+									try {
+										println("reply " + call + " " + future.get());
+									} catch (Exception e) {
+										// done and not failed, cannot happen
+									}
+								}
+								else {
+									println("failed " + call + " " + 
+											((error instanceof TimeoutException) ? "timeout" : error.getMessage()));
+								}
+							}
+						});
+				}
+				else if ("stats".equals(name)){
+					println("ok\n" + Metrics.dump());
+				}
+				else if ("quit".equals(name)){
+					link.close();
+				}
+				else {
+					println("error unknown command: " + cmd);
+				}
+			} catch (NumberFormatException e){
+				println("error invalid channel in: " + cmd);
+			}
+		}
+	}
+}
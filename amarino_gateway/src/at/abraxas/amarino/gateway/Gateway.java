@@ -0,0 +1,419 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+import at.abraxas.amarino.core.FrameParser;
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+import at.abraxas.amarino.core.LinkThreads;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.Protocol;
+import at.abraxas.amarino.core.Route;
+import at.abraxas.amarino.core.Router;
+import at.abraxas.amarino.core.StreamCodec;
+import at.abraxas.amarino.core.Transport;
+import at.abraxas.amarino.core.metrics.Counter;
+import at.abraxas.amarino.core.metrics.Gauge;
+import at.abraxas.amarino.core.metrics.Metrics;
+import at.abraxas.amarino.core.rpc.RpcClient;
+import at.abraxas.amarino.core.rpc.RpcException;
+import at.abraxas.amarino.core.rpc.RpcFuture;
+
+/**
+ * Runs the Amarino protocol on a Linux box without a phone in the loop.
+ *
+ * <p>Arduinos are attached through serial lines (<code>/dev/ttyUSB0</code>,
+ * <code>/dev/ttyACM1@57600</code>) or TCP endpoints (<code>host:port</code>).
+ * All links are served by a few {@link Reactor} threads. Data is sent along
+ * routes (channel -&gt; address and flag) exactly like the Android service
+ * forwards plug-in data, messages from Arduino are handed to {@link Listener}s.
+ * Clients drive the gateway through the line based {@link ControlServer}.</p>
+ *
+ * <pre>
+ * java -jar amarino_gateway.jar [-threads n] [-poll ms] [-control port] [-bind address] [-metrics] [address ...]
+ * </pre>
+ *
+ * <p>The control port is only reachable from the local machine unless
+ * <code>-bind</code> names another interface, e.g. <code>0.0.0.0</code> for
+ * all of them.</p>
+ *
+ * <p>Without hardware, a pseudo terminal pair (<code>socat pty,raw,echo=0
+ * pty,raw,echo=0</code> or Python's pty module) or a loopback socket
+ * (<code>nc -l 5000</code> and address <code>localhost:5000</code>) stands in
+ * for an Arduino.</p>
+ */
+public class Gateway {
+
+	private static final Logger log = Logger.getLogger(Gateway.class.getName());
+
+	public static final int DEFAULT_CONTROL_PORT = 4478;
+	public static final long DEFAULT_POLL_INTERVAL = 5;
+	public static final long DEFAULT_RPC_TIMEOUT = 2000;
+
+	private static final Counter RX_BYTES = Metrics.counter("gw.rx_bytes");
+	private static final Counter RX_MESSAGES = Metrics.counter("gw.rx_messages");
+	private static final Counter RX_PARSE_ERRORS = Metrics.counter("gw.rx_parse_errors");
+	private static final Counter RX_STREAM_DROPPED = Metrics.counter("gw.rx_stream_dropped");
+	private static final Counter TX_BYTES = Metrics.counter("gw.tx_bytes");
+	private static final Counter TX_MESSAGES = Metrics.counter("gw.tx_messages");
+	private static final Counter TX_DROPPED = Metrics.counter("gw.tx_dropped");
+	private static final Counter TX_ERRORS = Metrics.counter("gw.tx_errors");
+	private static final Gauge LINKS = Metrics.gauge("gw.links");
+
+	/**
+	 * Gets told about links and incoming messages, called on reactor threads
+	 * and must not block.
+	 */
+	public interface Listener {
+		void onOpened(String address);
+		void onMessage(String address, String message);
+		void onClosed(String address, IOException cause);
+	}
+
+	private final ReactorGroup reactors;
+	private final TcpTransport tcp;
+	private final SerialTransport serial;
+	private final Router<Link> router = new Router<Link>();
+	private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final ConcurrentHashMap<String, RpcClient> rpcClients = new ConcurrentHashMap<String, RpcClient>();
+	private final ScheduledExecutorService rpcTimer =
+		Executors.newSingleThreadScheduledExecutor(new LinkThreads.NamedThreadFactory("rpc-timeout"));
+
+	/* opening a link blocks, requests from reactor threads are handed over */
+	private final ExecutorService opener = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "opener");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+
+	public Gateway(int threads, long pollInterval) throws IOException {
+		reactors = new ReactorGroup(threads, pollInterval);
+		tcp = new TcpTransport(reactors);
+		serial = new SerialTransport(reactors);
+	}
+
+	public void start(){
+		reactors.start();
+	}
+
+	public void shutdown(){
+		opener.shutdownNow();
+		for (Link link : router.connections())
+			link.close();
+		rpcTimer.shutdownNow();
+		reactors.shutdown();
+	}
+
+	public void addListener(Listener listener){
+		listeners.add(listener);
+	}
+
+	public void removeListener(Listener listener){
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Opens a link, blocks until it is established.
+	 *
+	 * @return the address the link is known by from now on
+	 * @throws IOException if the link cannot be opened or was lost right away
+	 */
+	public String open(String address) throws IOException {
+		Transport transport;
+		String key;
+		if (SerialTransport.isSerial(address)){
+			transport = serial;
+			key = SerialTransport.device(address);
+		}
+		else {
+			transport = tcp;
+			key = address;
+		}
+		if (router.contains(key)) return key;
+
+		LinkHandler handler = new LinkHandler(key);
+		Link link = transport.open(address, handler);
+		RpcClient rpc = new RpcClient(link, rpcTimer);
+		handler.rpc = rpc;
+		rpcClients.put(key, rpc);
+		router.put(key, link);
+		LINKS.inc();
+		// the link may have been lost before we got to know it, listeners were told already
+		if (((ChannelLink)link).isClosed()){
+			if (router.remove(key, link)) LINKS.dec();
+			rpcClients.remove(key, rpc);
+			rpc.close();
+			throw new IOException("connection to " + key + " lost while opening");
+		}
+		log.info("connected to " + key);
+		for (Listener l : listeners)
+			l.onOpened(key);
+		return key;
+	}
+
+	/**
+	 * Same as {@link #open(String)} but returns at once, failures are logged.
+	 */
+	public void openLater(final String address, final Callback callback){
+		opener.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					String key = open(address);
+					if (callback != null) callback.done(key, null);
+				} catch (IOException e) {
+					log.warning("cannot connect to " + address + ": " + e.getMessage());
+					if (callback != null) callback.done(address, e);
+				}
+			}
+		});
+	}
+
+	public interface Callback {
+		void done(String address, IOException error);
+	}
+
+	public boolean close(String address){
+		Link link = router.get(address);
+		if (link == null) return false;
+		link.close();
+		return true;
+	}
+
+	public String[] getAddresses(){
+		return router.getAddresses();
+	}
+
+	/**
+	 * Sends <code>data</code> with the given flag to one device.
+	 *
+	 * @return false if there is no link to the device or it failed
+	 */
+	public boolean send(String address, char flag, String data){
+		Link link = router.get(address);
+		if (link == null){
+			TX_DROPPED.inc();
+			return false;
+		}
+		return send(link, MessageCodec.encode(flag, data));
+	}
+
+	/**
+	 * Sends <code>data</code> to every device routed for the channel, each
+	 * device gets it with the flag of its route.
+	 *
+	 * @return number of devices the data was sent to
+	 */
+	public int send(int channel, String data){
+		Route[] routes = router.getRoutes(channel);
+		if (routes.length == 0){
+			TX_DROPPED.inc();
+			return 0;
+		}
+		int sent = 0;
+		for (Route route : routes){
+			Link link = router.get(route);
+			if (link == null){
+				TX_DROPPED.inc();
+				continue;
+			}
+			if (send(link, MessageCodec.encode(route.flag, data)))
+				sent++;
+		}
+		return sent;
+	}
+
+	/**
+	 * Sends <code>data</code> with the given flag to one device as a request,
+	 * Arduino answers with <code>meetAndroid.reply()</code>. Returns at once,
+	 * several requests may be outstanding.
+	 */
+	public RpcFuture call(String address, char flag, String data, long timeoutMillis){
+		RpcClient rpc = rpcClients.get(address);
+		if (rpc == null){
+			TX_DROPPED.inc();
+			RpcFuture f = new RpcFuture(-1);
+			f.fail(new RpcException("not connected"));
+			return f;
+		}
+		return rpc.call(flag, data, timeoutMillis);
+	}
+
+	private boolean send(Link link, String message){
+		byte[] bytes = MessageCodec.toBytes(message);
+		try {
+			link.send(bytes);
+		} catch (IOException e) {
+			TX_ERRORS.inc();
+			return false;
+		}
+		TX_MESSAGES.inc();
+		TX_BYTES.add(bytes.length);
+		return true;
+	}
+
+	/**
+	 * Routes the channel to the device, data sent on the channel gets the flag.
+	 */
+	public void addRoute(int channel, String address, char flag){
+		router.addRoute(channel, new Route(address, flag));
+	}
+
+	public void removeRoute(int channel, String address){
+		router.removeRoute(channel, address);
+	}
+
+	public Route[] getRoutes(int channel){
+		return router.getRoutes(channel);
+	}
+
+	/* serves a socket accepted by the control server */
+	Link serve(String address, SocketChannel channel, LinkListener listener){
+		return tcp.start(address, channel, listener);
+	}
+
+	ReactorGroup reactors(){
+		return reactors;
+	}
+
+	/**
+	 * Parses the stream of a single link.
+	 */
+	private class LinkHandler implements LinkListener, FrameParser.Listener {
+
+		private final String address;
+		private final FrameParser parser = new FrameParser(this);
+		/* integer arrays Arduino sends with sendStream() */
+		private final StreamCodec stream = new StreamCodec();
+		volatile RpcClient rpc;
+
+		LinkHandler(String address){
+			this.address = address;
+		}
+
+		@Override
+		public void onReceived(Link link, byte[] data, int offset, int length) {
+			RX_BYTES.add(length);
+			parser.feed(data, offset, length);
+		}
+
+		@Override
+		public void onClosed(Link link, IOException cause) {
+			if (router.remove(address, link))
+				LINKS.dec();
+			RpcClient r = rpc;
+			if (r != null){
+				rpcClients.remove(address, r);
+				r.close();
+			}
+			log.info("connection to " + address + " closed" + ((cause == null) ? "" : ": " + cause.getMessage()));
+			for (Listener l : listeners)
+				l.onClosed(address, cause);
+		}
+
+		@Override
+		public void onMessage(String message) {
+			RX_MESSAGES.inc();
+			// answers to requests only go to whoever asked
+			RpcClient r = rpc;
+			if (r != null && r.onMessage(message)) return;
+			if (message.length() > 0 && message.charAt(0) == Protocol.STREAM_FLAG){
+				message = stream.decode(message);
+				if (message == null){
+					// a difference to a message we missed, wait for the next key frame
+					RX_STREAM_DROPPED.inc();
+					return;
+				}
+			}
+			for (Listener l : listeners)
+				l.onMessage(address, message);
+		}
+
+		@Override
+		public void onAlive() {
+			// answer to a heartbeat, nothing to forward
+		}
+
+		@Override
+		public void onVersion(int version) {
+			// the gateway sends no heartbeats, nothing to start
+		}
+
+		@Override
+		public void onParseError() {
+			RX_PARSE_ERRORS.inc();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+		long poll = DEFAULT_POLL_INTERVAL;
+		int controlPort = DEFAULT_CONTROL_PORT;
+		InetAddress bindAddress = null;
+		ArrayList<String> addresses = new ArrayList<String>();
+
+		for (int i=0; i<args.length; i++){
+			String a = args[i];
+			if ("-threads".equals(a)) threads = Integer.parseInt(args[++i]);
+			else if ("-poll".equals(a)) poll = Long.parseLong(args[++i]);
+			else if ("-control".equals(a)) controlPort = Integer.parseInt(args[++i]);
+			else if ("-bind".equals(a)) bindAddress = InetAddress.getByName(args[++i]);
+			else if ("-metrics".equals(a)) Metrics.enabled = true;
+			else if (a.startsWith("-")){
+				System.err.println("usage: Gateway [-threads n] [-poll ms] [-control port] [-bind address] [-metrics] [address ...]");
+				System.exit(2);
+			}
+			else addresses.add(a);
+		}
+
+		final Gateway gateway = new Gateway(threads, poll);
+		gateway.start();
+		if (controlPort > 0)
+			new ControlServer(gateway, bindAddress, controlPort).start();
+		for (String address : addresses)
+			gateway.openLater(address, null);
+
+		final CountDownLatch stopped = new CountDownLatch(1);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				gateway.shutdown();
+				stopped.countDown();
+			}
+		});
+		stopped.await();
+	}
+}
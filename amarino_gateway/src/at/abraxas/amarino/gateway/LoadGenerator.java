@@ -0,0 +1,175 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import at.abraxas.amarino.core.FrameParser;
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+import at.abraxas.amarino.core.LinkThreads;
+import at.abraxas.amarino.core.MessageCodec;
+import at.abraxas.amarino.core.StreamLink;
+import at.abraxas.amarino.core.metrics.Histogram;
+import at.abraxas.amarino.core.metrics.Metrics;
+
+/**
+ * Opens thousands of in-memory links to {@link SimulatedArduino}s, each served
+ * by its own thread from {@link LinkThreads}, and keeps them busy.
+ *
+ * <p>Every link has <code>-window</code> frames in flight, a frame carries the
+ * time it was sent and the next one goes out as soon as the echo arrives.
+ * Prints frames per second and round trip percentiles every second and a
+ * summary at the end.</p>
+ *
+ * <pre>
+ * java -cp amarino_gateway.jar at.abraxas.amarino.gateway.LoadGenerator [-links 10000] [-seconds 10] [-window 1] [-platform]
+ * </pre>
+ */
+public class LoadGenerator {
+
+	private static final char FLAG = 'A';
+	private static final int BOARD_THREADS = 2;
+
+	private final AtomicLong frames = new AtomicLong();
+	private final Histogram rtt = Metrics.histogram("load.rtt");
+	private volatile boolean running = true;
+
+
+	public static void main(String[] args) throws Exception {
+		int links = 10000;
+		int seconds = 10;
+		int window = 1;
+		boolean platform = false;
+		for (int i=0; i<args.length; i++){
+			String a = args[i];
+			if ("-links".equals(a)) links = Integer.parseInt(args[++i]);
+			else if ("-seconds".equals(a)) seconds = Integer.parseInt(args[++i]);
+			else if ("-window".equals(a)) window = Integer.parseInt(args[++i]);
+			else if ("-platform".equals(a)) platform = true;
+			else {
+				System.err.println("usage: LoadGenerator [-links n] [-seconds n] [-window n] [-platform]");
+				System.exit(2);
+			}
+		}
+		new LoadGenerator().run(links, seconds, window, platform);
+	}
+
+	private void run(int count, int seconds, int window, boolean platform) throws Exception {
+		Metrics.enabled = true;
+		boolean virtual = !platform && LinkThreads.isVirtualAvailable();
+		ExecutorService executor = virtual ? LinkThreads.newExecutor("link") : LinkThreads.newPlatformExecutor("link");
+		System.out.println(count + " links on " + (virtual ? "virtual" : "platform") + " threads, window " + window);
+
+		// the simulated boards answer on their own threads
+		ExecutorService boards = Executors.newFixedThreadPool(BOARD_THREADS, new LinkThreads.NamedThreadFactory("board"));
+		long setup = System.nanoTime();
+		StreamLink[] links = new StreamLink[count];
+		for (int i=0; i<count; i++){
+			SimulatedArduino arduino = new SimulatedArduino(boards);
+			links[i] = new StreamLink("sim-" + i, arduino.input(), arduino.output(), new Echo(), 64);
+			// the first frames are queued before any link runs, so a busy fleet does not starve us
+			for (int w=0; w<window; w++)
+				send(links[i]);
+		}
+		for (StreamLink link : links)
+			executor.execute(link);
+		System.out.println(String.format("started in %d ms", (System.nanoTime() - setup) / 1000000));
+
+		// measure the steady state only
+		Metrics.reset();
+		long first = frames.get();
+		long last = first;
+		long begin = System.nanoTime();
+		for (int s=1; s<=seconds; s++){
+			Thread.sleep(1000);
+			long now = frames.get();
+			System.out.println(String.format("%3ds %10d frames/s  p50 %6d us  p99 %6d us  max %7d us",
+					s, now - last, rtt.getPercentile(50), rtt.getPercentile(99), rtt.getMax()));
+			last = now;
+		}
+		running = false;
+		double elapsed = (System.nanoTime() - begin) / 1e9;
+
+		for (StreamLink link : links)
+			link.close();
+		executor.shutdown();
+		executor.awaitTermination(10, TimeUnit.SECONDS);
+		boards.shutdown();
+
+		long total = last - first;
+		System.out.println(String.format("total %d frames, %.0f frames/s, rtt %s (us)",
+				total, total / elapsed, rtt));
+	}
+
+	private void send(Link link){
+		try {
+			link.send(MessageCodec.toBytes(MessageCodec.encode(FLAG, System.nanoTime())));
+		} catch (IOException e) {
+			// closed at the end of the run
+		}
+	}
+
+	/**
+	 * Parses the echoes of one link and sends the next frame.
+	 */
+	private class Echo implements LinkListener, FrameParser.Listener {
+
+		private final FrameParser parser = new FrameParser(this);
+		private Link link;
+
+		@Override
+		public void onReceived(Link link, byte[] data, int offset, int length) {
+			this.link = link;
+			parser.feed(data, offset, length);
+		}
+
+		@Override
+		public void onClosed(Link link, IOException cause) {
+			if (cause != null && running)
+				System.err.println(link.getAddress() + " lost: " + cause.getMessage());
+		}
+
+		@Override
+		public void onMessage(String message) {
+			long sent;
+			try {
+				sent = Long.parseLong(message);
+			} catch (NumberFormatException e){
+				return;
+			}
+			rtt.record((System.nanoTime() - sent) / 1000);
+			frames.incrementAndGet();
+			if (running) send(link);
+		}
+
+		@Override
+		public void onAlive() {}
+
+		@Override
+		public void onVersion(int version) {}
+
+		@Override
+		public void onParseError() {}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A single thread serving many links: sockets through a {@link Selector},
+ * serial lines by polling them every {@link #pollInterval} milliseconds since
+ * tty file descriptors cannot be registered with a selector.
+ *
+ * <p>All channel operations happen on the reactor thread. Other threads hand
+ * over work with {@link #execute(Runnable)}.</p>
+ */
+class Reactor extends Thread {
+
+	private static final Logger log = Logger.getLogger(Reactor.class.getName());
+
+	/**
+	 * Gets notified when its channel is ready, set as attachment of the selection key.
+	 */
+	interface Handler {
+		void ready(SelectionKey key);
+	}
+
+	/**
+	 * A channel which has to be polled, called on every turn of the loop.
+	 */
+	interface Polled {
+		void poll();
+	}
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final ArrayList<Polled> polled = new ArrayList<Polled>();
+	private final long pollInterval;
+	private volatile boolean running = true;
+
+	/* shared by all links of this reactor, data is handed to the listener before the next read */
+	final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+
+
+	Reactor(String name, long pollInterval) throws IOException {
+		super(name);
+		setDaemon(true);
+		this.pollInterval = pollInterval;
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * Runs the task on the reactor thread, may be called from any thread.
+	 */
+	void execute(Runnable task){
+		tasks.add(task);
+		if (Thread.currentThread() != this)
+			selector.wakeup();
+	}
+
+	boolean inReactor(){
+		return Thread.currentThread() == this;
+	}
+
+	/* reactor thread only */
+	SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+		return channel.register(selector, ops, handler);
+	}
+
+	/* reactor thread only */
+	void addPolled(Polled p){
+		polled.add(p);
+	}
+
+	/* reactor thread only */
+	void removePolled(Polled p){
+		polled.remove(p);
+	}
+
+	void shutdown(){
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (running){
+			try {
+				// tasks queued by the reactor itself must not wait for the next event
+				if (!tasks.isEmpty())
+					selector.selectNow();
+				else if (polled.isEmpty())
+					selector.select();
+				else
+					selector.select(pollInterval);
+			} catch (IOException e) {
+				log.log(Level.SEVERE, getName() + " select failed", e);
+				break;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null){
+				runSafely(task);
+			}
+
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()){
+				SelectionKey key = it.next();
+				it.remove();
+				if (!key.isValid()) continue;
+				try {
+					((Handler)key.attachment()).ready(key);
+				} catch (RuntimeException e){
+					log.log(Level.WARNING, "handler failed", e);
+				}
+			}
+
+			// links may remove themselves while being polled
+			for (int i=polled.size()-1; i>=0; i--){
+				if (i >= polled.size()) continue;
+				try {
+					polled.get(i).poll();
+				} catch (RuntimeException e){
+					log.log(Level.WARNING, "poll failed", e);
+				}
+			}
+		}
+
+		for (SelectionKey key : selector.keys()){
+			try {
+				key.channel().close();
+			} catch (IOException e) {}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {}
+	}
+
+	private static void runSafely(Runnable task){
+		try {
+			task.run();
+		} catch (RuntimeException e){
+			log.log(Level.WARNING, "task failed", e);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of {@link Reactor}s, new links are spread round robin.
+ */
+class ReactorGroup {
+
+	private final Reactor[] reactors;
+	private final AtomicInteger next = new AtomicInteger();
+
+
+	ReactorGroup(int threads, long pollInterval) throws IOException {
+		reactors = new Reactor[threads];
+		for (int i=0; i<threads; i++){
+			reactors[i] = new Reactor("reactor-" + i, pollInterval);
+		}
+	}
+
+	void start(){
+		for (Reactor r : reactors)
+			r.start();
+	}
+
+	Reactor next(){
+		return reactors[(next.getAndIncrement() & Integer.MAX_VALUE) % reactors.length];
+	}
+
+	int size(){
+		return reactors.length;
+	}
+
+	void shutdown(){
+		for (Reactor r : reactors)
+			r.shutdown();
+	}
+}
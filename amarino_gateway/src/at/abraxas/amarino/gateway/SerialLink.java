@@ -0,0 +1,84 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import at.abraxas.amarino.core.LinkListener;
+
+/**
+ * A serial line (USB serial adapter, on-board UART or pseudo terminal).
+ *
+ * <p>The tty is configured to return immediately from read (VMIN=0, VTIME=0),
+ * the reactor polls it. Such a read returns 0 bytes if nothing is available,
+ * which {@link FileChannel} reports as end of stream. A line which is really
+ * gone fails with an I/O error instead.</p>
+ */
+class SerialLink extends ChannelLink implements Reactor.Polled {
+
+	private final FileChannel channel;
+	private boolean pending;
+
+
+	SerialLink(String address, FileChannel channel, Reactor reactor, LinkListener listener){
+		super(address, reactor, listener);
+		this.channel = channel;
+	}
+
+	void start(){
+		reactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				reactor.addPolled(SerialLink.this);
+				flush();
+			}
+		});
+	}
+
+	@Override
+	public void poll() {
+		readAvailable(true);
+		if (pending) flush();
+	}
+
+	@Override
+	int read(ByteBuffer dst) throws IOException {
+		return channel.read(dst);
+	}
+
+	@Override
+	int write(ByteBuffer src) throws IOException {
+		return channel.write(src);
+	}
+
+	@Override
+	void writePending(boolean pending) {
+		this.pending = pending;
+	}
+
+	@Override
+	void closeChannel() {
+		reactor.removePolled(this);
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+}
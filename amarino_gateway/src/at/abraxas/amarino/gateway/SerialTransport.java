@@ -0,0 +1,111 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+import at.abraxas.amarino.core.Transport;
+
+/**
+ * Opens serial lines, addresses look like <code>/dev/ttyUSB0</code> or
+ * <code>/dev/ttyACM0@57600</code>. The line is configured with stty(1),
+ * which works for real ports as well as for pseudo terminals.
+ */
+class SerialTransport implements Transport {
+
+	/* same as the default of the Bluetooth modules Amarino is used with */
+	static final int DEFAULT_BAUD_RATE = 115200;
+
+	private final ReactorGroup reactors;
+
+
+	SerialTransport(ReactorGroup reactors){
+		this.reactors = reactors;
+	}
+
+	static boolean isSerial(String address){
+		return address.startsWith("/dev/");
+	}
+
+	/**
+	 * @return the device part of an address, without the baud rate
+	 */
+	static String device(String address){
+		int at = address.indexOf('@');
+		return (at == -1) ? address : address.substring(0, at);
+	}
+
+	@Override
+	public Link open(String address, LinkListener listener) throws IOException {
+		String device = device(address);
+		int baud = DEFAULT_BAUD_RATE;
+		if (device.length() < address.length()){
+			try {
+				baud = Integer.parseInt(address.substring(device.length() + 1));
+			} catch (NumberFormatException e){
+				throw new IOException("invalid baud rate in " + address);
+			}
+		}
+
+		configure(device, baud);
+		RandomAccessFile file = new RandomAccessFile(device, "rw");
+		SerialLink link = new SerialLink(device, file.getChannel(), reactors.next(), listener);
+		link.start();
+		return link;
+	}
+
+	/**
+	 * Raw 8N1 without flow control, reads never block.
+	 */
+	private static void configure(String device, int baud) throws IOException {
+		Process p = new ProcessBuilder("stty", "-F", device, String.valueOf(baud),
+				"raw", "-echo", "cs8", "-cstopb", "-parenb", "-crtscts", "clocal",
+				"min", "0", "time", "0")
+			.redirectErrorStream(true)
+			.start();
+		String output = readAll(p.getInputStream());
+		int exit;
+		try {
+			exit = p.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while configuring " + device);
+		}
+		if (exit != 0)
+			throw new IOException("cannot configure " + device + ": " + output.trim());
+	}
+
+	private static String readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[256];
+		int n;
+		try {
+			while ((n = in.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return out.toString();
+	}
+}
@@ -0,0 +1,164 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import at.abraxas.amarino.core.Protocol;
+
+/**
+ * An Arduino running MeetAndroid with a sketch which echoes every message,
+ * living in memory. Frames written to {@link #output()} are answered on
+ * {@link #input()} the way <code>meetAndroid.send()</code> would: the data
+ * without its flag, wrapped in ARDUINO_MSG_FLAG and ACK_FLAG. Heartbeats are
+ * answered like MeetAndroid does, requests are replied to with their data.
+ *
+ * <p>Boards need no thread of their own, answers are produced on a shared
+ * executor standing in for the hardware. The reading link thread therefore
+ * really waits for its answer like it would for a remote board.</p>
+ */
+class SimulatedArduino {
+
+	private static final byte[] EOF = new byte[0];
+
+	private final Executor board;
+	private final LinkedBlockingQueue<byte[]> replies = new LinkedBlockingQueue<byte[]>();
+	/* frame currently being received, MeetAndroid's buffer */
+	private final byte[] frame = new byte[64];
+	private int length;
+	private volatile boolean closed;
+
+	private final OutputStream out = new OutputStream() {
+
+		@Override
+		public void write(int b) throws IOException {
+			receive((byte)b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			for (int i=off; i<off+len; i++)
+				receive(b[i]);
+		}
+
+		@Override
+		public void close() {
+			SimulatedArduino.this.close();
+		}
+	};
+
+	private final InputStream in = new InputStream() {
+
+		private byte[] current;
+		private int pos;
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) == -1) ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (current == null || pos == current.length){
+				try {
+					current = replies.take();
+				} catch (InterruptedException e) {
+					throw new IOException("interrupted");
+				}
+				pos = 0;
+				if (current == EOF){
+					replies.add(EOF);
+					return -1;
+				}
+			}
+			int n = Math.min(len, current.length - pos);
+			System.arraycopy(current, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			SimulatedArduino.this.close();
+		}
+	};
+
+
+	SimulatedArduino(Executor board){
+		this.board = board;
+	}
+
+	OutputStream output(){
+		return out;
+	}
+
+	InputStream input(){
+		return in;
+	}
+
+	void close(){
+		if (closed) return;
+		closed = true;
+		replies.add(EOF);
+	}
+
+	private void receive(byte b) throws IOException {
+		if (closed) throw new IOException("closed");
+		if (b == Protocol.ACK_FLAG){
+			if (length > 0) reply();
+			length = 0;
+		}
+		else if (length < frame.length){
+			frame[length++] = b;
+		}
+	}
+
+	private void reply(){
+		final byte[] r;
+		if (frame[0] == Protocol.ALIVE_FLAG){
+			r = new byte[]{ Protocol.ARDUINO_MSG_FLAG, Protocol.ALIVE_FLAG, Protocol.ACK_FLAG };
+		}
+		else if (frame[0] == Protocol.REQUEST_FLAG && length > Protocol.REQUEST_ID_LENGTH + 1){
+			// request flag and id stay, the flag of the function is dropped
+			final int header = 1 + Protocol.REQUEST_ID_LENGTH;
+			r = new byte[length + 1];
+			r[0] = Protocol.ARDUINO_MSG_FLAG;
+			System.arraycopy(frame, 0, r, 1, header);
+			System.arraycopy(frame, header + 1, r, header + 1, length - header - 1);
+			r[length] = Protocol.ACK_FLAG;
+		}
+		else {
+			r = new byte[length + 1];
+			r[0] = Protocol.ARDUINO_MSG_FLAG;
+			System.arraycopy(frame, 1, r, 1, length - 1);
+			r[length] = Protocol.ACK_FLAG;
+		}
+		board.execute(new Runnable() {
+			@Override
+			public void run() {
+				replies.add(r);
+			}
+		});
+	}
+}
@@ -0,0 +1,94 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+import at.abraxas.amarino.core.LinkListener;
+
+/**
+ * A non-blocking socket, registered with the selector of its reactor.
+ */
+class TcpLink extends ChannelLink implements Reactor.Handler {
+
+	private final SocketChannel channel;
+	private SelectionKey key;
+
+
+	TcpLink(String address, SocketChannel channel, Reactor reactor, LinkListener listener){
+		super(address, reactor, listener);
+		this.channel = channel;
+	}
+
+	/**
+	 * Registers the link with its reactor, data is delivered from now on.
+	 */
+	void start(){
+		reactor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					channel.configureBlocking(false);
+					key = reactor.register(channel, SelectionKey.OP_READ, TcpLink.this);
+					// frames sent before the registration
+					flush();
+				} catch (IOException e) {
+					closed(e);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void ready(SelectionKey key) {
+		if (key.isReadable())
+			readAvailable(false);
+		if (key.isValid() && key.isWritable())
+			flush();
+	}
+
+	@Override
+	int read(ByteBuffer dst) throws IOException {
+		return channel.read(dst);
+	}
+
+	@Override
+	int write(ByteBuffer src) throws IOException {
+		return channel.write(src);
+	}
+
+	@Override
+	void writePending(boolean pending) {
+		// not registered yet, start() flushes
+		if (key == null || !key.isValid()) return;
+		int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+		if (key.interestOps() != ops) key.interestOps(ops);
+	}
+
+	@Override
+	void closeChannel() {
+		if (key != null) key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {}
+	}
+}
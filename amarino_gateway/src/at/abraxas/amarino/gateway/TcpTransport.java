@@ -0,0 +1,74 @@
+/*
+  Amarino - A prototyping software toolkit for Android and Arduino
+  Copyright (c) 2010 Bonifaz Kaufmann.  All right reserved.
+
+  This application and its library is free software; you can redistribute
+  it and/or modify it under the terms of the GNU Lesser General Public
+  License as published by the Free Software Foundation; either
+  version 3 of the License, or (at your option) any later version.
+
+  This library is distributed in the hope that it will be useful,
+  but WITHOUT ANY WARRANTY; without even the implied warranty of
+  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+  Lesser General Public License for more details.
+
+  You should have received a copy of the GNU Lesser General Public
+  License along with this library; if not, write to the Free Software
+  Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+*/
+package at.abraxas.amarino.gateway;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+
+import at.abraxas.amarino.core.Link;
+import at.abraxas.amarino.core.LinkListener;
+import at.abraxas.amarino.core.Transport;
+
+/**
+ * Connects to Arduinos behind a TCP endpoint (Ethernet/WiFi shields, serial
+ * servers). Addresses look like <code>host:port</code>.
+ */
+class TcpTransport implements Transport {
+
+	static final int CONNECT_TIMEOUT = 5000;
+
+	private final ReactorGroup reactors;
+
+
+	TcpTransport(ReactorGroup reactors){
+		this.reactors = reactors;
+	}
+
+	@Override
+	public Link open(String address, LinkListener listener) throws IOException {
+		int colon = address.lastIndexOf(':');
+		if (colon <= 0) throw new IOException("host:port expected, got " + address);
+		int port;
+		try {
+			port = Integer.parseInt(address.substring(colon + 1));
+		} catch (NumberFormatException e){
+			throw new IOException("invalid port in " + address);
+		}
+
+		SocketChannel channel = SocketChannel.open();
+		try {
+			channel.socket().connect(new InetSocketAddress(address.substring(0, colon), port), CONNECT_TIMEOUT);
+			channel.socket().setTcpNoDelay(true);
+		} catch (IOException e){
+			channel.close();
+			throw e;
+		}
+		return start(address, channel, listener);
+	}
+
+	/**
+	 * Serves an already connected socket, e.g. one accepted by the gateway.
+	 */
+	TcpLink start(String address, SocketChannel channel, LinkListener listener){
+		TcpLink link = new TcpLink(address, channel, reactors.next(), listener);
+		link.start();
+		return link;
+	}
+}
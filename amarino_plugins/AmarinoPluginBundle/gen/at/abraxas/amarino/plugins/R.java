@@ -49,97 +49,114 @@ public final class R {
     public static final class id {
         public static final int buttons=0x7f090000;
         public static final int discardBtn=0x7f090004;
+        public static final int filter_change_only=0x7f090005;
+        public static final int filter_deadband=0x7f090006;
+        public static final int filter_deadband_relative=0x7f090007;
+        public static final int filter_max_silence=0x7f090008;
         public static final int saveBtn=0x7f090003;
         public static final int seekBar=0x7f090002;
         public static final int seekBar_value=0x7f090001;
-        public static final int visualizer=0x7f090006;
-        public static final int visualizer_text=0x7f090005;
+        public static final int visualizer=0x7f09000a;
+        public static final int visualizer_text=0x7f090009;
     }
     public static final class layout {
         public static final int accelerometer_edit=0x7f030000;
         public static final int batterylevel_edit=0x7f030001;
         public static final int button_panel=0x7f030002;
         public static final int compass_edit=0x7f030003;
-        public static final int lightsensor_edit=0x7f030004;
-        public static final int magneticfield_edit=0x7f030005;
-        public static final int orientation_edit=0x7f030006;
-        public static final int phonestate_edit=0x7f030007;
-        public static final int proximitysensor_edit=0x7f030008;
-        public static final int sms_edit=0x7f030009;
-        public static final int testevent_edit=0x7f03000a;
-        public static final int timetick_edit=0x7f03000b;
-        public static final int visualizer_spinner=0x7f03000c;
+        public static final int filter_panel=0x7f030004;
+        public static final int fusion_edit=0x7f030005;
+        public static final int lightsensor_edit=0x7f030006;
+        public static final int magneticfield_edit=0x7f030007;
+        public static final int orientation_edit=0x7f030008;
+        public static final int phonestate_edit=0x7f030009;
+        public static final int proximitysensor_edit=0x7f03000a;
+        public static final int sms_edit=0x7f03000b;
+        public static final int testevent_edit=0x7f03000c;
+        public static final int timetick_edit=0x7f03000d;
+        public static final int visualizer_spinner=0x7f03000e;
     }
     public static final class string {
-        public static final int accelerometer_desc=0x7f070010;
-        public static final int accelerometer_frequency_desc=0x7f070011;
-        public static final int accelerometer_plugin_desc=0x7f07000f;
+        public static final int accelerometer_desc=0x7f070015;
+        public static final int accelerometer_frequency_desc=0x7f070016;
+        public static final int accelerometer_plugin_desc=0x7f070014;
         /**  ACCELEROMETER PLUG_IN 
          */
-        public static final int accelerometer_plugin_name=0x7f07000e;
+        public static final int accelerometer_plugin_name=0x7f070013;
         public static final int app_name=0x7f070000;
-        public static final int batterylevel_desc=0x7f07001f;
-        public static final int batterylevel_plugin_desc=0x7f07001e;
+        public static final int batterylevel_desc=0x7f070028;
+        public static final int batterylevel_plugin_desc=0x7f070027;
         /**  BATTERY LEVEL PLUG_IN 
          */
-        public static final int batterylevel_plugin_name=0x7f07001d;
+        public static final int batterylevel_plugin_name=0x7f070026;
         public static final int cancel=0x7f070002;
-        public static final int compass_desc=0x7f070007;
-        public static final int compass_frequency_desc=0x7f07000d;
-        public static final int compass_plugin_desc=0x7f070006;
+        public static final int compass_desc=0x7f07000c;
+        public static final int compass_frequency_desc=0x7f070012;
+        public static final int compass_plugin_desc=0x7f07000b;
         /**  COMPASS PLUG_IN 
          */
-        public static final int compass_plugin_name=0x7f070005;
-        public static final int fast=0x7f07000b;
-        public static final int lightsensor_desc=0x7f070025;
-        public static final int lightsensor_plugin_desc=0x7f070024;
+        public static final int compass_plugin_name=0x7f07000a;
+        public static final int fast=0x7f070010;
+        public static final int filter_change_only=0x7f070005;
+        public static final int filter_deadband=0x7f070007;
+        public static final int filter_deadband_relative=0x7f070008;
+        public static final int filter_desc=0x7f070006;
+        public static final int filter_max_silence=0x7f070009;
+        public static final int fusion_desc=0x7f070021;
+        public static final int fusion_frequency_desc=0x7f070022;
+        public static final int fusion_plugin_desc=0x7f070020;
+        /**  SENSOR FUSION PLUG_IN 
+         */
+        public static final int fusion_plugin_name=0x7f07001f;
+        public static final int lightsensor_desc=0x7f07002e;
+        public static final int lightsensor_plugin_desc=0x7f07002d;
         /**  LIGHT SENSOR PLUG_IN 
          */
-        public static final int lightsensor_plugin_name=0x7f070023;
-        public static final int magneticfield_desc=0x7f070018;
-        public static final int magneticfield_frequency_desc=0x7f070019;
-        public static final int magneticfield_plugin_desc=0x7f070017;
+        public static final int lightsensor_plugin_name=0x7f07002c;
+        public static final int magneticfield_desc=0x7f07001d;
+        public static final int magneticfield_frequency_desc=0x7f07001e;
+        public static final int magneticfield_plugin_desc=0x7f07001c;
         /**  MAGNETIC_FIELD PLUG_IN 
          */
-        public static final int magneticfield_plugin_name=0x7f070016;
-        public static final int medium=0x7f07000a;
+        public static final int magneticfield_plugin_name=0x7f07001b;
+        public static final int medium=0x7f07000f;
         public static final int ok=0x7f070003;
-        public static final int orientation_desc=0x7f070014;
-        public static final int orientation_frequency_desc=0x7f070015;
-        public static final int orientation_plugin_desc=0x7f070013;
+        public static final int orientation_desc=0x7f070019;
+        public static final int orientation_frequency_desc=0x7f07001a;
+        public static final int orientation_plugin_desc=0x7f070018;
         /**  ORIENTATION PLUG_IN 
          */
-        public static final int orientation_plugin_name=0x7f070012;
-        public static final int phonestate_desc=0x7f070022;
-        public static final int phonestate_plugin_desc=0x7f070021;
+        public static final int orientation_plugin_name=0x7f070017;
+        public static final int phonestate_desc=0x7f07002b;
+        public static final int phonestate_plugin_desc=0x7f07002a;
         /**  PHONESTATE PLUG_IN 
          */
-        public static final int phonestate_plugin_name=0x7f070020;
-        public static final int proximitysensor_desc=0x7f070028;
-        public static final int proximitysensor_plugin_desc=0x7f070027;
+        public static final int phonestate_plugin_name=0x7f070029;
+        public static final int proximitysensor_desc=0x7f070031;
+        public static final int proximitysensor_plugin_desc=0x7f070030;
         /**  PROXIMITY SENSOR PLUG_IN 
          */
-        public static final int proximitysensor_plugin_name=0x7f070026;
+        public static final int proximitysensor_plugin_name=0x7f07002f;
         public static final int save=0x7f070001;
         public static final int select_visualizer=0x7f070004;
-        public static final int slow=0x7f070009;
-        public static final int sms_desc=0x7f07002e;
-        public static final int sms_plugin_desc=0x7f07002d;
+        public static final int slow=0x7f07000e;
+        public static final int sms_desc=0x7f070037;
+        public static final int sms_plugin_desc=0x7f070036;
         /**  SMS PLUG_IN 
          */
-        public static final int sms_plugin_name=0x7f07002c;
-        public static final int testevent_desc=0x7f07002b;
-        public static final int testevent_plugin_desc=0x7f07002a;
+        public static final int sms_plugin_name=0x7f070035;
+        public static final int testevent_desc=0x7f070034;
+        public static final int testevent_plugin_desc=0x7f070033;
         /**  TESTEVENT PLUG_IN 
          */
-        public static final int testevent_plugin_name=0x7f070029;
-        public static final int timetick_desc=0x7f07001c;
-        public static final int timetick_plugin_desc=0x7f07001b;
+        public static final int testevent_plugin_name=0x7f070032;
+        public static final int timetick_desc=0x7f070025;
+        public static final int timetick_plugin_desc=0x7f070024;
         /**  TIMETICK PLUG_IN 
          */
-        public static final int timetick_plugin_name=0x7f07001a;
-        public static final int very_fast=0x7f07000c;
-        public static final int very_slow=0x7f070008;
+        public static final int timetick_plugin_name=0x7f070023;
+        public static final int very_fast=0x7f070011;
+        public static final int very_slow=0x7f07000d;
     }
     public static final class style {
         public static final int plugin_desc_style=0x7f080004;
@@ -8,16 +8,23 @@ import android.content.IntentFilter;
 import android.os.IBinder;
 import android.util.Log;
 import at.abraxas.amarino.AmarinoIntent;
+import at.abraxas.amarino.plugin.RateLimiter;
 
 public abstract class AbstractPluginService extends Service {
 	
 	protected static final boolean DEBUG = false;
 	
+	// samples per second of SENSOR_DELAY_UI, the decimation settings of the edit activities were made for it
+	private static final float UI_RATE = 1000f / 60;
+	
 	// unique id to identify the plug-in
 	protected int pluginId;
 	
 	protected boolean pluginEnabled = false;
 	
+	// limits how often samples are sent, to the rate the user configured and the rate the links to Arduino carry
+	protected final RateLimiter rateLimiter = new RateLimiter(0);
+	
 	BroadcastReceiver disableReceiver = new BroadcastReceiver() {
 		
 		@Override
@@ -71,6 +78,16 @@ public abstract class AbstractPluginService extends Service {
 				Log.d(getTAG(), "started");
 				init();
 			}
+			else if (AmarinoIntent.ACTION_SET_RATE.equals(action)) {
+				if (!pluginEnabled) {
+					// we were not running, the rate does not matter
+					stopSelf();
+				}
+				else {
+					rateLimiter.setTargetRate(intent.getFloatExtra(AmarinoIntent.EXTRA_RATE, 0));
+					if (DEBUG) Log.d(getTAG(), "target rate: " + rateLimiter.getEffectiveRate());
+				}
+			}
 		}
 
 		return START_STICKY;
@@ -85,6 +102,15 @@ public abstract class AbstractPluginService extends Service {
 		Log.d(getTAG(), "stopped");
 	}
 	
+	/**
+	 * @param ignoreThreshold a decimation setting of the edit activities, how
+	 * many samples of SENSOR_DELAY_UI used to be skipped
+	 * @return the samples per second it stands for
+	 */
+	protected static float getSampleRate(int ignoreThreshold) {
+		return UI_RATE / (ignoreThreshold + 1);
+	}
+	
 	abstract public void init();
 	
 	abstract public String getTAG();
@@ -0,0 +1,80 @@
+package at.abraxas.amarino.plugins;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.widget.CheckBox;
+import android.widget.EditText;
+import at.abraxas.amarino.AmarinoIntent;
+
+/**
+ * Lets the user set which values Amarino holds back, for edit activities
+ * which include <code>@layout/filter_panel</code>. Amarino stores the filter
+ * with the event, the preferences only remember what to show next time.
+ */
+public class FilterPanel {
+	
+	private final Activity activity;
+	private final String prefix;
+	
+	private final CheckBox changeOnly;
+	private final EditText deadband;
+	private final EditText deadbandRelative;
+	private final EditText maxSilence;
+	
+	/**
+	 * @param prefix of the preference keys, e.g. at.abraxas.amarino.plugins.compass
+	 */
+	public FilterPanel(Activity activity, String prefix){
+		this.activity = activity;
+		this.prefix = prefix + ".filter.";
+		
+		changeOnly = (CheckBox)activity.findViewById(R.id.filter_change_only);
+		deadband = (EditText)activity.findViewById(R.id.filter_deadband);
+		deadbandRelative = (EditText)activity.findViewById(R.id.filter_deadband_relative);
+		maxSilence = (EditText)activity.findViewById(R.id.filter_max_silence);
+		
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(activity);
+		changeOnly.setChecked(prefs.getBoolean(this.prefix + "change_only", false));
+		deadband.setText(format(prefs.getFloat(this.prefix + "deadband", 0f)));
+		deadbandRelative.setText(format(prefs.getFloat(this.prefix + "deadband_rel", 0f)));
+		maxSilence.setText(format(prefs.getFloat(this.prefix + "max_silence", 0f)));
+	}
+	
+	/**
+	 * Puts the filter into the result of the edit activity and remembers it.
+	 */
+	public void putExtras(Intent returnIntent){
+		boolean only = changeOnly.isChecked();
+		float band = parse(deadband);
+		float percent = parse(deadbandRelative);
+		float silence = parse(maxSilence);
+		
+		PreferenceManager.getDefaultSharedPreferences(activity)
+			.edit()
+			.putBoolean(prefix + "change_only", only)
+			.putFloat(prefix + "deadband", band)
+			.putFloat(prefix + "deadband_rel", percent)
+			.putFloat(prefix + "max_silence", silence)
+			.commit();
+		
+		// the fields only count while the box is checked, they are kept for when it is again
+		returnIntent.putExtra(AmarinoIntent.EXTRA_FILTER_CHANGE_ONLY, only);
+		returnIntent.putExtra(AmarinoIntent.EXTRA_FILTER_DEADBAND, only ? band : 0f);
+		returnIntent.putExtra(AmarinoIntent.EXTRA_FILTER_DEADBAND_RELATIVE, only ? percent / 100 : 0f);
+		returnIntent.putExtra(AmarinoIntent.EXTRA_FILTER_MAX_SILENCE, only ? (int)(silence * 1000) : 0);
+	}
+	
+	private static float parse(EditText text){
+		try {
+			return Math.max(0, Float.parseFloat(text.getText().toString()));
+		} catch (NumberFormatException e) {
+			return 0f;
+		}
+	}
+	
+	private static String format(float value){
+		return (value == (int)value) ? String.valueOf((int)value) : String.valueOf(value);
+	}
+}
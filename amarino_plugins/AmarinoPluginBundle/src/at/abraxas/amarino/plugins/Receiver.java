@@ -53,6 +53,9 @@ public class Receiver extends BroadcastReceiver {
 		else if (className.equals(context.getPackageName() + ".magneticfield.BackgroundService")){
 			i = new Intent(context, at.abraxas.amarino.plugins.magneticfield.BackgroundService.class);
 		}
+		else if (className.equals(context.getPackageName() + ".fusion.BackgroundService")){
+			i = new Intent(context, at.abraxas.amarino.plugins.fusion.BackgroundService.class);
+		}
 		else if (className.equals(context.getPackageName() + ".proximity.BackgroundService")){
 			i = new Intent(context, at.abraxas.amarino.plugins.proximity.BackgroundService.class);
 		}
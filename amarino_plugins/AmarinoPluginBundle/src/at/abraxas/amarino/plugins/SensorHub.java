@@ -0,0 +1,231 @@
+package at.abraxas.amarino.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.SparseArray;
+import at.abraxas.amarino.Amarino;
+import at.abraxas.amarino.AmarinoIntent;
+import at.abraxas.amarino.plugin.RateLimiter;
+import at.abraxas.amarino.plugin.SensorRates;
+
+/**
+ * Registers each sensor once for all plug-ins of the bundle using it, e.g.
+ * compass and orientation share the orientation sensor, and hands its samples
+ * to every plug-in at the plug-in's own rate. The sensor runs at the rate of
+ * its fastest consumer.
+ *
+ * <p>Samples which arrive within {@link #COALESCE_WINDOW} ms of each other are
+ * sent to Amarino together, Amarino writes those for the same device at once
+ * instead of one frame after the other. Consumers are called on the hub's own
+ * thread, which idles once nobody subscribes.</p>
+ */
+public class SensorHub {
+
+	public interface Consumer {
+		/**
+		 * Called for every sample the consumer's rate limiter lets through.
+		 *
+		 * @param message put the data for Arduino in here,
+		 * {@link AmarinoIntent#EXTRA_DATA_TYPE} and {@link AmarinoIntent#EXTRA_DATA}
+		 * @return false if there is nothing to send
+		 */
+		boolean onSample(SensorEvent event, Bundle message);
+	}
+
+	private static final String TAG = "SensorHub";
+
+	// ms to wait for samples of other consumers before sending
+	private static final long COALESCE_WINDOW = 10;
+	// at most this many samples per second the sensor may batch them, faster rates are for interactive use
+	private static final float BATCH_RATE = 4;
+
+	private static SensorHub instance;
+
+	private final Context context;
+	private final SensorManager sm;
+	// <sensor type, entry>, guarded by this
+	private final SparseArray<SensorEntry> sensors = new SparseArray<SensorEntry>();
+	// consumers subscribed to any sensor
+	private volatile int consumers = 0;
+	private HandlerThread thread;
+	private Handler handler;
+	// messages waiting for the coalesce window to end, hub thread only
+	private final ArrayList<Bundle> pending = new ArrayList<Bundle>();
+
+
+	private static class Subscription {
+		final Consumer consumer;
+		final int pluginId;
+		final RateLimiter limiter;
+
+		Subscription(Consumer consumer, int pluginId, RateLimiter limiter){
+			this.consumer = consumer;
+			this.pluginId = pluginId;
+			this.limiter = limiter;
+		}
+	}
+
+	private class SensorEntry implements SensorEventListener {
+		final Sensor sensor;
+		final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+		// -1 while not registered
+		float registeredRate = -1;
+
+		SensorEntry(Sensor sensor){
+			this.sensor = sensor;
+		}
+
+		/* runs the sensor at the rate of its fastest consumer, 0 is as fast as possible */
+		void register(){
+			float rate = -1;
+			for (Subscription s : subscriptions){
+				float r = s.limiter.getRate();
+				if (r <= 0 || rate == 0) rate = 0;
+				else rate = Math.max(rate, r);
+			}
+			if (rate == registeredRate) return;
+
+			if (registeredRate >= 0) sm.unregisterListener(this);
+			int latency = (rate > 0 && rate <= BATCH_RATE) ? (int)(500 / rate) : 0;
+			SensorRates.register(sm, this, sensor, rate, latency, handler);
+			registeredRate = rate;
+			if (AbstractPluginService.DEBUG) Log.d(TAG, sensor.getName() + " at " + rate + "/s");
+		}
+
+		void unregister(){
+			sm.unregisterListener(this);
+			registeredRate = -1;
+		}
+
+		@Override
+		public void onSensorChanged(SensorEvent event) {
+			for (Subscription s : subscriptions){
+				// every consumer at its own rate
+				if (!s.limiter.tryAcquire(event.timestamp)) continue;
+
+				Bundle message = new Bundle();
+				if (!s.consumer.onSample(event, message)) continue;
+				message.putInt(AmarinoIntent.EXTRA_PLUGIN_ID, s.pluginId);
+				queue(message);
+			}
+		}
+
+		@Override
+		public void onAccuracyChanged(Sensor sensor, int accuracy) {
+			// we don't need this
+		}
+	}
+
+
+	private SensorHub(Context context){
+		this.context = context;
+		sm = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+	}
+
+	public static synchronized SensorHub getInstance(Context context){
+		if (instance == null)
+			instance = new SensorHub(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * Starts handing samples of a sensor to the consumer.
+	 *
+	 * @param pluginId the plug-in the consumer sends for
+	 * @param limiter decides which samples the consumer gets, the sensor runs
+	 * at least at its rate
+	 * @return false if the device has no such sensor
+	 */
+	public synchronized boolean subscribe(int sensorType, int pluginId, RateLimiter limiter, Consumer consumer){
+		SensorEntry entry = sensors.get(sensorType);
+		if (entry == null){
+			List<Sensor> list = sm.getSensorList(sensorType);
+			if (list == null || list.size() == 0) return false;
+			entry = new SensorEntry(list.get(0));
+			sensors.put(sensorType, entry);
+		}
+		if (thread == null){
+			thread = new HandlerThread(TAG);
+			thread.start();
+			handler = new Handler(thread.getLooper());
+		}
+
+		if (!isSubscribed(consumer)) consumers++;
+		entry.subscriptions.add(new Subscription(consumer, pluginId, limiter));
+		entry.register();
+		return true;
+	}
+
+	/**
+	 * Stops handing samples to the consumer, sensors nobody else uses are released.
+	 */
+	public synchronized void unsubscribe(Consumer consumer){
+		if (isSubscribed(consumer)) consumers--;
+		for (int i=sensors.size()-1; i>=0; i--){
+			SensorEntry entry = sensors.valueAt(i);
+			ArrayList<Subscription> gone = new ArrayList<Subscription>();
+			for (Subscription s : entry.subscriptions)
+				if (s.consumer == consumer) gone.add(s);
+			if (gone.isEmpty()) continue;
+			entry.subscriptions.removeAll(gone);
+
+			if (entry.subscriptions.isEmpty()){
+				entry.unregister();
+				sensors.remove(sensors.keyAt(i));
+			}
+			else {
+				// the fastest consumer may be gone
+				entry.register();
+			}
+		}
+	}
+
+	private boolean isSubscribed(Consumer consumer){
+		for (int i=0; i<sensors.size(); i++)
+			for (Subscription s : sensors.valueAt(i).subscriptions)
+				if (s.consumer == consumer) return true;
+		return false;
+	}
+	
+	/**
+	 * Call it after the rate of a consumer's limiter changed, the sensor is
+	 * registered again if it has to run faster or may run slower.
+	 */
+	public synchronized void rateChanged(int sensorType){
+		SensorEntry entry = sensors.get(sensorType);
+		if (entry != null) entry.register();
+	}
+
+	/* hub thread */
+	private void queue(Bundle message){
+		if (consumers <= 1){
+			// nobody to wait for
+			Amarino.sendDataFromPlugins(context, new Bundle[]{ message });
+			return;
+		}
+		if (pending.isEmpty()) handler.postDelayed(flush, COALESCE_WINDOW);
+		pending.add(message);
+	}
+
+	private final Runnable flush = new Runnable() {
+
+		@Override
+		public void run() {
+			if (pending.isEmpty()) return;
+			Amarino.sendDataFromPlugins(context, pending.toArray(new Bundle[pending.size()]));
+			pending.clear();
+		}
+	};
+
+}
@@ -1,29 +1,24 @@
 package at.abraxas.amarino.plugins.accelerometer;
 
-import java.util.List;
-
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
-import at.abraxas.amarino.Amarino;
+import at.abraxas.amarino.AmarinoIntent;
 import at.abraxas.amarino.plugins.AbstractPluginService;
+import at.abraxas.amarino.plugins.SensorHub;
 
 public class BackgroundService extends AbstractPluginService
-			implements SensorEventListener, OnSharedPreferenceChangeListener {
+			implements SensorHub.Consumer, OnSharedPreferenceChangeListener {
 	
 	private static final String TAG = "Accelerometer Plugin";
 
-	private SensorManager sm;
-	private Sensor accelerometerSensor;
+	private SensorHub hub;
 	private int frequency;
-	private int ignoreThreshold = 0;
-	private int ignoreCounter = 0;
 
 
 	@Override
@@ -34,16 +29,13 @@ public class BackgroundService extends AbstractPluginService
 			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 			frequency = prefs.getInt(EditActivity.PREF_FREQUENCY, 50);
 			pluginId = prefs.getInt(EditActivity.KEY_PLUGIN_ID, -1);
-			ignoreThreshold = EditActivity.getRate(frequency);
+			rateLimiter.setRate(getSampleRate(EditActivity.getRate(frequency)));
 			
 			prefs.registerOnSharedPreferenceChangeListener(this);
 		
 			// make sure not to call it twice
-			sm = (SensorManager) getSystemService(SENSOR_SERVICE);
-			List<Sensor> sensors = sm.getSensorList(Sensor.TYPE_ACCELEROMETER);
-			if (sensors != null && sensors.size() > 0) {
-				accelerometerSensor = sensors.get(0);
-				sm.registerListener(this, accelerometerSensor, SensorManager.SENSOR_DELAY_UI);
+			hub = SensorHub.getInstance(this);
+			if (hub.subscribe(Sensor.TYPE_ACCELEROMETER, pluginId, rateLimiter, this)) {
 				pluginEnabled = true;
 			}
 			else {
@@ -56,31 +48,18 @@ public class BackgroundService extends AbstractPluginService
 	@Override
 	public void onDestroy() {
 		if (pluginEnabled){
-			sm.unregisterListener(this);
+			hub.unsubscribe(this);
 			PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
 		}
 		super.onDestroy();
 	}
 
 	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
-		// we don't need this
-	}
-
-	@Override
-	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER){
-			
-			if (ignoreCounter >= ignoreThreshold) {
-				ignoreCounter = 0;
-				
-				if (DEBUG) Log.d(TAG, "send: x:" + event.values[0] + " y:" + event.values[1] + " z: " + event.values[2]);
-				Amarino.sendDataFromPlugin(this, pluginId, event.values.clone());
-			}
-			else {
-				ignoreCounter++;
-			}
-		}
+	public boolean onSample(SensorEvent event, Bundle message) {
+		if (DEBUG) Log.d(TAG, "send: x:" + event.values[0] + " y:" + event.values[1] + " z: " + event.values[2]);
+		message.putInt(AmarinoIntent.EXTRA_DATA_TYPE, AmarinoIntent.FLOAT_ARRAY_EXTRA);
+		message.putFloatArray(AmarinoIntent.EXTRA_DATA, event.values.clone());
+		return true;
 	}
 
 
@@ -88,7 +67,9 @@ public class BackgroundService extends AbstractPluginService
 	public void onSharedPreferenceChanged(SharedPreferences prefs,
 			String key) {
 		if (EditActivity.PREF_FREQUENCY.equals(key)){
-			ignoreThreshold = EditActivity.getRate(prefs.getInt(key, 50));
+			rateLimiter.setRate(getSampleRate(EditActivity.getRate(prefs.getInt(key, 50))));
+			// a slower rate lets the sensor sleep longer
+			if (pluginEnabled) hub.rateChanged(Sensor.TYPE_ACCELEROMETER);
 		}
 	}
 
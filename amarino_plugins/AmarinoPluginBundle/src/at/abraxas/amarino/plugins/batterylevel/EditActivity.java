@@ -10,6 +10,7 @@ import android.widget.Button;
 import android.widget.Spinner;
 import at.abraxas.amarino.AmarinoIntent;
 import at.abraxas.amarino.plugins.Constants;
+import at.abraxas.amarino.plugins.FilterPanel;
 import at.abraxas.amarino.plugins.R;
 
 public class EditActivity extends Activity {
@@ -20,6 +21,7 @@ public class EditActivity extends Activity {
 	static final String KEY_PLUGIN_ID = "at.abraxas.amarino.plugins.batterylevel.id";
 	
 	Spinner visualizer;
+	FilterPanel filter;
 	Button okBtn;
 	Button discardBtn;
 	int pluginId;
@@ -47,6 +49,7 @@ public class EditActivity extends Activity {
         visualizer =(Spinner)findViewById(R.id.visualizer);
         // init as text visualizer, this is the most common one
         visualizer.setSelection(PreferenceManager.getDefaultSharedPreferences(this).getInt(KEY_VISUALIZER, 0));
+        filter = new FilterPanel(this, "at.abraxas.amarino.plugins.batterylevel");
         
         okBtn = (Button)findViewById(R.id.saveBtn);
         discardBtn = (Button)findViewById(R.id.discardBtn);
@@ -99,6 +102,8 @@ public class EditActivity extends Activity {
 			returnIntent.putExtra(AmarinoIntent.EXTRA_VISUALIZER_MIN_VALUE, 0f);
 			returnIntent.putExtra(AmarinoIntent.EXTRA_VISUALIZER_MAX_VALUE, 100f);
 			
+			filter.putExtras(returnIntent);
+			
 			setResult(RESULT_OK, returnIntent);
 		}
 		super.finish();
@@ -1,32 +1,27 @@
 package at.abraxas.amarino.plugins.compass;
 
-import java.util.List;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
-import android.hardware.SensorManager;
+import android.os.Bundle;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
-import at.abraxas.amarino.Amarino;
+import at.abraxas.amarino.AmarinoIntent;
 import at.abraxas.amarino.plugins.AbstractPluginService;
+import at.abraxas.amarino.plugins.SensorHub;
 
 public class BackgroundService extends AbstractPluginService 
-			implements SensorEventListener, OnSharedPreferenceChangeListener {
+			implements SensorHub.Consumer, OnSharedPreferenceChangeListener {
 	
 	private static final String TAG = "Compass Plugin";
 
-	private SensorManager sm;
-	private Sensor orientationSensor;
+	private SensorHub hub;
 	private int frequency;
-	private int ignoreThreshold = 0;
-	private int ignoreCounter = 0;
 	private WakeLock wl;
 
 	
@@ -38,16 +33,13 @@ public class BackgroundService extends AbstractPluginService
 			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 			frequency = prefs.getInt(EditActivity.PREF_FREQUENCY, 50);
 			pluginId = prefs.getInt(EditActivity.KEY_PLUGIN_ID, -1);
-			ignoreThreshold = EditActivity.getRate(frequency);
+			rateLimiter.setRate(getSampleRate(EditActivity.getRate(frequency)));
 			
 			prefs.registerOnSharedPreferenceChangeListener(this);
 		
 			// make sure not to call it twice
-			sm = (SensorManager) getSystemService(SENSOR_SERVICE);
-			List<Sensor> sensors = sm.getSensorList(Sensor.TYPE_ORIENTATION);
-			if (sensors != null && sensors.size() > 0) {
-				orientationSensor = sensors.get(0);
-				sm.registerListener(this, orientationSensor, SensorManager.SENSOR_DELAY_UI);
+			hub = SensorHub.getInstance(this);
+			if (hub.subscribe(Sensor.TYPE_ORIENTATION, pluginId, rateLimiter, this)) {
 				pluginEnabled = true;
 				
 				PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
@@ -66,33 +58,20 @@ public class BackgroundService extends AbstractPluginService
 	public void onDestroy() {
 		if (pluginEnabled){
 			wl.release();
-			sm.unregisterListener(this);
+			hub.unsubscribe(this);
 			PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
 		}
 		super.onDestroy();
 	}
 
 	@Override
-	public void onAccuracyChanged(Sensor sensor, int accuracy) {
-		// we don't need this
-	}
-
-	@Override
-	public void onSensorChanged(SensorEvent event) {
-		if (event.sensor.getType() == Sensor.TYPE_ORIENTATION){
-			
-			if (ignoreCounter >= ignoreThreshold) {
-				ignoreCounter = 0;
-				int heading = (int)event.values[0];
-				
-				if (DEBUG) Log.d(TAG, "send: " + heading);
-				Amarino.sendDataFromPlugin(this, pluginId, heading);
-
-			}
-			else {
-				ignoreCounter++;
-			}
-		}
+	public boolean onSample(SensorEvent event, Bundle message) {
+		int heading = (int)event.values[0];
+		
+		if (DEBUG) Log.d(TAG, "send: " + heading);
+		message.putInt(AmarinoIntent.EXTRA_DATA_TYPE, AmarinoIntent.INT_EXTRA);
+		message.putInt(AmarinoIntent.EXTRA_DATA, heading);
+		return true;
 	}
 
 
@@ -100,7 +79,9 @@ public class BackgroundService extends AbstractPluginService
 	public void onSharedPreferenceChanged(SharedPreferences prefs,
 			String key) {
 		if (EditActivity.PREF_FREQUENCY.equals(key)){
-			ignoreThreshold = EditActivity.getRate(prefs.getInt(key, 50));
+			rateLimiter.setRate(getSampleRate(EditActivity.getRate(prefs.getInt(key, 50))));
+			// a slower rate lets the sensor sleep longer
+			if (pluginEnabled) hub.rateChanged(Sensor.TYPE_ORIENTATION);
 		}
 	}
 
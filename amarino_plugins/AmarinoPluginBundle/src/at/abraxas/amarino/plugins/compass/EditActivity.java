@@ -13,6 +13,7 @@ import android.widget.TextView;
 import android.widget.SeekBar.OnSeekBarChangeListener;
 import at.abraxas.amarino.AmarinoIntent;
 import at.abraxas.amarino.plugins.Constants;
+import at.abraxas.amarino.plugins.FilterPanel;
 import at.abraxas.amarino.plugins.R;
 
 public class EditActivity extends Activity {
@@ -24,6 +25,7 @@ public class EditActivity extends Activity {
 	private static final String TAG = "Compass EditActivity";
 	
 	Spinner visualizer;
+	FilterPanel filter;
 	TextView frequency; 
 	SeekBar frequencySB;
 	Button saveBtn;
@@ -53,6 +55,7 @@ public class EditActivity extends Activity {
         visualizer =(Spinner)findViewById(R.id.visualizer);
         // init as text visualizer, this is the most common one
         visualizer.setSelection(PreferenceManager.getDefaultSharedPreferences(this).getInt(KEY_VISUALIZER, 0));
+        filter = new FilterPanel(this, "at.abraxas.amarino.plugins.compass");
         
         frequencySB = (SeekBar)findViewById(R.id.seekBar);
         frequency = (TextView)findViewById(R.id.seekBar_value);
@@ -136,6 +139,8 @@ public class EditActivity extends Activity {
 			returnIntent.putExtra(AmarinoIntent.EXTRA_VISUALIZER_MIN_VALUE, 0f);
 			returnIntent.putExtra(AmarinoIntent.EXTRA_VISUALIZER_MAX_VALUE, 359f);
 			
+			filter.putExtras(returnIntent);
+			
 			setResult(RESULT_OK, returnIntent);
 		}
 		super.finish();
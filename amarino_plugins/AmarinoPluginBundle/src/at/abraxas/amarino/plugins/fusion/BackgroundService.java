@@ -0,0 +1,217 @@
+package at.abraxas.amarino.plugins.fusion;
+
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorManager;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.widget.Toast;
+import at.abraxas.amarino.AmarinoIntent;
+import at.abraxas.amarino.plugin.RateLimiter;
+import at.abraxas.amarino.plugins.AbstractPluginService;
+import at.abraxas.amarino.plugins.SensorHub;
+
+/**
+ * Sends orientation as quaternion w, x, y, z and linear acceleration x, y, z
+ * in one float array of length 7, both taken at the same time.
+ *
+ * Uses the rotation vector and linear acceleration sensors where the phone
+ * fuses its sensors itself, otherwise accelerometer and magnetic field: the
+ * gravity is filtered out of the accelerometer and the orientation derived
+ * from gravity and magnetic field.
+ */
+public class BackgroundService extends AbstractPluginService
+			implements SensorHub.Consumer, OnSharedPreferenceChangeListener {
+
+	private static final String TAG = "Fusion Plugin";
+
+	// Sensor.TYPE_LINEAR_ACCELERATION and TYPE_ROTATION_VECTOR came with API level 9, we build for older platforms
+	private static final int TYPE_LINEAR_ACCELERATION = 10;
+	private static final int TYPE_ROTATION_VECTOR = 11;
+
+	// time constant in s of the low-pass filter isolating gravity, the SensorEvent documentation's alpha of 0.8 at 50 Hz
+	private static final float GRAVITY_TIME_CONSTANT = 0.08f;
+
+	private SensorHub hub;
+	private int frequency;
+	// sends a frame with every sample of it
+	private int primaryType;
+	// its latest sample completes the frame
+	private int secondaryType;
+	private final RateLimiter secondaryLimiter = new RateLimiter(0);
+
+	// hub thread only
+	private final float[] secondary = new float[3];
+	private boolean haveSecondary = false;
+	private final float[] gravity = new float[3];
+	private boolean haveGravity = false;
+	private long gravityTimestamp;
+	private final float[] rotation = new float[9];
+	private final float[] frame = new float[7];
+
+
+	@Override
+	public void init() {
+		if (!pluginEnabled){
+			/* here should be your specific initialization code */
+
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+			frequency = prefs.getInt(EditActivity.PREF_FREQUENCY, 50);
+			pluginId = prefs.getInt(EditActivity.KEY_PLUGIN_ID, -1);
+			setRate(getSampleRate(EditActivity.getRate(frequency)));
+
+			prefs.registerOnSharedPreferenceChangeListener(this);
+
+			// make sure not to call it twice
+			hub = SensorHub.getInstance(this);
+			SensorManager sm = (SensorManager) getSystemService(SENSOR_SERVICE);
+			if (sm.getSensorList(TYPE_ROTATION_VECTOR).size() > 0 && sm.getSensorList(TYPE_LINEAR_ACCELERATION).size() > 0){
+				primaryType = TYPE_ROTATION_VECTOR;
+				secondaryType = TYPE_LINEAR_ACCELERATION;
+			}
+			else {
+				primaryType = Sensor.TYPE_ACCELEROMETER;
+				secondaryType = Sensor.TYPE_MAGNETIC_FIELD;
+			}
+
+			if (hub.subscribe(secondaryType, pluginId, secondaryLimiter, this)
+					&& hub.subscribe(primaryType, pluginId, rateLimiter, this)) {
+				pluginEnabled = true;
+			}
+			else {
+				hub.unsubscribe(this);
+				Toast.makeText(this, "Sensors for orientation are not available on this device!", Toast.LENGTH_SHORT).show();
+			}
+		}
+	}
+
+
+	@Override
+	public void onDestroy() {
+		if (pluginEnabled){
+			hub.unsubscribe(this);
+			PreferenceManager.getDefaultSharedPreferences(this).unregisterOnSharedPreferenceChangeListener(this);
+		}
+		super.onDestroy();
+	}
+
+	@Override
+	public boolean onSample(SensorEvent event, Bundle message) {
+		float[] values = event.values;
+
+		if (event.sensor.getType() == secondaryType){
+			System.arraycopy(values, 0, secondary, 0, 3);
+			haveSecondary = true;
+			return false;
+		}
+		if (primaryType != TYPE_ROTATION_VECTOR) filterGravity(values, event.timestamp);
+		if (!haveSecondary) return false;
+
+		if (primaryType == TYPE_ROTATION_VECTOR){
+			// the rotation vector is x, y, z of the quaternion, w is implied before API level 18
+			float x = values[0], y = values[1], z = values[2];
+			float w = (values.length > 3) ? values[3] : (float)Math.sqrt(Math.max(0, 1 - x*x - y*y - z*z));
+			setQuaternion(w, x, y, z);
+			setAcceleration(secondary[0], secondary[1], secondary[2]);
+		}
+		else {
+			// free fall or next to a magnet
+			if (!SensorManager.getRotationMatrix(rotation, null, gravity, secondary)) return false;
+			setQuaternion(rotation);
+			setAcceleration(values[0] - gravity[0], values[1] - gravity[1], values[2] - gravity[2]);
+		}
+
+		if (DEBUG) Log.d(TAG, "send: q:" + frame[0] + " " + frame[1] + " " + frame[2] + " " + frame[3]
+				+ " a:" + frame[4] + " " + frame[5] + " " + frame[6]);
+		message.putInt(AmarinoIntent.EXTRA_DATA_TYPE, AmarinoIntent.FLOAT_ARRAY_EXTRA);
+		message.putFloatArray(AmarinoIntent.EXTRA_DATA, frame.clone());
+		return true;
+	}
+
+	/* the rate limiter decides how often samples come, alpha follows the time between them,
+	 * so the filter keeps its time constant at any frequency setting */
+	private void filterGravity(float[] values, long timestamp){
+		if (!haveGravity){
+			System.arraycopy(values, 0, gravity, 0, 3);
+			haveGravity = true;
+		}
+		else {
+			float dt = Math.max(0, timestamp - gravityTimestamp) / 1e9f;
+			float alpha = GRAVITY_TIME_CONSTANT / (GRAVITY_TIME_CONSTANT + dt);
+			for (int i=0; i<3; i++)
+				gravity[i] = alpha * gravity[i] + (1 - alpha) * values[i];
+		}
+		gravityTimestamp = timestamp;
+	}
+
+	/* a rotation matrix as built by SensorManager.getRotationMatrix(), row by row */
+	private void setQuaternion(float[] r){
+		float trace = r[0] + r[4] + r[8];
+		float s;
+		if (trace > 0){
+			s = (float)Math.sqrt(trace + 1) * 2;
+			setQuaternion(s / 4, (r[7] - r[5]) / s, (r[2] - r[6]) / s, (r[3] - r[1]) / s);
+		}
+		else if (r[0] > r[4] && r[0] > r[8]){
+			s = (float)Math.sqrt(1 + r[0] - r[4] - r[8]) * 2;
+			setQuaternion((r[7] - r[5]) / s, s / 4, (r[1] + r[3]) / s, (r[2] + r[6]) / s);
+		}
+		else if (r[4] > r[8]){
+			s = (float)Math.sqrt(1 + r[4] - r[0] - r[8]) * 2;
+			setQuaternion((r[2] - r[6]) / s, (r[1] + r[3]) / s, s / 4, (r[5] + r[7]) / s);
+		}
+		else {
+			s = (float)Math.sqrt(1 + r[8] - r[0] - r[4]) * 2;
+			setQuaternion((r[3] - r[1]) / s, (r[2] + r[6]) / s, (r[5] + r[7]) / s, s / 4);
+		}
+	}
+
+	private void setQuaternion(float w, float x, float y, float z){
+		// q and -q are the same rotation, a positive w keeps the values from flipping
+		float sign = (w < 0) ? -1 : 1;
+		frame[0] = round(sign * w, 10000);
+		frame[1] = round(sign * x, 10000);
+		frame[2] = round(sign * y, 10000);
+		frame[3] = round(sign * z, 10000);
+	}
+
+	private void setAcceleration(float x, float y, float z){
+		frame[4] = round(x, 100);
+		frame[5] = round(y, 100);
+		frame[6] = round(z, 100);
+	}
+
+	/* fewer digits make shorter messages, the sensors are not more precise anyway */
+	private static float round(float value, int scale){
+		return (float)Math.round(value * scale) / scale;
+	}
+
+	private void setRate(float rate){
+		rateLimiter.setRate(rate);
+		secondaryLimiter.setRate(rate);
+	}
+
+
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences prefs,
+			String key) {
+		if (EditActivity.PREF_FREQUENCY.equals(key)){
+			setRate(getSampleRate(EditActivity.getRate(prefs.getInt(key, 50))));
+			// a slower rate lets the sensors sleep longer
+			if (pluginEnabled){
+				hub.rateChanged(primaryType);
+				hub.rateChanged(secondaryType);
+			}
+		}
+	}
+
+
+	@Override
+	public String getTAG() {
+		return TAG;
+	}
+
+}
@@ -10,6 +10,7 @@ import android.view.View.OnClickListener;
 import android.widget.Spinner;
 import at.abraxas.amarino.AmarinoIntent;
 import at.abraxas.amarino.plugins.Constants;
+import at.abraxas.amarino.plugins.FilterPanel;
 import at.abraxas.amarino.plugins.R;
 
 public class EditActivity extends Activity {
@@ -21,6 +22,7 @@ public class EditActivity extends Activity {
 	private static final String TAG = "LightSensor EditActivity";
 	
 	Spinner visualizer;
+	FilterPanel filter;
 	int pluginId;
 	
 	private boolean cancelled = true;
@@ -46,6 +48,7 @@ public class EditActivity extends Activity {
         visualizer =(Spinner)findViewById(R.id.visualizer);
         // init as text visualizer, this is the most common one
         visualizer.setSelection(PreferenceManager.getDefaultSharedPreferences(this).getInt(KEY_VISUALIZER, 0));
+        filter = new FilterPanel(this, "at.abraxas.amarino.plugins.lightsensor");
         
         findViewById(R.id.saveBtn).setOnClickListener(new OnClickListener() {
 			
@@ -98,6 +101,8 @@ public class EditActivity extends Activity {
 			returnIntent.putExtra(AmarinoIntent.EXTRA_VISUALIZER_MAX_VALUE, 
 					Constants.getMaxSensorRange(this, Sensor.TYPE_LIGHT, 11000f));
 			
+			filter.putExtras(returnIntent);
+			
 			setResult(RESULT_OK, returnIntent);
 		}
 		super.finish();
@@ -28,6 +28,13 @@
 #include "HardwareSerial.h"
 #include "MeetAndroid.h"
 
+// bytes Android may send ahead of Arduino reading them, the receive buffer of the serial port holds one less than its size
+#if defined(SERIAL_RX_BUFFER_SIZE)
+#define CreditWindow (SERIAL_RX_BUFFER_SIZE - 1)
+#else
+#define CreditWindow 63
+#endif
+
 extern "C" {
 #include <stdlib.h>
 }
@@ -35,7 +42,41 @@ extern "C" {
 
 // Private methods
 void MeetAndroid::processCommand(){
-	if(buffer[0]-FunctionBufferOffset < FunctionBufferLenght){
+	if(buffer[0] == aliveFlag){
+		if(bufferCount == 3 && buffer[1] == creditFlag){
+			// Android paces its messages from now on, count from here.
+			// The credits go first, Android stops pacing on an answer without them.
+			creditEnabled = true;
+			creditHello = buffer[2];
+			creditConsumed = 0;
+			sendCredit();
+		}
+		// heartbeat from Amarino, answer right away so the round trip time can be measured.
+		// Android knows the version, no need to announce it while heartbeats keep coming.
+		announceAt = millis() + AnnounceQuiet;
+		Serial.print(startFlag);
+		Serial.print(aliveFlag);
+		Serial.print(ack);
+		return;
+	}
+	if(buffer[0] == requestFlag){
+		processRequest();
+		return;
+	}
+	if(buffer[0] == reliableFlag){
+		processReliable();
+		return;
+	}
+	if(buffer[0] == streamFlag){
+		// dropped if streams are switched off
+#if StreamSlots > 0
+		processStream();
+#endif
+		return;
+	}
+	stripFixed();
+	// flags below '0' would index intFunc out of bounds
+	if(buffer[0] >= FunctionBufferOffset && buffer[0]-FunctionBufferOffset < FunctionBufferLenght){
 		void (*H_FuncPtr)(uint8_t, uint8_t) = intFunc[buffer[0]-FunctionBufferOffset];
 		if (H_FuncPtr != 0) {
 			H_FuncPtr(buffer[0], getArrayLength());
@@ -55,16 +96,316 @@ void MeetAndroid::processCommand(){
 	}
 }
 
+// requestFlag, 4 hex digits of the request id and an ordinary message
+void MeetAndroid::processRequest(){
+	if(bufferCount < 6) return; // no flag, nothing to answer
+	uint16_t id = 0;
+	for(uint8_t a = 1; a < 5; a++){
+		int8_t digit = hexDigit(buffer[a]);
+		if(digit < 0) return;
+		id = (id << 4) | digit;
+	}
+	// strip the request header, handlers get the message as usual
+	bufferCount -= 5;
+	for(uint8_t a = 0; a < bufferCount; a++){
+		buffer[a] = buffer[a+5];
+	}
+	stripFixed();
+	requestId = id;
+	inRequest = true;
+	replied = false;
+	
+	H_voidFuncPtr H_FuncPtr = 0;
+	if(buffer[0] >= FunctionBufferOffset && buffer[0]-FunctionBufferOffset < FunctionBufferLenght)
+		H_FuncPtr = intFunc[buffer[0]-FunctionBufferOffset];
+	if(H_FuncPtr != 0 && H_FuncPtr != errorFunc){
+		H_FuncPtr(buffer[0], getArrayLength());
+		// functions which do not reply still confirm the request was executed
+		if(!replied) reply("");
+	}
+	else {
+		replyError("Flag not registered");
+	}
+	inRequest = false;
+}
+
+// reliableFlag and 2 hex digits of the sequence number, then an ordinary message.
+// Without a message the frame is a sync, the digits are a new epoch.
+void MeetAndroid::processReliable(){
+	if(bufferCount < 3) return;
+	int8_t high = hexDigit(buffer[1]);
+	int8_t low = hexDigit(buffer[2]);
+	if(high < 0 || low < 0) return;
+	uint8_t value = (high << 4) | low;
+	
+	if(bufferCount == 3){
+		// Android starts over, a repeated sync must not start over again
+		if(value != reliableEpoch){
+			reliableEpoch = value;
+			reliableNext = 0;
+#if ReliableWindow > 1
+			for(uint8_t s = 0; s < ReliableWindow-1; s++) heldCount[s] = 0;
+#endif
+		}
+		sendReliableAck();
+		return;
+	}
+	
+	uint8_t ahead = value - reliableNext;
+	if(ahead == 0){
+		// strip the header, handlers get the message as usual
+		bufferCount -= 3;
+		for(uint8_t a = 0; a < bufferCount; a++){
+			buffer[a] = buffer[a+3];
+		}
+		processCommand();
+		reliableNext++;
+#if ReliableWindow > 1
+		// deliver what was held back because of the missing frame
+		uint8_t s = reliableNext % (ReliableWindow-1);
+		while(heldCount[s] > 0 && heldSeq[s] == reliableNext){
+			bufferCount = heldCount[s];
+			for(uint8_t a = 0; a < bufferCount; a++){
+				buffer[a] = held[s][a];
+			}
+			heldCount[s] = 0;
+			processCommand();
+			reliableNext++;
+			s = reliableNext % (ReliableWindow-1);
+		}
+#endif
+	}
+#if ReliableWindow > 1
+	else if(ahead < ReliableWindow){
+		uint8_t s = value % (ReliableWindow-1);
+		if(heldCount[s] == 0){
+			heldSeq[s] = value;
+			heldCount[s] = bufferCount - 3;
+			for(uint8_t a = 0; a < heldCount[s]; a++){
+				held[s][a] = buffer[a+3];
+			}
+		}
+	}
+#endif
+	// anything else was delivered before or is beyond the window
+	sendReliableAck();
+}
+
+#if StreamSlots > 0
+// streamFlag, the flag, a header and the values, see sendStream().
+// Differences are only taken if the message before arrived, otherwise the flag waits for the next key frame.
+void MeetAndroid::processStream(){
+	if(bufferCount < 3) return;
+	uint8_t flag = buffer[1];
+	uint8_t header = buffer[2];
+	if((header & 0xc0) != 0x40) return;
+	bool key = header & 0x20;
+	uint8_t seq = header & 0x1f;
+	
+	int8_t s = -1;
+	for(uint8_t i = 0; i < StreamSlots; i++){
+		if(streamOwner[i] == flag) s = i;
+	}
+	if(s < 0){
+		if(!key) return;
+		for(uint8_t i = 0; i < StreamSlots && s < 0; i++){
+			if(streamOwner[i] == 0) s = i;
+		}
+		if(s < 0){
+			s = streamEvict;
+			streamEvict = (streamEvict + 1) % StreamSlots;
+		}
+		streamOwner[s] = flag;
+	}
+	
+	// a truncated message would give wrong values
+	bool broken = overrun || (bufferCount > 3 && (buffer[bufferCount-1] & 0x20));
+	uint8_t count = 0;
+	for(uint8_t a = 3; a < bufferCount; a++){
+		if((buffer[a] & 0xc0) != 0x40) broken = true;
+		if(!(buffer[a] & 0x20)) count++;
+	}
+	if(broken || count > StreamValues || (!key && (seq != streamSeq[s] || count != streamCount[s]))){
+		streamSeq[s] = 0xff;
+		return;
+	}
+	
+	uint8_t v = 0;
+	uint8_t shift = 0;
+	uint32_t z = 0;
+	for(uint8_t a = 3; a < bufferCount; a++){
+		if(shift < 32) z |= (uint32_t)(buffer[a] & 0x1f) << shift;
+		shift += 5;
+		if(!(buffer[a] & 0x20)){
+			uint32_t d = (z >> 1) ^ (0 - (z & 1));
+			streamValues[s][v] = key ? (long)d : (long)((uint32_t)streamValues[s][v] + d);
+			v++;
+			z = 0;
+			shift = 0;
+		}
+	}
+	streamCount[s] = count;
+	streamSeq[s] = (seq + 1) & 0x1f;
+	
+	// the function of the flag gets the values as if they were sent as text
+	buffer[0] = flag;
+	bufferCount = 1;
+	streamCurrent = s;
+	processCommand();
+	streamCurrent = -1;
+}
+#endif
+
+// fixedFlag and a digit of the decimals after the flag, the values are integers after that.
+// Handlers see the integers as if they were sent as text, getDecimals() tells how to scale them.
+void MeetAndroid::stripFixed(){
+	decimals = 0;
+	if(bufferCount < 3 || buffer[1] != fixedFlag || buffer[2] < '1' || buffer[2] > '9') return;
+	decimals = buffer[2] - '0';
+	bufferCount -= 2;
+	for(uint8_t a = 1; a < bufferCount; a++){
+		buffer[a] = buffer[a+2];
+	}
+}
+
+// epoch, next sequence number, bitmap of held frames after it and the window
+void MeetAndroid::sendReliableAck(){
+	uint8_t bitmap = 0;
+#if ReliableWindow > 1
+	for(uint8_t i = 0; i < ReliableWindow-1; i++){
+		uint8_t seq = reliableNext + 1 + i;
+		uint8_t s = seq % (ReliableWindow-1);
+		if(heldCount[s] > 0 && heldSeq[s] == seq) bitmap |= 1 << i;
+	}
+#endif
+	Serial.print(startFlag);
+	Serial.print(reliableFlag);
+	printHex(reliableEpoch, 2);
+	printHex(reliableNext, 2);
+	printHex(bitmap, 2);
+	printHex(ReliableWindow, 1);
+	Serial.print(ack);
+}
+
+// the heartbeat counted from, bytes read since as 4 hex digits and the room in the receive buffer
+void MeetAndroid::sendCredit(){
+	Serial.print(startFlag);
+	Serial.print(creditFlag);
+	Serial.print(creditHello);
+	printHex(creditConsumed, 4);
+	printHex(CreditWindow, 2);
+	Serial.print(ack);
+	creditReported = creditConsumed;
+}
+
+// leads a reply with the request id, a plain message outside of a request
+void MeetAndroid::beginReply(char flag){
+	Serial.print(startFlag);
+	if(!inRequest) return;
+	Serial.print(flag);
+	printHex(requestId, 4);
+	replied = true;
+}
+
+// the version as 2 hex digits after the alive flag, older versions never send it
+void MeetAndroid::announce(){
+	Serial.print(startFlag);
+	Serial.print(aliveFlag);
+	printHex(_MEET_ANDROID_VERSION, 2);
+	Serial.print(ack);
+}
+
+void MeetAndroid::printHex(uint16_t value, uint8_t digits){
+	while(digits-- > 0){
+		uint8_t digit = (value >> (4 * digits)) & 0x0f;
+		Serial.print((char)((digit < 10) ? '0' + digit : 'A' + digit - 10));
+	}
+}
+
+#if StreamSlots > 0
+// zigzag coded, small negative values stay small, 5 bits per character, least significant first
+void MeetAndroid::printVarint(long value){
+	uint32_t z = ((uint32_t)value << 1) ^ (uint32_t)(value >> 31);
+	while(z > 0x1f){
+		Serial.print((char)(0x60 | (z & 0x1f)));
+		z >>= 5;
+	}
+	Serial.print((char)(0x40 | z));
+}
+#endif
+
+// the integer starting at pos, pos is moved past the delimiter after it
+long MeetAndroid::parseLong(uint8_t &pos){
+	bool negative = pos < bufferCount && buffer[pos] == '-';
+	if(negative) pos++;
+	long value = 0;
+	while(pos < bufferCount && buffer[pos] != delimiter){
+		if(buffer[pos] >= '0' && buffer[pos] <= '9') value = value * 10 + (buffer[pos] - '0');
+		pos++;
+	}
+	pos++;
+	return negative ? -value : value;
+}
+
+float MeetAndroid::fixedScale(){
+	float scale = 1;
+	for(uint8_t d = 0; d < decimals; d++) scale *= 10;
+	return scale;
+}
+
+int8_t MeetAndroid::hexDigit(uint8_t c){
+	if(c >= '0' && c <= '9') return c - '0';
+	if(c >= 'A' && c <= 'F') return c - 'A' + 10;
+	if(c >= 'a' && c <= 'f') return c - 'a' + 10;
+	return -1;
+}
+
 
 void MeetAndroid::init()
 {
 	waitTime = 30;
+	aliveFlag = 17;
+	requestFlag = 20;
+	errorFlag = 21;
+	reliableFlag = 22;
+	creditFlag = 23;
+	streamFlag = 24;
+	fixedFlag = 25;
 	startFlag = 18;
 	ack = 19;
 	abord = 27;
 	delimiter = 59; //';'
 
 	numberOfValues = 0;
+	inRequest = false;
+	replied = false;
+	overrun = false;
+	decimals = 0;
+	// a first sync for epoch 0 is taken as repeated, the channel is at its start anyway
+	reliableEpoch = 0;
+	reliableNext = 0;
+#if ReliableWindow > 1
+	for(uint8_t s = 0; s < ReliableWindow-1; s++) heldCount[s] = 0;
+#endif
+#if StreamSlots > 0
+	for(uint8_t s = 0; s < StreamSlots; s++){
+		streamOwner[s] = 0;
+		streamSeq[s] = 0xff;
+		streamCount[s] = 0;
+	}
+	streamEvict = 0;
+	streamCurrent = -1;
+	// the first message sent is a key frame
+	streamSentCount = 0xff;
+	streamSentSeq = 0;
+	streamSinceKey = 0;
+#endif
+	creditEnabled = false;
+	creditHello = 0;
+	creditConsumed = 0;
+	creditReported = 0;
+	// announced with the first receive()
+	announceAt = millis();
 	
 	for(int a = 0;a < FunctionBufferLenght;a++){
 		intFunc[a] = errorFunc;
@@ -99,24 +440,38 @@ void MeetAndroid::unregisterFunction(uint8_t command){
 bool MeetAndroid::receive(){
 	uint8_t lastByte;
 	boolean timeout = false;
+	if((long)(millis() - announceAt) >= 0){
+		announce();
+		announceAt = millis() + AnnounceInterval;
+	}
 	while(!timeout)
 	{
 		while(Serial.available() > 0)
 		{
 			lastByte = Serial.read();
+			creditConsumed++;
 			
 			if(lastByte == abord){
 				flush();
 			}
 			else if(lastByte == ack){
-				processCommand();
+				// a truncated frame of the reliable channel is sent again, better drop it
+				if(!(overrun && buffer[0] == reliableFlag))
+					processCommand();
 				flush();
+				// new credits once the buffer is empty or half of it was read, Android may be waiting for them
+				if(creditEnabled && creditConsumed != creditReported
+					&& (Serial.available() <= 0 || (uint16_t)(creditConsumed - creditReported) >= CreditWindow / 2))
+					sendCredit();
 			}
 			else if(bufferCount < ByteBufferLenght){
 				buffer[bufferCount] = lastByte;
 				bufferCount++;
 			}
-			else return false;
+			else {
+				overrun = true;
+				return false;
+			}
 		}
 		
 		if(Serial.available() <= 0 && !timeout){
@@ -147,17 +502,14 @@ void MeetAndroid::getString(char string[]){
 
 int MeetAndroid::getInt()
 {
-	uint8_t b[bufferCount];
-	for(int a = 1;a < bufferCount;a++){
-		b[a-1] = buffer[a];
-	}
-
-	b[bufferCount-1] = '\0';
-	return atoi((char*)b);
+	return (int)getLong();
 }
 
 long MeetAndroid::getLong()
 {
+#if StreamSlots > 0
+	if(streamCurrent >= 0) return (streamCount[streamCurrent] > 0) ? streamValues[streamCurrent][0] : 0;
+#endif
 	uint8_t b[bufferCount];
 	for(int a = 1;a < bufferCount;a++){
 		b[a-1] = buffer[a];
@@ -174,6 +526,9 @@ float MeetAndroid::getFloat()
 
 int MeetAndroid::getArrayLength()
 {
+#if StreamSlots > 0
+	if(streamCurrent >= 0) return streamCount[streamCurrent];
+#endif
 	if (bufferCount == 1) return 0; // only a flag and ack was sent, not data attached
 	numberOfValues = 1;
 	// find the amount of values we got
@@ -185,6 +540,19 @@ int MeetAndroid::getArrayLength()
 
 void MeetAndroid::getFloatValues(float values[])
 {
+#if StreamSlots > 0
+	if(streamCurrent >= 0){
+		for(uint8_t i = 0; i < streamCount[streamCurrent]; i++) values[i] = streamValues[streamCurrent][i];
+		return;
+	}
+#endif
+	if(decimals > 0){
+		// integers and one division each, much faster than atof()
+		float scale = fixedScale();
+		uint8_t p = 1;
+		for(int i = 0; p < bufferCount; i++) values[i] = parseLong(p) / scale;
+		return;
+	}
 	int t = 0; // counter for each char based array
 	int pos = 0;
 
@@ -222,6 +590,12 @@ void MeetAndroid::getDoubleValues(float values[])
 // not tested yet
 void MeetAndroid::getIntValues(int values[])
 {
+#if StreamSlots > 0
+	if(streamCurrent >= 0){
+		for(uint8_t i = 0; i < streamCount[streamCurrent]; i++) values[i] = streamValues[streamCurrent][i];
+		return;
+	}
+#endif
 	int t = 0; // counter for each char based array
 	int pos = 0;
 
@@ -251,8 +625,41 @@ void MeetAndroid::getIntValues(int values[])
 }
 
 
+void MeetAndroid::getLongValues(long values[])
+{
+#if StreamSlots > 0
+	if(streamCurrent >= 0){
+		for(uint8_t i = 0; i < streamCount[streamCurrent]; i++) values[i] = streamValues[streamCurrent][i];
+		return;
+	}
+#endif
+	int pos = 0;
+	int start = 1; // start of first value
+	for (int end=1; end<=bufferCount;end++){
+		// a value ends with a delimiter or the message
+		if (end == bufferCount || buffer[end]==delimiter) {
+			char b[(end-start)+1]; // create container for one value plus '\0'
+			int t = 0;
+			for(int i = start;i < end;i++){
+				b[t++] = (char)buffer[i];
+			}
+			b[t] = '\0';
+			values[pos++] = atol(b);
+			start = end+1;
+		}
+	}
+}
+
+
 double MeetAndroid::getDouble()
 {
+#if StreamSlots > 0
+	if(streamCurrent >= 0) return getLong();
+#endif
+	if(decimals > 0){
+		uint8_t p = 1;
+		return parseLong(p) / fixedScale();
+	}
 	char b[bufferCount];
 	for(int a = 1;a < bufferCount;a++){
 		b[a-1] = (char)buffer[a];
@@ -328,10 +735,70 @@ void MeetAndroid::sendln(void){
 	Serial.print(ack);
 }
 
+void MeetAndroid::sendStream(const int values[], uint8_t count){
+	long v[count];
+	for(uint8_t i = 0; i < count; i++) v[i] = values[i];
+	sendStream(v, count);
+}
+
+// streamFlag, a header and the values: key frames carry them, other messages the differences to the last ones.
+// The header is 0x40, 0x20 for a key frame and a sequence number of 5 bits Android finds lost messages with.
+void MeetAndroid::sendStream(const long values[], uint8_t count){
+#if StreamSlots == 0
+	// streams are switched off, Android gets the same values as text
+	Serial.print(startFlag);
+	for(uint8_t i = 0; i < count; i++){
+		if(i > 0) Serial.print(delimiter);
+		Serial.print(values[i]);
+	}
+	Serial.print(ack);
+#else
+	bool key = count != streamSentCount || count > StreamValues || streamSinceKey >= StreamKeyframe-1;
+	Serial.print(startFlag);
+	Serial.print(streamFlag);
+	Serial.print((char)(0x40 | (key ? 0x20 : 0) | streamSentSeq));
+	for(uint8_t i = 0; i < count; i++){
+		printVarint(key ? values[i] : (long)((uint32_t)values[i] - (uint32_t)streamSent[i]));
+		if(i < StreamValues) streamSent[i] = values[i];
+	}
+	Serial.print(ack);
+	streamSentCount = count;
+	streamSentSeq = (streamSentSeq + 1) & 0x1f;
+	streamSinceKey = key ? 0 : streamSinceKey + 1;
+#endif
+}
+
+void MeetAndroid::reply(const char str[]){
+	beginReply(requestFlag);
+	Serial.print(str);
+	Serial.print(ack);
+}
+void MeetAndroid::reply(int n){
+	beginReply(requestFlag);
+	Serial.print(n);
+	Serial.print(ack);
+}
+void MeetAndroid::reply(long n){
+	beginReply(requestFlag);
+	Serial.print(n);
+	Serial.print(ack);
+}
+void MeetAndroid::reply(double n){
+	beginReply(requestFlag);
+	Serial.print(n);
+	Serial.print(ack);
+}
+void MeetAndroid::replyError(const char str[]){
+	beginReply(errorFlag);
+	Serial.print(str);
+	Serial.print(ack);
+}
+
 void MeetAndroid::flush(){
 	for(uint8_t a=0; a < ByteBufferLenght; a++){
 		buffer[a] = 0;
 	}
 	bufferCount = 0;
 	numberOfValues = 0;
+	overrun = false;
 }
@@ -32,6 +32,13 @@
 	  - some more optimizations
 	  - send functions added
 	  - names of most functions changed
+	  - heartbeats from Amarino are answered
+	  - requests from Amarino can be answered with reply()
+	  - frames of the reliable channel are acknowledged and delivered in order
+	  - Android is told how much of the receive buffer it may fill
+	  - integer arrays are sent and received as differences to the previous ones
+	  - floating point values are received as fixed-point integers
+  - the version of this library is announced until Amarino sends heartbeats
 	  
   last modified by Bonifaz Kaufmann 08 Dec 2011
 */
@@ -53,7 +60,26 @@ class MeetAndroid : public Print
 #define ByteBufferLenght 64
 #define FunctionBufferLenght 75 // 48-122 (in ascii: 0 - z)
 #define FunctionBufferOffset 48  // offset to calc the position in the function buffer ('0' should be stored in intFunc[0])
-#define _MEET_ANDROID_VERSION 4 // software version of this library
+#define _MEET_ANDROID_VERSION 11 // software version of this library
+// while no heartbeat arrived for AnnounceQuiet ms, Android is told the version every AnnounceInterval ms.
+// Android sends heartbeats and asks for credits only after it learned the version.
+#define AnnounceInterval 1000
+#define AnnounceQuiet 3000
+// frames of the reliable channel Android may send before waiting for an acknowledgement, 1 to 8.
+// Larger windows are faster on a slow link, but every frame beyond the first costs ByteBufferLenght bytes of RAM
+// in every sketch, reliable or not. Change it here (or with -D) if the board has RAM to spare, e.g. 4.
+#ifndef ReliableWindow
+#define ReliableWindow 1
+#endif
+// flags Android may stream integer arrays for at the same time and values each of them may have.
+// Every slot costs 4 bytes of RAM per value, sendStream() another 4 per value, thus streams are off (0 slots)
+// unless switched on here (or with -D), e.g. with 2 slots. While off sendStream() sends the values as text.
+#ifndef StreamSlots
+#define StreamSlots 0
+#endif
+#define StreamValues 8
+// sendStream() sends all values at least every so many messages, Android waits for them after losing one
+#define StreamKeyframe 16
 private:
 	// per object data
 	uint8_t bufferCount;
@@ -65,6 +91,47 @@ private:
 	char ack;
 	char delimiter;
 	char startFlag; // used to communicate with Android (leads each msg to Android)
+	char aliveFlag; // heartbeat sent by Android, echoed back immediately
+	char requestFlag; // leads a request from Android and the reply to it
+	char errorFlag; // leads the reply to a request which failed
+	char reliableFlag; // leads a frame of the reliable channel and its acknowledgement
+	char creditFlag; // Android asks for credits with a heartbeat carrying it, leads the credits
+	char streamFlag; // leads integer arrays sent as differences to the previous ones
+	char fixedFlag; // follows the flag of a message with fixed-point values, then the number of decimals
+	
+	uint16_t requestId; // id of the request being handled
+	bool inRequest;
+	bool replied;
+	
+	bool overrun; // the current frame did not fit into the buffer
+	uint8_t decimals; // of the fixed-point values being handled, 0 for a text message
+	uint8_t reliableEpoch; // changes whenever Android starts the reliable channel over
+	uint8_t reliableNext; // sequence number of the frame to deliver next
+	bool creditEnabled; // Android paces what it sends by the credits
+	char creditHello; // the heartbeat the bytes are counted from
+	uint16_t creditConsumed; // bytes read from the serial port since then
+	uint16_t creditReported;
+	unsigned long announceAt; // millis() at which the version is announced next
+#if ReliableWindow > 1
+	// frames received ahead of a missing one, stored at their sequence number modulo ReliableWindow-1
+	uint8_t held[ReliableWindow-1][ByteBufferLenght];
+	uint8_t heldCount[ReliableWindow-1]; // 0 if the slot is free
+	uint8_t heldSeq[ReliableWindow-1];
+#endif
+#if StreamSlots > 0
+	// the last values of each flag Android streams
+	uint8_t streamOwner[StreamSlots]; // the flag, 0 if the slot is free
+	uint8_t streamSeq[StreamSlots]; // sequence number expected next, 0xff until a key frame arrived
+	uint8_t streamCount[StreamSlots];
+	long streamValues[StreamSlots][StreamValues];
+	uint8_t streamEvict; // slot taken next if none is free
+	int8_t streamCurrent; // slot of the message being handled, -1 for a text message
+	// what sendStream() sent last
+	long streamSent[StreamValues];
+	uint8_t streamSentCount;
+	uint8_t streamSentSeq;
+	uint8_t streamSinceKey;
+#endif
 	
 	bool customErrorFunc;
 
@@ -76,6 +143,23 @@ private:
 
 	// private methods
 	void processCommand(void);
+	void processRequest(void);
+	void processReliable(void);
+#if StreamSlots > 0
+	void processStream(void);
+#endif
+	void stripFixed(void);
+	void sendReliableAck(void);
+	void sendCredit(void);
+	void announce(void);
+	void beginReply(char);
+	void printHex(uint16_t, uint8_t);
+#if StreamSlots > 0
+	void printVarint(long);
+#endif
+	static int8_t hexDigit(uint8_t);
+	long parseLong(uint8_t&);
+	float fixedScale(void);
 	void init(void);
 	int getArrayLength();
 
@@ -98,8 +182,12 @@ public:
 	float getFloat();
 	double getDouble();
 	void getIntValues(int[]);
+	void getLongValues(long[]);
 	void getFloatValues(float[]);
 	void getDoubleValues(float[]); // in Arduino double and float are the same
+	// values sent as fixed-point integers are multiplied by 10 to the power of it,
+	// getInt() and getLongValues() return them like that, getFloat() and getFloatValues() as they were
+	uint8_t getDecimals(){return decimals;}
 	
 	#if defined(ARDUINO) && ARDUINO >= 100
 	size_t write(uint8_t);
@@ -118,6 +206,17 @@ public:
     void send(long, int);
     void send(double);
     void sendln(void);
+    // Android gets the values separated by ';', only the differences to the last ones are sent
+    void sendStream(const int[], uint8_t);
+    void sendStream(const long[], uint8_t);
+    
+    // answer the request currently handled, outside of a request same as send()
+    bool isRequest(){return inRequest;}
+    void reply(const char[]);
+    void reply(int);
+    void reply(long);
+    void reply(double);
+    void replyError(const char[]);
 
 
 	uint16_t waitTime;
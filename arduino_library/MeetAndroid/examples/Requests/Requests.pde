@@ -0,0 +1,57 @@
+/*
+  Answers requests from Android, e.g. with
+  
+    AmarinoRpc rpc = new AmarinoRpc(context);
+    String value = rpc.call(DEVICE_ADDRESS, 'r', 5, 1000).get();
+  
+  Several requests may be on their way at the same time, every reply
+  carries the id of its request.
+  (needs Amarino app installed and running on Android)
+*/
+ 
+#include <MeetAndroid.h>
+
+MeetAndroid meetAndroid;
+
+void setup()  
+{
+  // use the baud rate your bluetooth module is configured to 
+  // not all baud rates are working well, i.e. ATMEGA168 works best with 57600
+  Serial.begin(57600); 
+  
+  meetAndroid.registerFunction(readAnalog, 'r');
+  meetAndroid.registerFunction(writeDigital, 'w');
+}
+
+void loop()
+{
+  meetAndroid.receive(); // you need to keep this in your loop() to receive events
+}
+
+/*
+ * 'r' pin: replies the value of the analog pin
+ */
+void readAnalog(byte flag, byte numOfValues)
+{
+  int pin = meetAndroid.getInt();
+  if (pin < 0 || pin > 5)
+    meetAndroid.replyError("no such pin");
+  else
+    meetAndroid.reply(analogRead(pin));
+}
+
+/*
+ * 'w' pin;value: sets a digital pin, the library confirms the request
+ * on its own since there is nothing to reply
+ */
+void writeDigital(byte flag, byte numOfValues)
+{
+  int values[2];
+  if (numOfValues != 2) {
+    meetAndroid.replyError("expected pin;value");
+    return;
+  }
+  meetAndroid.getIntValues(values);
+  pinMode(values[0], OUTPUT);
+  digitalWrite(values[0], values[1] ? HIGH : LOW);
+}